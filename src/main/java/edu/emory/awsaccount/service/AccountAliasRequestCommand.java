@@ -44,6 +44,7 @@ import org.openeai.transport.SyncService;
 import com.amazon.aws.moa.jmsobjects.provisioning.v1_0.AccountAlias;
 import com.amazon.aws.moa.objects.resources.v1_0.AccountAliasQuerySpecification;
 
+import edu.emory.awsaccount.service.provider.AccountAliasBulkQuery;
 import edu.emory.awsaccount.service.provider.AccountAliasProvider;
 import edu.emory.awsaccount.service.provider.ProviderException;
 
@@ -59,6 +60,7 @@ import edu.emory.awsaccount.service.provider.ProviderException;
 public class AccountAliasRequestCommand extends AwsAccountRequestCommand implements RequestCommand {
     private static String LOGTAG = "[AwsAccountAliasRequestCommand] ";
     private AccountAliasProvider m_provider;
+    private AccountAliasBulkQuery m_bulkQuery;
     private ProducerPool m_producerPool;
     public AccountAliasRequestCommand(CommandConfig cConfig) throws InstantiationException {
         super(cConfig);
@@ -123,6 +125,18 @@ public class AccountAliasRequestCommand extends AwsAccountRequestCommand impleme
             throw new InstantiationException(errMsg);
         }
 
+        // Initialize the bulk query, which queries the aliases of many
+        // accounts with the provider at the same time.
+        String maxParallelAliasQueries = getProperties().getProperty("maxParallelAliasQueries", "8");
+        try {
+            m_bulkQuery = new AccountAliasBulkQuery(getProvider(), Integer.parseInt(maxParallelAliasQueries));
+            logger.info(LOGTAG + "maxParallelAliasQueries is: " + maxParallelAliasQueries);
+        } catch (NumberFormatException nfe) {
+            String errMsg = "Invalid maxParallelAliasQueries property: " + maxParallelAliasQueries;
+            logger.fatal(LOGTAG + errMsg);
+            throw new InstantiationException(errMsg);
+        }
+
         // Get a SyncService to use to publish sync messages.
         try {
             ProducerPool pool = (ProducerPool) getAppConfig().getObject("SyncPublisher");
@@ -447,7 +461,26 @@ public class AccountAliasRequestCommand extends AwsAccountRequestCommand impleme
             List results = null;
             try {
                 long queryStartTime = System.currentTimeMillis();
-                results = getProvider().query(querySpec);
+                if (AccountAliasBulkQuery.isBulkQuery(querySpec.getAccountId())) {
+                    // A bulk query returns the aliases of the accounts that
+                    // could be queried. The reply has no place for the errors
+                    // of the other accounts, so they are logged, and the query
+                    // fails only if no account could be queried.
+                    AccountAliasBulkQuery.Result bulkResult = m_bulkQuery.query(querySpec);
+                    if (!bulkResult.getErrors().isEmpty()) {
+                        logger.warn(LOGTAG + "The aliases of " + bulkResult.getErrors().size() + " of " +
+                                bulkResult.getAccountCount() + " accounts could not be queried: " +
+                                bulkResult.getErrors());
+                        if (bulkResult.getErrors().size() == bulkResult.getAccountCount()) {
+                            throw new ProviderException("The aliases of none of the " +
+                                    bulkResult.getAccountCount() + " accounts could be queried. " +
+                                    "The errors are: " + bulkResult.getErrors());
+                        }
+                    }
+                    results = bulkResult.getAliases();
+                } else {
+                    results = getProvider().query(querySpec);
+                }
                 long queryTime = System.currentTimeMillis() - queryStartTime;
                 logger.info(LOGTAG + "Queried for AccountAlias in " + queryTime + "ms.");
             } catch (ProviderException pe) {
@@ -30,6 +30,7 @@ import org.openeai.moa.ActionableEnterpriseObject;
 
 import edu.emory.awsaccount.service.provider.ProviderException;
 import edu.emory.awsaccount.service.provider.StackProvider;
+import edu.emory.awsaccount.service.provider.UserNotificationBatchGenerator;
 import edu.emory.awsaccount.service.provider.UserNotificationProvider;
 
 /**
@@ -44,6 +45,8 @@ public class AccountNotificationSyncCommand extends AwsAccountSyncCommand implem
 
     private boolean m_verbose = false;
     private UserNotificationProvider m_provider = null;
+    private int m_generateRetries = 2;
+    private long m_generateRetryDelayInMillis = 1000;
     private String LOGTAG = "[AccountNotificationSyncCommand] ";
     private Category logger = org.openeai.OpenEaiObject.logger;
 
@@ -117,6 +120,21 @@ public class AccountNotificationSyncCommand extends AwsAccountSyncCommand implem
             throw new InstantiationException(errMsg);
         }
 
+        // Users whose UserNotifications fail are retried this many times,
+        // waiting twice as long before each retry.
+        try {
+            setGenerateRetries(Integer.parseInt(getProperties().getProperty("userNotificationRetries", "2")));
+            setGenerateRetryDelayInMillis(Long.parseLong(getProperties()
+                    .getProperty("userNotificationRetryDelayInMillis", "1000")));
+        } catch (NumberFormatException nfe) {
+            String errMsg = "Invalid userNotificationRetries or userNotificationRetryDelayInMillis " +
+                    "property. The exception is: " + nfe.getMessage();
+            logger.fatal(LOGTAG + errMsg);
+            throw new InstantiationException(errMsg);
+        }
+        logger.info(LOGTAG + "userNotificationRetries is: " + getGenerateRetries() +
+                ", userNotificationRetryDelayInMillis is: " + getGenerateRetryDelayInMillis());
+
         logger.info(LOGTAG + "Initialization complete.");
 
     }
@@ -284,24 +302,136 @@ public class AccountNotificationSyncCommand extends AwsAccountSyncCommand implem
                     + pe.getMessage();
             logger.error(LOGTAG + errMsg);
             // TODO: publish a Sync.Error-Sync
+            return;
         }
 
         // Create a UserNotification from the AccountNotification for each
-        // UserId.
-        ListIterator userIdIterator = userIds.listIterator();
-        while (userIdIterator.hasNext()) {
+        // UserId, retrying the users that failed. The retries sleep on the
+        // consumer thread, so keep userNotificationRetries and the retry
+        // delay small.
+        long startTime = System.currentTimeMillis();
+        Map<String, ProviderException> failures = generateWithRetries(getProvider(), userIds,
+                aNotification, getGenerateRetries(), getGenerateRetryDelayInMillis());
+        long time = System.currentTimeMillis() - startTime;
+        logger.info(LOGTAG + "Generated " + (userIds.size() - failures.size()) + " of " + userIds.size() +
+                " UserNotifications for account " + accountId + " in " + time + " ms.");
+        for (Map.Entry<String, ProviderException> failure : failures.entrySet()) {
+            String errMsg = "An error occurred generating the UserNotification for user " +
+                    failure.getKey() + ". The exception is: " + failure.getValue().getMessage();
+            logger.error(LOGTAG + errMsg);
+        }
+
+        return;
+    }
+
+    /**
+     * Generates the UserNotifications of a list of users, retrying the users
+     * that failed up to the given number of times, waiting twice as long
+     * before each retry.
+     *
+     * @return Map<String, ProviderException>, the errors of the users whose
+     * UserNotifications were not generated, by UserId.
+     */
+    static Map<String, ProviderException> generateWithRetries(UserNotificationProvider provider,
+            List<String> userIds,
+            com.amazon.aws.moa.jmsobjects.provisioning.v1_0.AccountNotification aNotification,
+            int retries, long retryDelay) {
+        String LOGTAG = "[AccountNotificationSyncCommand.generateWithRetries] ";
+        List<String> pendingUserIds = new ArrayList<>(userIds);
+        Map<String, ProviderException> failures = new LinkedHashMap<>();
+        for (int attempt = 0; attempt <= retries && !pendingUserIds.isEmpty(); attempt++) {
+            if (attempt > 0) {
+                org.openeai.OpenEaiObject.logger.info(LOGTAG + "Retrying the UserNotifications of " +
+                        pendingUserIds.size() + " users in " + retryDelay + " ms.");
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                retryDelay *= 2;
+            }
+            Map<String, ProviderException> attemptFailures =
+                    generateAll(provider, pendingUserIds, aNotification, attempt > 0);
+            failures.keySet().removeAll(pendingUserIds);
+            failures.putAll(attemptFailures);
+            pendingUserIds = retryableUserIds(provider, attemptFailures);
+        }
+        return failures;
+    }
+
+    /**
+     * Generates the UserNotifications of a list of users, all at once if the
+     * provider can. On a retry, a provider that generates all at once first
+     * looks for the UserNotifications whose create reached the service
+     * before failing.
+     *
+     * @return Map<String, ProviderException>, the errors of the users whose
+     * UserNotifications were not generated, by UserId.
+     */
+    private static Map<String, ProviderException> generateAll(UserNotificationProvider provider,
+            List<String> userIds,
+            com.amazon.aws.moa.jmsobjects.provisioning.v1_0.AccountNotification aNotification,
+            boolean retry) {
+        String LOGTAG = "[AccountNotificationSyncCommand.generateAll] ";
+        Category logger = org.openeai.OpenEaiObject.logger;
+        if (provider instanceof UserNotificationBatchGenerator) {
+            UserNotificationBatchGenerator generator = (UserNotificationBatchGenerator) provider;
+            logger.info(LOGTAG + "Generating the UserNotifications of " + userIds.size() + " users.");
+            return retry ? generator.retryAll(userIds, aNotification).getFailures()
+                    : generator.generateAll(userIds, aNotification).getFailures();
+        }
+
+        Map<String, ProviderException> failures = new LinkedHashMap<>();
+        for (String userId : userIds) {
             try {
-                String userId = (String) userIdIterator.next();
                 logger.info(LOGTAG + "Generating a UserNotfication for user: " + userId);
-                long startTime = System.currentTimeMillis();
-                getProvider().generate(userId, aNotification);
+                provider.generate(userId, aNotification);
             } catch (ProviderException pe) {
-
+                failures.put(userId, pe);
             }
+        }
+        return failures;
+    }
 
+    /**
+     * A failed create of a UserNotification is not retried by a provider
+     * that can't look for the UserNotification first, because the create
+     * may have reached the service and a retry would create a second one.
+     * Only failures to get a producer, which happen before anything is sent,
+     * are retried then.
+     *
+     * @return List<String>, the UserIds whose UserNotifications can be
+     * generated again.
+     */
+    private static List<String> retryableUserIds(UserNotificationProvider provider,
+            Map<String, ProviderException> failures) {
+        if (provider instanceof UserNotificationBatchGenerator) {
+            return new ArrayList<>(failures.keySet());
+        }
+        List<String> userIds = new ArrayList<>();
+        for (Map.Entry<String, ProviderException> failure : failures.entrySet()) {
+            if (failure.getValue().getCause() instanceof JMSException) {
+                userIds.add(failure.getKey());
+            }
         }
+        return userIds;
+    }
 
-        return;
+    private void setGenerateRetries(int retries) {
+        m_generateRetries = retries;
+    }
+
+    private int getGenerateRetries() {
+        return m_generateRetries;
+    }
+
+    private void setGenerateRetryDelayInMillis(long delay) {
+        m_generateRetryDelayInMillis = delay;
+    }
+
+    private long getGenerateRetryDelayInMillis() {
+        return m_generateRetryDelayInMillis;
     }
 
     private void setProvider(UserNotificationProvider provider) {
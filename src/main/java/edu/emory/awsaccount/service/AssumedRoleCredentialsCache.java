@@ -0,0 +1,365 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
+import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
+import com.amazonaws.services.securitytoken.model.AssumeRoleResult;
+import com.amazonaws.services.securitytoken.model.Credentials;
+import org.apache.log4j.Category;
+import org.openeai.OpenEaiObject;
+
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Session credentials of assumed roles, shared by all providers and steps.
+ * <P>
+ * Every client of a member account used to be built with new session
+ * credentials, which took a new STS client and an AssumeRole call for each
+ * request, step and region. This cache keeps the session credentials of each
+ * account and role and hands them out until shortly before they expire. The
+ * credentials are kept apart by master access key and role assumption
+ * duration, so providers configured with different ones never share them. The
+ * credentials are refreshed in the background when they reach the last
+ * quarter of their duration (at most the last five minutes), so a request
+ * rarely waits for STS. When several threads need credentials that are not
+ * in the cache at the same time, only one of them calls STS and the others
+ * wait for its result.
+ * <P>
+ * The credential providers returned by the cache read the credentials from
+ * the cache each time they are used, so a client that is kept longer than
+ * the role assumption duration keeps working.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class AssumedRoleCredentialsCache {
+
+    private static final String LOGTAG = "[AssumedRoleCredentialsCache] ";
+    private static final String ROLE_SESSION_NAME = "AwsAccountService";
+    private static final long EXPIRATION_MARGIN = 30 * 1000;
+    private static final long MAX_REFRESH_MARGIN = 5 * 60 * 1000;
+    private static final long PURGE_INTERVAL = 60 * 1000;
+    private static final AssumedRoleCredentialsCache s_instance = new AssumedRoleCredentialsCache();
+
+    /**
+     * Makes the STS client that assumes roles with a master access key.
+     */
+    interface StsClientFactory {
+        AWSSecurityTokenService create(String accessKeyId, String secretKey, String region);
+    }
+
+    /**
+     * A role assumed in an account with the master credentials.
+     */
+    private static class Role {
+        private final String m_key;
+        private final String m_accountId;
+        private final String m_roleArn;
+        private final String m_accessKeyId;
+        private final String m_secretKey;
+        private final String m_region;
+        private final int m_durationSeconds;
+
+        private Role(String accountId, String roleArn, String accessKeyId,
+                     String secretKey, String region, int durationSeconds) {
+            m_key = key(accountId, roleArn, accessKeyId, durationSeconds);
+            m_accountId = accountId;
+            m_roleArn = roleArn;
+            m_accessKeyId = accessKeyId;
+            m_secretKey = secretKey;
+            m_region = region;
+            m_durationSeconds = durationSeconds;
+        }
+    }
+
+    /**
+     * The session credentials of a role and when to refresh them.
+     */
+    private static class Entry {
+        private final BasicSessionCredentials m_credentials;
+        private final long m_refreshTime;
+        private final long m_expirationTime;
+
+        private Entry(BasicSessionCredentials credentials, long refreshTime,
+                      long expirationTime) {
+            m_credentials = credentials;
+            m_refreshTime = refreshTime;
+            m_expirationTime = expirationTime;
+        }
+
+        private boolean isUsable(long now) {
+            return now < m_expirationTime - EXPIRATION_MARGIN;
+        }
+    }
+
+    private final Category logger = OpenEaiObject.logger;
+    private final StsClientFactory m_stsClientFactory;
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> m_entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AWSSecurityTokenService> m_stsClients = new ConcurrentHashMap<>();
+    private final Set<String> m_refreshing = ConcurrentHashMap.newKeySet();
+    private final ExecutorService m_refresher;
+    private final AtomicLong m_hitCount = new AtomicLong();
+    private final AtomicLong m_missCount = new AtomicLong();
+    private final AtomicLong m_refreshCount = new AtomicLong();
+    private final AtomicLong m_refreshFailureCount = new AtomicLong();
+    private volatile long m_lastPurgeTime = System.currentTimeMillis();
+
+    public AssumedRoleCredentialsCache() {
+        this(AssumedRoleCredentialsCache::buildStsClient);
+    }
+
+    /**
+     * @param stsClientFactory, makes the STS clients that assume the roles.
+     */
+    AssumedRoleCredentialsCache(StsClientFactory stsClientFactory) {
+        m_stsClientFactory = stsClientFactory;
+        AtomicInteger threadCount = new AtomicInteger();
+        m_refresher = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "AssumedRoleCredentialsCache-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @return AssumedRoleCredentialsCache, the cache shared by all providers
+     * and steps.
+     */
+    public static AssumedRoleCredentialsCache getInstance() {
+        return s_instance;
+    }
+
+    /**
+     * Returns a credential provider for a role in an account. The session
+     * credentials are obtained before this method returns, so an error
+     * assuming the role is thrown here and not by the first use of a client.
+     *
+     * @param accountId, the account of the role.
+     * @param roleArn, the ARN of the role to assume.
+     * @param accessKeyId, the access key id of the master account.
+     * @param secretKey, the secret key of the master account.
+     * @param region, the region of the STS endpoint or null for the default.
+     * @param durationSeconds, the role assumption duration.
+     * @return AWSCredentialsProvider, a provider of the current session
+     * credentials of the role.
+     */
+    public AWSCredentialsProvider getCredentialsProvider(String accountId, String roleArn,
+                                                         String accessKeyId, String secretKey,
+                                                         String region, int durationSeconds) {
+        Role role = new Role(accountId, roleArn, accessKeyId, secretKey, region, durationSeconds);
+        getSessionCredentials(role);
+        return new AWSCredentialsProvider() {
+            @Override
+            public AWSCredentials getCredentials() {
+                return getSessionCredentials(role);
+            }
+
+            @Override
+            public void refresh() {
+                m_entries.remove(role.m_key);
+            }
+        };
+    }
+
+    /**
+     * @return long, the number of times credentials were found in the cache.
+     */
+    public long getHitCount() {
+        return m_hitCount.get();
+    }
+
+    /**
+     * @return long, the number of times a role was assumed because its
+     * credentials were not in the cache or had expired.
+     */
+    public long getMissCount() {
+        return m_missCount.get();
+    }
+
+    /**
+     * @return long, the number of times credentials were refreshed in the
+     * background.
+     */
+    public long getRefreshCount() {
+        return m_refreshCount.get();
+    }
+
+    /**
+     * @return long, the number of background refreshes that failed.
+     */
+    public long getRefreshFailureCount() {
+        return m_refreshFailureCount.get();
+    }
+
+    /**
+     * @return int, the number of roles in the cache.
+     */
+    public int size() {
+        return m_entries.size();
+    }
+
+    /**
+     * @return String, the key of the credentials of a role assumed with the
+     * given master access key and duration.
+     */
+    static String key(String accountId, String roleArn, String accessKeyId, int durationSeconds) {
+        return accountId + "|" + AwsClientRegistry.roleIdentity(roleArn, accessKeyId, durationSeconds);
+    }
+
+    private BasicSessionCredentials getSessionCredentials(Role role) {
+        long now = System.currentTimeMillis();
+        CompletableFuture<Entry> future = m_entries.get(role.m_key);
+        Entry entry = completedEntry(future);
+        if (entry != null && entry.isUsable(now)) {
+            m_hitCount.incrementAndGet();
+            if (now >= entry.m_refreshTime) {
+                refreshInBackground(role);
+            }
+            return entry.m_credentials;
+        }
+
+        // Assume the role unless another thread is already doing it.
+        CompletableFuture<Entry> load = new CompletableFuture<>();
+        CompletableFuture<Entry> current = m_entries.compute(role.m_key, (key, existing) -> {
+            if (existing != null && !existing.isDone()) {
+                return existing;
+            }
+            Entry e = completedEntry(existing);
+            return e != null && e.isUsable(now) ? existing : load;
+        });
+
+        if (current != load) {
+            m_hitCount.incrementAndGet();
+            try {
+                return current.join().m_credentials;
+            } catch (CompletionException ce) {
+                if (ce.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ce.getCause();
+                }
+                throw ce;
+            }
+        }
+
+        m_missCount.incrementAndGet();
+        purgeExpired(now);
+        try {
+            Entry e = assumeRole(role);
+            load.complete(e);
+            logger.info(LOGTAG + "Assumed " + role.m_roleArn + ". Hits: " +
+                    getHitCount() + ", misses: " + getMissCount() + ", refreshes: " +
+                    getRefreshCount() + ", roles: " + size() + ".");
+            return e.m_credentials;
+        } catch (RuntimeException re) {
+            m_entries.remove(role.m_key, load);
+            load.completeExceptionally(re);
+            throw re;
+        }
+    }
+
+    private void refreshInBackground(Role role) {
+        if (!m_refreshing.add(role.m_key)) {
+            return;
+        }
+        try {
+            m_refresher.execute(() -> {
+                try {
+                    m_entries.put(role.m_key, CompletableFuture.completedFuture(assumeRole(role)));
+                    m_refreshCount.incrementAndGet();
+                    logger.info(LOGTAG + "Refreshed " + role.m_roleArn + ". Hits: " +
+                            getHitCount() + ", misses: " + getMissCount() + ", refreshes: " +
+                            getRefreshCount() + ".");
+                } catch (RuntimeException re) {
+                    // The current credentials are used until they expire.
+                    m_refreshFailureCount.incrementAndGet();
+                    logger.warn(LOGTAG + "An error occurred refreshing " + role.m_roleArn +
+                            ". The exception is: " + re.getMessage());
+                } finally {
+                    m_refreshing.remove(role.m_key);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            m_refreshing.remove(role.m_key);
+        }
+    }
+
+    private Entry assumeRole(Role role) {
+        AssumeRoleRequest assumeRequest = new AssumeRoleRequest()
+                .withRoleArn(role.m_roleArn)
+                .withDurationSeconds(role.m_durationSeconds)
+                .withRoleSessionName(ROLE_SESSION_NAME);
+
+        long now = System.currentTimeMillis();
+        AssumeRoleResult assumeResult = getStsClient(role).assumeRole(assumeRequest);
+        Credentials credentials = assumeResult.getCredentials();
+
+        Date expiration = credentials.getExpiration();
+        long duration = role.m_durationSeconds * 1000L;
+        long expirationTime = expiration != null ? expiration.getTime() : now + duration;
+        long refreshTime = expirationTime - Math.min(MAX_REFRESH_MARGIN, duration / 4);
+
+        BasicSessionCredentials sessionCredentials = new BasicSessionCredentials(credentials.getAccessKeyId(),
+                credentials.getSecretAccessKey(), credentials.getSessionToken());
+        return new Entry(sessionCredentials, refreshTime, expirationTime);
+    }
+
+    private AWSSecurityTokenService getStsClient(Role role) {
+        return m_stsClients.computeIfAbsent(role.m_accessKeyId + "|" + role.m_region,
+                key -> m_stsClientFactory.create(role.m_accessKeyId, role.m_secretKey, role.m_region));
+    }
+
+    private static AWSSecurityTokenService buildStsClient(String accessKeyId, String secretKey,
+                                                          String region) {
+        // use the master account credentials to get the STS client
+        BasicAWSCredentials masterCredentials = new BasicAWSCredentials(accessKeyId, secretKey);
+        AWSSecurityTokenServiceClientBuilder builder = AWSSecurityTokenServiceClientBuilder.standard()
+                .withCredentials(new AWSStaticCredentialsProvider(masterCredentials))
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.STS, null));
+        if (region != null) {
+            builder.withRegion(region);
+        }
+        return builder.build();
+    }
+
+    private void purgeExpired(long now) {
+        if (now - m_lastPurgeTime < PURGE_INTERVAL) {
+            return;
+        }
+        m_lastPurgeTime = now;
+        m_entries.values().removeIf(f -> {
+            Entry e = completedEntry(f);
+            return e != null && now >= e.m_expirationTime;
+        });
+    }
+
+    private static Entry completedEntry(CompletableFuture<Entry> future) {
+        if (future == null || !future.isDone() || future.isCompletedExceptionally()) {
+            return null;
+        }
+        return future.join();
+    }
+}
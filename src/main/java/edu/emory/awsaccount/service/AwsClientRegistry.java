@@ -0,0 +1,322 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service;
+
+import com.amazonaws.AmazonWebServiceClient;
+import org.apache.log4j.Category;
+import org.openeai.OpenEaiObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * AWS SDK clients shared by all providers and steps.
+ * <P>
+ * Each AWS SDK client has its own HTTP connection pool, so building a new
+ * client for every request pays for new connections and TLS handshakes, and
+ * since the clients were never shut down, their pools leaked. The registry
+ * keeps one client for each service, account, region and credentials
+ * identity and hands it out again for later requests. The credentials
+ * identity is whatever determines the credentials of the client, usually
+ * the ARN of the assumed role or the access key id of the master account.
+ * Clients of assumed roles get their credentials from the
+ * AssumedRoleCredentialsCache, so a cached client never holds expired
+ * credentials.
+ * <P>
+ * A client is built outside the lock of the registry, so a slow build, such
+ * as one that assumes a role, holds up only the requests for the same
+ * client. Those wait for the one build in progress instead of starting
+ * their own.
+ * <P>
+ * Clients that have not been handed out for the idle timeout, and the least
+ * recently used clients when the registry is full, are removed from the
+ * registry. A removed client may still be in use by a request that got it
+ * earlier, so it is shut down only after another idle timeout.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class AwsClientRegistry {
+
+    private static final String LOGTAG = "[AwsClientRegistry] ";
+    private static final int DEFAULT_MAX_SIZE = 500;
+    private static final long DEFAULT_IDLE_TIMEOUT = 10 * 60 * 1000;
+    private static final AwsClientRegistry s_instance =
+            new AwsClientRegistry(DEFAULT_MAX_SIZE, DEFAULT_IDLE_TIMEOUT);
+
+    private static class Entry {
+        private final Object m_client;
+        private long m_lastUsedTime;
+
+        private Entry(Object client, long now) {
+            m_client = client;
+            m_lastUsedTime = now;
+        }
+    }
+
+    private final Category logger = OpenEaiObject.logger;
+    private final LinkedHashMap<String, Entry> m_clients = new LinkedHashMap<>(16, 0.75f, true);
+    private final List<Entry> m_retired = new ArrayList<>();
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> m_building =
+            new ConcurrentHashMap<>();
+    private int m_maxSize;
+    private long m_idleTimeout;
+    private long m_hitCount = 0;
+    private long m_createdCount = 0;
+    private long m_evictedCount = 0;
+    private long m_shutdownCount = 0;
+
+    /**
+     * @param maxSize, the maximum number of clients in the registry.
+     * @param idleTimeout, the number of milliseconds after which a client
+     * that has not been handed out is removed.
+     */
+    public AwsClientRegistry(int maxSize, long idleTimeout) {
+        m_maxSize = maxSize;
+        m_idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return AwsClientRegistry, the registry shared by all providers and
+     * steps.
+     */
+    public static AwsClientRegistry getInstance() {
+        return s_instance;
+    }
+
+    /**
+     * @return String, the identity of the session credentials of a role
+     * assumed with the given master access key and duration, the same as
+     * the key of the credentials in the AssumedRoleCredentialsCache.
+     */
+    public static String roleIdentity(String roleArn, String accessKeyId, int durationSeconds) {
+        return roleArn + "|" + accessKeyId + "|" + durationSeconds;
+    }
+
+    /**
+     * Returns the client of a service for an account, region and credentials
+     * identity, building it if the registry does not have one.
+     *
+     * @param service, the type of the client, for example AmazonEC2Client.class.
+     * @param accountId, the account the client connects to or null for
+     * the master account.
+     * @param region, the region of the client or null for the default.
+     * @param identity, the identity of the credentials of the client. For a
+     * client with the session credentials of an assumed role, use
+     * roleIdentity, so clients with credentials assumed with other master
+     * credentials or another duration are not shared.
+     * @param builder, builds the client if the registry does not have one.
+     * @return T, the shared client.
+     */
+    public <T> T getClient(Class<T> service, String accountId, String region,
+                           String identity, Supplier<? extends T> builder) {
+        String key = service.getName() + "|" + accountId + "|" + region + "|" + identity;
+        long now = System.currentTimeMillis();
+        List<Object> expired;
+        synchronized (this) {
+            expired = expire(now);
+        }
+        shutdown(expired);
+
+        T client = getRegisteredClient(service, key);
+        if (client != null) {
+            return client;
+        }
+
+        // Build the client, or wait for the build already in progress.
+        CompletableFuture<Object> build = new CompletableFuture<>();
+        CompletableFuture<Object> inProgress = m_building.putIfAbsent(key, build);
+        if (inProgress != null) {
+            try {
+                return service.cast(inProgress.join());
+            } catch (CompletionException ce) {
+                if (ce.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ce.getCause();
+                }
+                throw ce;
+            }
+        }
+        try {
+            // A build that finished just before this one started has
+            // already registered its client.
+            client = getRegisteredClient(service, key);
+            if (client == null) {
+                client = builder.get();
+                synchronized (this) {
+                    m_clients.put(key, new Entry(client, System.currentTimeMillis()));
+                    m_createdCount++;
+                    evictOverflow(System.currentTimeMillis());
+                    logger.info(LOGTAG + "Created a " + service.getSimpleName() +
+                            " client for account " + accountId + " in region " + region +
+                            ". " + getStatistics());
+                }
+            }
+            build.complete(client);
+            return client;
+        } catch (RuntimeException | Error e) {
+            build.completeExceptionally(e);
+            throw e;
+        } finally {
+            m_building.remove(key, build);
+        }
+    }
+
+    private synchronized <T> T getRegisteredClient(Class<T> service, String key) {
+        Entry entry = m_clients.get(key);
+        if (entry == null) {
+            return null;
+        }
+        m_hitCount++;
+        entry.m_lastUsedTime = System.currentTimeMillis();
+        return service.cast(entry.m_client);
+    }
+
+    /**
+     * Sets the maximum number of clients in the registry.
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        m_maxSize = maxSize;
+    }
+
+    /**
+     * Sets the number of milliseconds after which a client that has not
+     * been handed out is removed.
+     */
+    public synchronized void setIdleTimeout(long idleTimeout) {
+        m_idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return int, the number of clients in the registry.
+     */
+    public synchronized int size() {
+        return m_clients.size();
+    }
+
+    /**
+     * @return long, the number of times a client was handed out again.
+     */
+    public synchronized long getHitCount() {
+        return m_hitCount;
+    }
+
+    /**
+     * @return long, the number of clients built.
+     */
+    public synchronized long getCreatedCount() {
+        return m_createdCount;
+    }
+
+    /**
+     * @return long, the number of clients removed from the registry.
+     */
+    public synchronized long getEvictedCount() {
+        return m_evictedCount;
+    }
+
+    /**
+     * @return long, the number of clients shut down.
+     */
+    public synchronized long getShutdownCount() {
+        return m_shutdownCount;
+    }
+
+    /**
+     * @return String, the statistics of the registry for logging.
+     */
+    public synchronized String getStatistics() {
+        return "Clients: " + m_clients.size() + ", hits: " + m_hitCount +
+                ", created: " + m_createdCount + ", evicted: " + m_evictedCount +
+                ", awaiting shutdown: " + m_retired.size() + ", shut down: " +
+                m_shutdownCount + ".";
+    }
+
+    /**
+     * Removes and shuts down all clients.
+     */
+    public void shutdown() {
+        List<Object> clients = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : m_clients.values()) {
+                clients.add(entry.m_client);
+            }
+            for (Entry entry : m_retired) {
+                clients.add(entry.m_client);
+            }
+            m_evictedCount += m_clients.size();
+            m_clients.clear();
+            m_retired.clear();
+        }
+        shutdown(clients);
+    }
+
+    private List<Object> expire(long now) {
+        // Clients removed at least an idle timeout ago are no longer in use.
+        List<Object> expired = new ArrayList<>();
+        Iterator<Entry> retired = m_retired.iterator();
+        while (retired.hasNext()) {
+            Entry entry = retired.next();
+            if (now - entry.m_lastUsedTime >= 2 * m_idleTimeout) {
+                expired.add(entry.m_client);
+                retired.remove();
+            }
+        }
+
+        // The map is in access order, so the idle clients come first.
+        Iterator<Map.Entry<String, Entry>> it = m_clients.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (now - entry.m_lastUsedTime < m_idleTimeout) {
+                break;
+            }
+            it.remove();
+            m_retired.add(entry);
+            m_evictedCount++;
+        }
+        return expired;
+    }
+
+    private void evictOverflow(long now) {
+        Iterator<Map.Entry<String, Entry>> it = m_clients.entrySet().iterator();
+        while (m_clients.size() > m_maxSize && it.hasNext()) {
+            Entry entry = it.next().getValue();
+            it.remove();
+            // Shut the client down an idle timeout from now.
+            entry.m_lastUsedTime = now - m_idleTimeout;
+            m_retired.add(entry);
+            m_evictedCount++;
+        }
+    }
+
+    private void shutdown(List<Object> clients) {
+        for (Object client : clients) {
+            if (client instanceof AmazonWebServiceClient) {
+                try {
+                    ((AmazonWebServiceClient) client).shutdown();
+                } catch (RuntimeException re) {
+                    logger.warn(LOGTAG + "An error occurred shutting down a client. " +
+                            "The exception is: " + re.getMessage());
+                }
+            }
+            synchronized (this) {
+                m_shutdownCount++;
+            }
+        }
+    }
+}
@@ -0,0 +1,418 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.RetryUtils;
+import org.apache.log4j.Category;
+import org.openeai.OpenEaiObject;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of the calls this service makes to each AWS API.
+ * <P>
+ * AWS Organizations, STS and IAM have low account-level rate limits. Each
+ * provisioning, alias lookup and transit gateway check used to call them
+ * on its own, and under load the throttling responses were retried by each
+ * client until whole provisionings failed. All AWS calls now go through a
+ * token bucket for their service and target account. Every attempt,
+ * including the retries of the SDK, takes a token, and waits for one if the
+ * bucket is empty. A call that would wait longer than the maximum wait fails
+ * at once with a RateLimitExceededException instead of holding its thread.
+ * A bucket starts at the rate configured for its service. When AWS throttles
+ * a call, the rate of the bucket is halved, down to a tenth of the
+ * configured rate. Successful calls then raise it back to the configured
+ * rate over the recovery time, however many calls are made.
+ * <P>
+ * The rates are configured with the properties awsRateLimit.[service], in
+ * requests per second, and the maximum wait with awsRateLimitMaxWaitInMillis.
+ * <P>
+ * Clients take part by adding the request handler of their service and
+ * account when they are built. The number of requests, throttling
+ * responses and waits of each service are counted for the statistics.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class AwsRateLimiter {
+
+    public static final String CLOUDFORMATION = "cloudformation";
+    public static final String EC2 = "ec2";
+    public static final String IAM = "iam";
+    public static final String ORGANIZATIONS = "organizations";
+    public static final String S3 = "s3";
+    public static final String STS = "sts";
+    public static final String SUPPORT = "support";
+
+    private static final String LOGTAG = "[AwsRateLimiter] ";
+    private static final double DEFAULT_RATE = 10;
+    private static final double MIN_RATE_FRACTION = 0.1;
+    private static final long RATE_RECOVERY_TIME = 60 * 1000;
+    private static final long DEFAULT_MAX_WAIT = 30 * 1000;
+    private static final AwsRateLimiter s_instance = new AwsRateLimiter();
+
+    /**
+     * Thrown when a call would wait longer than the maximum wait for a token.
+     * The SDK does not retry it.
+     */
+    public static class RateLimitExceededException extends AmazonClientException {
+        public RateLimitExceededException(String message) {
+            super(message);
+        }
+
+        @Override
+        public boolean isRetryable() {
+            return false;
+        }
+    }
+
+    /**
+     * The token bucket of a service and account.
+     */
+    static class Bucket {
+        private final double m_maxRate;
+        private final double m_capacity;
+        private double m_rate;
+        private double m_tokens;
+        private long m_lastRefillTime;
+        private long m_lastRateChangeTime;
+
+        Bucket(double rate, long now) {
+            m_maxRate = rate;
+            m_capacity = Math.max(1, rate);
+            m_rate = rate;
+            m_tokens = m_capacity;
+            m_lastRefillTime = now;
+            m_lastRateChangeTime = now;
+        }
+
+        /**
+         * Takes a token, which may be one that is not there yet, unless
+         * waiting for it would take longer than the maximum wait.
+         *
+         * @return long, the number of milliseconds to wait for the token, or
+         * -1 if no token was taken.
+         */
+        synchronized long take(long now, long maxWait) {
+            refill(now);
+            if (m_tokens >= 1) {
+                m_tokens -= 1;
+                return 0;
+            }
+            long wait = (long) Math.ceil((1 - m_tokens) / m_rate * 1000);
+            if (wait > maxWait) {
+                return -1;
+            }
+            m_tokens -= 1;
+            return wait;
+        }
+
+        synchronized void throttled(long now) {
+            refill(now);
+            m_rate = Math.max(m_maxRate * MIN_RATE_FRACTION, m_rate / 2);
+            m_lastRateChangeTime = now;
+        }
+
+        /**
+         * Raises the rate in proportion to the time since it last changed,
+         * so it takes the recovery time to get from no calls back to the
+         * configured rate.
+         */
+        synchronized void succeeded(long now) {
+            if (m_rate < m_maxRate) {
+                refill(now);
+                double increase = m_maxRate * (now - m_lastRateChangeTime) / RATE_RECOVERY_TIME;
+                m_rate = Math.min(m_maxRate, m_rate + increase);
+            }
+            m_lastRateChangeTime = now;
+        }
+
+        synchronized double getRate() {
+            return m_rate;
+        }
+
+        private void refill(long now) {
+            m_tokens = Math.min(m_capacity, m_tokens + (now - m_lastRefillTime) * m_rate / 1000);
+            m_lastRefillTime = now;
+        }
+    }
+
+    /**
+     * The counters of a service.
+     */
+    private static class Counters {
+        private final AtomicLong m_requestCount = new AtomicLong();
+        private final AtomicLong m_throttleCount = new AtomicLong();
+        private final AtomicLong m_waitCount = new AtomicLong();
+        private final AtomicLong m_waitTime = new AtomicLong();
+        private final AtomicLong m_rejectedCount = new AtomicLong();
+    }
+
+    /**
+     * Takes a token before each attempt of a call and adjusts the rate of
+     * the bucket after it.
+     */
+    private class RateLimitingRequestHandler extends RequestHandler2 {
+        private final String m_service;
+        private final String m_accountId;
+
+        private RateLimitingRequestHandler(String service, String accountId) {
+            m_service = service;
+            m_accountId = accountId;
+        }
+
+        @Override
+        public void beforeAttempt(HandlerBeforeAttemptContext context) {
+            acquire(m_service, m_accountId);
+        }
+
+        @Override
+        public void afterAttempt(HandlerAfterAttemptContext context) {
+            Exception e = context.getException();
+            if (e instanceof AmazonServiceException && RetryUtils.isThrottlingException((AmazonServiceException) e)) {
+                throttled(m_service, m_accountId);
+            } else if (e == null) {
+                getBucket(m_service, m_accountId).succeeded(System.currentTimeMillis());
+            }
+        }
+    }
+
+    private final Category logger = OpenEaiObject.logger;
+    private final ConcurrentHashMap<String, Double> m_rates = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Bucket> m_buckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counters> m_counters = new ConcurrentHashMap<>();
+    private volatile long m_maxWait = DEFAULT_MAX_WAIT;
+
+    public AwsRateLimiter() {
+        // Requests per second, well below the documented limits, since other
+        // applications call the same accounts.
+        m_rates.put(CLOUDFORMATION, 5.0);
+        m_rates.put(EC2, 20.0);
+        m_rates.put(IAM, 10.0);
+        m_rates.put(ORGANIZATIONS, 5.0);
+        m_rates.put(S3, 50.0);
+        m_rates.put(STS, 20.0);
+        m_rates.put(SUPPORT, 5.0);
+    }
+
+    /**
+     * @return AwsRateLimiter, the rate limiter shared by all providers and
+     * steps.
+     */
+    public static AwsRateLimiter getInstance() {
+        return s_instance;
+    }
+
+    /**
+     * Sets the maximum number of requests per second to a service for each
+     * account. Buckets that already exist keep their rate.
+     */
+    public void setRate(String service, double requestsPerSecond) {
+        m_rates.put(service, requestsPerSecond);
+        logger.info(LOGTAG + "The rate of " + service + " is " + requestsPerSecond + " requests per second.");
+    }
+
+    /**
+     * Sets the rates and the maximum wait from the properties
+     * awsRateLimit.[service] and awsRateLimitMaxWaitInMillis. Services
+     * without a property keep their rate.
+     *
+     * @throws IllegalArgumentException if a value is not a positive number.
+     */
+    public void configure(Properties props) {
+        for (String name : props.stringPropertyNames()) {
+            if (name.startsWith("awsRateLimit.")) {
+                String value = props.getProperty(name);
+                double rate = Double.parseDouble(value);
+                if (!(rate > 0)) {
+                    throw new IllegalArgumentException(name + " is not a positive number: " + value);
+                }
+                setRate(name.substring("awsRateLimit.".length()), rate);
+            }
+        }
+        String maxWait = props.getProperty("awsRateLimitMaxWaitInMillis");
+        if (maxWait != null) {
+            setMaxWait(Long.parseLong(maxWait));
+        }
+    }
+
+    /**
+     * Sets the maximum number of milliseconds a call waits for a token
+     * before failing.
+     *
+     * @throws IllegalArgumentException if the wait is negative.
+     */
+    public void setMaxWait(long maxWait) {
+        if (maxWait < 0) {
+            throw new IllegalArgumentException("The maximum wait is negative: " + maxWait);
+        }
+        m_maxWait = maxWait;
+        logger.info(LOGTAG + "The maximum wait for a token is " + maxWait + " ms.");
+    }
+
+    /**
+     * @return long, the maximum number of milliseconds a call waits for a
+     * token before failing.
+     */
+    public long getMaxWait() {
+        return m_maxWait;
+    }
+
+    /**
+     * @return double, the maximum number of requests per second to a service
+     * for each account.
+     */
+    public double getRate(String service) {
+        return m_rates.getOrDefault(service, DEFAULT_RATE);
+    }
+
+    /**
+     * @return double, the current number of requests per second allowed to a
+     * service for an account, which is lower than the maximum after
+     * throttling.
+     */
+    public double getCurrentRate(String service, String accountId) {
+        return getBucket(service, accountId).getRate();
+    }
+
+    /**
+     * Returns a request handler to add to an AWS SDK client, which makes the
+     * calls of the client go through the bucket of the service and account.
+     *
+     * @param service, the name of the service, for example AwsRateLimiter.IAM.
+     * @param accountId, the account the client calls or null for the master
+     * account.
+     * @return RequestHandler2, the request handler.
+     */
+    public RequestHandler2 getRequestHandler(String service, String accountId) {
+        return new RateLimitingRequestHandler(service, accountId);
+    }
+
+    /**
+     * Takes a token from the bucket of a service and account, waiting for
+     * one if the bucket is empty.
+     *
+     * @throws RateLimitExceededException if the wait would be longer than
+     * the maximum wait.
+     */
+    public void acquire(String service, String accountId) {
+        Counters counters = getCounters(service);
+        counters.m_requestCount.incrementAndGet();
+        Bucket bucket = getBucket(service, accountId);
+        long wait = bucket.take(System.currentTimeMillis(), m_maxWait);
+        if (wait < 0) {
+            counters.m_rejectedCount.incrementAndGet();
+            String errMsg = "Too many calls to " + service + " for account " +
+                    (accountId == null ? "master" : accountId) + " are waiting at " +
+                    String.format("%.2f", bucket.getRate()) + " requests per second. " +
+                    "The call would wait longer than " + m_maxWait + " ms.";
+            logger.error(LOGTAG + errMsg);
+            throw new RateLimitExceededException(errMsg);
+        }
+        if (wait == 0) {
+            return;
+        }
+        counters.m_waitCount.incrementAndGet();
+        counters.m_waitTime.addAndGet(wait);
+        try {
+            TimeUnit.MILLISECONDS.sleep(wait);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Lowers the rate of the bucket of a service and account after AWS
+     * throttled a call.
+     */
+    public void throttled(String service, String accountId) {
+        Bucket bucket = getBucket(service, accountId);
+        bucket.throttled(System.currentTimeMillis());
+        long throttleCount = getCounters(service).m_throttleCount.incrementAndGet();
+        logger.warn(LOGTAG + "AWS throttled a call to " + service + " for account " +
+                (accountId == null ? "master" : accountId) + ". The rate is now " +
+                String.format("%.2f", bucket.getRate()) + " requests per second. Throttled calls to " +
+                service + ": " + throttleCount + ".");
+    }
+
+    /**
+     * @return long, the number of requests to a service.
+     */
+    public long getRequestCount(String service) {
+        return getCounters(service).m_requestCount.get();
+    }
+
+    /**
+     * @return long, the number of calls to a service that AWS throttled.
+     */
+    public long getThrottleCount(String service) {
+        return getCounters(service).m_throttleCount.get();
+    }
+
+    /**
+     * @return long, the number of requests to a service that waited for a
+     * token.
+     */
+    public long getWaitCount(String service) {
+        return getCounters(service).m_waitCount.get();
+    }
+
+    /**
+     * @return long, the total number of milliseconds requests to a service
+     * waited for a token.
+     */
+    public long getWaitTime(String service) {
+        return getCounters(service).m_waitTime.get();
+    }
+
+    /**
+     * @return long, the number of requests to a service that failed because
+     * they would have waited longer than the maximum wait.
+     */
+    public long getRejectedCount(String service) {
+        return getCounters(service).m_rejectedCount.get();
+    }
+
+    /**
+     * @return String, the counters of each service, for logging.
+     */
+    public String getStatistics() {
+        Map<String, String> stats = new TreeMap<>();
+        for (String service : m_counters.keySet()) {
+            stats.put(service, "requests=" + getRequestCount(service) +
+                    ", throttled=" + getThrottleCount(service) +
+                    ", waits=" + getWaitCount(service) +
+                    ", waitTime=" + getWaitTime(service) + "ms" +
+                    ", rejected=" + getRejectedCount(service));
+        }
+        return stats.toString();
+    }
+
+    private Bucket getBucket(String service, String accountId) {
+        return m_buckets.computeIfAbsent(service + "|" + accountId,
+                key -> new Bucket(getRate(service), System.currentTimeMillis()));
+    }
+
+    private Counters getCounters(String service) {
+        return m_counters.computeIfAbsent(service, key -> new Counters());
+    }
+}
@@ -11,9 +11,32 @@
 
 package edu.emory.awsaccount.service;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jms.JMSException;
 
@@ -28,10 +51,11 @@ import org.openeai.jms.producer.PointToPointProducer;
 import org.openeai.jms.producer.ProducerPool;
 import org.openeai.moa.EnterpriseObjectCreateException;
 import org.openeai.moa.EnterpriseObjectQueryException;
-import org.openeai.moa.XmlEnterpriseObjectException;
+import org.openeai.moa.EnterpriseObjectUpdateException;
 import org.openeai.moa.objects.resources.Result;
 import org.openeai.transport.RequestService;
 
+import com.amazon.aws.moa.jmsobjects.provisioning.v1_0.AccountNotification;
 import com.amazon.aws.moa.objects.resources.v1_0.Datetime;
 import com.amazon.aws.moa.objects.resources.v1_0.ServiceQuerySpecification;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
@@ -59,11 +83,16 @@ public class AwsServiceDetectionScheduledCommand extends AwsAccountScheduledComm
     private ProducerPool m_awsAccountServiceProducerPool = null;
     private final static String ACTIVE_AWS_SERVICE_STATUS = "active";
     private final static String DEPRECATED_AWS_SERVICE_STATUS = "deprecated";
+    private final static String UNSUBMITTED_FINGERPRINT = "unsubmitted";
     private final static String BLOCKED_PENDING_REVIEW_SITE_SERVICE_STATUS = "Blocked Pending Review";
     private final static String DEFAULT_SERVICE_URL = "https://aws.amazon.com/products/";
     private final static String DEFAULT_AWS_HIPAA_ELIGIBLE = "false";
     private final static String DEFAULT_SITE_HIPAA_ELIGIBLE = "false";
     private final static String DEFAULT_CREATE_USER = "AwsAccountService";
+    private boolean m_updateServices = false;
+    private String m_fingerprintFile = null;
+    private String m_notificationAccountId = null;
+    private ExecutorService m_executor = null;
 
     public AwsServiceDetectionScheduledCommand(CommandConfig cConfig) throws InstantiationException {
         super(cConfig);
@@ -100,6 +129,45 @@ public class AwsServiceDetectionScheduledCommand extends AwsAccountScheduledComm
         }
         setSecretKey(secretKey);
 
+        // Updates of existing services are only submitted when enabled.
+        setUpdateServices(Boolean.parseBoolean(getProperties().getProperty("updateServices", "false")));
+        logger.info(LOGTAG + "property updateServices: " + getUpdateServices());
+
+        // The fingerprint of the last catalog processed is kept in a file,
+        // if one is configured. The path must be absolute so it doesn't
+        // depend on the directory the service was started in.
+        m_fingerprintFile = getProperties().getProperty("serviceCatalogFingerprintFile");
+        if (m_fingerprintFile != null && !Paths.get(m_fingerprintFile).isAbsolute()) {
+            String errMsg = "The serviceCatalogFingerprintFile property " + m_fingerprintFile
+                    + " is not an absolute path. Can't continue.";
+            logger.error(LOGTAG + errMsg);
+            throw new InstantiationException(errMsg);
+        }
+        logger.info(LOGTAG + "property serviceCatalogFingerprintFile: " + m_fingerprintFile);
+
+        // Services added or removed by AWS are reported in an
+        // AccountNotification of this account, if there is one.
+        m_notificationAccountId = getProperties().getProperty("serviceChangeNotificationAccountId");
+        logger.info(LOGTAG + "property serviceChangeNotificationAccountId: " + m_notificationAccountId);
+
+        // Creates and updates are submitted in parallel, each holding a
+        // producer from the AwsAccountServiceProducerPool while it runs.
+        int maxParallelServiceRequests;
+        try {
+            maxParallelServiceRequests = Integer.parseInt(getProperties().getProperty("maxParallelServiceRequests", "4"));
+        } catch (NumberFormatException nfe) {
+            String errMsg = "Invalid maxParallelServiceRequests property. The exception is: " + nfe.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new InstantiationException(errMsg);
+        }
+        logger.info(LOGTAG + "property maxParallelServiceRequests: " + maxParallelServiceRequests);
+        AtomicInteger threadCount = new AtomicInteger();
+        m_executor = Executors.newFixedThreadPool(Math.max(1, maxParallelServiceRequests), r -> {
+            Thread t = new Thread(r, "AwsServiceDetection-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
         // This provider needs to send messages to the AWS account service
         // to create UserNotifications.
         ProducerPool p2p1 = null;
@@ -138,7 +206,9 @@ public class AwsServiceDetectionScheduledCommand extends AwsAccountScheduledComm
 
         // Create the Support client
         logger.info(LOGTAG + "Creating the Support client...");
-        AWSSupport support = AWSSupportClientBuilder.standard().withCredentials(cp).build();
+        AWSSupport support = AWSSupportClientBuilder.standard().withCredentials(cp)
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.SUPPORT, null))
+                .build();
 
         // Query for the list of AWS services to make sure all is working.
         /**
@@ -186,7 +256,9 @@ public class AwsServiceDetectionScheduledCommand extends AwsAccountScheduledComm
 
         // Create the Support client
         logger.info(LOGTAG + "Creating the Support client...");
-        AWSSupport support = AWSSupportClientBuilder.standard().withCredentials(cp).build();
+        AWSSupport support = AWSSupportClientBuilder.standard().withCredentials(cp)
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.SUPPORT, null))
+                .build();
 
         // Query for the list of AWS services to make sure all is working.
         DescribeServicesResult result = null;
@@ -214,79 +286,170 @@ public class AwsServiceDetectionScheduledCommand extends AwsAccountScheduledComm
             }
         }
 
-        // For each service in the AWS master list, query for a corresponding
-        // service in the Emory registry. If there is not one, create it.
-        // If there is one, update it.
-        ListIterator it = serviceList.listIterator();
-        while (it.hasNext()) {
-            com.amazonaws.services.support.model.Service service = (com.amazonaws.services.support.model.Service) it.next();
+        // Skip the reconciliation when the catalog is the same as on the last
+        // run. Otherwise only reconcile the services that changed. Without a
+        // fingerprint file, as on the first run, every service is reconciled.
+        Map<String, String> previousFingerprints = loadFingerprints();
+        Map<String, String> fingerprints = new TreeMap<>();
+        for (Service service : serviceList) {
+            fingerprints.put(service.getCode().toLowerCase(), fingerprint(service));
+        }
+        if (fingerprints.equals(previousFingerprints)) {
+            long executionTime = System.currentTimeMillis() - executionStartTime;
+            logger.info(LOGTAG + "The AWS service list has not changed since the last run. Command execution completed in "
+                    + executionTime + " ms.");
+            return 0;
+        }
+        boolean fullReconciliation = previousFingerprints == null;
+        List<Service> changedServices = new ArrayList<>();
+        List<Service> addedServices = new ArrayList<>();
+        for (Service service : serviceList) {
+            String code = service.getCode().toLowerCase();
+            if (fullReconciliation || !fingerprints.get(code).equals(previousFingerprints.get(code))) {
+                changedServices.add(service);
+                if (!fullReconciliation && !previousFingerprints.containsKey(code)) {
+                    addedServices.add(service);
+                }
+            }
+        }
+        Set<String> removedCodes = new TreeSet<>();
+        if (!fullReconciliation) {
+            removedCodes.addAll(previousFingerprints.keySet());
+            removedCodes.removeAll(fingerprints.keySet());
+        }
+        logger.info(LOGTAG + (fullReconciliation ? "No fingerprint of the last run. Reconciling all services."
+                : "Changed services: " + changedServices.size() + ", added: " + addedServices.size()
+                        + ", removed: " + removedCodes.size() + "."));
 
-            // Query for the AWS Service in the registry
-            com.amazon.aws.moa.jmsobjects.services.v1_0.Service aeoService = queryService(service.getCode());
+        // Fetch the whole registry once and index it by service code, so the
+        // AWS master list can be reconciled with it in a single pass.
+        List<com.amazon.aws.moa.jmsobjects.services.v1_0.Service> awsAccountServiceList = queryServices();
+        logger.info(LOGTAG + "Found " + awsAccountServiceList.size() + " services in the AWS Account Service registry.");
+        Map<String, com.amazon.aws.moa.jmsobjects.services.v1_0.Service> registryIndex = new HashMap<>();
+        for (com.amazon.aws.moa.jmsobjects.services.v1_0.Service awsAccountService : awsAccountServiceList) {
+            String code = awsAccountService.getAwsServiceCode();
+            if (code == null) {
+                continue;
+            }
+            if (registryIndex.putIfAbsent(code.toLowerCase(), awsAccountService) != null) {
+                logger.warn(LOGTAG + "More than one service in the registry has the ServiceCode " + code + ". Using the first.");
+            }
+        }
 
-            // If there is no service found in the AWS Account Service, create
-            // it.
+        // Services in the AWS master list that are not in the registry are
+        // created; services in both are updated if they differ. Whatever is
+        // left in the index is no longer in the AWS master list.
+        List<com.amazon.aws.moa.jmsobjects.services.v1_0.Service> creates = new ArrayList<>();
+        List<com.amazon.aws.moa.jmsobjects.services.v1_0.Service> updates = new ArrayList<>();
+        for (Service service : changedServices) {
+            com.amazon.aws.moa.jmsobjects.services.v1_0.Service aeoService = registryIndex.remove(service.getCode().toLowerCase());
             if (aeoService == null) {
                 logger.info(LOGTAG + "No service found in AWS Account Service " + "for the AWS Support Service: " + service.getName() + " ("
                         + service.getCode() + "). Creating a new service in the AWS " + "Account Service.");
-                com.amazon.aws.moa.jmsobjects.services.v1_0.Service newAeoService = buildAeoServiceFromAwsService(service);
-
-                createService(newAeoService);
-
-                String xmlService = null;
-                try {
-                    xmlService = newAeoService.toXmlString();
-                } catch (XmlEnterpriseObjectException xeoe) {
-                    String errMsg = "An error occurred serializing a " + "Service object to an XML string. The exception is: "
-                            + xeoe.getMessage();
-                    logger.error(LOGTAG + errMsg);
-                    throw new ScheduledCommandException(errMsg, xeoe);
-                }
+                creates.add(buildAeoServiceFromAwsService(service));
+            } else if (isServiceUpdateRequired(aeoService, service)) {
+                logger.info(LOGTAG + "Service found in AWS Account Service " + "for the AWS Support Service: " + service.getName()
+                        + " (" + service.getCode() + "). Updating existing service in the AWS " + "Account Service.");
+                updates.add(buildNewServiceState(aeoService, service));
+            } else if (getVerbose()) {
+                logger.info(LOGTAG + "Service found in AWS Account Service " + "for the AWS Support Service: " + service.getName()
+                        + " (" + service.getCode() + "). No update required. ");
+            }
+        }
 
-                logger.info(LOGTAG + "Created new service: " + xmlService);
+        List<com.amazon.aws.moa.jmsobjects.services.v1_0.Service> deprecations = new ArrayList<>();
+        Map<String, String> removedServiceNames = new TreeMap<>();
+        for (com.amazon.aws.moa.jmsobjects.services.v1_0.Service awsAccountService : registryIndex.values()) {
+            String code = awsAccountService.getAwsServiceCode().toLowerCase();
+            if (!fullReconciliation && !removedCodes.contains(code)) {
+                // Unchanged since the last run.
+                continue;
             }
+            removedServiceNames.put(code, awsAccountService.getAwsServiceName());
+            if (DEPRECATED_AWS_SERVICE_STATUS.equals(awsAccountService.getAwsStatus())) {
+                continue;
+            }
+            logger.info(LOGTAG + "Service named " + awsAccountService.getAwsServiceName() + " with code " + awsAccountService.getAwsServiceCode()
+                    + " was " + " not found in the AWS master service list. Updating this " + "service to have deprecated status.");
+            try {
+                awsAccountService.setAwsStatus(DEPRECATED_AWS_SERVICE_STATUS);
+            } catch (EnterpriseFieldException efe) {
+                String errMsg = "An error occurred setting the field " + "of the Service. The exception is: " + efe.getMessage();
+                logger.error(LOGTAG + errMsg);
+                throw new ScheduledCommandException(errMsg, efe);
+            }
+            deprecations.add(awsAccountService);
+        }
+        logger.info(LOGTAG + "Reconciled the service lists. Creates: " + creates.size() + ", updates: " + updates.size()
+                + ", deprecations: " + deprecations.size() + ".");
 
-            // If there is a service found in the AWS Account Service, determine
-            // if an update is required.
-            if (aeoService != null) {
-                if (isServiceUpdateRequired()) {
-                    logger.info(LOGTAG + "Service found in AWS Account Service " + "for the AWS Support Service: " + service.getName()
-                            + " (" + service.getCode() + "). Updating existing service in the AWS " + "Account Service.");
-                    // aeoService = buildNewServiceState(aeoService, service);
-                    // updateService(aeoService);
-                } else {
-                    logger.info(LOGTAG + "Service found in AWS Account Service " + "for the AWS Support Service: " + service.getName()
-                            + " (" + service.getCode() + "). No update required. ");
-                }
+        // Submit the changes, at most maxParallelServiceRequests at a time.
+        List<Future<?>> futures = new ArrayList<>();
+        for (com.amazon.aws.moa.jmsobjects.services.v1_0.Service newAeoService : creates) {
+            futures.add(m_executor.submit(() -> {
+                createService(newAeoService);
+                return null;
+            }));
+        }
+        if (getUpdateServices()) {
+            updates.addAll(deprecations);
+            for (com.amazon.aws.moa.jmsobjects.services.v1_0.Service aeoService : updates) {
+                futures.add(m_executor.submit(() -> {
+                    updateService(aeoService);
+                    return null;
+                }));
             }
+        } else if (updates.size() + deprecations.size() > 0) {
+            logger.info(LOGTAG + "The updateServices property is false. Not submitting " + (updates.size() + deprecations.size())
+                    + " updates.");
         }
 
-        // Iterate over the master list of Emory services. If any of these
-        // do not exist in the AWS master list, add them to the list of
-        // deprecated services.
-        List<com.amazon.aws.moa.jmsobjects.services.v1_0.Service> awsAccountServiceList = queryServices();
+        int failed = 0;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException ee) {
+                // The error has been logged. The remaining changes are still
+                // submitted and the failed ones are retried on the next run.
+                failed++;
+            } catch (InterruptedException ie) {
+                futures.forEach(f -> f.cancel(true));
+                Thread.currentThread().interrupt();
+                String errMsg = "Interrupted while submitting the service changes.";
+                logger.error(LOGTAG + errMsg);
+                throw new ScheduledCommandException(errMsg, ie);
+            }
+        }
+        if (failed > 0) {
+            String errMsg = failed + " of " + futures.size() + " service changes failed.";
+            logger.error(LOGTAG + errMsg);
+            throw new ScheduledCommandException(errMsg);
+        }
 
-        logger.info(LOGTAG + "Found " + awsAccountServiceList.size() + " services in the AWS Account Service registry.");
+        // Report the services AWS added or removed, then remember the catalog
+        // so the next run only sees newer changes. If either fails, the next
+        // run processes the same changes again. A removal that was already
+        // reported but not submitted is not reported again.
+        removedCodes.removeIf(code -> UNSUBMITTED_FINGERPRINT.equals(previousFingerprints.get(code)));
+        removedServiceNames.keySet().removeIf(code -> !fullReconciliation && !removedCodes.contains(code));
+        if (!addedServices.isEmpty() || !removedCodes.isEmpty()) {
+            for (String code : removedCodes) {
+                removedServiceNames.putIfAbsent(code, null);
+            }
+            createServiceChangeNotification(addedServices, removedServiceNames);
+        }
 
-        // Iterate over the list of deprecated services, updating each
-        // to have a status of deprecated.
-        ListIterator awsAccountServiceListIterator = awsAccountServiceList.listIterator();
-        while (awsAccountServiceListIterator.hasNext()) {
-            com.amazon.aws.moa.jmsobjects.services.v1_0.Service awsAccountService = (com.amazon.aws.moa.jmsobjects.services.v1_0.Service) awsAccountServiceListIterator
-                    .next();
-            if (isInAwsServiceList(awsAccountService.getAwsServiceCode(), serviceList) == false) {
-                logger.info("Service named " + awsAccountService.getAwsServiceName() + " with code " + awsAccountService.getAwsServiceName()
-                        + " was " + " not found in the AWS master service list. Updating this " + "service to have deprecated status.");
-                try {
-                    awsAccountService.setAwsStatus(DEPRECATED_AWS_SERVICE_STATUS);
-                } catch (EnterpriseFieldException efe) {
-                    String errMsg = "An error occurred setting the field " + "of the Service. The exception is: " + efe.getMessage();
-                    logger.error(LOGTAG + errMsg);
-                    throw new ScheduledCommandException(errMsg, efe);
-                }
-                // updateService(awsAccountService);
+        // The updates that were not submitted are remembered as such, so the
+        // next run reconciles their services again.
+        if (!getUpdateServices()) {
+            for (com.amazon.aws.moa.jmsobjects.services.v1_0.Service aeoService : updates) {
+                fingerprints.put(aeoService.getAwsServiceCode().toLowerCase(), UNSUBMITTED_FINGERPRINT);
+            }
+            for (com.amazon.aws.moa.jmsobjects.services.v1_0.Service aeoService : deprecations) {
+                fingerprints.put(aeoService.getAwsServiceCode().toLowerCase(), UNSUBMITTED_FINGERPRINT);
             }
         }
+        saveFingerprints(fingerprints);
 
         long executionTime = System.currentTimeMillis() - executionStartTime;
         logger.info(LOGTAG + "Command execution completed in " + executionTime + " ms.");
@@ -353,6 +516,14 @@ public class AwsServiceDetectionScheduledCommand extends AwsAccountScheduledComm
         return m_secretKey;
     }
 
+    private void setUpdateServices(boolean updateServices) {
+        m_updateServices = updateServices;
+    }
+
+    private boolean getUpdateServices() {
+        return m_updateServices;
+    }
+
     private void setAwsAccountServiceProducerPool(ProducerPool pool) {
         m_awsAccountServiceProducerPool = pool;
     }
@@ -361,15 +532,9 @@ public class AwsServiceDetectionScheduledCommand extends AwsAccountScheduledComm
         return m_awsAccountServiceProducerPool;
     }
 
-    private com.amazon.aws.moa.jmsobjects.services.v1_0.Service queryService(String awsServiceCode) throws ScheduledCommandException {
-
-        String LOGTAG = "[AwsServiceDetectionScheduledCommand.queryService] ";
+    private List<com.amazon.aws.moa.jmsobjects.services.v1_0.Service> queryServices() throws ScheduledCommandException {
 
-        if (awsServiceCode == null || awsServiceCode.equals("")) {
-            String errMsg = "No ServiceCode provided. Can't continue.";
-            logger.error(errMsg);
-            throw new ScheduledCommandException(errMsg);
-        }
+        String LOGTAG = "[AwsServiceDetectionScheduledCommand.queryServices] ";
 
         // Get a configured MOA Service and ServiceQuerySpecification object
         // from AppConfig
@@ -395,22 +560,14 @@ public class AwsServiceDetectionScheduledCommand extends AwsAccountScheduledComm
             throw new ScheduledCommandException(errMsg, jmse);
         }
 
-        // Set the values of the QuerySpec.
-        try {
-            querySpec.setAwsServiceCode(awsServiceCode);
-        } catch (EnterpriseFieldException efe) {
-            String errMsg = "An error occurred setting field values on the " + "object. The exception is: " + efe.getMessage();
-            logger.error(errMsg);
-            throw new ScheduledCommandException(errMsg, efe);
-        }
-
         // Query for the Service object.
         List<com.amazon.aws.moa.jmsobjects.services.v1_0.Service> results = null;
         try {
             long startTime = System.currentTimeMillis();
             results = service.query(querySpec, rs);
             long time = System.currentTimeMillis() - startTime;
-            logger.info(LOGTAG + "Queried the AWS Account Service for " + "Service object in " + time + " ms.");
+            logger.info(LOGTAG + "Queried the AWS Account Service for " + "Service objects in " + time + " ms. Found " + results.size()
+                    + " services.");
         } catch (EnterpriseObjectQueryException eoqe) {
             String errMsg = "An error occurred querying for the " + "Service object The exception is: " + eoqe.getMessage();
             logger.error(LOGTAG + errMsg);
@@ -424,36 +581,55 @@ public class AwsServiceDetectionScheduledCommand extends AwsAccountScheduledComm
 
         com.amazon.aws.moa.jmsobjects.services.v1_0.Service resultService = null;
 
-        if (results.size() == 1) {
-            resultService = results.get(0);
-        }
+        return results;
+    }
 
-        if (results.size() > 1) {
-            String errMsg = "Unexpected results. More than one service was " + "returned for ServiceCode " + awsServiceCode + ".";
-            logger.error(LOGTAG + errMsg);
-            throw new ScheduledCommandException(errMsg);
-        }
+    private void createService(com.amazon.aws.moa.jmsobjects.services.v1_0.Service service) throws ScheduledCommandException {
 
-        return resultService;
-    }
+        String LOGTAG = "[AwsServiceDetectionScheduledCommand.createService] ";
 
-    private List<com.amazon.aws.moa.jmsobjects.services.v1_0.Service> queryServices() throws ScheduledCommandException {
+        if (service == null) {
+            String errMsg = "No Service provided. Can't continue.";
+            logger.error(errMsg);
+            throw new ScheduledCommandException(errMsg);
+        }
 
-        String LOGTAG = "[AwsServiceDetectionScheduledCommand.queryServices] ";
+        // Get a RequestService to use for this transaction.
+        RequestService rs = null;
+        try {
+            rs = (RequestService) getAwsAccountServiceProducerPool().getExclusiveProducer();
+        } catch (JMSException jmse) {
+            String errMsg = "An error occurred getting a request service to use " + "in this transaction. The exception is: "
+                    + jmse.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new ScheduledCommandException(errMsg, jmse);
+        }
 
-        // Get a configured MOA Service and ServiceQuerySpecification object
-        // from AppConfig
-        com.amazon.aws.moa.jmsobjects.services.v1_0.Service service = new com.amazon.aws.moa.jmsobjects.services.v1_0.Service();
-        ServiceQuerySpecification querySpec = new ServiceQuerySpecification();
+        // Create the Service object.
+        Result result = null;
         try {
-            service = (com.amazon.aws.moa.jmsobjects.services.v1_0.Service) getAppConfig().getObjectByType(service.getClass().getName());
-            querySpec = (ServiceQuerySpecification) getAppConfig().getObjectByType(querySpec.getClass().getName());
-        } catch (EnterpriseConfigurationObjectException ecoe) {
-            String errMsg = "An error occurred getting an object from " + "AppConfig. The exception is: " + ecoe.getMessage();
+            long startTime = System.currentTimeMillis();
+            result = (Result) service.create(rs);
+            long time = System.currentTimeMillis() - startTime;
+            logger.info(LOGTAG + "Created Service object in " + time + " ms. " + "Result status is: " + result.getStatus());
+        } catch (EnterpriseObjectCreateException eoce) {
+            String errMsg = "An error occurred querying for the " + "Service object The exception is: " + eoce.getMessage();
             logger.error(LOGTAG + errMsg);
-            throw new ScheduledCommandException(errMsg, ecoe);
+            throw new ScheduledCommandException(errMsg, eoce);
+        }
+
+        // In any case, release the producer back to the pool.
+        finally {
+            getAwsAccountServiceProducerPool().releaseProducer((PointToPointProducer) rs);
         }
 
+        return;
+    }
+
+    private void updateService(com.amazon.aws.moa.jmsobjects.services.v1_0.Service service) throws ScheduledCommandException {
+
+        String LOGTAG = "[AwsServiceDetectionScheduledCommand.updateService] ";
+
         // Get a RequestService to use for this transaction.
         RequestService rs = null;
         try {
@@ -465,38 +641,148 @@ public class AwsServiceDetectionScheduledCommand extends AwsAccountScheduledComm
             throw new ScheduledCommandException(errMsg, jmse);
         }
 
-        // Query for the Service object.
-        List<com.amazon.aws.moa.jmsobjects.services.v1_0.Service> results = null;
+        // Update the Service object.
         try {
             long startTime = System.currentTimeMillis();
-            results = service.query(querySpec, rs);
+            service.update(rs);
             long time = System.currentTimeMillis() - startTime;
-            logger.info(LOGTAG + "Queried the AWS Account Service for " + "Service objects in " + time + " ms. Found " + results.size()
-                    + " services.");
-        } catch (EnterpriseObjectQueryException eoqe) {
-            String errMsg = "An error occurred querying for the " + "Service object The exception is: " + eoqe.getMessage();
+            logger.info(LOGTAG + "Updated Service object " + service.getAwsServiceCode() + " in " + time + " ms.");
+        } catch (EnterpriseObjectUpdateException eoue) {
+            String errMsg = "An error occurred updating the " + "Service object The exception is: " + eoue.getMessage();
             logger.error(LOGTAG + errMsg);
-            throw new ScheduledCommandException(errMsg, eoqe);
+            throw new ScheduledCommandException(errMsg, eoue);
         }
 
         // In any case, release the producer back to the pool.
         finally {
             getAwsAccountServiceProducerPool().releaseProducer((PointToPointProducer) rs);
         }
+    }
 
-        com.amazon.aws.moa.jmsobjects.services.v1_0.Service resultService = null;
+    /**
+     * @return String, a hash of the code, name and categories of a service.
+     */
+    private String fingerprint(Service service) throws ScheduledCommandException {
+        List<String> categories = new ArrayList<>();
+        for (Category category : service.getCategories()) {
+            categories.add(category.getName());
+        }
+        Collections.sort(categories);
+        String state = service.getCode() + "\n" + service.getName() + "\n" + String.join("\n", categories);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(state.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException nsae) {
+            String errMsg = "An error occurred hashing the service " + service.getCode() + ". The exception is: " + nsae.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new ScheduledCommandException(errMsg, nsae);
+        }
+    }
 
-        return results;
+    /**
+     * @return Map<String, String>, the fingerprint of each service of the
+     *         last catalog processed, by lower case service code, or null if
+     *         there is none.
+     */
+    private Map<String, String> loadFingerprints() {
+        String LOGTAG = "[AwsServiceDetectionScheduledCommand.loadFingerprints] ";
+        if (m_fingerprintFile == null) {
+            return null;
+        }
+        Path path = Paths.get(m_fingerprintFile);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        } catch (IOException ioe) {
+            logger.warn(LOGTAG + "An error occurred reading " + m_fingerprintFile + ". All services will be reconciled. "
+                    + "The exception is: " + ioe.getMessage());
+            return null;
+        }
+        Map<String, String> fingerprints = new TreeMap<>();
+        for (String code : props.stringPropertyNames()) {
+            fingerprints.put(code, props.getProperty(code));
+        }
+        return fingerprints;
     }
 
-    private void createService(com.amazon.aws.moa.jmsobjects.services.v1_0.Service service) throws ScheduledCommandException {
+    /**
+     * Replaces the fingerprint file. A failure is logged; the next run then
+     * reconciles the same changes again.
+     */
+    private void saveFingerprints(Map<String, String> fingerprints) {
+        String LOGTAG = "[AwsServiceDetectionScheduledCommand.saveFingerprints] ";
+        if (m_fingerprintFile == null) {
+            return;
+        }
+        Path path = Paths.get(m_fingerprintFile);
+        Properties props = new Properties();
+        props.putAll(fingerprints);
+        try {
+            Path tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+                props.store(writer, "AWS service catalog fingerprints");
+            }
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            logger.error(LOGTAG + "An error occurred writing " + m_fingerprintFile + ". The exception is: " + ioe.getMessage());
+        }
+    }
 
-        String LOGTAG = "[AwsServiceDetectionScheduledCommand.createService] ";
+    /**
+     * Creates one AccountNotification that lists the services AWS added and
+     * removed.
+     *
+     * @param addedServices, the services added.
+     * @param removedServiceNames, the names of the services removed by
+     *            service code, or null if the name is not known.
+     */
+    private void createServiceChangeNotification(List<Service> addedServices, Map<String, String> removedServiceNames)
+            throws ScheduledCommandException {
 
-        if (service == null) {
-            String errMsg = "No Service provided. Can't continue.";
-            logger.error(errMsg);
-            throw new ScheduledCommandException(errMsg);
+        String LOGTAG = "[AwsServiceDetectionScheduledCommand.createServiceChangeNotification] ";
+
+        if (m_notificationAccountId == null || m_notificationAccountId.equals("")) {
+            logger.info(LOGTAG + "No serviceChangeNotificationAccountId property specified. Added services: " + addedServices.size()
+                    + ", removed services: " + removedServiceNames.size() + ".");
+            return;
+        }
+
+        StringBuilder text = new StringBuilder();
+        if (!addedServices.isEmpty()) {
+            text.append("AWS added ").append(addedServices.size()).append(" services, which are blocked pending review:\n");
+            for (Service service : addedServices) {
+                text.append("  ").append(service.getName()).append(" (").append(service.getCode()).append(")\n");
+            }
+        }
+        if (!removedServiceNames.isEmpty()) {
+            text.append("AWS removed ").append(removedServiceNames.size()).append(" services:\n");
+            for (Map.Entry<String, String> entry : removedServiceNames.entrySet()) {
+                text.append("  ").append(entry.getValue() == null ? entry.getKey() : entry.getValue() + " (" + entry.getKey() + ")")
+                        .append("\n");
+            }
+        }
+
+        AccountNotification aNotification = new AccountNotification();
+        try {
+            aNotification = (AccountNotification) getAppConfig().getObjectByType(aNotification.getClass().getName());
+            aNotification.setAccountId(m_notificationAccountId);
+            aNotification.setType("Service");
+            aNotification.setPriority("Medium");
+            aNotification.setSubject("AWS Service Changes");
+            aNotification.setText(text.toString());
+            aNotification.setCreateUser(DEFAULT_CREATE_USER);
+            aNotification.setCreateDatetime(new Datetime("Create", System.currentTimeMillis()));
+        } catch (EnterpriseConfigurationObjectException ecoe) {
+            String errMsg = "An error occurred getting an object from " + "AppConfig. The exception is: " + ecoe.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new ScheduledCommandException(errMsg, ecoe);
+        } catch (EnterpriseFieldException efe) {
+            String errMsg = "An error occurred setting the field values of " + "AccountNotification. The exception is: " + efe.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new ScheduledCommandException(errMsg, efe);
         }
 
         // Get a RequestService to use for this transaction.
@@ -510,15 +796,13 @@ public class AwsServiceDetectionScheduledCommand extends AwsAccountScheduledComm
             throw new ScheduledCommandException(errMsg, jmse);
         }
 
-        // Create the Service object.
-        Result result = null;
         try {
             long startTime = System.currentTimeMillis();
-            result = (Result) service.create(rs);
+            aNotification.create(rs);
             long time = System.currentTimeMillis() - startTime;
-            logger.info(LOGTAG + "Created Service object in " + time + " ms. " + "Result status is: " + result.getStatus());
+            logger.info(LOGTAG + "Created AccountNotification of the service changes in " + time + " ms.");
         } catch (EnterpriseObjectCreateException eoce) {
-            String errMsg = "An error occurred querying for the " + "Service object The exception is: " + eoce.getMessage();
+            String errMsg = "An error occurred creating the " + "AccountNotification object The exception is: " + eoce.getMessage();
             logger.error(LOGTAG + errMsg);
             throw new ScheduledCommandException(errMsg, eoce);
         }
@@ -527,13 +811,33 @@ public class AwsServiceDetectionScheduledCommand extends AwsAccountScheduledComm
         finally {
             getAwsAccountServiceProducerPool().releaseProducer((PointToPointProducer) rs);
         }
+    }
 
-        return;
+    /**
+     * @return boolean, true if the registry service differs from the AWS
+     *         service: it has another name, or it was deprecated and AWS
+     *         lists it again.
+     */
+    private boolean isServiceUpdateRequired(com.amazon.aws.moa.jmsobjects.services.v1_0.Service aeoService,
+            com.amazonaws.services.support.model.Service awsService) {
+
+        return !awsService.getName().equals(aeoService.getAwsServiceName())
+                || DEPRECATED_AWS_SERVICE_STATUS.equals(aeoService.getAwsStatus());
     }
 
-    private boolean isServiceUpdateRequired() {
+    private com.amazon.aws.moa.jmsobjects.services.v1_0.Service buildNewServiceState(
+            com.amazon.aws.moa.jmsobjects.services.v1_0.Service aeoService,
+            com.amazonaws.services.support.model.Service awsService) throws ScheduledCommandException {
 
-        return false;
+        try {
+            aeoService.setAwsServiceName(awsService.getName());
+            aeoService.setAwsStatus(ACTIVE_AWS_SERVICE_STATUS);
+        } catch (EnterpriseFieldException efe) {
+            String errMsg = "An error occurred setting the field values of " + "Service. The exception is: " + efe.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new ScheduledCommandException(errMsg, efe);
+        }
+        return aeoService;
     }
 
     private com.amazon.aws.moa.jmsobjects.services.v1_0.Service buildAeoServiceFromAwsService(
@@ -579,16 +883,4 @@ public class AwsServiceDetectionScheduledCommand extends AwsAccountScheduledComm
         return aeoService;
 
     }
-
-    private boolean isInAwsServiceList(String serviceCode, List<Service> serviceList) {
-
-        ListIterator li = serviceList.listIterator();
-        while (li.hasNext()) {
-            Service service = (Service) li.next();
-            if (service.getCode().equalsIgnoreCase(serviceCode))
-                return true;
-        }
-
-        return false;
-    }
 }
@@ -85,10 +85,14 @@ public class S3Helper {
         return dataLines;
     }
     private AmazonS3 getS3() {
-        BasicAWSCredentials awsCreds = new BasicAWSCredentials(accessKeyId, secretKey);
-        AmazonS3 amazonS3 = AmazonS3ClientBuilder.standard().withRegion(Regions.US_EAST_1)
-                .withCredentials(new AWSStaticCredentialsProvider(awsCreds)).build();
-        return amazonS3;
+        return AwsClientRegistry.getInstance().getClient(AmazonS3.class, null,
+                Regions.US_EAST_1.getName(), accessKeyId, () -> {
+                    BasicAWSCredentials awsCreds = new BasicAWSCredentials(accessKeyId, secretKey);
+                    return AmazonS3ClientBuilder.standard().withRegion(Regions.US_EAST_1)
+                            .withCredentials(new AWSStaticCredentialsProvider(awsCreds))
+                            .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.S3, null))
+                            .build();
+                });
     }
     public void writeDeletedAccounts(List<String[]> deletedAccountDataLines, String deletedAccountsFileNameFull) throws IOException {
         toCsvFileAndUploadToS3(deletedAccountDataLines, deletedAccountsFileNameFull);
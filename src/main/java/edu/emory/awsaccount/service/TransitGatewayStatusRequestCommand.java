@@ -8,6 +8,7 @@ package edu.emory.awsaccount.service;
 
 import edu.emory.awsaccount.service.provider.ProviderException;
 import edu.emory.awsaccount.service.provider.TransitGatewayStatusProvider;
+import edu.emory.awsaccount.service.provider.TransitGatewayStatusSnapshot;
 import edu.emory.moa.jmsobjects.network.v1_0.TransitGatewayStatus;
 import edu.emory.moa.objects.resources.v1_0.TransitGatewayStatusQuerySpecification;
 import org.apache.log4j.Logger;
@@ -16,6 +17,7 @@ import org.jdom.Document;
 import org.jdom.Element;
 import org.openeai.config.CommandConfig;
 import org.openeai.config.EnterpriseConfigurationObjectException;
+import org.openeai.config.EnterpriseFieldException;
 import org.openeai.config.LoggerConfig;
 import org.openeai.config.PropertyConfig;
 import org.openeai.jms.consumer.commands.CommandException;
@@ -32,11 +34,20 @@ import java.util.List;
 /**
  * This command handles requests for TransitGatewayStatus objects.
  * Specifically, it handles a Query-Request.
+ * <p>
+ * When transitGatewayStatusSnapshotMaxAgeSeconds is set (default 0, which always queries the
+ * provider), queries are answered from the TransitGatewayStatusSnapshot kept by the
+ * TransitGatewayStatusSnapshotScheduledCommand when it has the status of the queried accounts
+ * and the status is at most that old. Otherwise the provider is queried. A VpcId prefixed with
+ * "live:" always queries the provider for that VPC. Only the scheduled command refreshes the
+ * snapshot, so the results of the provider queried here never go into it.
  */
 public class TransitGatewayStatusRequestCommand extends AwsAccountRequestCommand implements RequestCommand {
     private static final String LOGTAG = "[TransitGatewayStatusRequestCommand] ";
     private static final Logger logger = Logger.getLogger(TransitGatewayStatusRequestCommand.class);
+    private static final String LIVE_RECHECK_PREFIX = "live:";
     private TransitGatewayStatusProvider m_provider = null;
+    private long m_snapshotMaxAgeMillis = 0;
 
     /**
      * This constructor initializes the command using a
@@ -111,6 +122,16 @@ public class TransitGatewayStatusRequestCommand extends AwsAccountRequestCommand
             throw new InstantiationException(errMsg);
         }
 
+        try {
+            m_snapshotMaxAgeMillis = Long.parseLong(getProperties().getProperty("transitGatewayStatusSnapshotMaxAgeSeconds", "0")) * 1000;
+            logger.info(LOGTAG + "transitGatewayStatusSnapshotMaxAgeSeconds is: " + m_snapshotMaxAgeMillis / 1000);
+        }
+        catch (NumberFormatException e) {
+            String errMsg = "Invalid transitGatewayStatusSnapshotMaxAgeSeconds property. The exception is: " + e.getMessage();
+            logger.fatal(LOGTAG + errMsg);
+            throw new InstantiationException(errMsg);
+        }
+
         logger.info(LOGTAG + "instantiated successfully.");
     }
 
@@ -235,7 +256,7 @@ public class TransitGatewayStatusRequestCommand extends AwsAccountRequestCommand
             List<TransitGatewayStatus> results;
             try {
             	long elapsedStartTime = System.currentTimeMillis();
-                results = getProvider().query(querySpec);
+                results = querySnapshotOrProvider(querySpec);
                 long elapsedTime = System.currentTimeMillis() - elapsedStartTime;
                 logger.info(LOGTAG + "Queried for TransitGatewayStatus in " + elapsedTime + "ms.");
             }
@@ -299,6 +320,47 @@ public class TransitGatewayStatusRequestCommand extends AwsAccountRequestCommand
         }
     }
 
+    /**
+     * Answer a query from the snapshot if it can, otherwise from the provider.
+     *
+     * @param querySpec the query
+     * @return the matching TransitGatewayStatus objects
+     * @throws ProviderException with details of the error
+     */
+    private List<TransitGatewayStatus> querySnapshotOrProvider(TransitGatewayStatusQuerySpecification querySpec) throws ProviderException {
+        TransitGatewayStatusSnapshot snapshot = TransitGatewayStatusSnapshot.getInstance();
+        String accountId = querySpec.getAccountId();
+        String vpcId = querySpec.getVpcId();
+
+        boolean liveRecheck = vpcId != null && vpcId.startsWith(LIVE_RECHECK_PREFIX);
+        if (liveRecheck) {
+            vpcId = vpcId.substring(LIVE_RECHECK_PREFIX.length());
+            try {
+                querySpec.setVpcId(vpcId);
+            }
+            catch (EnterpriseFieldException e) {
+                String errMsg = "An error occurred setting the VpcId of the query. The exception is: " + e.getMessage();
+                logger.error(LOGTAG + errMsg);
+                throw new ProviderException(errMsg, e);
+            }
+        }
+        else if (m_snapshotMaxAgeMillis > 0) {
+            try {
+                List<TransitGatewayStatus> results = snapshot.query(accountId, vpcId, m_snapshotMaxAgeMillis);
+                // a VPC missing from the snapshot may be newer than the snapshot
+                if (results != null && !(results.isEmpty() && vpcId != null && !vpcId.isEmpty())) {
+                    logger.info(LOGTAG + "Answered the query from the TransitGatewayStatus snapshot.");
+                    return results;
+                }
+            }
+            catch (CloneNotSupportedException e) {
+                logger.warn(LOGTAG + "An error occurred copying the TransitGatewayStatus snapshot. The exception is: " + e.getMessage());
+            }
+        }
+
+        return getProvider().query(querySpec);
+    }
+
     /**
      * Sets the provider for this command.
      * @param provider the provider
@@ -0,0 +1,236 @@
+/* *****************************************************************************
+ This file is part of the RHEDcloud AWS Account Service.
+
+ Copyright 2020 RHEDcloud Foundation. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service;
+
+import edu.emory.awsaccount.service.provider.ProviderException;
+import edu.emory.awsaccount.service.provider.TransitGatewayAttachmentFingerprintSource;
+import edu.emory.awsaccount.service.provider.TransitGatewayStatusProvider;
+import edu.emory.awsaccount.service.provider.TransitGatewayStatusSnapshot;
+import edu.emory.moa.jmsobjects.network.v1_0.TransitGatewayStatus;
+import edu.emory.moa.objects.resources.v1_0.TransitGatewayStatusQuerySpecification;
+import org.apache.log4j.Logger;
+import org.openeai.afa.ScheduledCommand;
+import org.openeai.afa.ScheduledCommandException;
+import org.openeai.config.CommandConfig;
+import org.openeai.config.EnterpriseConfigurationObjectException;
+import org.openeai.config.EnterpriseFieldException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This command keeps the TransitGatewayStatusSnapshot up to date, so that the
+ * TransitGatewayStatusRequestCommand running in the same service can answer queries from it.
+ * <p>
+ * Each run fingerprints the TGW attachments of every account with TGW VPCs and recomputes the
+ * status of the accounts that are new, whose fingerprint changed, or whose status is older than
+ * fullRefreshIntervalMinutes. The fingerprint doesn't cover changes made in the TGW account or to
+ * the connection profiles, which the full refresh picks up. A provider that can't fingerprint the
+ * attachments gets all accounts recomputed on each run.
+ * <p>
+ * Properties in GeneralProperties:
+ *   transitGatewayStatusProviderClassName - the provider that computes the status
+ *   fullRefreshIntervalMinutes - the maximum age of the status of an unchanged account, default 1440
+ *   maxParallelAccounts - the number of accounts recomputed at the same time, default 4
+ */
+public class TransitGatewayStatusSnapshotScheduledCommand extends AwsAccountScheduledCommand implements ScheduledCommand {
+    private static final String LOGTAG = "[TransitGatewayStatusSnapshotScheduledCommand] ";
+    private static final Logger logger = Logger.getLogger(TransitGatewayStatusSnapshotScheduledCommand.class);
+    private TransitGatewayStatusProvider m_provider = null;
+    private long m_fullRefreshIntervalMillis = 0;
+    private ExecutorService m_executor = null;
+
+    public TransitGatewayStatusSnapshotScheduledCommand(CommandConfig cConfig) throws InstantiationException {
+        super(cConfig);
+        logger.info(LOGTAG + "Initializing " + ReleaseTag.getReleaseInfo());
+
+        // Initialize a provider
+        String className = getProperties().getProperty("transitGatewayStatusProviderClassName");
+        if (className == null || className.equals("")) {
+            String errMsg = "No transitGatewayStatusProviderClassName property specified. Can't continue.";
+            logger.fatal(LOGTAG + errMsg);
+            throw new InstantiationException(errMsg);
+        }
+
+        try {
+            logger.info(LOGTAG + "Getting class for transitGatewayStatusProviderClassName: " + className);
+            TransitGatewayStatusProvider provider = (TransitGatewayStatusProvider) Class.forName(className).newInstance();
+            provider.init(getAppConfig());
+            logger.info(LOGTAG + "TransitGatewayStatusProvider initialized.");
+            setProvider(provider);
+        }
+        catch (ClassNotFoundException e) {
+            String errMsg = "Class named " + className + " not found on the classpath.  The exception is: " + e.getMessage();
+            logger.fatal(LOGTAG + errMsg);
+            throw new InstantiationException(errMsg);
+        }
+        catch (IllegalAccessException e) {
+            String errMsg = "An error occurred getting a class for name: " + className + ". The exception is: " + e.getMessage();
+            logger.fatal(LOGTAG + errMsg);
+            throw new InstantiationException(errMsg);
+        }
+        catch (ProviderException e) {
+            String errMsg = "An error occurred initializing " + className + ". The exception is: " + e.getMessage();
+            logger.fatal(LOGTAG + errMsg);
+            throw new InstantiationException(errMsg);
+        }
+
+        try {
+            m_fullRefreshIntervalMillis = Long.parseLong(getProperties().getProperty("fullRefreshIntervalMinutes", "1440")) * 60_000;
+            int maxParallelAccounts = Integer.parseInt(getProperties().getProperty("maxParallelAccounts", "4"));
+            logger.info(LOGTAG + "fullRefreshIntervalMinutes is: " + m_fullRefreshIntervalMillis / 60_000
+                    + ", maxParallelAccounts is: " + maxParallelAccounts);
+            AtomicInteger threadCount = new AtomicInteger();
+            m_executor = Executors.newFixedThreadPool(Math.max(1, maxParallelAccounts), r -> {
+                Thread t = new Thread(r, "TransitGatewayStatusSnapshot-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        catch (NumberFormatException e) {
+            String errMsg = "Invalid fullRefreshIntervalMinutes or maxParallelAccounts property. The exception is: " + e.getMessage();
+            logger.fatal(LOGTAG + errMsg);
+            throw new InstantiationException(errMsg);
+        }
+
+        logger.info(LOGTAG + "instantiated successfully.");
+    }
+
+    @Override
+    public int execute() throws ScheduledCommandException {
+        long startTime = System.currentTimeMillis();
+        logger.info(LOGTAG + "Refreshing the TransitGatewayStatus snapshot...");
+        TransitGatewayStatusSnapshot snapshot = TransitGatewayStatusSnapshot.getInstance();
+
+        if (!(getProvider() instanceof TransitGatewayAttachmentFingerprintSource)) {
+            refreshAll(snapshot);
+            logger.info(LOGTAG + "Refreshed all accounts in " + (System.currentTimeMillis() - startTime)
+                    + " ms. Snapshot: " + snapshot.getStatistics());
+            return 0;
+        }
+
+        Map<String, String> fingerprints;
+        try {
+            fingerprints = ((TransitGatewayAttachmentFingerprintSource) getProvider()).queryAttachmentFingerprints();
+        }
+        catch (ProviderException e) {
+            String errMsg = "An error occurred fingerprinting the TGW attachments. The exception is: " + e.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new ScheduledCommandException(errMsg, e);
+        }
+
+        // recompute the accounts that changed or are due for a full refresh
+        long oldest = System.currentTimeMillis() - m_fullRefreshIntervalMillis;
+        Map<String, Future<List<TransitGatewayStatus>>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : fingerprints.entrySet()) {
+            String accountId = entry.getKey();
+            String fingerprint = entry.getValue();
+            if (fingerprint != null && fingerprint.equals(snapshot.getFingerprint(accountId))
+                    && snapshot.getComputedTime(accountId) >= oldest) {
+                continue;
+            }
+            futures.put(accountId, m_executor.submit(() -> getProvider().query(accountQuerySpec(accountId))));
+        }
+
+        int failed = 0;
+        for (Map.Entry<String, Future<List<TransitGatewayStatus>>> future : futures.entrySet()) {
+            String accountId = future.getKey();
+            try {
+                snapshot.putAccount(accountId, future.getValue().get(), fingerprints.get(accountId));
+            }
+            catch (InterruptedException e) {
+                futures.values().forEach(f -> f.cancel(true));
+                Thread.currentThread().interrupt();
+                String errMsg = "Interrupted while refreshing the TransitGatewayStatus snapshot.";
+                logger.error(LOGTAG + errMsg);
+                throw new ScheduledCommandException(errMsg, e);
+            }
+            catch (ExecutionException e) {
+                // the account keeps its previous status and is recomputed on the next run
+                logger.error(LOGTAG + "An error occurred getting the TransitGatewayStatus of account " + accountId
+                        + ". The exception is: " + e.getCause().getMessage());
+                failed++;
+            }
+        }
+
+        int removed = snapshot.retainAccounts(fingerprints.keySet());
+        if (failed == 0) {
+            snapshot.refreshed();
+        }
+
+        long elapsedTime = System.currentTimeMillis() - startTime;
+        logger.info(LOGTAG + "Refreshed the TransitGatewayStatus snapshot in " + elapsedTime + " ms."
+                + " Accounts: " + fingerprints.size() + ", recomputed: " + (futures.size() - failed)
+                + ", unchanged: " + (fingerprints.size() - futures.size()) + ", failed: " + failed
+                + ", removed: " + removed + ". Snapshot: " + snapshot.getStatistics());
+        return 0;
+    }
+
+    /*
+     * Recompute the status of all accounts with one query.
+     */
+    private void refreshAll(TransitGatewayStatusSnapshot snapshot) throws ScheduledCommandException {
+        List<TransitGatewayStatus> results;
+        try {
+            results = getProvider().query(accountQuerySpec(null));
+        }
+        catch (ProviderException e) {
+            String errMsg = "An error occurred querying for the TransitGatewayStatus of all accounts. The exception is: " + e.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new ScheduledCommandException(errMsg, e);
+        }
+
+        Map<String, List<TransitGatewayStatus>> resultsByAccountId = new HashMap<>();
+        for (TransitGatewayStatus result : results) {
+            resultsByAccountId.computeIfAbsent(result.getAccountId(), k -> new ArrayList<>()).add(result);
+        }
+        for (Map.Entry<String, List<TransitGatewayStatus>> entry : resultsByAccountId.entrySet()) {
+            snapshot.putAccount(entry.getKey(), entry.getValue(), null);
+        }
+        snapshot.retainAccounts(resultsByAccountId.keySet());
+        snapshot.refreshed();
+    }
+
+    private TransitGatewayStatusQuerySpecification accountQuerySpec(String accountId) throws ProviderException {
+        try {
+            TransitGatewayStatusQuerySpecification querySpec = (TransitGatewayStatusQuerySpecification) getAppConfig()
+                    .getObjectByType(TransitGatewayStatusQuerySpecification.class.getName());
+            if (accountId != null)
+                querySpec.setAccountId(accountId);
+            return querySpec;
+        }
+        catch (EnterpriseConfigurationObjectException | EnterpriseFieldException e) {
+            String errMsg = "An error occurred building the TransitGatewayStatusQuerySpecification. The exception is: " + e.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, e);
+        }
+    }
+
+    /**
+     * Sets the provider for this command.
+     * @param provider the provider
+     */
+    protected void setProvider(TransitGatewayStatusProvider provider) {
+        m_provider = provider;
+    }
+
+    /**
+     * Gets the provider for this command.
+     * @return the provider
+     */
+    protected TransitGatewayStatusProvider getProvider() {
+        return m_provider;
+    }
+}
@@ -17,6 +17,7 @@ import com.amazon.aws.moa.objects.resources.v1_0.Datetime;
 import com.amazon.aws.moa.objects.resources.v1_0.DeprovisioningStep;
 import com.amazon.aws.moa.objects.resources.v1_0.Property;
 import edu.emory.awsaccount.service.provider.AccountDeprovisioningProvider;
+import edu.emory.awsaccount.service.provider.ProbeScheduler;
 import edu.emory.awsaccount.service.provider.ProviderException;
 import org.apache.log4j.Category;
 import org.openeai.OpenEaiObject;
@@ -31,6 +32,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * An abstract class from which all deprovisioning steps inherit. This class
@@ -45,6 +48,19 @@ import java.util.TimeZone;
  * @version 1.0 - 11 May 2020
  */
 public abstract class AbstractStep {
+
+    /**
+     * Completes a waiting step with the result of its probe.
+     */
+    public interface Continuation<T> {
+        /**
+         * @param result, the result of the probe or null if the maximum wait
+         * time elapsed first.
+         * @return List<Property>, the result properties of the step.
+         */
+        List<Property> resume(T result) throws StepException;
+    }
+
     private static final String LOGTAG = "[AbstractStep] ";
 
     protected Category logger = OpenEaiObject.logger;
@@ -83,6 +99,8 @@ public abstract class AbstractStep {
     protected long m_executionTime = 0;
     protected long m_executionEndTime = 0;
     protected Properties m_props = null;
+    private volatile CompletableFuture<List<Property>> m_continuation = null;
+    private volatile int m_waitCount = 0;
 
     protected final String PROPERTY_VALUE_NOT_AVAILABLE = "not available";
 
@@ -117,6 +135,15 @@ public abstract class AbstractStep {
                 setType(step.getType());
                 setDescription(step.getDescription());
                 setStatus(step.getStatus());
+                // Restore the result of a step that already ran, so a
+                // resumed transaction can roll it back and later steps can
+                // use its result properties.
+                setResult(step.getStepResult());
+                if (step.getProperty() != null && !step.getProperty().isEmpty()) {
+                    @SuppressWarnings("unchecked")
+                    List<Property> persistedProps = step.getProperty();
+                    setResultProperties(new ArrayList<>(persistedProps));
+                }
                 setCreateUser(step.getCreateUser());
                 setCreateDatetime(step.getCreateDatetime());
                 if (step.getLastUpdateUser() != null) {
@@ -181,15 +208,63 @@ public abstract class AbstractStep {
             return props;
         }
 
-        // Otherwise run the step logic.
+        // Otherwise run the step logic. If the step is waiting, its
+        // continuation sets the execution time when it completes.
         else {
             logger.info(LOGTAG + "Running the step.");
             List<Property> props = run();
-            setExecutionTime();
+            if (getContinuation() == null) {
+                setExecutionTime();
+            }
             return props;
         }
     }
 
+    /**
+     * This method makes the step wait without holding a thread. The probe
+     * runs on the shared ProbeScheduler every interval until it returns a
+     * result or maxWait milliseconds have elapsed, and then the continuation
+     * completes the step. A continuation may wait again by returning the
+     * value of another call to this method.
+     *
+     * @return List<Property>, the result properties of the step so far.
+     */
+    protected <T> List<Property> waitFor(String description, ProbeScheduler.Probe<T> probe,
+                                         long initialDelay, long interval, long maxWait,
+                                         Continuation<T> continuation) {
+        String LOGTAG = getStepTag() + "[AbstractStep.waitFor] ";
+        logger.info(LOGTAG + "Waiting for " + description + ". Checking every " +
+                interval + " ms for up to " + maxWait + " ms.");
+        m_waitCount++;
+        m_continuation = ProbeScheduler.getInstance()
+                .poll(getStepTag(), probe, initialDelay, interval, maxWait)
+                .thenCompose(result -> resume(continuation, result));
+        return getResultProperties();
+    }
+
+    private <T> CompletableFuture<List<Property>> resume(Continuation<T> continuation, T result) {
+        int waitCount = m_waitCount;
+        List<Property> props;
+        try {
+            props = continuation.resume(result);
+        } catch (StepException se) {
+            throw new CompletionException(se);
+        }
+        if (m_waitCount != waitCount) {
+            // The continuation is waiting again.
+            return m_continuation;
+        }
+        return CompletableFuture.completedFuture(props);
+    }
+
+    /**
+     * This method returns the continuation of a waiting step, or null if the
+     * step is not waiting.
+     */
+    public CompletableFuture<List<Property>> getContinuation() {
+        return m_continuation;
+    }
+
     protected abstract List<Property> simulate() throws StepException;
 
     protected abstract List<Property> run() throws StepException;
@@ -252,6 +327,21 @@ public abstract class AbstractStep {
         return m_skipStep;
     }
 
+    /**
+     * This method returns whether the step may be executed again after it
+     * was interrupted, for example by a restart of the service while it was
+     * in progress. Steps are not safe to re-run unless their rerunnable
+     * property is true. Steps that only read and compute values may override
+     * this method to always return true. A skipped step is always safe to
+     * re-run.
+     */
+    public boolean isRerunnable() {
+        if (getSkipStep()) {
+            return true;
+        }
+        return Boolean.parseBoolean(getProperties().getProperty("rerunnable", "false"));
+    }
+
     private void setSimulateStep(boolean simulateStep) {
         m_simulateStep = simulateStep;
     }
@@ -425,6 +515,14 @@ public abstract class AbstractStep {
     }
 
     public void addResultProperty(String key, String value) throws StepException {
+        // The result properties of this step are part of the AccountDeprovisioning object, which
+        // may be persisted in the background, so hold the same lock as update.
+        synchronized (getAccountDeprovisioningProvider()) {
+            putResultProperty(key, value);
+        }
+    }
+
+    private void putResultProperty(String key, String value) throws StepException {
         String LOGTAG = getStepTag() + "[AbstractStep.addResultProperty] ";
         logger.debug(LOGTAG + "Adding result property " + key + ": " + value);
 
@@ -550,8 +648,21 @@ public abstract class AbstractStep {
         String LOGTAG = getStepTag() + "[AbstractStep.update] ";
         logger.info(LOGTAG + "Updating step with status " + status + " and result " + result);
 
-        // Update the baseline state of the VPCP
-        queryForAccountDeprovisioningBaseline();
+        // The deprovisioning transaction hands its steps a provider scoped to
+        // that transaction, which persists the AccountDeprovisioning object
+        // in the background. Hold it while modifying the object, so it is
+        // never persisted half way through an update.
+        synchronized (getAccountDeprovisioningProvider()) {
+            updateAccountDeprovisioning(status, result);
+        }
+    }
+
+    private void updateAccountDeprovisioning(String status, String result) throws StepException {
+        String LOGTAG = getStepTag() + "[AbstractStep.update] ";
+
+        // The AccountDeprovisioning object queried at initialization is the
+        // in-memory state of the transaction, so there is no need to query
+        // for it again before every update.
 
         // If the status is changing from in progress to anything else,
         // set the executionEndTime.
@@ -26,6 +26,7 @@ import org.openeai.moa.XmlEnterpriseObjectException;
 import org.openeai.transport.RequestService;
 
 import javax.jms.JMSException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 import java.util.stream.Collectors;
@@ -133,7 +134,7 @@ public class DeleteAllCustomRolesInAccount extends AbstractStep implements Step
         }
     }
 
-    private void roleDeprovisioningGenerate(String accountId, String roleName, String LOGTAG) throws StepException {
+    private RoleDeprovisioningQuerySpecification roleDeprovisioningGenerate(String accountId, String roleName, String LOGTAG) throws StepException {
         RoleDeprovisioning roleDeprovisioning;
         RoleDeprovisioningRequisition requisition;
         RoleDeprovisioningQuerySpecification querySpec;
@@ -220,72 +221,78 @@ public class DeleteAllCustomRolesInAccount extends AbstractStep implements Step
             throw new StepException(errMsg, e);
         }
 
-        final long waitingForCompleteStartTime = System.currentTimeMillis();
-        do {
-            // don't wait for ever
-            if ((waitingForCompleteStartTime + 200_000) < System.currentTimeMillis()) {
-                String errMsg = "Took too long waiting for RoleDeprovisioning completion status.";
-                logger.error(LOGTAG + errMsg);
-                throw new StepException(errMsg);
-            }
+        return querySpec;
+    }
 
-            // Get a producer from the pool
-            try {
-                rs = (RequestService) getAwsAccountServiceProducerPool().getExclusiveProducer();
-            }
-            catch (JMSException e) {
-                String errMsg = "An error occurred getting a producer from the pool. The exception is: " + e.getMessage();
+    /**
+     * Checks once whether the RoleDeprovisioning has completed.
+     *
+     * @return Boolean, true if it completed successfully or null if it has not completed yet.
+     * @throws StepException if it completed unsuccessfully or the query failed.
+     */
+    private Boolean roleDeprovisioningCompleted(RoleDeprovisioningQuerySpecification querySpec, String roleName, String LOGTAG) throws StepException {
+        RoleDeprovisioning roleDeprovisioning;
+        try {
+            roleDeprovisioning = (RoleDeprovisioning) getAppConfig().getObjectByType(RoleDeprovisioning.class.getName());
+        }
+        catch (EnterpriseConfigurationObjectException e) {
+            String errMsg = "An error occurred getting objects from AppConfig. The exception is: " + e.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new StepException(errMsg, e);
+        }
+
+        // Get a producer from the pool
+        RequestService rs;
+        try {
+            rs = (RequestService) getAwsAccountServiceProducerPool().getExclusiveProducer();
+        }
+        catch (JMSException e) {
+            String errMsg = "An error occurred getting a producer from the pool. The exception is: " + e.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new StepException(errMsg, e);
+        }
+
+        try {
+            long elapsedStartTime = System.currentTimeMillis();
+            @SuppressWarnings("unchecked")
+            List<RoleDeprovisioning> results = roleDeprovisioning.query(querySpec, rs);
+            long elapsedTime = System.currentTimeMillis() - elapsedStartTime;
+            logger.info(LOGTAG + "RoleDeprovisioning query took " + elapsedTime + " ms.");
+
+            if (results.size() != 1) {
+                String errMsg = "Unexpected number of RoleDeprovisioning results. Found " + results.size() + ". Expected 1.";
                 logger.error(LOGTAG + errMsg);
-                throw new StepException(errMsg, e);
+                throw new StepException(errMsg);
             }
 
-            try {
-                long elapsedStartTime = System.currentTimeMillis();
-                @SuppressWarnings("unchecked")
-                List<RoleDeprovisioning> results = roleDeprovisioning.query(querySpec, rs);
-                long elapsedTime = System.currentTimeMillis() - elapsedStartTime;
-                logger.info(LOGTAG + "RoleDeprovisioning query took " + elapsedTime + " ms.");
-
-                if (results.size() != 1) {
-                    String errMsg = "Unexpected number of RoleDeprovisioning results. Found " + results.size() + ". Expected 1.";
+            // if deprovisioning for an individual custom role fails then this entire step
+            // will fail because deprovisioning of the account would subsequently fail. so it's
+            // better to fail here with a known reason instead of later for a strange reason
+            // i.e., later when the account is deleted from LDS it fails with CANT_ON_NON_LEAF
+            String status = results.get(0).getStatus();
+            if ("completed".equals(status)) {
+                String deprovisioningResult = results.get(0).getDeprovisioningResult();
+                if (!"success".equals(deprovisioningResult)) {
+                    String errMsg = "RoleDeprovisioning for role name " + roleName + " was not successful";
                     logger.error(LOGTAG + errMsg);
                     throw new StepException(errMsg);
                 }
-
-                // if deprovisioning for an individual custom role fails then this entire step
-                // will fail because deprovisioning of the account would subsequently fail. so it's
-                // better to fail here with a known reason instead of later for a strange reason
-                // i.e., later when the account is deleted from LDS it fails with CANT_ON_NON_LEAF
-                String status = results.get(0).getStatus();
-                if ("completed".equals(status)) {
-                    String deprovisioningResult = results.get(0).getDeprovisioningResult();
-                    if (!"success".equals(deprovisioningResult)) {
-                        String errMsg = "RoleDeprovisioning for role name " + roleName + " was not successful";
-                        logger.error(LOGTAG + errMsg);
-                        throw new StepException(errMsg);
-                    }
-                    logger.info(LOGTAG + "RoleDeprovisioning for role name " + roleName + " was successful");
-                    return;
-                }
-
-                // sleep before checking again
-                logger.info(LOGTAG + "RoleDeprovisioning for role name " + roleName + " is waiting for complete status");
-                Thread.sleep(5000);
-            }
-            catch (EnterpriseObjectQueryException e) {
-                String errMsg = "An error occurred query the RoleDeprovisioning. The exception is: " + e.getMessage();
-                logger.error(LOGTAG + errMsg);
-                throw new StepException(errMsg, e);
-            }
-            catch (InterruptedException e) {
-                String errMsg = "Sleep was interrupted while waiting for RoleDeprovisioning completion status. The exception is: " + e.getMessage();
-                logger.error(LOGTAG + errMsg);
-                throw new StepException(errMsg, e);
+                logger.info(LOGTAG + "RoleDeprovisioning for role name " + roleName + " was successful");
+                return Boolean.TRUE;
             }
-            finally {
-                getAwsAccountServiceProducerPool().releaseProducer((MessageProducer)rs);
-            }
-        } while (true);
+
+            // check again later
+            logger.info(LOGTAG + "RoleDeprovisioning for role name " + roleName + " is waiting for complete status");
+            return null;
+        }
+        catch (EnterpriseObjectQueryException e) {
+            String errMsg = "An error occurred query the RoleDeprovisioning. The exception is: " + e.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new StepException(errMsg, e);
+        }
+        finally {
+            getAwsAccountServiceProducerPool().releaseProducer((MessageProducer)rs);
+        }
     }
 
     private void deleteCustomRolesOrganizationalUnit(String accountId, String LOGTAG) throws StepException {
@@ -379,10 +386,33 @@ public class DeleteAllCustomRolesInAccount extends AbstractStep implements Step
             }
         }
 
-        // deprovision each custom role
-        for (String roleName : customRoleNamesInAccount) {
-            roleDeprovisioningGenerate(accountId, roleName, LOGTAG);
+        // deprovision each custom role, one after another
+        return deprovisionCustomRoles(accountId, customRoleNamesInAccount.iterator(), startTime, LOGTAG);
+    }
+
+    /**
+     * Deprovisions the remaining custom roles one after another, waiting for
+     * each RoleDeprovisioning to complete on the shared ProbeScheduler, and
+     * then completes the step.
+     */
+    private List<Property> deprovisionCustomRoles(String accountId, Iterator<String> roleNames, long startTime, String LOGTAG) throws StepException {
+        if (roleNames.hasNext()) {
+            String roleName = roleNames.next();
+            RoleDeprovisioningQuerySpecification querySpec = roleDeprovisioningGenerate(accountId, roleName, LOGTAG);
+            return waitFor("RoleDeprovisioning of role name " + roleName,
+                    () -> roleDeprovisioningCompleted(querySpec, roleName, LOGTAG),
+                    0, 5000, 200_000,
+                    completed -> {
+                        // don't wait for ever
+                        if (completed == null) {
+                            String errMsg = "Took too long waiting for RoleDeprovisioning completion status.";
+                            logger.error(LOGTAG + errMsg);
+                            throw new StepException(errMsg);
+                        }
+                        return deprovisionCustomRoles(accountId, roleNames, startTime, LOGTAG);
+                    });
         }
+
         // then delete the OU=customroles under the account
         deleteCustomRolesOrganizationalUnit(accountId, LOGTAG);
 
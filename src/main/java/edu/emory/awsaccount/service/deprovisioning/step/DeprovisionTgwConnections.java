@@ -22,6 +22,7 @@ import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder
 import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
 import com.amazonaws.services.securitytoken.model.AssumeRoleResult;
 import com.amazonaws.services.securitytoken.model.Credentials;
+import edu.emory.awsaccount.service.AwsRateLimiter;
 import edu.emory.awsaccount.service.provider.AccountDeprovisioningProvider;
 import org.openeai.config.AppConfig;
 
@@ -346,6 +347,7 @@ public class DeprovisionTgwConnections extends AbstractStep implements Step {
         AWSSecurityTokenService sts = AWSSecurityTokenServiceClientBuilder.standard()
                 .withCredentials(cp)
                 .withRegion(region)
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.STS, null))
                 .build();
 
         AssumeRoleRequest assumeRequest = new AssumeRoleRequest()
@@ -364,6 +366,7 @@ public class DeprovisionTgwConnections extends AbstractStep implements Step {
         return (AmazonEC2Client) AmazonEC2ClientBuilder.standard()
                 .withCredentials(cp)
                 .withRegion(region)
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.EC2, accountId))
                 .build();
     }
 }
@@ -35,6 +35,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Deprovision VPN connections for all VPCs associated with an account.
@@ -49,6 +50,8 @@ public class DeprovisionVpnConnections extends AbstractStep implements Step {
     int m_sleepTimeInMillis = 5000;
     int m_maxWaitTimeInMillis = 600000;
     private int m_requestTimeoutIntervalInMillis = 600000;
+    private int m_vpnCount = 0;
+    private int m_failureCount = 0;
 
     public void init(String provisioningId, Properties props, AppConfig aConfig, AccountDeprovisioningProvider adp) throws StepException {
 
@@ -193,36 +196,45 @@ public class DeprovisionVpnConnections extends AbstractStep implements Step {
 
         // Deprovision the VpnConnection for each profile assignment in the list.
         ListIterator<VpnConnectionProfileAssignment> assignmentIterator = vpnConnectionProfileAssignmentsToDeprovision.listIterator();
-        int vpnCount = 0;
-        int failureCount = 0;
         if (assignmentIterator.hasNext() == false) {
             String msg = "There are no VPN connections to deprovision.";
             logger.info(LOGTAG + msg);
             addResultProperty("message", msg);
         }
-        while (assignmentIterator.hasNext()) {
+        return deprovisionVpnConnections(assignmentIterator, startTime);
+    }
+
+    /**
+     * Deprovisions the VpnConnection of the remaining assignments one after
+     * another, waiting for each VpnConnectionDeprovisioning to complete on the
+     * shared ProbeScheduler, and then completes the step.
+     */
+    private List<Property> deprovisionVpnConnections(ListIterator<VpnConnectionProfileAssignment> assignmentIterator,
+                                                     long startTime) throws StepException {
+        String LOGTAG = getStepTag() + "[DeprovisionVpnConnections.deprovisionVpnConnections] ";
+
+        if (assignmentIterator.hasNext()) {
             VpnConnectionProfileAssignment assignment = assignmentIterator.next();
             try {
-                VpnConnectionDeprovisioning result = deprovisionVpnConnection(assignment);
-                vpnCount++;
-                logger.info(LOGTAG + "Deprovisioning result is: " + result.getProvisioningResult());
-                String msg = "Successfully deprovisioned a VPN connection for VpcId " + assignment.getOwnerId()
-                        + " and VpnConnectionProfileId " + assignment.getVpnConnectionProfileId() + ".";
-                logger.info(LOGTAG + msg);
-                addResultProperty("vpnStatus" + vpnCount, msg);
+                return deprovisionVpnConnection(assignment, (result, se) -> {
+                    if (se == null) {
+                        recordDeprovisioningSuccess(assignment, result);
+                    }
+                    else {
+                        recordDeprovisioningFailure(assignment, se);
+                    }
+                    return deprovisionVpnConnections(assignmentIterator, startTime);
+                });
             }
             catch (StepException se) {
-                failureCount++;
-                String errMsg = "An error occurred deprovisioning a VPN connection for VpcId " + assignment.getOwnerId()
-                        + " and VpnConnectionProfileId " + assignment.getVpnConnectionProfileId() + ". The exception is: " + se.getMessage();
-                logger.info(LOGTAG + errMsg);
-                addResultProperty("vpnStatus" + vpnCount, errMsg);
+                recordDeprovisioningFailure(assignment, se);
+                return deprovisionVpnConnections(assignmentIterator, startTime);
             }
         }
 
-        logger.info(LOGTAG + "Successfully deprovisioned " + vpnCount + " connections and failed on " + failureCount + " connections.");
-        addResultProperty("deprovisioningSuccesses", Integer.toString(vpnCount));
-        addResultProperty("deprovisioningFailures", Integer.toString(failureCount));
+        logger.info(LOGTAG + "Successfully deprovisioned " + m_vpnCount + " connections and failed on " + m_failureCount + " connections.");
+        addResultProperty("deprovisioningSuccesses", Integer.toString(m_vpnCount));
+        addResultProperty("deprovisioningFailures", Integer.toString(m_failureCount));
 
         // The step is done. Update the step.
         update(COMPLETED_STATUS, SUCCESS_RESULT);
@@ -235,6 +247,27 @@ public class DeprovisionVpnConnections extends AbstractStep implements Step {
         return getResultProperties();
     }
 
+    private void recordDeprovisioningSuccess(VpnConnectionProfileAssignment assignment,
+                                             VpnConnectionDeprovisioning result) throws StepException {
+        String LOGTAG = getStepTag() + "[DeprovisionVpnConnections.recordDeprovisioningSuccess] ";
+        m_vpnCount++;
+        logger.info(LOGTAG + "Deprovisioning result is: " + result.getProvisioningResult());
+        String msg = "Successfully deprovisioned a VPN connection for VpcId " + assignment.getOwnerId()
+                + " and VpnConnectionProfileId " + assignment.getVpnConnectionProfileId() + ".";
+        logger.info(LOGTAG + msg);
+        addResultProperty("vpnStatus" + m_vpnCount, msg);
+    }
+
+    private void recordDeprovisioningFailure(VpnConnectionProfileAssignment assignment,
+                                             StepException se) throws StepException {
+        String LOGTAG = getStepTag() + "[DeprovisionVpnConnections.recordDeprovisioningFailure] ";
+        m_failureCount++;
+        String errMsg = "An error occurred deprovisioning a VPN connection for VpcId " + assignment.getOwnerId()
+                + " and VpnConnectionProfileId " + assignment.getVpnConnectionProfileId() + ". The exception is: " + se.getMessage();
+        logger.info(LOGTAG + errMsg);
+        addResultProperty("vpnStatus" + m_vpnCount, errMsg);
+    }
+
     protected List<Property> simulate() throws StepException {
         long startTime = System.currentTimeMillis();
         String LOGTAG = getStepTag() + "[DeprovisionVpnConnections.simulate] ";
@@ -436,7 +469,16 @@ public class DeprovisionVpnConnections extends AbstractStep implements Step {
         }
     }
 
-    private VpnConnectionDeprovisioning deprovisionVpnConnection(VpnConnectionProfileAssignment assignment) throws StepException {
+    /**
+     * Completes the deprovisioning of one VpnConnection with its last
+     * VpnConnectionDeprovisioning or the exception that ended the wait.
+     */
+    private interface DeprovisioningContinuation {
+        List<Property> resume(VpnConnectionDeprovisioning result, StepException se) throws StepException;
+    }
+
+    private List<Property> deprovisionVpnConnection(VpnConnectionProfileAssignment assignment,
+                                                    DeprovisioningContinuation continuation) throws StepException {
         String LOGTAG = getStepTag() + "[DeprovisionVpnConnections.deprovisionVpnConnection] ";
 
         // Get a configured VpnConnectionDeprovisioning object from AppConfig
@@ -501,39 +543,41 @@ public class DeprovisionVpnConnections extends AbstractStep implements Step {
             throw new StepException(errMsg);
         }
 
-        // While the deprovisioning time is less that the maxWaitTime,
-        // query for the VpnConnectionDeprovisioning object and
-        // evaluate it for success or failure.
-        while (System.currentTimeMillis() - generateStartTime < getMaxWaitTimeInMillis()) {
-            // Sleep for the sleep interval.
-            logger.info(LOGTAG + "Sleeping for " + getSleepTimeInMillis() + " prior to next VpnConnectionDeprovisioning query.");
+        // Until the maxWaitTime has elapsed, query for the
+        // VpnConnectionDeprovisioning object on the shared ProbeScheduler
+        // every sleep interval and evaluate it for success or failure.
+        AtomicReference<VpnConnectionDeprovisioning> last = new AtomicReference<>(dep);
+        AtomicReference<StepException> error = new AtomicReference<>();
+        long maxWait = getMaxWaitTimeInMillis() - (System.currentTimeMillis() - generateStartTime);
+        return waitFor("the VpnConnectionDeprovisioning of VPC " + assignment.getOwnerId(), () -> {
+            // Query for the VpnConnectionDeprovisioning object.
+            VpnConnectionDeprovisioning current;
             try {
-                Thread.sleep(getSleepTimeInMillis());
+                current = queryForVpnDeprovisioning(last.get().getProvisioningId());
             }
-            catch (InterruptedException ie) {
-                String errMsg = "Error occurred sleeping.";
-                logger.error(LOGTAG + errMsg + ie.getMessage());
-                throw new StepException(errMsg, ie);
+            catch (StepException se) {
+                // Stop waiting and report the error for this connection.
+                error.set(se);
+                return last.get();
             }
-
-            // Query for the VpnConnectionDeprovisioning object.
-            dep = queryForVpnDeprovisioning(dep.getProvisioningId());
+            last.set(current);
 
             // If the VpnConnectionDeprovisioning is successful, log it,
             // and set result properties.
-            if (isSuccess(dep)) {
+            if (isSuccess(current)) {
                 logger.info(LOGTAG + "VPN connection deprovisioning successful for VPN " + assignment.getOwnerId()
                         + " and VPN connection profile ID " + assignment.getVpnConnectionProfileAssignmentId());
-                break;
+                return current;
             }
-            else if (isFailure(dep)) {
+            else if (isFailure(current)) {
                 logger.info(LOGTAG + "VPN connection deprovisioning successful for VPN " + assignment.getOwnerId()
                         + " and VPN connection profile ID " + assignment.getVpnConnectionProfileAssignmentId());
-                break;
+                return current;
             }
-        }
-
-        return dep;
+            logger.info(LOGTAG + "Waiting for " + getSleepTimeInMillis() + " prior to next VpnConnectionDeprovisioning query.");
+            return null;
+        }, getSleepTimeInMillis(), getSleepTimeInMillis(), maxWait,
+                result -> continuation.resume(last.get(), error.get()));
     }
 
     private VpnConnectionDeprovisioning queryForVpnDeprovisioning(String deprovisioningId) throws StepException {
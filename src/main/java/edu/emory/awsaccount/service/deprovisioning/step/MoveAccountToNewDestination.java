@@ -4,23 +4,15 @@ import com.amazon.aws.moa.objects.resources.v1_0.Property;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.regions.Regions;
-import com.amazonaws.services.organizations.AWSOrganizations;
 import com.amazonaws.services.organizations.AWSOrganizationsClient;
 import com.amazonaws.services.organizations.AWSOrganizationsClientBuilder;
-import com.amazonaws.services.organizations.model.Account;
-import com.amazonaws.services.organizations.model.ListAccountsForParentRequest;
-import com.amazonaws.services.organizations.model.ListAccountsForParentResult;
-import com.amazonaws.services.organizations.model.ListOrganizationalUnitsForParentRequest;
-import com.amazonaws.services.organizations.model.ListOrganizationalUnitsForParentResult;
-import com.amazonaws.services.organizations.model.ListRootsRequest;
-import com.amazonaws.services.organizations.model.ListRootsResult;
 import com.amazonaws.services.organizations.model.MoveAccountRequest;
-import com.amazonaws.services.organizations.model.OrganizationalUnit;
-import com.amazonaws.services.organizations.model.Root;
+import edu.emory.awsaccount.service.AwsClientRegistry;
+import edu.emory.awsaccount.service.AwsRateLimiter;
 import edu.emory.awsaccount.service.provider.AccountDeprovisioningProvider;
+import edu.emory.awsaccount.service.provider.OrganizationHierarchyIndex;
 import org.openeai.config.AppConfig;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
@@ -70,57 +62,22 @@ public class MoveAccountToNewDestination extends AbstractStep implements Step {
             AWSOrganizationsClient orgClient = buildOrganizationsClient();
 
             // first step is to find the current parent of the account (SourceParentId)
-            // and then find the ID of the destination based on the name provided (DestinationParentId)
-            String sourceParentId = null;
-            String destinationParentId = null;
-
-            List<OrganizationalUnit> organizationalUnits = new ArrayList<>();
-
-            ListRootsRequest listRootsRequest = new ListRootsRequest();
-            ListRootsResult listRootsResult;
-            do {
-                listRootsResult = orgClient.listRoots(listRootsRequest);
-
-                for (Root root : listRootsResult.getRoots()) {
-                    // while unlikely, the account can be in the Root
-                    if (sourceParentId == null) {
-                        if (isAccountInParent(orgClient, root.getId(), accountId)) {
-                            sourceParentId = root.getId();
-                        }
-                    }
-                    getOrganizationalUnits(orgClient, organizationalUnits, root.getId());
-                }
-
-                listRootsRequest.setNextToken(listRootsResult.getNextToken());
-            } while (listRootsResult.getNextToken() != null);
-
-            // given the list of all organizational units, find the account and the ID of the destination OU
-            for (OrganizationalUnit ou : organizationalUnits) {
-                if (sourceParentId == null) {
-                    if (isAccountInParent(orgClient, ou.getId(), accountId)) {
-                        sourceParentId = ou.getId();
-                    }
-                }
-                if (destinationParentId == null) {
-                    if (ou.getName().equals(getDestinationParentName())) {
-                        destinationParentId = ou.getId();
-                    }
-                }
-                // once both bits of information are found we can stop looking
-                if (sourceParentId != null && destinationParentId != null)
-                    break;
-            }
+            // and then find the ID of the destination based on the name provided (DestinationParentId).
+            // both come from the shared index of the organization, which rarely has to call AWS.
+            OrganizationHierarchyIndex index = OrganizationHierarchyIndex.getInstance();
+            String sourceParentId = index.getParentId(orgClient, accountId);
+            OrganizationHierarchyIndex.Node destination = index.findOrganizationalUnit(orgClient, getDestinationParentName());
 
-            if (sourceParentId == null) {
-                String errMsg = "Unable to find the account in the Root or in any organizational unit";
-                logger.error(LOGTAG + errMsg);
-                throw new StepException(errMsg);
-            }
-            if (destinationParentId == null) {
+            if (destination == null) {
                 String errMsg = "Unable to find the destination organizational unit by name: " + getDestinationParentName();
                 logger.error(LOGTAG + errMsg);
                 throw new StepException(errMsg);
             }
+            String destinationParentId = destination.getId();
+            if (sourceParentId.equals(destinationParentId)) {
+                // don't skip the move on the word of a stale index
+                sourceParentId = index.refreshParentId(orgClient, accountId);
+            }
 
             addResultProperty("accountId", accountId);
             addResultProperty("sourceParentId", sourceParentId);
@@ -140,7 +97,15 @@ public class MoveAccountToNewDestination extends AbstractStep implements Step {
                         .withSourceParentId(sourceParentId)
                         .withDestinationParentId(destinationParentId);
 
-                orgClient.moveAccount(request);
+                try {
+                    orgClient.moveAccount(request);
+                }
+                catch (Exception e) {
+                    // the source parent may have been stale, so look it up again next time
+                    index.invalidateAccount(accountId);
+                    throw e;
+                }
+                index.accountMoved(accountId, destinationParentId);
             }
         }
         catch (StepException e) {
@@ -218,44 +183,16 @@ public class MoveAccountToNewDestination extends AbstractStep implements Step {
     }
 
     private AWSOrganizationsClient buildOrganizationsClient() {
-        BasicAWSCredentials basicCredentials = new BasicAWSCredentials(getAccessKeyId(), getSecretKey());
-        AWSStaticCredentialsProvider credentialsProvider = new AWSStaticCredentialsProvider(basicCredentials);
-        return (AWSOrganizationsClient) AWSOrganizationsClientBuilder.standard()
-                .withCredentials(credentialsProvider)
-                .withRegion(Regions.DEFAULT_REGION)
-                .build();
-    }
-
-    private boolean isAccountInParent(AWSOrganizationsClient orgClient, String parentId, String accountId) {
-        ListAccountsForParentRequest req = new ListAccountsForParentRequest()
-                .withParentId(parentId);
-        ListAccountsForParentResult res;
-        do {
-            res = orgClient.listAccountsForParent(req);
-            for (Account account : res.getAccounts()) {
-                if (account.getId().equals(accountId))
-                    return true;
-            }
-            req.setNextToken(res.getNextToken());
-        } while (res.getNextToken() != null);
-        return false;
-    }
-
-    // recursively get OUs
-    private void getOrganizationalUnits(AWSOrganizations orgClient, List<OrganizationalUnit> organizationalUnits, String parentId) {
-        ListOrganizationalUnitsForParentRequest req = new ListOrganizationalUnitsForParentRequest()
-                        .withParentId(parentId);
-        ListOrganizationalUnitsForParentResult res;
-        do {
-            res = orgClient.listOrganizationalUnitsForParent(req);
-
-            for (OrganizationalUnit ou : res.getOrganizationalUnits()) {
-                organizationalUnits.add(ou);
-                getOrganizationalUnits(orgClient, organizationalUnits, ou.getId());
-            }
-
-            req.setNextToken(res.getNextToken());
-        } while (res.getNextToken() != null);
+        return AwsClientRegistry.getInstance().getClient(AWSOrganizationsClient.class, null,
+                Regions.DEFAULT_REGION.getName(), getAccessKeyId(), () -> {
+                    BasicAWSCredentials basicCredentials = new BasicAWSCredentials(getAccessKeyId(), getSecretKey());
+                    AWSStaticCredentialsProvider credentialsProvider = new AWSStaticCredentialsProvider(basicCredentials);
+                    return (AWSOrganizationsClient) AWSOrganizationsClientBuilder.standard()
+                            .withCredentials(credentialsProvider)
+                            .withRegion(Regions.DEFAULT_REGION)
+                            .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.ORGANIZATIONS, null))
+                            .build();
+                });
     }
 
     private void setAccessKeyId(String accessKeyId) throws StepException {
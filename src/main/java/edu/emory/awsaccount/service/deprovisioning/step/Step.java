@@ -17,6 +17,7 @@ import org.openeai.config.AppConfig;
 
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Interface for all provisioning steps.
@@ -29,11 +30,13 @@ public interface Step {
     void init(String provisioningId, Properties props, AppConfig aConfig, AccountDeprovisioningProvider vpcpp) throws StepException;
 
     List<Property> execute() throws StepException;
+    CompletableFuture<List<Property>> getContinuation();
     void rollback() throws StepException;
     String getStepId();
     String getType();
     String getDescription();
     String getResult();
+    boolean isRerunnable();
     List<Property> getResultProperties();
     void update(String status, String result) throws StepException;
     void addResultProperty(String key, String value) throws StepException;
@@ -17,22 +17,35 @@ import java.util.ListIterator;
 import org.apache.log4j.Logger;
 import org.openeai.config.AppConfig;
 import org.openeai.jms.consumer.commands.provider.AbstractCrudProvider;
+import org.openeai.moa.XmlEnterpriseObject;
+import org.openeai.moa.XmlEnterpriseObjectException;
 
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.auth.BasicSessionCredentials;
 import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
 import com.amazonaws.services.identitymanagement.AmazonIdentityManagementClientBuilder;
 import com.amazonaws.services.identitymanagement.model.AmazonIdentityManagementException;
 import com.amazonaws.services.identitymanagement.model.ListAccountAliasesResult;
-import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
-import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
-import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
-import com.amazonaws.services.securitytoken.model.AssumeRoleResult;
-import com.amazonaws.services.securitytoken.model.Credentials;
+
+import edu.emory.awsaccount.service.AssumedRoleCredentialsCache;
+import edu.emory.awsaccount.service.AwsClientRegistry;
+import edu.emory.awsaccount.service.AwsRateLimiter;
 
 /**
  * CrudProviderAmazonIdentityManagement
+ * <P>
+ * Subclasses may serve repeated queries from a per-account result cache by
+ * running them through cachedQuery and calling invalidateQueryCache after
+ * each change to the resources of an account. The cache is configured with
+ * the queryCacheTtlSeconds (default 300, 0 turns it off) and
+ * queryCacheMaxAccounts (default 1000) properties. Cache misses still share
+ * the assumed-role credentials and clients of the account with other
+ * requests.
+ * <P>
+ * The listAccountAliases call that confirms the base credentials during
+ * initialization can be skipped by setting the verifyCredentialsOnInit
+ * property to false.
  *
  * @author Steve Wheat (swheat@emory.edu)
  * @version 1.0 - 12 July 2018
@@ -48,6 +61,7 @@ public class AbstractAwsCrudProvider<M, Q> extends AbstractCrudProvider<M, Q> {
     private String m_secretKey = null;
     private String m_roleArnPattern = null;
     private int m_roleAssumptionDurationSeconds = 0;
+    private AwsQueryResultCache<M, org.openeai.jms.consumer.commands.provider.ProviderException> m_queryCache = null;
     private String LOGTAG = "[AbstractAwsCrudProvider] ";
 
     /**
@@ -88,6 +102,29 @@ public class AbstractAwsCrudProvider<M, Q> extends AbstractCrudProvider<M, Q> {
         }
         setRoleArnPattern(roleArnPattern);
 
+        try {
+            long queryCacheTtlSeconds = Long.parseLong(getProperties().getProperty("queryCacheTtlSeconds", "300"));
+            int queryCacheMaxAccounts = Integer.parseInt(getProperties().getProperty("queryCacheMaxAccounts", "1000"));
+            logger.info(LOGTAG + "queryCacheTtlSeconds is: " + queryCacheTtlSeconds
+                    + ", queryCacheMaxAccounts is: " + queryCacheMaxAccounts);
+            if (queryCacheTtlSeconds > 0) {
+                m_queryCache = new AwsQueryResultCache<>(getClass().getSimpleName() + "QueryCache",
+                        queryCacheTtlSeconds * 1000, queryCacheTtlSeconds * 1000, queryCacheMaxAccounts,
+                        org.openeai.jms.consumer.commands.provider.ProviderException::new);
+            }
+        } catch (NumberFormatException nfe) {
+            String errMsg = "Invalid queryCacheTtlSeconds or queryCacheMaxAccounts property. " +
+                    "The exception is: " + nfe.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new org.openeai.jms.consumer.commands.provider.ProviderException(errMsg, nfe);
+        }
+
+        if (!Boolean.parseBoolean(getProperties().getProperty("verifyCredentialsOnInit", "true"))) {
+            logger.info(LOGTAG + "Skipping the verification of the base credentials.");
+            logger.info(LOGTAG + "Initialization complete.");
+            return;
+        }
+
         // Instantiate a basic credential provider
         logger.info(LOGTAG + "Initializing AWS credential provider...");
         BasicAWSCredentials creds = new BasicAWSCredentials(accessKeyId, secretKey);
@@ -95,7 +132,9 @@ public class AbstractAwsCrudProvider<M, Q> extends AbstractCrudProvider<M, Q> {
 
         // Create the IAM client
         logger.info(LOGTAG + "Creating the IAM client...");
-        AmazonIdentityManagement iam = AmazonIdentityManagementClientBuilder.standard().withRegion("us-east-1").withCredentials(cp).build();
+        AmazonIdentityManagement iam = AmazonIdentityManagementClientBuilder.standard().withRegion("us-east-1").withCredentials(cp)
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.IAM, null))
+                .build();
 
         // Query for the account alias of the master account to confirm all is
         // working.
@@ -122,6 +161,57 @@ public class AbstractAwsCrudProvider<M, Q> extends AbstractCrudProvider<M, Q> {
         logger.info(LOGTAG + "Initialization complete.");
     }
 
+    /**
+     * Runs a query of the resources of an account through the query cache,
+     * if it is turned on. The query is identified by the XML of the query
+     * specification.
+     *
+     * @param accountId, the account the query reads.
+     * @param querySpec, the query specification.
+     * @param loader, runs the query against AWS.
+     * @return List<M>, the results of the query, which the caller may
+     *         modify.
+     */
+    protected List<M> cachedQuery(String accountId, Q querySpec, AwsQueryResultCache.Loader<M, org.openeai.jms.consumer.commands.provider.ProviderException> loader)
+            throws org.openeai.jms.consumer.commands.provider.ProviderException {
+        if (m_queryCache == null) {
+            return loader.load();
+        }
+        String key;
+        try {
+            key = querySpec instanceof XmlEnterpriseObject ? ((XmlEnterpriseObject) querySpec).toXmlString()
+                    : String.valueOf(querySpec);
+        } catch (XmlEnterpriseObjectException xeoe) {
+            String errMsg = "An error occurred serializing the query specification. " + "The exception is: "
+                    + xeoe.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new org.openeai.jms.consumer.commands.provider.ProviderException(errMsg, xeoe);
+        }
+        return m_queryCache.get(accountId, key, loader);
+    }
+
+    /**
+     * Removes the cached query results of an account. Call it after every
+     * create, update or delete in the account, whether or not it succeeded.
+     *
+     * @param accountId, the account that changed.
+     */
+    protected void invalidateQueryCache(String accountId) {
+        if (m_queryCache != null) {
+            m_queryCache.invalidate(accountId);
+        }
+    }
+
+    /**
+     * 
+     * @return AwsQueryResultCache, the query cache, or null if it is turned
+     *         off.
+     * 
+     */
+    public AwsQueryResultCache<M, org.openeai.jms.consumer.commands.provider.ProviderException> getQueryCache() {
+        return m_queryCache;
+    }
+
     /**
      * 
      * @param String,
@@ -217,30 +307,20 @@ public class AbstractAwsCrudProvider<M, Q> extends AbstractCrudProvider<M, Q> {
         String roleArn = getRoleArnPattern().replace("ACCOUNT_NUMBER", accountId);
         logger.info(LOGTAG + "Role ARN to assume for this request is: " + roleArn);
 
-        // Instantiate a basic credential provider
-        BasicAWSCredentials creds = new BasicAWSCredentials(getAccessKeyId(), getSecretKey());
-        AWSStaticCredentialsProvider cp = new AWSStaticCredentialsProvider(creds);
-
-        // Create the STS client
-        AWSSecurityTokenService sts = AWSSecurityTokenServiceClientBuilder.standard().withCredentials(cp).build();
-
-        // Assume the appropriate role in the appropriate account.
-        AssumeRoleRequest assumeRequest = new AssumeRoleRequest().withRoleArn(roleArn).withDurationSeconds(getRoleAssumptionDuration())
-                .withRoleSessionName("AwsAccountService");
-
-        AssumeRoleResult assumeResult = sts.assumeRole(assumeRequest);
-        Credentials credentials = assumeResult.getCredentials();
-
-        // Instantiate a credential provider
-        BasicSessionCredentials temporaryCredentials = new BasicSessionCredentials(credentials.getAccessKeyId(),
-                credentials.getSecretAccessKey(), credentials.getSessionToken());
-        AWSStaticCredentialsProvider credProvider = new AWSStaticCredentialsProvider(temporaryCredentials);
-
-        // Create the IAM client
-        AmazonIdentityManagement iam = AmazonIdentityManagementClientBuilder.standard().withRegion("us-east-1")
-                .withCredentials(credProvider).build();
-
-        return iam;
+        // Get the session credentials of the role, shared with other requests
+        // for the same account until they are about to expire.
+        AWSCredentialsProvider credProvider = AssumedRoleCredentialsCache.getInstance()
+                .getCredentialsProvider(accountId, roleArn, getAccessKeyId(), getSecretKey(),
+                null, getRoleAssumptionDuration());
+
+        // Get the shared IAM client
+        return AwsClientRegistry.getInstance().getClient(AmazonIdentityManagement.class,
+                accountId, "us-east-1",
+                AwsClientRegistry.roleIdentity(roleArn, getAccessKeyId(), getRoleAssumptionDuration()),
+                () -> AmazonIdentityManagementClientBuilder.standard().withRegion("us-east-1")
+                        .withCredentials(credProvider)
+                        .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.IAM, accountId))
+                        .build());
     }
 
 }
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import org.openeai.utils.lock.LockAlreadySetException;
+import org.openeai.utils.lock.LockException;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the counts and the wait and hold times of a NotificationLock. The
+ * wait time is the time it took to set a lock or find that it was already
+ * set, and the hold time is the time from setting a lock to releasing it.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public abstract class AbstractNotificationLock implements NotificationLock {
+
+    private final AtomicLong m_setCount = new AtomicLong();
+    private final AtomicLong m_alreadySetCount = new AtomicLong();
+    private final AtomicLong m_errorCount = new AtomicLong();
+    private final AtomicLong m_totalWaitNanos = new AtomicLong();
+    private final AtomicLong m_maxWaitNanos = new AtomicLong();
+    private final AtomicLong m_releaseCount = new AtomicLong();
+    private final AtomicLong m_totalHoldMillis = new AtomicLong();
+    private final AtomicLong m_maxHoldMillis = new AtomicLong();
+    private final AtomicLong m_renewedCount = new AtomicLong();
+    private final AtomicLong m_fencedCount = new AtomicLong();
+
+    /**
+     * Sets the lock of a name.
+     * @see NotificationLock#set(String)
+     */
+    protected abstract Lease doSet(String name) throws LockException, LockAlreadySetException;
+
+    /**
+     * Sets the lock of an expired lease again with a new token.
+     * @see NotificationLock#fence(Lease)
+     */
+    protected abstract Lease doRenew(Lease lease) throws LockException, LockAlreadySetException;
+
+    /**
+     * Releases a lock.
+     * @see NotificationLock#release(Lease)
+     */
+    protected abstract void doRelease(Lease lease) throws LockException;
+
+    @Override
+    public Lease set(String name) throws LockException, LockAlreadySetException {
+        long startTime = System.nanoTime();
+        try {
+            Lease lease = doSet(name);
+            m_setCount.incrementAndGet();
+            return lease;
+        } catch (LockAlreadySetException lase) {
+            m_alreadySetCount.incrementAndGet();
+            throw lase;
+        } catch (LockException | RuntimeException e) {
+            m_errorCount.incrementAndGet();
+            throw e;
+        } finally {
+            long wait = System.nanoTime() - startTime;
+            m_totalWaitNanos.addAndGet(wait);
+            m_maxWaitNanos.accumulateAndGet(wait, Math::max);
+        }
+    }
+
+    @Override
+    public Lease fence(Lease lease) throws LockException, LockAlreadySetException {
+        if (!lease.isExpired()) {
+            return lease;
+        }
+        try {
+            Lease renewed = doRenew(lease);
+            m_renewedCount.incrementAndGet();
+            return renewed;
+        } catch (LockAlreadySetException lase) {
+            m_fencedCount.incrementAndGet();
+            throw lase;
+        }
+    }
+
+    @Override
+    public void release(Lease lease) throws LockException {
+        long hold = System.currentTimeMillis() - lease.getSetTime();
+        m_releaseCount.incrementAndGet();
+        m_totalHoldMillis.addAndGet(hold);
+        m_maxHoldMillis.accumulateAndGet(hold, Math::max);
+        doRelease(lease);
+    }
+
+    /**
+     * @return long, the number of locks set.
+     */
+    public long getSetCount() {
+        return m_setCount.get();
+    }
+
+    /**
+     * @return long, the number of attempts that found the lock already set.
+     */
+    public long getAlreadySetCount() {
+        return m_alreadySetCount.get();
+    }
+
+    /**
+     * @return long, the number of attempts that failed with an error.
+     */
+    public long getErrorCount() {
+        return m_errorCount.get();
+    }
+
+    /**
+     * @return long, the number of expired leases renewed by fence().
+     */
+    public long getRenewedCount() {
+        return m_renewedCount.get();
+    }
+
+    /**
+     * @return long, the number of expired leases fenced off by fence().
+     */
+    public long getFencedCount() {
+        return m_fencedCount.get();
+    }
+
+    /**
+     * @return double, the average wait time in milliseconds.
+     */
+    public double getAverageWaitMillis() {
+        long attempts = m_setCount.get() + m_alreadySetCount.get() + m_errorCount.get();
+        return attempts == 0 ? 0 : m_totalWaitNanos.get() / 1e6 / attempts;
+    }
+
+    /**
+     * @return double, the longest wait time in milliseconds.
+     */
+    public double getMaxWaitMillis() {
+        return m_maxWaitNanos.get() / 1e6;
+    }
+
+    /**
+     * @return double, the average hold time in milliseconds.
+     */
+    public double getAverageHoldMillis() {
+        long releases = m_releaseCount.get();
+        return releases == 0 ? 0 : (double) m_totalHoldMillis.get() / releases;
+    }
+
+    /**
+     * @return long, the longest hold time in milliseconds.
+     */
+    public long getMaxHoldMillis() {
+        return m_maxHoldMillis.get();
+    }
+
+    @Override
+    public String getStatistics() {
+        return String.format("set: %d, already set: %d, errors: %d, renewed: %d, fenced: %d, " +
+                        "wait avg/max: %.2f/%.2f ms, hold avg/max: %.1f/%d ms", getSetCount(),
+                getAlreadySetCount(), getErrorCount(), getRenewedCount(), getFencedCount(),
+                getAverageWaitMillis(), getMaxWaitMillis(), getAverageHoldMillis(), getMaxHoldMillis());
+    }
+}
@@ -0,0 +1,202 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import com.amazon.aws.moa.jmsobjects.provisioning.v1_0.AccountAlias;
+import com.amazon.aws.moa.objects.resources.v1_0.AccountAliasQuerySpecification;
+import org.apache.log4j.Category;
+import org.openeai.OpenEaiObject;
+import org.openeai.config.EnterpriseFieldException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queries the aliases of many accounts with one AccountAlias query.
+ * <P>
+ * The AccountAlias query specification has a single AccountId. A bulk query
+ * puts a list of account ids separated by commas or white space in it, or
+ * an asterisk for all accounts of the organization. The aliases of the
+ * accounts are queried with the AccountAlias provider at the same time, at
+ * most the maximum number of parallel queries at a time for all bulk queries
+ * together. An account whose query fails does not fail the bulk query; its
+ * error is returned with the result.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class AccountAliasBulkQuery {
+
+    public static final String ALL_ACCOUNTS = "*";
+
+    /**
+     * The aliases found and the errors of the accounts whose query failed.
+     */
+    public static class Result {
+        private final List<AccountAlias> m_aliases = new ArrayList<>();
+        private final Map<String, String> m_errors = new LinkedHashMap<>();
+        private int m_accountCount = 0;
+
+        /**
+         * @return List<AccountAlias>, the aliases of all accounts whose query
+         * succeeded, in the order of the accounts.
+         */
+        public List<AccountAlias> getAliases() {
+            return m_aliases;
+        }
+
+        /**
+         * @return Map<String, String>, the error of each account whose query
+         * failed, by account id.
+         */
+        public Map<String, String> getErrors() {
+            return m_errors;
+        }
+
+        /**
+         * @return int, the number of accounts queried.
+         */
+        public int getAccountCount() {
+            return m_accountCount;
+        }
+    }
+
+    private final Category logger = OpenEaiObject.logger;
+    private final String LOGTAG = "[AccountAliasBulkQuery] ";
+    private final AccountAliasProvider m_provider;
+    private final ExecutorService m_executor;
+
+    /**
+     * @param provider, the provider that queries the aliases of one account.
+     * @param maxParallelQueries, the maximum number of accounts to query at
+     * the same time.
+     */
+    public AccountAliasBulkQuery(AccountAliasProvider provider, int maxParallelQueries) {
+        m_provider = provider;
+        AtomicInteger threadCount = new AtomicInteger();
+        m_executor = Executors.newFixedThreadPool(Math.max(1, maxParallelQueries), r -> {
+            Thread t = new Thread(r, "AccountAliasBulkQuery-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @return boolean, true if the AccountId of a query specification asks
+     * for more than one account.
+     */
+    public static boolean isBulkQuery(String accountId) {
+        if (accountId == null) {
+            return false;
+        }
+        String trimmed = accountId.trim();
+        return trimmed.equals(ALL_ACCOUNTS) || parseAccountIds(trimmed).size() > 1;
+    }
+
+    /**
+     * @return List<String>, the distinct account ids of a list separated by
+     * commas or white space.
+     */
+    public static List<String> parseAccountIds(String accountIds) {
+        LinkedHashSet<String> ids = new LinkedHashSet<>();
+        for (String id : Arrays.asList(accountIds.trim().split("[\\s,]+"))) {
+            if (!id.isEmpty()) {
+                ids.add(id);
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Queries the aliases of all accounts of a bulk query.
+     *
+     * @param querySpec, the query specification with the list of account ids
+     * or an asterisk.
+     * @return Result, the aliases found and the errors of the failed accounts.
+     * @throws ProviderException if the accounts of the organization can't be
+     * listed.
+     */
+    public Result query(AccountAliasQuerySpecification querySpec) throws ProviderException {
+        long startTime = System.currentTimeMillis();
+        List<String> accountIds;
+        if (querySpec.getAccountId().trim().equals(ALL_ACCOUNTS)) {
+            if (!(m_provider instanceof OrganizationAccountSource)) {
+                String errMsg = "The AccountAlias provider " + m_provider.getClass().getName() +
+                        " can't list the accounts of the organization.";
+                logger.error(LOGTAG + errMsg);
+                throw new ProviderException(errMsg);
+            }
+            accountIds = ((OrganizationAccountSource) m_provider).listAccountIds();
+        } else {
+            accountIds = parseAccountIds(querySpec.getAccountId());
+        }
+
+        Map<String, Future<List<AccountAlias>>> futures = new LinkedHashMap<>();
+        for (String accountId : accountIds) {
+            futures.put(accountId, m_executor.submit(() -> m_provider.query(
+                    accountQuerySpec(querySpec, accountId))));
+        }
+
+        Result result = new Result();
+        result.m_accountCount = accountIds.size();
+        for (Map.Entry<String, Future<List<AccountAlias>>> future : futures.entrySet()) {
+            String accountId = future.getKey();
+            try {
+                result.m_aliases.addAll(future.getValue().get());
+            } catch (ExecutionException ee) {
+                Throwable cause = ee.getCause() != null ? ee.getCause() : ee;
+                logger.error(LOGTAG + "An error occurred querying the aliases of account " +
+                        accountId + ". The exception is: " + cause.getMessage());
+                result.m_errors.put(accountId, cause.getMessage());
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                result.m_errors.put(accountId, "The query was interrupted.");
+            }
+        }
+
+        long time = System.currentTimeMillis() - startTime;
+        logger.info(LOGTAG + "Queried the aliases of " + accountIds.size() + " accounts in " +
+                time + " ms. Aliases: " + result.m_aliases.size() + ", failed accounts: " +
+                result.m_errors.size() + ".");
+        return result;
+    }
+
+    /**
+     * Stops the threads of the bulk query.
+     */
+    public void shutdown() {
+        m_executor.shutdown();
+    }
+
+    private AccountAliasQuerySpecification accountQuerySpec(AccountAliasQuerySpecification querySpec,
+                                                            String accountId) throws ProviderException {
+        try {
+            AccountAliasQuerySpecification spec = (AccountAliasQuerySpecification) querySpec.clone();
+            spec.setAccountId(accountId);
+            return spec;
+        } catch (CloneNotSupportedException | EnterpriseFieldException e) {
+            String errMsg = "An error occurred building the query specification of account " +
+                    accountId + ". The exception is: " + e.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, e);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import com.amazon.aws.moa.jmsobjects.provisioning.v1_0.AccountAlias;
+
+import java.util.List;
+
+/**
+ * A read-through cache of the aliases of accounts.
+ * <P>
+ * Account aliases almost never change, but looking one up in AWS takes an
+ * assumed role, an IAM client and a call to IAM. The cache keeps the aliases
+ * of each account for the time to live, and remembers accounts without an
+ * alias for the negative time to live. It is an AwsQueryResultCache with one
+ * query per account, so only one request loads the aliases of an account at
+ * a time and the least recently used account is removed when the cache is
+ * full. The owner of the cache must invalidate an account when its alias is
+ * created or deleted.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class AccountAliasCache {
+
+    /**
+     * Looks up the aliases of an account when they are not in the cache.
+     */
+    public interface Loader {
+        /**
+         * @return List<AccountAlias>, the aliases of the account, which may
+         * be empty.
+         */
+        List<AccountAlias> load(String accountId) throws ProviderException;
+    }
+
+    private static final String ALIASES = "aliases";
+
+    private final AwsQueryResultCache<AccountAlias, ProviderException> m_cache;
+
+    /**
+     * @param ttl, the number of milliseconds to keep the aliases of an account.
+     * @param negativeTtl, the number of milliseconds to remember that an
+     * account has no alias.
+     * @param maxSize, the maximum number of accounts in the cache.
+     */
+    public AccountAliasCache(long ttl, long negativeTtl, int maxSize) {
+        m_cache = new AwsQueryResultCache<>("AccountAliasCache", ttl, negativeTtl, maxSize,
+                ProviderException::new);
+    }
+
+    /**
+     * Returns the aliases of an account from the cache, loading them if they
+     * are not in the cache or have expired.
+     *
+     * @return List<AccountAlias>, copies of the cached aliases that the
+     * caller may modify.
+     * @throws ProviderException if the loader failed.
+     */
+    public List<AccountAlias> get(String accountId, Loader loader) throws ProviderException {
+        return m_cache.get(accountId, ALIASES, () -> loader.load(accountId));
+    }
+
+    /**
+     * Removes the aliases of an account from the cache. A load of the account
+     * in progress is not added to the cache.
+     */
+    public void invalidate(String accountId) {
+        m_cache.invalidate(accountId);
+    }
+
+    /**
+     * Removes all accounts from the cache.
+     */
+    public void clear() {
+        m_cache.clear();
+    }
+
+    /**
+     * @return int, the number of accounts in the cache.
+     */
+    public int size() {
+        return m_cache.size();
+    }
+
+    /**
+     * @return long, the number of lookups answered from the cache or by a
+     * load already in progress.
+     */
+    public long getHitCount() {
+        return m_cache.getHitCount();
+    }
+
+    /**
+     * @return long, the number of lookups that called the loader.
+     */
+    public long getMissCount() {
+        return m_cache.getMissCount();
+    }
+}
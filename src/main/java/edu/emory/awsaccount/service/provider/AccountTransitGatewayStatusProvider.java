@@ -13,6 +13,7 @@ import com.amazonaws.services.ec2.model.SearchTransitGatewayRoutesRequest;
 import com.amazonaws.services.ec2.model.SearchTransitGatewayRoutesResult;
 import com.amazonaws.services.ec2.model.TransitGatewayAttachment;
 import com.amazonaws.services.ec2.model.TransitGatewayRoute;
+import com.amazonaws.services.ec2.model.TransitGatewayRouteAttachment;
 import edu.emory.awsaccount.service.AwsClientBuilderHelper;
 import edu.emory.moa.jmsobjects.network.v1_0.TransitGatewayConnectionProfile;
 import edu.emory.moa.jmsobjects.network.v1_0.TransitGatewayConnectionProfileAssignment;
@@ -33,11 +34,33 @@ import org.openeai.moa.EnterpriseObjectQueryException;
 import org.openeai.moa.XmlEnterpriseObjectException;
 
 import javax.jms.JMSException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-public class AccountTransitGatewayStatusProvider extends OpenEaiObject implements TransitGatewayStatusProvider {
+public class AccountTransitGatewayStatusProvider extends OpenEaiObject implements TransitGatewayStatusProvider, TransitGatewayAttachmentFingerprintSource {
+    private static final int SEARCH_ROUTES_MAX_RESULTS = 1000;
+
     private AppConfig appConfig;
     private ProducerPool awsAccountServiceProducerPool;
     private ProducerPool networkOpsServiceProducerPool;
@@ -50,6 +73,11 @@ public class AccountTransitGatewayStatusProvider extends OpenEaiObject implement
     private String roleArnPattern = null;
     private int roleAssumptionDurationSeconds = 0;
 
+    private int maxParallelVpcs = 8;
+    private long referenceDataCacheTtlMillis = 60_000;
+    private ExecutorService executor;
+    private ReferenceData referenceData;
+
     @Override
     public void init(AppConfig aConfig) throws ProviderException {
         final String LOGTAG = "[AccountTransitGatewayStatusProvider.init] ";
@@ -126,6 +154,20 @@ public class AccountTransitGatewayStatusProvider extends OpenEaiObject implement
         }
         setRoleAssumptionDurationSeconds(Integer.parseInt(sRoleAssumptionDurationSeconds));
 
+        // the VPCs of an account are checked in parallel
+        setMaxParallelVpcs(Integer.parseInt(getProperties().getProperty("maxParallelVpcs", "8")));
+        logger.info(LOGTAG + "maxParallelVpcs property is: " + getMaxParallelVpcs());
+        AtomicInteger threadCount = new AtomicInteger();
+        setExecutor(Executors.newFixedThreadPool(Math.max(1, getMaxParallelVpcs()), r -> {
+            Thread t = new Thread(r, "AccountTransitGatewayStatusProvider-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }));
+
+        // the connection profiles and transit gateways are kept for a short time
+        setReferenceDataCacheTtlMillis(Long.parseLong(getProperties().getProperty("referenceDataCacheTtlSeconds", "60")) * 1000);
+        logger.info(LOGTAG + "referenceDataCacheTtlMillis is: " + getReferenceDataCacheTtlMillis());
+
         logger.info(LOGTAG + "Initialization complete.");
     }
 
@@ -170,203 +212,445 @@ public class AccountTransitGatewayStatusProvider extends OpenEaiObject implement
 
         List<VirtualPrivateCloud> virtualPrivateClouds = queryForTgwVirtualPrivateClouds(LOGTAG, tgwQuerySpec.getAccountId(), tgwQuerySpec.getVpcId());
         List<TransitGatewayConnectionProfileAssignment> tgwConnectionProfileAssignments = queryForTgwConnectionProfileAssignment(LOGTAG, virtualPrivateClouds);
-        List<TransitGatewayConnectionProfile> tgwConnectionProfiles = queryForTgwConnectionProfiles(LOGTAG);
-        List<edu.emory.moa.jmsobjects.network.v1_0.TransitGateway> transitGatewayMoas = queryForTransitGateways(LOGTAG);
+        ReferenceData referenceData = getReferenceData(LOGTAG);
+
+        // index the assignments by the VPC they are assigned to
+        Map<String, List<TransitGatewayConnectionProfileAssignment>> assignmentsByVpcId = new HashMap<>();
+        for (TransitGatewayConnectionProfileAssignment assignment : tgwConnectionProfileAssignments) {
+            assignmentsByVpcId.computeIfAbsent(assignment.getOwnerId(), k -> new ArrayList<>()).add(assignment);
+        }
+
+        // check the VPCs in parallel. VPCs in the same account, attached to the same TGW or propagating
+        // to the same route tables share the AWS lookups.
+        long elapsedStartTime = System.currentTimeMillis();
+        AwsLookups awsLookups = new AwsLookups();
+        List<Future<TransitGatewayStatus>> futures = new ArrayList<>();
+        for (VirtualPrivateCloud vpc : virtualPrivateClouds) {
+            List<TransitGatewayConnectionProfileAssignment> vpcAssignments
+                    = assignmentsByVpcId.getOrDefault(vpc.getVpcId(), Collections.emptyList());
+            futures.add(getExecutor().submit(() -> queryVpcStatus(vpc, vpcAssignments, referenceData, awsLookups)));
+        }
 
         List<TransitGatewayStatus> results = new ArrayList<>();
         try {
-            for (VirtualPrivateCloud vpc : virtualPrivateClouds) {
-                TransitGatewayConnectionProfileAssignment profileAssignment = null;
-                String transitGatewayId = null;  // the VPC is supposed to be attached to this TGW
-                foundConnectionProfile:
-                for (TransitGatewayConnectionProfileAssignment assignment : tgwConnectionProfileAssignments) {
-                    if (assignment.getOwnerId().equals(vpc.getVpcId())) {
-                        profileAssignment = assignment;
-
-                        for (TransitGatewayConnectionProfile profile : tgwConnectionProfiles) {
-                            if (profile.getTransitGatewayConnectionProfileId().equals(assignment.getTransitGatewayConnectionProfileId())) {
-                                transitGatewayId = profile.getTransitGatewayId();
-                                break foundConnectionProfile;
-                            }
-                        }
-                    }
-                }
+            for (Future<TransitGatewayStatus> future : futures) {
+                results.add(future.get());
+            }
+        }
+        catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            String errMsg = "Interrupted while getting the status of the VPCs.";
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, e);
+        }
+        catch (ExecutionException ee) {
+            futures.forEach(f -> f.cancel(true));
+            Throwable e = ee.getCause();
+            String errMsg;
+            if (e instanceof EnterpriseConfigurationObjectException) {
+                errMsg = "An error occurred getting objects from AppConfig. The exception is: " + e.getMessage();
+            }
+            else if (e instanceof EnterpriseFieldException) {
+                errMsg = "An error occurred setting the field values of the TransitGatewayStatus. The exception is: " + e.getMessage();
+            }
+            else {
+                errMsg = "An error occurred getting the status of the VPC. The exception is: " + e.getMessage();
+            }
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, e);
+        }
 
-                // status report for this TGW VPC
-                TransitGatewayStatus transitGatewayStatus = (TransitGatewayStatus) getAppConfig().getObjectByType(TransitGatewayStatus.class.getName());
-                results.add(transitGatewayStatus);
+        long elapsedTime = System.currentTimeMillis() - elapsedStartTime;
+        logger.info(LOGTAG + "Got the status of " + results.size() + " TGW VPC(s) in " + elapsedTime + " ms."
+                + " AWS lookups: " + awsLookups.getLookupCount() + ", shared: " + awsLookups.getSharedCount() + ".");
 
-                transitGatewayStatus.setAccountId(vpc.getAccountId());
-                transitGatewayStatus.setRegion(vpc.getRegion());
-                transitGatewayStatus.setVpcId(vpc.getVpcId());
-                transitGatewayStatus.setTransitGatewayId(transitGatewayId);
+        return results;
+    }
 
-                if (profileAssignment == null) {
-                    /* found a registered TGW VPC but no TransitGatewayConnectionProfileAssignment */
-                    transitGatewayStatus.setMissingConnectionProfileAssignment("true");
-                    continue;
-                }
-                if (transitGatewayId == null) {
-                    /* found a registered TGW VPC and an assignment but no TransitGatewayConnectionProfile */
-                    transitGatewayStatus.setMissingConnectionProfile("true");
-                    continue;
-                }
+    /*
+     * Get the status of one TGW VPC. See the list of status fields above.
+     */
+    private TransitGatewayStatus queryVpcStatus(VirtualPrivateCloud vpc,
+                                                List<TransitGatewayConnectionProfileAssignment> vpcAssignments,
+                                                ReferenceData referenceData, AwsLookups awsLookups) throws Exception {
+
+        TransitGatewayConnectionProfileAssignment profileAssignment = null;
+        String transitGatewayId = null;  // the VPC is supposed to be attached to this TGW
+        for (TransitGatewayConnectionProfileAssignment assignment : vpcAssignments) {
+            profileAssignment = assignment;
+            TransitGatewayConnectionProfile profile = referenceData.profilesById.get(assignment.getTransitGatewayConnectionProfileId());
+            if (profile != null) {
+                transitGatewayId = profile.getTransitGatewayId();
+                break;
+            }
+        }
 
-                edu.emory.moa.jmsobjects.network.v1_0.TransitGateway transitGatewayMoa = null;
-                for (edu.emory.moa.jmsobjects.network.v1_0.TransitGateway tgwMoa : transitGatewayMoas) {
-                    if (tgwMoa.getTransitGatewayId().equals(transitGatewayId)) {
-                        transitGatewayMoa = tgwMoa;
-                        break;
-                    }
-                }
-                if (transitGatewayMoa == null) {
-                    transitGatewayStatus.setWrongTransitGateway("true");
-                    continue;
-                }
-                // see the note in DetermineVpcConnectionMethod about the validation on the number of TransitGatewayProfile's
-                if (transitGatewayMoa.getTransitGatewayProfile().size() != 1) {
-                    transitGatewayStatus.setInvalidTransitGatewayProfile("true");
-                    continue;
-                }
-                TransitGatewayProfile tgwProfile = (TransitGatewayProfile) transitGatewayMoa.getTransitGatewayProfile().get(0);
-
-                AmazonEC2Client memberEc2Client = AwsClientBuilderHelper.buildAmazonEC2Client(vpc.getAccountId(), vpc.getRegion(),
-                        getAccessKeyId(), getSecretKey(), getRoleArnPattern(), getRoleAssumptionDurationSeconds());
-
-                DescribeTransitGatewaysRequest describeTransitGatewaysRequest = new DescribeTransitGatewaysRequest()
-                        .withTransitGatewayIds(transitGatewayId);
-                DescribeTransitGatewaysResult describeTransitGatewaysResult;
-                com.amazonaws.services.ec2.model.TransitGateway awsTransitGateway = null;
-                foundTransitGateway:
-                do {
-                    describeTransitGatewaysResult = memberEc2Client.describeTransitGateways(describeTransitGatewaysRequest);
-                    for (com.amazonaws.services.ec2.model.TransitGateway tgw : describeTransitGatewaysResult.getTransitGateways()) {
-                        awsTransitGateway = tgw;
-                        break foundTransitGateway;
-                    }
-                    describeTransitGatewaysRequest.setNextToken(describeTransitGatewaysResult.getNextToken());
-                } while (describeTransitGatewaysResult.getNextToken() != null);
+        // status report for this TGW VPC
+        TransitGatewayStatus transitGatewayStatus = (TransitGatewayStatus) getAppConfig().getObjectByType(TransitGatewayStatus.class.getName());
 
-                if (awsTransitGateway == null) {
-                    /* found a registered TGW VPC but no Transit Gateway in AWS */
-                    transitGatewayStatus.setMissingTransitGateway("true");
-                    continue;
-                }
+        transitGatewayStatus.setAccountId(vpc.getAccountId());
+        transitGatewayStatus.setRegion(vpc.getRegion());
+        transitGatewayStatus.setVpcId(vpc.getVpcId());
+        transitGatewayStatus.setTransitGatewayId(transitGatewayId);
 
-                DescribeTransitGatewayAttachmentsRequest describeTransitGatewayAttachmentsRequest
-                        = new DescribeTransitGatewayAttachmentsRequest()
-                                .withFilters(new Filter("resource-type").withValues("vpc"),
-                                             new Filter("resource-id").withValues(vpc.getVpcId()));
-                DescribeTransitGatewayAttachmentsResult describeTransitGatewayAttachmentsResult;
-                List<TransitGatewayAttachment> transitGatewayAttachments = new ArrayList<>();
-                do {
-                    describeTransitGatewayAttachmentsResult = memberEc2Client.describeTransitGatewayAttachments(describeTransitGatewayAttachmentsRequest);
-                    transitGatewayAttachments.addAll(describeTransitGatewayAttachmentsResult.getTransitGatewayAttachments());
-                    describeTransitGatewayAttachmentsRequest.setNextToken(describeTransitGatewayAttachmentsResult.getNextToken());
-                } while (describeTransitGatewayAttachmentsResult.getNextToken() != null);
-
-                if (transitGatewayAttachments.size() != 1) {
-                    /* found a registered TGW VPC but no Transit Gateway Attachment in AWS */
-                    transitGatewayStatus.setMissingTransitGatewayAttachment("true");
-                    continue;
-                }
-                TransitGatewayAttachment transitGatewayAttachment = transitGatewayAttachments.get(0);
-                if (!transitGatewayAttachment.getTransitGatewayId().equals(transitGatewayId)) {
-                    /* found a registered TGW VPC but the Transit Gateway Attachment in AWS doesn't match the connection profile */
-                    transitGatewayStatus.setWrongTransitGatewayAttachment("true");
-                    continue;
-                }
-                // From the VPC account, check to see if the TGW it is supposed to be attached to is available
-                transitGatewayStatus.setTgwStatus(awsTransitGateway.getState());
-                // From the VPC account, check to see if the Attachment state is available
-                transitGatewayStatus.setTgwAttachmentId(transitGatewayAttachment.getTransitGatewayAttachmentId());
-                transitGatewayStatus.setTgwAttachmentStatus(transitGatewayAttachment.getState());
-
-                // From the VPC account, check to see if the Association Status is associated
-                if (transitGatewayAttachment.getAssociation() == null) {
-                    transitGatewayStatus.setMissingTgwAttachmentAssociation("true");
+        if (profileAssignment == null) {
+            /* found a registered TGW VPC but no TransitGatewayConnectionProfileAssignment */
+            transitGatewayStatus.setMissingConnectionProfileAssignment("true");
+            return transitGatewayStatus;
+        }
+        if (transitGatewayId == null) {
+            /* found a registered TGW VPC and an assignment but no TransitGatewayConnectionProfile */
+            transitGatewayStatus.setMissingConnectionProfile("true");
+            return transitGatewayStatus;
+        }
+
+        edu.emory.moa.jmsobjects.network.v1_0.TransitGateway transitGatewayMoa = referenceData.transitGatewaysById.get(transitGatewayId);
+        if (transitGatewayMoa == null) {
+            transitGatewayStatus.setWrongTransitGateway("true");
+            return transitGatewayStatus;
+        }
+        // see the note in DetermineVpcConnectionMethod about the validation on the number of TransitGatewayProfile's
+        if (transitGatewayMoa.getTransitGatewayProfile().size() != 1) {
+            transitGatewayStatus.setInvalidTransitGatewayProfile("true");
+            return transitGatewayStatus;
+        }
+        TransitGatewayProfile tgwProfile = (TransitGatewayProfile) transitGatewayMoa.getTransitGatewayProfile().get(0);
+
+        AmazonEC2Client memberEc2Client = AwsClientBuilderHelper.buildAmazonEC2Client(vpc.getAccountId(), vpc.getRegion(),
+                getAccessKeyId(), getSecretKey(), getRoleArnPattern(), getRoleAssumptionDurationSeconds());
+
+        final String tgwId = transitGatewayId;
+        Optional<com.amazonaws.services.ec2.model.TransitGateway> awsTransitGateway = awsLookups.get(awsLookups.transitGateways,
+                vpc.getAccountId() + "|" + vpc.getRegion() + "|" + transitGatewayId,
+                () -> describeTransitGateway(memberEc2Client, tgwId));
+
+        if (!awsTransitGateway.isPresent()) {
+            /* found a registered TGW VPC but no Transit Gateway in AWS */
+            transitGatewayStatus.setMissingTransitGateway("true");
+            return transitGatewayStatus;
+        }
+
+        Map<String, List<TransitGatewayAttachment>> vpcAttachmentsByVpcId = awsLookups.get(awsLookups.vpcAttachments,
+                vpc.getAccountId() + "|" + vpc.getRegion(),
+                () -> describeVpcAttachments(memberEc2Client));
+        List<TransitGatewayAttachment> transitGatewayAttachments
+                = vpcAttachmentsByVpcId.getOrDefault(vpc.getVpcId(), Collections.emptyList());
+
+        if (transitGatewayAttachments.size() != 1) {
+            /* found a registered TGW VPC but no Transit Gateway Attachment in AWS */
+            transitGatewayStatus.setMissingTransitGatewayAttachment("true");
+            return transitGatewayStatus;
+        }
+        TransitGatewayAttachment transitGatewayAttachment = transitGatewayAttachments.get(0);
+        if (!transitGatewayAttachment.getTransitGatewayId().equals(transitGatewayId)) {
+            /* found a registered TGW VPC but the Transit Gateway Attachment in AWS doesn't match the connection profile */
+            transitGatewayStatus.setWrongTransitGatewayAttachment("true");
+            return transitGatewayStatus;
+        }
+        // From the VPC account, check to see if the TGW it is supposed to be attached to is available
+        transitGatewayStatus.setTgwStatus(awsTransitGateway.get().getState());
+        // From the VPC account, check to see if the Attachment state is available
+        transitGatewayStatus.setTgwAttachmentId(transitGatewayAttachment.getTransitGatewayAttachmentId());
+        transitGatewayStatus.setTgwAttachmentStatus(transitGatewayAttachment.getState());
+
+        // From the VPC account, check to see if the Association Status is associated
+        if (transitGatewayAttachment.getAssociation() == null) {
+            transitGatewayStatus.setMissingTgwAttachmentAssociation("true");
+        }
+        else {
+            transitGatewayStatus.setTgwAttachmentAssociationStatus(transitGatewayAttachment.getAssociation().getState());
+        }
+
+        // From the TGW account, check to see if the VPC TGW attachment ID is present in the association route Table.
+        // Green if returned TransitGatewayRouteTableId matches the ID from the profile.
+        // Otherwise, give the reason it is not correct.
+        if (tgwProfile.getAssociationRouteTableId() == null) {
+            transitGatewayStatus.setTgwAttachmentAssociationCorrect("Missing attachment association route table ID in profile");
+        }
+        else if (transitGatewayAttachment.getAssociation().getTransitGatewayRouteTableId() == null) {
+            transitGatewayStatus.setTgwAttachmentAssociationCorrect("Missing attachment association route table ID");
+        }
+        else if (!tgwProfile.getAssociationRouteTableId().equals(transitGatewayAttachment.getAssociation().getTransitGatewayRouteTableId())) {
+            transitGatewayStatus.setTgwAttachmentAssociationCorrect("Attachment association route table ID does not match profile");
+        }
+        else {
+            transitGatewayStatus.setTgwAttachmentAssociationCorrect("correct");
+        }
+
+
+        String tgwOwnerId = transitGatewayAttachment.getTransitGatewayOwnerId();
+        AmazonEC2Client tgwEc2Client = AwsClientBuilderHelper.buildAmazonEC2Client(tgwOwnerId, vpc.getRegion(),
+                getAccessKeyId(), getSecretKey(), getRoleArnPattern(), getRoleAssumptionDurationSeconds());
+
+        // From the TGW account, check to see if the VPC TGW attachment ID is present in the correct propagation route tables
+
+        @SuppressWarnings("unchecked")
+        List<String> propagationRouteTableIds = tgwProfile.getPropagationRouteTableId();
+        String propagationCorrect = null;
+        if (propagationRouteTableIds.size() == 0) {
+            propagationCorrect = "Missing attachment propagation route table IDs in profile";
+        }
+        else {
+            String attachmentId = transitGatewayAttachment.getTransitGatewayAttachmentId();
+            for (String routeTableId : propagationRouteTableIds) {
+                // the VPC routes of a route table are searched once for all VPCs propagating to it
+                RouteTableRoutes routeTableRoutes = awsLookups.get(awsLookups.routeTableRoutes,
+                        tgwOwnerId + "|" + vpc.getRegion() + "|" + routeTableId,
+                        () -> searchVpcRoutes(tgwEc2Client, routeTableId));
+                List<TransitGatewayRoute> routes = null;
+                if (routeTableRoutes.complete) {
+                    routes = routeTableRoutes.routesByAttachmentId.getOrDefault(attachmentId, Collections.emptyList());
                 }
-                else {
-                    transitGatewayStatus.setTgwAttachmentAssociationStatus(transitGatewayAttachment.getAssociation().getState());
+                else if (!routeTableRoutes.missing) {
+                    // too many routes to search at once, so search for the routes of the attachment
+                    try {
+                        routes = tgwEc2Client.searchTransitGatewayRoutes(new SearchTransitGatewayRoutesRequest()
+                                .withTransitGatewayRouteTableId(routeTableId)
+                                .withFilters(new Filter("attachment.transit-gateway-attachment-id").withValues(attachmentId)))
+                                .getRoutes();
+                    }
+                    catch (AmazonEC2Exception e) {
+                        routes = null;
+                    }
                 }
 
-                // From the TGW account, check to see if the VPC TGW attachment ID is present in the association route Table.
-                // Green if returned TransitGatewayRouteTableId matches the ID from the profile.
-                // Otherwise, give the reason it is not correct.
-                if (tgwProfile.getAssociationRouteTableId() == null) {
-                    transitGatewayStatus.setTgwAttachmentAssociationCorrect("Missing attachment association route table ID in profile");
-                }
-                else if (transitGatewayAttachment.getAssociation().getTransitGatewayRouteTableId() == null) {
-                    transitGatewayStatus.setTgwAttachmentAssociationCorrect("Missing attachment association route table ID");
+                if (routes == null) {
+                    propagationCorrect = "Missing attachment propagation route table ID for route " + routeTableId;
                 }
-                else if (!tgwProfile.getAssociationRouteTableId().equals(transitGatewayAttachment.getAssociation().getTransitGatewayRouteTableId())) {
-                    transitGatewayStatus.setTgwAttachmentAssociationCorrect("Attachment association route table ID does not match profile");
+                else if (routes.size() == 0) {
+                    propagationCorrect = "Missing attachment propagation routes for route table ID " + routeTableId;
                 }
                 else {
-                    transitGatewayStatus.setTgwAttachmentAssociationCorrect("correct");
+                    for (TransitGatewayRoute route : routes) {
+                        if (!route.getState().equals("active")) {
+                            propagationCorrect = "Attachment propagation route is not active for route table ID " + routeTableId;
+                            break;
+                        }
+                    }
                 }
+                if (propagationCorrect != null)
+                    break;  // we're done as soon as a propagation route has an error
+            }
+        }
+        if (propagationCorrect == null)
+            propagationCorrect = "correct";
+        transitGatewayStatus.setTgwAttachmentPropagationCorrect(propagationCorrect);
 
+        return transitGatewayStatus;
+    }
+
+    /*
+     * The fingerprint of an account covers its TGW VPCs and, from the VPC account, the ID, TGW, state and
+     * association of their attachments. Route propagation in the TGW account and the connection profiles
+     * are not covered, so a snapshot still needs an occasional full refresh to see changes to them.
+     */
+    @Override
+    public Map<String, String> queryAttachmentFingerprints() throws ProviderException {
+        final String LOGTAG = "[AccountTransitGatewayStatusProvider.queryAttachmentFingerprints] ";
+        long elapsedStartTime = System.currentTimeMillis();
 
-                AmazonEC2Client tgwEc2Client = AwsClientBuilderHelper.buildAmazonEC2Client(transitGatewayAttachment.getTransitGatewayOwnerId(), vpc.getRegion(),
-                        getAccessKeyId(), getSecretKey(), getRoleArnPattern(), getRoleAssumptionDurationSeconds());
+        // the TGW VPCs of each account and region
+        Map<String, Map<String, List<String>>> vpcIdsByAccountIdAndRegion = new TreeMap<>();
+        for (VirtualPrivateCloud vpc : queryForTgwVirtualPrivateClouds(LOGTAG, null, null)) {
+            vpcIdsByAccountIdAndRegion.computeIfAbsent(vpc.getAccountId(), k -> new TreeMap<>())
+                    .computeIfAbsent(vpc.getRegion(), k -> new ArrayList<>()).add(vpc.getVpcId());
+        }
 
-                // From the TGW account, check to see if the VPC TGW attachment ID is present in the correct propagation route tables
+        Map<String, Future<String>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, List<String>>> entry : vpcIdsByAccountIdAndRegion.entrySet()) {
+            futures.put(entry.getKey(), getExecutor().submit(() -> attachmentFingerprint(entry.getKey(), entry.getValue())));
+        }
 
-                @SuppressWarnings("unchecked")
-                List<String> propagationRouteTableIds = tgwProfile.getPropagationRouteTableId();
-                String propagationCorrect = null;
-                if (propagationRouteTableIds.size() == 0) {
-                    propagationCorrect = "Missing attachment propagation route table IDs in profile";
-                }
-                else {
-                    SearchTransitGatewayRoutesRequest searchTransitGatewayRoutesRequest = new SearchTransitGatewayRoutesRequest()
-                            .withFilters(new Filter("attachment.transit-gateway-attachment-id").withValues(transitGatewayAttachment.getTransitGatewayAttachmentId()));
-                    SearchTransitGatewayRoutesResult searchTransitGatewayRoutesResult;
-                    for (String routeTableId : propagationRouteTableIds) {
-                        searchTransitGatewayRoutesRequest.setTransitGatewayRouteTableId(routeTableId);
-                        try {
-                            searchTransitGatewayRoutesResult = tgwEc2Client.searchTransitGatewayRoutes(searchTransitGatewayRoutesRequest);
-                            if (searchTransitGatewayRoutesResult.getRoutes().size() == 0) {
-                                propagationCorrect = "Missing attachment propagation routes for route table ID " + routeTableId;
-                            }
-                            else {
-                                for (TransitGatewayRoute route : searchTransitGatewayRoutesResult.getRoutes()) {
-                                    if (!route.getState().equals("active")) {
-                                        propagationCorrect = "Attachment propagation route is not active for route table ID " + routeTableId;
-                                        break;
-                                    }
-                                }
-                            }
-                        }
-                        catch (AmazonEC2Exception e) {
-                            propagationCorrect = "Missing attachment propagation route table ID for route " + routeTableId;
-                        }
-                        if (propagationCorrect != null)
-                            break;  // we're done as soon as a propagation route has an error
+        Map<String, String> fingerprints = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<String>> future : futures.entrySet()) {
+            try {
+                fingerprints.put(future.getKey(), future.getValue().get());
+            }
+            catch (InterruptedException e) {
+                futures.values().forEach(f -> f.cancel(true));
+                Thread.currentThread().interrupt();
+                String errMsg = "Interrupted while fingerprinting the TGW attachments.";
+                logger.error(LOGTAG + errMsg);
+                throw new ProviderException(errMsg, e);
+            }
+            catch (ExecutionException e) {
+                // an unknown fingerprint makes the account always look changed
+                logger.warn(LOGTAG + "An error occurred fingerprinting the TGW attachments of account " + future.getKey()
+                        + ". The exception is: " + e.getCause().getMessage());
+                fingerprints.put(future.getKey(), null);
+            }
+        }
+
+        long elapsedTime = System.currentTimeMillis() - elapsedStartTime;
+        logger.info(LOGTAG + "Fingerprinted the TGW attachments of " + fingerprints.size() + " account(s) in " + elapsedTime + " ms.");
+        return fingerprints;
+    }
+
+    private String attachmentFingerprint(String accountId, Map<String, List<String>> vpcIdsByRegion) throws NoSuchAlgorithmException {
+        StringBuilder attachments = new StringBuilder();
+        for (Map.Entry<String, List<String>> entry : vpcIdsByRegion.entrySet()) {
+            AmazonEC2Client ec2Client = AwsClientBuilderHelper.buildAmazonEC2Client(accountId, entry.getKey(),
+                    getAccessKeyId(), getSecretKey(), getRoleArnPattern(), getRoleAssumptionDurationSeconds());
+            Map<String, List<TransitGatewayAttachment>> vpcAttachmentsByVpcId = describeVpcAttachments(ec2Client);
+            List<String> vpcIds = new ArrayList<>(entry.getValue());
+            Collections.sort(vpcIds);
+            for (String vpcId : vpcIds) {
+                attachments.append(entry.getKey()).append('/').append(vpcId);
+                List<TransitGatewayAttachment> vpcAttachments = new ArrayList<>(vpcAttachmentsByVpcId.getOrDefault(vpcId, Collections.emptyList()));
+                vpcAttachments.sort(Comparator.comparing(TransitGatewayAttachment::getTransitGatewayAttachmentId));
+                for (TransitGatewayAttachment attachment : vpcAttachments) {
+                    attachments.append('|').append(attachment.getTransitGatewayAttachmentId())
+                            .append(',').append(attachment.getTransitGatewayId())
+                            .append(',').append(attachment.getState());
+                    if (attachment.getAssociation() != null) {
+                        attachments.append(',').append(attachment.getAssociation().getTransitGatewayRouteTableId())
+                                .append(',').append(attachment.getAssociation().getState());
                     }
                 }
-                if (propagationCorrect == null)
-                    propagationCorrect = "correct";
-                transitGatewayStatus.setTgwAttachmentPropagationCorrect(propagationCorrect);
+                attachments.append('\n');
             }
         }
-        catch (EnterpriseConfigurationObjectException e) {
-            String errMsg = "An error occurred getting objects from AppConfig. The exception is: " + e.getMessage();
-            logger.error(LOGTAG + errMsg);
-            throw new ProviderException(errMsg, e);
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(attachments.toString().getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(digest);
+    }
+
+    private Optional<com.amazonaws.services.ec2.model.TransitGateway> describeTransitGateway(AmazonEC2Client ec2Client, String transitGatewayId) {
+        DescribeTransitGatewaysRequest describeTransitGatewaysRequest = new DescribeTransitGatewaysRequest()
+                .withTransitGatewayIds(transitGatewayId);
+        DescribeTransitGatewaysResult describeTransitGatewaysResult;
+        do {
+            describeTransitGatewaysResult = ec2Client.describeTransitGateways(describeTransitGatewaysRequest);
+            for (com.amazonaws.services.ec2.model.TransitGateway tgw : describeTransitGatewaysResult.getTransitGateways()) {
+                return Optional.of(tgw);
+            }
+            describeTransitGatewaysRequest.setNextToken(describeTransitGatewaysResult.getNextToken());
+        } while (describeTransitGatewaysResult.getNextToken() != null);
+        return Optional.empty();
+    }
+
+    /*
+     * All VPC attachments of the account and region, indexed by VPC ID.
+     */
+    private Map<String, List<TransitGatewayAttachment>> describeVpcAttachments(AmazonEC2Client ec2Client) {
+        DescribeTransitGatewayAttachmentsRequest describeTransitGatewayAttachmentsRequest
+                = new DescribeTransitGatewayAttachmentsRequest()
+                        .withFilters(new Filter("resource-type").withValues("vpc"));
+        DescribeTransitGatewayAttachmentsResult describeTransitGatewayAttachmentsResult;
+        Map<String, List<TransitGatewayAttachment>> attachmentsByVpcId = new HashMap<>();
+        do {
+            describeTransitGatewayAttachmentsResult = ec2Client.describeTransitGatewayAttachments(describeTransitGatewayAttachmentsRequest);
+            for (TransitGatewayAttachment attachment : describeTransitGatewayAttachmentsResult.getTransitGatewayAttachments()) {
+                attachmentsByVpcId.computeIfAbsent(attachment.getResourceId(), k -> new ArrayList<>()).add(attachment);
+            }
+            describeTransitGatewayAttachmentsRequest.setNextToken(describeTransitGatewayAttachmentsResult.getNextToken());
+        } while (describeTransitGatewayAttachmentsResult.getNextToken() != null);
+        return attachmentsByVpcId;
+    }
+
+    /*
+     * All VPC routes of a route table, indexed by attachment ID.
+     */
+    private RouteTableRoutes searchVpcRoutes(AmazonEC2Client ec2Client, String routeTableId) {
+        RouteTableRoutes routeTableRoutes = new RouteTableRoutes();
+        SearchTransitGatewayRoutesResult searchTransitGatewayRoutesResult;
+        try {
+            searchTransitGatewayRoutesResult = ec2Client.searchTransitGatewayRoutes(new SearchTransitGatewayRoutesRequest()
+                    .withTransitGatewayRouteTableId(routeTableId)
+                    .withFilters(new Filter("attachment.resource-type").withValues("vpc"))
+                    .withMaxResults(SEARCH_ROUTES_MAX_RESULTS));
+        }
+        catch (AmazonEC2Exception e) {
+            routeTableRoutes.missing = true;
+            return routeTableRoutes;
+        }
+        if (Boolean.TRUE.equals(searchTransitGatewayRoutesResult.getAdditionalRoutesAvailable())) {
+            return routeTableRoutes;
+        }
+        for (TransitGatewayRoute route : searchTransitGatewayRoutesResult.getRoutes()) {
+            for (TransitGatewayRouteAttachment attachment : route.getTransitGatewayAttachments()) {
+                routeTableRoutes.routesByAttachmentId
+                        .computeIfAbsent(attachment.getTransitGatewayAttachmentId(), k -> new ArrayList<>()).add(route);
+            }
         }
-        catch (EnterpriseFieldException e) {
-            String errMsg = "An error occurred setting the field values of the TransitGatewayStatus. The exception is: " + e.getMessage();
-            logger.error(LOGTAG + errMsg);
-            throw new ProviderException(errMsg, e);
+        routeTableRoutes.complete = true;
+        return routeTableRoutes;
+    }
+
+    /*
+     * The connection profiles and transit gateways, indexed by ID. They rarely change and are the same
+     * for every query, so they are kept for referenceDataCacheTtlSeconds.
+     */
+    private synchronized ReferenceData getReferenceData(String LOGTAG) throws ProviderException {
+        long now = System.currentTimeMillis();
+        if (referenceData != null && now - referenceData.loadTime < getReferenceDataCacheTtlMillis()) {
+            return referenceData;
         }
-        catch (Exception e) {
-            String errMsg = "An error occurred getting the status of the VPC. The exception is: " + e.getMessage();
-            logger.error(LOGTAG + errMsg);
-            throw new ProviderException(errMsg, e);
+
+        ReferenceData data = new ReferenceData(now);
+        for (TransitGatewayConnectionProfile profile : queryForTgwConnectionProfiles(LOGTAG)) {
+            data.profilesById.putIfAbsent(profile.getTransitGatewayConnectionProfileId(), profile);
+        }
+        for (edu.emory.moa.jmsobjects.network.v1_0.TransitGateway tgwMoa : queryForTransitGateways(LOGTAG)) {
+            data.transitGatewaysById.putIfAbsent(tgwMoa.getTransitGatewayId(), tgwMoa);
+        }
+        referenceData = data;
+        return data;
+    }
+
+    private static class ReferenceData {
+        private final long loadTime;
+        private final Map<String, TransitGatewayConnectionProfile> profilesById = new HashMap<>();
+        private final Map<String, edu.emory.moa.jmsobjects.network.v1_0.TransitGateway> transitGatewaysById = new HashMap<>();
+
+        private ReferenceData(long loadTime) {
+            this.loadTime = loadTime;
         }
+    }
 
-        return results;
+    private static class RouteTableRoutes {
+        private final Map<String, List<TransitGatewayRoute>> routesByAttachmentId = new HashMap<>();
+        private boolean complete = false;  // false if there are more VPC routes than one search returns
+        private boolean missing = false;   // true if the route table can not be searched
+    }
+
+    /*
+     * The AWS lookups of one query, shared by the VPCs being checked in parallel.
+     * The first VPC that needs a lookup makes it and the others wait for its result.
+     */
+    private static class AwsLookups {
+        private final ConcurrentHashMap<String, CompletableFuture<Optional<com.amazonaws.services.ec2.model.TransitGateway>>> transitGateways = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, CompletableFuture<Map<String, List<TransitGatewayAttachment>>>> vpcAttachments = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, CompletableFuture<RouteTableRoutes>> routeTableRoutes = new ConcurrentHashMap<>();
+        private final AtomicInteger lookupCount = new AtomicInteger();
+        private final AtomicInteger sharedCount = new AtomicInteger();
+
+        private <T> T get(ConcurrentHashMap<String, CompletableFuture<T>> lookups, String key, Supplier<T> lookup) throws Exception {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            CompletableFuture<T> existing = lookups.putIfAbsent(key, future);
+            if (existing != null) {
+                sharedCount.incrementAndGet();
+                try {
+                    return existing.join();
+                }
+                catch (CompletionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+            lookupCount.incrementAndGet();
+            try {
+                T result = lookup.get();
+                future.complete(result);
+                return result;
+            }
+            catch (RuntimeException e) {
+                future.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        private int getLookupCount() { return lookupCount.get(); }
+        private int getSharedCount() { return sharedCount.get(); }
     }
 
     private List<VirtualPrivateCloud> queryForTgwVirtualPrivateClouds(String LOGTAG, String accountId, String vpcId) throws ProviderException {
@@ -607,4 +891,10 @@ public class AccountTransitGatewayStatusProvider extends OpenEaiObject implement
     public void setRoleArnPattern(String v) { this.roleArnPattern = v; }
     public int getRoleAssumptionDurationSeconds() { return roleAssumptionDurationSeconds; }
     public void setRoleAssumptionDurationSeconds(int v) { this.roleAssumptionDurationSeconds = v; }
+    public int getMaxParallelVpcs() { return maxParallelVpcs; }
+    public void setMaxParallelVpcs(int v) { this.maxParallelVpcs = v; }
+    public long getReferenceDataCacheTtlMillis() { return referenceDataCacheTtlMillis; }
+    public void setReferenceDataCacheTtlMillis(long v) { this.referenceDataCacheTtlMillis = v; }
+    private ExecutorService getExecutor() { return executor; }
+    private void setExecutor(ExecutorService v) { this.executor = v; }
 }
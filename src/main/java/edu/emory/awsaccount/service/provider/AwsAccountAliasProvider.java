@@ -32,7 +32,6 @@ import com.amazon.aws.moa.objects.resources.v1_0.AccountAliasQuerySpecification;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.auth.BasicSessionCredentials;
 import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
 import com.amazonaws.services.identitymanagement.AmazonIdentityManagementClientBuilder;
 import com.amazonaws.services.identitymanagement.model.AmazonIdentityManagementException;
@@ -41,12 +40,16 @@ import com.amazonaws.services.identitymanagement.model.CreateAccountAliasResult;
 import com.amazonaws.services.identitymanagement.model.DeleteAccountAliasRequest;
 import com.amazonaws.services.identitymanagement.model.DeleteAccountAliasResult;
 import com.amazonaws.services.identitymanagement.model.ListAccountAliasesResult;
-import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
-import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClient;
-import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
-import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
-import com.amazonaws.services.securitytoken.model.AssumeRoleResult;
-import com.amazonaws.services.securitytoken.model.Credentials;
+import com.amazonaws.services.organizations.AWSOrganizations;
+import com.amazonaws.services.organizations.AWSOrganizationsClientBuilder;
+import com.amazonaws.services.organizations.model.AWSOrganizationsException;
+import com.amazonaws.services.organizations.model.Account;
+import com.amazonaws.services.organizations.model.ListAccountsRequest;
+import com.amazonaws.services.organizations.model.ListAccountsResult;
+
+import edu.emory.awsaccount.service.AssumedRoleCredentialsCache;
+import edu.emory.awsaccount.service.AwsClientRegistry;
+import edu.emory.awsaccount.service.AwsRateLimiter;
 
 /**
  * An example object provider that maintains an in-memory store of stacks.
@@ -56,7 +59,7 @@ import com.amazonaws.services.securitytoken.model.Credentials;
  *
  */
 
-public class AwsAccountAliasProvider extends OpenEaiObject implements AccountAliasProvider {
+public class AwsAccountAliasProvider extends OpenEaiObject implements AccountAliasProvider, OrganizationAccountSource {
 
     private Category logger = OpenEaiObject.logger;
     private AppConfig m_appConfig;
@@ -122,7 +125,9 @@ public class AwsAccountAliasProvider extends OpenEaiObject implements AccountAli
 
         // Create the IAM client
         logger.info(LOGTAG + "Creating the IAM client...");
-        AmazonIdentityManagement iam = AmazonIdentityManagementClientBuilder.standard().withRegion("us-east-1").withCredentials(cp).build();
+        AmazonIdentityManagement iam = AmazonIdentityManagementClientBuilder.standard().withRegion("us-east-1").withCredentials(cp)
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.IAM, null))
+                .build();
 
         // Query for the account alias of the master account to confirm all is
         // working.
@@ -267,6 +272,41 @@ public class AwsAccountAliasProvider extends OpenEaiObject implements AccountAli
         }
     }
 
+    /**
+     * @see OrganizationAccountSource.java
+     */
+    @Override
+    public List<String> listAccountIds() throws ProviderException {
+        // Get the shared Organizations client of the master account
+        AWSOrganizations organizations = AwsClientRegistry.getInstance().getClient(AWSOrganizations.class,
+                null, "us-east-1", getAccessKeyId(),
+                () -> AWSOrganizationsClientBuilder.standard().withRegion("us-east-1")
+                        .withCredentials(new AWSStaticCredentialsProvider(
+                                new BasicAWSCredentials(getAccessKeyId(), getSecretKey())))
+                        .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.ORGANIZATIONS, null))
+                        .build());
+
+        // List the accounts one page at a time
+        List<String> accountIds = new ArrayList<String>();
+        ListAccountsRequest request = new ListAccountsRequest();
+        try {
+            do {
+                ListAccountsResult result = organizations.listAccounts(request);
+                for (Account account : result.getAccounts()) {
+                    accountIds.add(account.getId());
+                }
+                request.setNextToken(result.getNextToken());
+            } while (request.getNextToken() != null);
+        } catch (AWSOrganizationsException aoe) {
+            String errMsg = "An error occurred listing the accounts of the organization. " + "The exception is: " + aoe.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, aoe);
+        }
+
+        logger.info(LOGTAG + "The organization has " + accountIds.size() + " accounts.");
+        return accountIds;
+    }
+
     /**
      *
      * @param AppConfig,
@@ -381,30 +421,20 @@ public class AwsAccountAliasProvider extends OpenEaiObject implements AccountAli
         String roleArn = getRoleArnPattern().replace("ACCOUNT_NUMBER", accountId);
         logger.info(LOGTAG + "Role ARN to assume for this request is: " + roleArn);
 
-        // Instantiate a basic credential provider
-        BasicAWSCredentials creds = new BasicAWSCredentials(getAccessKeyId(), getSecretKey());
-        AWSStaticCredentialsProvider cp = new AWSStaticCredentialsProvider(creds);
-
-        // Create the STS client
-        AWSSecurityTokenService sts = AWSSecurityTokenServiceClientBuilder.standard().withRegion("us-east-1").withCredentials(cp).build();
-
-        // Assume the appropriate role in the appropriate account.
-        AssumeRoleRequest assumeRequest = new AssumeRoleRequest().withRoleArn(roleArn).withDurationSeconds(getRoleAssumptionDuration())
-                .withRoleSessionName("AwsAccountService");
-
-        AssumeRoleResult assumeResult = sts.assumeRole(assumeRequest);
-        Credentials credentials = assumeResult.getCredentials();
-
-        // Instantiate a credential provider
-        BasicSessionCredentials temporaryCredentials = new BasicSessionCredentials(credentials.getAccessKeyId(),
-                credentials.getSecretAccessKey(), credentials.getSessionToken());
-        AWSStaticCredentialsProvider credProvider = new AWSStaticCredentialsProvider(temporaryCredentials);
-
-        // Create the IAM client
-        AmazonIdentityManagement iam = AmazonIdentityManagementClientBuilder.standard().withRegion("us-east-1")
-                .withCredentials(credProvider).build();
-
-        return iam;
+        // Get the session credentials of the role, shared with other requests
+        // for the same account until they are about to expire.
+        AWSCredentialsProvider credProvider = AssumedRoleCredentialsCache.getInstance()
+                .getCredentialsProvider(accountId, roleArn, getAccessKeyId(), getSecretKey(),
+                "us-east-1", getRoleAssumptionDuration());
+
+        // Get the shared IAM client
+        return AwsClientRegistry.getInstance().getClient(AmazonIdentityManagement.class,
+                accountId, "us-east-1",
+                AwsClientRegistry.roleIdentity(roleArn, getAccessKeyId(), getRoleAssumptionDuration()),
+                () -> AmazonIdentityManagementClientBuilder.standard().withRegion("us-east-1")
+                        .withCredentials(credProvider)
+                        .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.IAM, accountId))
+                        .build());
     }
 
 }
@@ -29,17 +29,18 @@ import com.amazonaws.services.organizations.model.CreateOrganizationalUnitReques
 import com.amazonaws.services.organizations.model.CreateOrganizationalUnitResult;
 import com.amazonaws.services.organizations.model.ListChildrenRequest;
 import com.amazonaws.services.organizations.model.ListChildrenResult;
-import com.amazonaws.services.organizations.model.ListParentsRequest;
-import com.amazonaws.services.organizations.model.ListParentsResult;
 import com.amazonaws.services.organizations.model.OrganizationalUnit;
 import com.amazonaws.services.organizations.model.Parent;
+import edu.emory.awsaccount.service.AwsRateLimiter;
 
 public class AwsAccountOrganizationMembershipProvider
         extends AbstractAwsCrudProvider<AccountOrganizationMembership, AccountOrganizationMembershipQuerySpecification> {
 
     private static Logger logger = Logger.getLogger(AwsAccountOrganizationMembershipProvider.class);
     private String LOGTAG = "[AwsAccountOrganizationMembershipProvider] ";
-    private AWSOrganizations organizations = AWSOrganizationsClientBuilder.defaultClient();
+    private AWSOrganizations organizations = AWSOrganizationsClientBuilder.standard()
+            .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.ORGANIZATIONS, null))
+            .build();
 
     @Override
     public List<AccountOrganizationMembership> query(AccountOrganizationMembershipQuerySpecification querySpec)
@@ -49,21 +50,19 @@ public class AwsAccountOrganizationMembershipProvider
             throw new org.openeai.jms.consumer.commands.provider.ProviderException(errMsg);
         }
         List<AccountOrganizationMembership> accountOrganizationMemberships = new ArrayList<>();
-        ListParentsRequest listParentsRequest = new ListParentsRequest();
-        listParentsRequest.setChildId(querySpec.getAccountId());
-        ListParentsResult listParentResults = organizations.listParents(listParentsRequest);
-        for (Parent parent : listParentResults.getParents()) {
-            AccountOrganizationMembership accountOrganizationMembership = null;
-            try {
-                accountOrganizationMembership = (AccountOrganizationMembership) appConfig
-                        .getObjectByType(AccountOrganizationMembership.class.getName());
-                accountOrganizationMemberships.add(accountOrganizationMembership);
-                accountOrganizationMembership.setAccountId(parent.getId());
-                accountOrganizationMembership.setParentId(parent.getType());
-            } catch (EnterpriseConfigurationObjectException | EnterpriseFieldException e1) {
-                logger.error(e1);
-                throw new org.openeai.jms.consumer.commands.provider.ProviderException(e1.getMessage());
-            }
+        // The parent comes from the shared index of the organization, which
+        // only calls Organizations when the account is not in it yet.
+        Parent parent = OrganizationHierarchyIndex.getInstance().getParent(organizations, querySpec.getAccountId());
+        AccountOrganizationMembership accountOrganizationMembership = null;
+        try {
+            accountOrganizationMembership = (AccountOrganizationMembership) appConfig
+                    .getObjectByType(AccountOrganizationMembership.class.getName());
+            accountOrganizationMemberships.add(accountOrganizationMembership);
+            accountOrganizationMembership.setAccountId(parent.getId());
+            accountOrganizationMembership.setParentId(parent.getType());
+        } catch (EnterpriseConfigurationObjectException | EnterpriseFieldException e1) {
+            logger.error(e1);
+            throw new org.openeai.jms.consumer.commands.provider.ProviderException(e1.getMessage());
         }
         return accountOrganizationMemberships;
     }
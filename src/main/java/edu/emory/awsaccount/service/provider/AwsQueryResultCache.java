@@ -0,0 +1,247 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import org.apache.log4j.Category;
+import org.openeai.OpenEaiObject;
+import org.openeai.moa.XmlEnterpriseObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * A read-through cache of the results of queries against the resources of
+ * an account, such as the queries of the providers that extend
+ * AbstractAwsCrudProvider and the aliases of the AccountAliasCache.
+ * <P>
+ * The results are kept by account and by query, where the query is
+ * identified by a key built from the query specification, for the time to
+ * live, or for the negative time to live if the query found nothing. When
+ * several requests run the same query at the same time, only one of them
+ * calls the loader and the others wait for its result. The owner must
+ * invalidate an account when it creates, updates or deletes one of its
+ * resources, which removes the results of all queries of the account.
+ * <P>
+ * The accounts are kept in order of their last use, and when there are more
+ * than the maximum, the least recently used account is removed.
+ * <P>
+ * The cached objects are cloned on the way out, so callers may modify them.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ * @param <M>, the message object returned by the queries, which must be an
+ * XmlEnterpriseObject.
+ * @param <E>, the exception the loader throws.
+ */
+public class AwsQueryResultCache<M, E extends Exception> {
+
+    /**
+     * Runs a query when its results are not in the cache.
+     */
+    public interface Loader<M, E extends Exception> {
+        /**
+         * @return List<M>, the results of the query, which may be empty.
+         */
+        List<M> load() throws E;
+    }
+
+    private static class Entry<M> {
+        private final List<M> m_results;
+        private final long m_expirationTime;
+
+        private Entry(List<M> results, long expirationTime) {
+            m_results = results;
+            m_expirationTime = expirationTime;
+        }
+    }
+
+    private final Category logger = OpenEaiObject.logger;
+    private final String LOGTAG;
+    private final LinkedHashMap<String, Map<String, CompletableFuture<Entry<M>>>> m_accounts;
+    private final long m_ttl;
+    private final long m_negativeTtl;
+    private final BiFunction<String, Throwable, E> m_errorFactory;
+    private final AtomicLong m_hitCount = new AtomicLong();
+    private final AtomicLong m_missCount = new AtomicLong();
+
+    /**
+     * @param name, the name of the cache to log with.
+     * @param ttl, the number of milliseconds to keep the results of a query.
+     * @param negativeTtl, the number of milliseconds to remember that a query
+     * found nothing.
+     * @param maxAccounts, the maximum number of accounts in the cache.
+     * @param errorFactory, makes the exception thrown when a result can't be
+     * copied, from a message and a cause.
+     */
+    public AwsQueryResultCache(String name, long ttl, long negativeTtl, int maxAccounts,
+                               BiFunction<String, Throwable, E> errorFactory) {
+        LOGTAG = "[" + name + "] ";
+        m_ttl = ttl;
+        m_negativeTtl = negativeTtl;
+        m_errorFactory = errorFactory;
+        m_accounts = new LinkedHashMap<String, Map<String, CompletableFuture<Entry<M>>>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, CompletableFuture<Entry<M>>>> eldest) {
+                return size() > maxAccounts;
+            }
+        };
+    }
+
+    /**
+     * Returns the results of a query from the cache, running it if they are
+     * not in the cache or have expired.
+     *
+     * @param accountId, the account the query reads.
+     * @param key, identifies the query within the account.
+     * @param loader, runs the query.
+     * @return List<M>, copies of the cached results that the caller may
+     * modify.
+     * @throws E if the loader failed.
+     */
+    public List<M> get(String accountId, String key, Loader<M, E> loader) throws E {
+        long now = System.currentTimeMillis();
+        CompletableFuture<Entry<M>> load = new CompletableFuture<>();
+        CompletableFuture<Entry<M>> current;
+        synchronized (m_accounts) {
+            Map<String, CompletableFuture<Entry<M>>> queries =
+                    m_accounts.computeIfAbsent(accountId, k -> new HashMap<>());
+            current = queries.compute(key, (k, existing) -> {
+                if (existing == null || existing.isCompletedExceptionally()) {
+                    return load;
+                }
+                if (existing.isDone() && now >= existing.join().m_expirationTime) {
+                    return load;
+                }
+                return existing;
+            });
+        }
+
+        if (current != load) {
+            m_hitCount.incrementAndGet();
+            return copy(join(current).m_results);
+        }
+
+        m_missCount.incrementAndGet();
+        try {
+            List<M> results = loader.load();
+            long loadTime = System.currentTimeMillis();
+            long ttl = results.isEmpty() ? m_negativeTtl : m_ttl;
+            load.complete(new Entry<>(Collections.unmodifiableList(new ArrayList<>(results)), loadTime + ttl));
+            logger.info(LOGTAG + "Loaded " + results.size() + " results for account " +
+                    accountId + ". Hits: " + getHitCount() + ", misses: " +
+                    getMissCount() + ", accounts: " + size() + ".");
+            return copy(results);
+        } catch (Exception e) {
+            // Don't cache errors.
+            remove(accountId, key, load);
+            load.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Removes the results of all queries of an account from the cache. A
+     * query of the account in progress is not added to the cache.
+     */
+    public void invalidate(String accountId) {
+        boolean removed;
+        synchronized (m_accounts) {
+            removed = m_accounts.remove(accountId) != null;
+        }
+        if (removed) {
+            logger.info(LOGTAG + "Invalidated the query results of account " + accountId + ".");
+        }
+    }
+
+    /**
+     * Removes all accounts from the cache.
+     */
+    public void clear() {
+        synchronized (m_accounts) {
+            m_accounts.clear();
+        }
+    }
+
+    /**
+     * @return int, the number of accounts in the cache.
+     */
+    public int size() {
+        synchronized (m_accounts) {
+            return m_accounts.size();
+        }
+    }
+
+    /**
+     * @return long, the number of queries answered from the cache or by a
+     * query already in progress.
+     */
+    public long getHitCount() {
+        return m_hitCount.get();
+    }
+
+    /**
+     * @return long, the number of queries that called the loader.
+     */
+    public long getMissCount() {
+        return m_missCount.get();
+    }
+
+    private void remove(String accountId, String key, CompletableFuture<Entry<M>> load) {
+        synchronized (m_accounts) {
+            Map<String, CompletableFuture<Entry<M>>> queries = m_accounts.get(accountId);
+            if (queries != null && queries.remove(key, load) && queries.isEmpty()) {
+                m_accounts.remove(accountId);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Entry<M> join(CompletableFuture<Entry<M>> future) throws E {
+        try {
+            return future.join();
+        } catch (CompletionException ce) {
+            Throwable cause = ce.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Exception) {
+                // Only the loader completes a load with a checked exception.
+                throw (E) cause;
+            }
+            throw ce;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<M> copy(List<M> results) throws E {
+        List<M> copies = new ArrayList<>(results.size());
+        for (M result : results) {
+            try {
+                copies.add((M) ((XmlEnterpriseObject) result).clone());
+            } catch (CloneNotSupportedException cnse) {
+                String errMsg = "An error occurred cloning a message object. " +
+                        "The exception is: " + cnse.getMessage();
+                logger.error(LOGTAG + errMsg);
+                throw m_errorFactory.apply(errMsg, cnse);
+            }
+        }
+        return copies;
+    }
+}
@@ -52,10 +52,17 @@ public class AwsSamlProviderProvider extends AbstractAwsCrudProvider<SamlProvide
             String errMsg = "The accountId is null. Cannot contiue.";
             throw new org.openeai.jms.consumer.commands.provider.ProviderException(errMsg);
         }
+        // The SAML providers of an account are read on every federation
+        // refresh but rarely change, so serve them from the query cache.
+        return cachedQuery(querySpec.getAccountId(), querySpec, () -> listSamlProviders(querySpec.getAccountId()));
+    }
+
+    private List<SamlProvider> listSamlProviders(String accountId)
+            throws org.openeai.jms.consumer.commands.provider.ProviderException {
         List<SamlProvider> samlProviders = new ArrayList<>();
         ListSAMLProvidersRequest request = new ListSAMLProvidersRequest();
 
-        ListSAMLProvidersResult result = buildIamClient(querySpec.getAccountId()).listSAMLProviders(request);
+        ListSAMLProvidersResult result = buildIamClient(accountId).listSAMLProviders(request);
         // Replace the object in the map with the same StackId.
         // TODO: check result
         for (SAMLProviderListEntry entry : result.getSAMLProviderList()) {
@@ -90,14 +97,22 @@ public class AwsSamlProviderProvider extends AbstractAwsCrudProvider<SamlProvide
         CreateSAMLProviderRequest request = new CreateSAMLProviderRequest();
         request.setName(req.getName());
         request.setSAMLMetadataDocument(req.getSamlMetadataDocument());
-        CreateSAMLProviderResult result = buildIamClient(req.getAccountId()).createSAMLProvider(request);
-        logger.info(LOGTAG + "arn=" + result.getSAMLProviderArn());
+        try {
+            CreateSAMLProviderResult result = buildIamClient(req.getAccountId()).createSAMLProvider(request);
+            logger.info(LOGTAG + "arn=" + result.getSAMLProviderArn());
+        } finally {
+            invalidateQueryCache(req.getAccountId());
+        }
     }
     @Override
     public void delete(SamlProvider samlProvider) throws org.openeai.jms.consumer.commands.provider.ProviderException {
         DeleteSAMLProviderRequest request = new DeleteSAMLProviderRequest();
         request.setSAMLProviderArn("arn:aws:iam::" + samlProvider.getAccountId() + ":saml-provider/" + samlProvider.getName());
-        DeleteSAMLProviderResult result = buildIamClient(samlProvider.getAccountId()).deleteSAMLProvider(request);
+        try {
+            DeleteSAMLProviderResult result = buildIamClient(samlProvider.getAccountId()).deleteSAMLProvider(request);
+        } finally {
+            invalidateQueryCache(samlProvider.getAccountId());
+        }
         return;
     }
 
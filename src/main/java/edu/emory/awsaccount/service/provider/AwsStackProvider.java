@@ -13,10 +13,13 @@ package edu.emory.awsaccount.service.provider;
 
 // Java utilities
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Properties;
+import java.util.Set;
 import java.util.StringTokenizer;
 
 // Log4j
@@ -41,9 +44,6 @@ import com.amazon.aws.moa.objects.resources.v1_0.StackRequisition;
 // AWS APIs
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSCredentialsProvider;
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
-import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.auth.BasicSessionCredentials;
 import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.services.cloudformation.AmazonCloudFormation;
 import com.amazonaws.services.cloudformation.AmazonCloudFormationClient;
@@ -56,16 +56,15 @@ import com.amazonaws.services.cloudformation.model.StackStatus;
 import com.amazonaws.services.cloudformation.model.Tag;
 import com.amazonaws.services.identitymanagement.AmazonIdentityManagement;
 import com.amazonaws.services.identitymanagement.AmazonIdentityManagementClientBuilder;
-import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
-import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
-import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
-import com.amazonaws.services.securitytoken.model.AssumeRoleResult;
-import com.amazonaws.services.securitytoken.model.Credentials;
 import com.amazonaws.services.cloudformation.model.CreateStackRequest;
 import com.amazonaws.services.cloudformation.model.CreateStackResult;
 import com.amazonaws.services.cloudformation.model.DeleteStackRequest;
 import com.amazonaws.services.cloudformation.model.DeleteStackResult;
 
+import edu.emory.awsaccount.service.AssumedRoleCredentialsCache;
+import edu.emory.awsaccount.service.AwsClientRegistry;
+import edu.emory.awsaccount.service.AwsRateLimiter;
+
 /**
  *  An object provider that creates, updates, and deletes stacks
  *  in AWS.
@@ -79,7 +78,8 @@ implements StackProvider {
 	private Category logger = OpenEaiObject.logger;
 	private AppConfig m_appConfig;
 	private boolean m_verbose = false;
-	private long m_waitInterval = 5 * 1000; // wait interval
+	private long m_waitInterval = 2 * 1000; // wait interval
+	private long m_maxWaitInterval = 20 * 1000; // max wait interval
 	private long m_maxWaitTime = 10 * 60 * 1000; // max wait time
 	private String m_roleArnPattern = null; // role pattern of the role to assume
 	private String m_accessKeyId = null; // the AWS API access key
@@ -87,6 +87,15 @@ implements StackProvider {
     private int m_roleAssumptionDurationSeconds = 0; // session duration for role assumption
 	private String LOGTAG = "[AwsStackProvider] ";
 	
+	// Stack statuses that end the wait for a stack to be created or deleted
+	private static final Set<String> GENERATE_TERMINAL_STATUSES = new HashSet<>(Arrays.asList(
+		StackStatus.CREATE_COMPLETE.toString(), StackStatus.CREATE_FAILED.toString(),
+		StackStatus.ROLLBACK_FAILED.toString(), StackStatus.ROLLBACK_COMPLETE.toString(),
+		StackStatus.DELETE_FAILED.toString(), StackStatus.DELETE_COMPLETE.toString()));
+	private static final Set<String> DELETE_TERMINAL_STATUSES = new HashSet<>(Arrays.asList(
+		StackStatus.DELETE_COMPLETE.toString(), StackStatus.DELETE_FAILED.toString(),
+		StackStatus.ROLLBACK_FAILED.toString()));
+	
 	/**
 	 * @see VirtualPrivateCloudProvider.java
 	 */
@@ -117,9 +126,13 @@ implements StackProvider {
 		logger.info(LOGTAG + "Verbose propery is: " + getVerbose());
 		
 		// Set the waitInterval property
-		setWaitInterval(Long.valueOf(getProperties().getProperty("waitInterval", "5000")));
+		setWaitInterval(Long.valueOf(getProperties().getProperty("waitInterval", "2000")));
 		logger.info(LOGTAG + "waitInterval property is: " + getWaitInterval() + " ms.");
 		
+		// Set the maxWaitInterval property
+		setMaxWaitInterval(Long.valueOf(getProperties().getProperty("maxWaitInterval", "20000")));
+		logger.info(LOGTAG + "maxWaitInterval property is: " + getMaxWaitInterval() + " ms.");
+		
 		// Set the maxWaitTime property
 		setMaxWaitTime(Long.valueOf(getProperties().getProperty("maxWaitTime", "600000")));
 		logger.info(LOGTAG + "maxWaitTime property is: " + getMaxWaitTime() + " ms.");
@@ -293,24 +306,11 @@ implements StackProvider {
 			AmazonCloudFormationClient client = 
 			buildCloudFormationClient(req.getAccountId(), req.getRegion(), roleArnPattern);
 			result = client.createStack(csr);
-			// If the request does not want an immediate response,
-			// wait for completion
-			if (true) {
-				StackQuerySpecification querySpec = new StackQuerySpecification();
-				try {
-					querySpec.setStackName(req.getStackName());
-					querySpec.setAccountId(req.getAccountId());
-					querySpec.setRegion(req.getRegion());
-				}
-				catch (EnterpriseFieldException efe) {
-					String errMsg = "An error occurred setting values of " +
-						"the StackQuerySpecification to query for the " +
-						"status of the stack during creation. The exception " +
-						"is: " + efe.getMessage();
-					throw new ProviderException(errMsg, efe);
-				}
-				waitForCompletion(querySpec, "generate");
-			}
+			// Watch the events of the new stack for completion
+			CloudFormationStackWatcher watcher = new CloudFormationStackWatcher(client,
+				result.getStackId(), GENERATE_TERMINAL_STATUSES, getWaitInterval(), 
+				getMaxWaitInterval());
+			waitForCompletion(watcher, req.getStackName(), "generate");
 		}
 		catch (Exception e) {
 			String errMsg = "An error occurred creating the stack. " +
@@ -375,24 +375,14 @@ implements StackProvider {
 		try {
 			
 			AmazonCloudFormationClient client = buildCloudFormationClient(accountId, region, getDefaultRoleArnPattern());
+			// Watch the events of the stack for completion, starting
+			// after the events the stack already has.
+			CloudFormationStackWatcher watcher = new CloudFormationStackWatcher(client,
+				stack.getStackId(), DELETE_TERMINAL_STATUSES, getWaitInterval(), 
+				getMaxWaitInterval());
+			watcher.skipExistingEvents();
 			result = client.deleteStack(dsr);
-			// If the request does not want an immediate response,
-			// wait for completion
-			if (true) {
-				StackQuerySpecification querySpec = new StackQuerySpecification();
-				try {
-					querySpec.setStackName(stack.getStackName());
-					querySpec.setAccountId(accountId);
-				}
-				catch (EnterpriseFieldException efe) {
-					String errMsg = "An error occurred setting values of " +
-						"the StackQuerySpecification to query for the " +
-						"status of the stack during deletion. The exception " +
-						"is: " + efe.getMessage();
-					throw new ProviderException(errMsg, efe);
-				}
-				waitForCompletion(querySpec, "delete");
-			}
+			waitForCompletion(watcher, stack.getStackName(), "delete");
 		}
 		catch (Exception e) {
 			String errMsg = "An error occurred deleting the stack. " +
@@ -425,34 +415,20 @@ implements StackProvider {
         String roleArn = roleArnPattern.replace("ACCOUNT_NUMBER", accountId);
         logger.info(LOGTAG + "Role ARN to assume for this request is: " + roleArn); 
         		
-		// Instantiate a basic credential provider
-        BasicAWSCredentials creds = new BasicAWSCredentials(getAccessKeyId(), getSecretKey());
-        AWSStaticCredentialsProvider cp = new AWSStaticCredentialsProvider(creds);      
-        
-        // Create the STS client
-        AWSSecurityTokenService sts = AWSSecurityTokenServiceClientBuilder.standard()
-        								.withCredentials(cp)
-        								.withRegion(region)
-        								.build();       
-        
-        // Assume the appropriate role in the appropriate account.
-        AssumeRoleRequest assumeRequest = new AssumeRoleRequest().withRoleArn(roleArn)
-        	.withDurationSeconds(getRoleAssumptionDurationSeconds())
-        	.withRoleSessionName("AwsAccountService");
-
-        AssumeRoleResult assumeResult = sts.assumeRole(assumeRequest);
-        Credentials credentials = assumeResult.getCredentials();
-
-        // Instantiate a credential provider
-        BasicSessionCredentials temporaryCredentials = new BasicSessionCredentials(credentials.getAccessKeyId(), credentials.getSecretAccessKey(), credentials.getSessionToken());
-        AWSStaticCredentialsProvider credProvider = new AWSStaticCredentialsProvider(temporaryCredentials);
+        // Get the session credentials of the role, shared with other requests
+        // for the same account until they are about to expire.
+        AWSCredentialsProvider credProvider = AssumedRoleCredentialsCache.getInstance()
+                .getCredentialsProvider(accountId, roleArn, getAccessKeyId(), getSecretKey(),
+                region, getRoleAssumptionDurationSeconds());
         
-        // Create the IAM client
-        AmazonCloudFormationClient cfc = 
-        	(AmazonCloudFormationClient)AmazonCloudFormationClientBuilder
-        	.standard().withCredentials(credProvider).withRegion(region).build();
-    
-        return cfc;
+        // Get the shared CloudFormation client
+        return AwsClientRegistry.getInstance().getClient(AmazonCloudFormationClient.class,
+                accountId, region,
+                AwsClientRegistry.roleIdentity(roleArn, getAccessKeyId(), getRoleAssumptionDurationSeconds()),
+                () -> (AmazonCloudFormationClient)AmazonCloudFormationClientBuilder
+                .standard().withCredentials(credProvider).withRegion(region)
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.CLOUDFORMATION, accountId))
+                .build());
     }
 	
 	/**
@@ -491,6 +467,25 @@ implements StackProvider {
 		return m_waitInterval;
 	}
 	
+	/**
+	 * @param long, the maximum wait interval in milliseconds
+	 * <P>
+	 * This method sets the maximum wait interval, which the wait interval
+	 * backs off to while a stack makes no progress
+	 */
+	private void setMaxWaitInterval(long maxWaitInterval) {
+		m_maxWaitInterval = maxWaitInterval;
+	}
+
+	/**
+	 * @return long, the maximum wait interval in milliseconds
+	 * <P>
+	 * This method returns the maximum wait interval
+	 */
+	private long getMaxWaitInterval() {
+		return m_maxWaitInterval;
+	}
+	
 	/**
 	 * @param long, the maximum time to wait for CloudFormation
 	 * templates to be created or deleted
@@ -778,71 +773,44 @@ implements StackProvider {
 		return m_appConfig;
 	}
 	
-	private void waitForCompletion(StackQuerySpecification querySpec, String action) 
-		throws ProviderException {
+	private void waitForCompletion(CloudFormationStackWatcher watcher, String stackName,
+		String action) throws ProviderException {
 		
 		String LOGTAG = "[AwsStackProvider.waitForCompletion] ";
-		boolean isCompleted = false;
+
+		// The request must be answered synchronously, so the stack events
+		// are checked on this thread rather than on the threads shared by
+		// the waiting steps of all transactions.
 		long startTime = System.currentTimeMillis();
-		while (isCompleted == false) {
-			// Throw an exception if maxWaitTime is exceeded.
-			if (System.currentTimeMillis() - startTime > getMaxWaitTime()) {
-				String errMsg = "Maximum wait time of " + getMaxWaitTime() + 
-					" ms for completion of CloudFormation template has been " 
-					+ "exceeded. Template may still be in progress.";
-				throw new ProviderException(errMsg);
-			}
-			
-			
-			List stacks = query(querySpec);
-			if (stacks.size() == 0 && action.equalsIgnoreCase("delete")) {
-				logger.info(LOGTAG + "Stack named " + querySpec.getStackName() + 
-					" not found in account " + querySpec.getAccountId() + 
-					" and must already be deleted.");
-				return;
-			}
-			Stack stack = (Stack)stacks.get(0);
-			if (stack != null) {
-				logger.info(LOGTAG + "Found Stack named " + stack.getStackName() +
-					" with status " + stack.getStackStatus());
-				if (action.equalsIgnoreCase("generate")) {
-					if (stack.getStackStatus().equals(StackStatus.CREATE_COMPLETE.toString()) ||
-	                        stack.getStackStatus().equals(StackStatus.CREATE_FAILED.toString()) ||
-	                        stack.getStackStatus().equals(StackStatus.ROLLBACK_FAILED.toString()) ||
-	                        stack.getStackStatus().equals(StackStatus.ROLLBACK_COMPLETE.toString()) ||
-	                        stack.getStackStatus().equals(StackStatus.DELETE_FAILED.toString())) {
-						isCompleted = true;
-						break;
-					}
-				}
-				if (action.equalsIgnoreCase("delete")) {
-					if (stack.getStackStatus().equals(StackStatus.DELETE_COMPLETE.toString()) ||
-	                        stack.getStackStatus().equals(StackStatus.DELETE_FAILED.toString()) ||
-	                        stack.getStackStatus().equals(StackStatus.ROLLBACK_FAILED.toString())) {
-						isCompleted = true;
-						break;
-					}
-				}
-				else {
-					logger.info(LOGTAG + "Sleeping for " + getWaitInterval() 
-						+ "ms...");
-					try {
-						Thread.sleep(getWaitInterval());
-					}
-					catch (InterruptedException ie) {
-						String errMsg = "An error occurred " +
-							"to check the status of the stack. The " +
-							"exception is: " + ie.getMessage();
-						throw new ProviderException(errMsg, ie);
-					}
-				}	
-			}
-			else {
-				logger.info(LOGTAG + "No stack named " + 
-					querySpec.getStackName() + 
-					" found. Returing from wait for completion.");
-				isCompleted = true;
-			}	
-		}	
+		String stackStatus = null;
+		try {
+			stackStatus = watcher.watch(getMaxWaitTime());
+		}
+		catch (InterruptedException ie) {
+			String errMsg = "An error occurred waiting " +
+				"to check the status of the stack. The " +
+				"exception is: " + ie.getMessage();
+			throw new ProviderException(errMsg, ie);
+		}
+		catch (RuntimeException re) {
+			String errMsg = "An error occurred checking the status of " +
+				"the stack. The exception is: " + re.getMessage();
+			throw new ProviderException(errMsg, re);
+		}
+
+		// Throw an exception if maxWaitTime is exceeded.
+		if (stackStatus == null) {
+			String errMsg = "Maximum wait time of " + getMaxWaitTime() + 
+				" ms for completion of CloudFormation template has been " 
+				+ "exceeded. Template may still be in progress. The " +
+				"resource statuses are: " + watcher.getResourceStatuses();
+			throw new ProviderException(errMsg);
+		}
+		
+		long time = System.currentTimeMillis() - startTime;
+		logger.info(LOGTAG + "Stack named " + stackName + " reached status " +
+			stackStatus + " for " + action + " in " + time + " ms with " +
+			watcher.getApiCallCount() + " CloudFormation calls. The resource " +
+			"statuses are: " + watcher.getResourceStatuses());
 	}
 }
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import com.amazon.aws.moa.jmsobjects.provisioning.v1_0.AccountAlias;
+import com.amazon.aws.moa.objects.resources.v1_0.AccountAliasQuerySpecification;
+import org.apache.log4j.Category;
+import org.openeai.OpenEaiObject;
+import org.openeai.config.AppConfig;
+import org.openeai.config.EnterpriseConfigurationObjectException;
+import org.openeai.config.PropertyConfig;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * An AccountAlias provider that caches the query results of another
+ * AccountAlias provider.
+ * <P>
+ * Configure this class as the accountAliasProviderClassName of the command
+ * and the provider it caches as the cachedAccountAliasProviderClassName
+ * property of the AccountAliasProviderProperties. The cached provider is
+ * initialized with the same AppConfig. The other properties are:
+ * <ul>
+ * <li>aliasCacheTtlSeconds - how long to keep the aliases of an account,
+ * default 3600.</li>
+ * <li>aliasCacheNegativeTtlSeconds - how long to remember that an account has
+ * no alias, default 300.</li>
+ * <li>aliasCacheMaxSize - the maximum number of accounts in the cache,
+ * default 10000.</li>
+ * </ul>
+ * The aliases of an account are removed from the cache when an alias of the
+ * account is created or deleted through this provider.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class CachingAccountAliasProvider extends OpenEaiObject implements AccountAliasProvider, OrganizationAccountSource {
+
+    private Category logger = OpenEaiObject.logger;
+    private AccountAliasProvider m_provider = null;
+    private AccountAliasCache m_cache = null;
+    private String LOGTAG = "[CachingAccountAliasProvider] ";
+
+    /**
+     * @see AccountAliasProvider.java
+     */
+    @Override
+    public void init(AppConfig aConfig) throws ProviderException {
+        logger.info(LOGTAG + "Initializing...");
+
+        // Get the provider properties
+        try {
+            PropertyConfig pConfig = (PropertyConfig) aConfig.getObject("AccountAliasProviderProperties");
+            setProperties(pConfig.getProperties());
+        } catch (EnterpriseConfigurationObjectException eoce) {
+            String errMsg = "Error retrieving a PropertyConfig object from " + "AppConfig: The exception is: " + eoce.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, eoce);
+        }
+        Properties props = getProperties();
+
+        long ttl = getLongProperty(props, "aliasCacheTtlSeconds", 3600) * 1000;
+        long negativeTtl = getLongProperty(props, "aliasCacheNegativeTtlSeconds", 300) * 1000;
+        int maxSize = (int) getLongProperty(props, "aliasCacheMaxSize", 10000);
+        logger.info(LOGTAG + "aliasCacheTtlSeconds is: " + ttl / 1000 +
+                ", aliasCacheNegativeTtlSeconds is: " + negativeTtl / 1000 +
+                ", aliasCacheMaxSize is: " + maxSize);
+        m_cache = new AccountAliasCache(ttl, negativeTtl, maxSize);
+
+        // Initialize the cached provider
+        String className = props.getProperty("cachedAccountAliasProviderClassName");
+        if (className == null || className.equals("")) {
+            String errMsg = "No cachedAccountAliasProviderClassName property specified. Can't continue.";
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg);
+        }
+        logger.info(LOGTAG + "cachedAccountAliasProviderClassName is: " + className);
+        try {
+            m_provider = (AccountAliasProvider) Class.forName(className).newInstance();
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException e) {
+            String errMsg = "An error occurred instantiating the AccountAliasProvider " +
+                    className + ". The exception is: " + e.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, e);
+        }
+        m_provider.init(aConfig);
+
+        logger.info(LOGTAG + "Initialization complete.");
+    }
+
+    /**
+     * @see AccountAliasProvider.java
+     *
+     *      Note: only queries by AccountId are cached.
+     */
+    @Override
+    public List<AccountAlias> query(AccountAliasQuerySpecification querySpec) throws ProviderException {
+        String accountId = querySpec.getAccountId();
+        if (accountId == null || accountId.equals("")) {
+            return m_provider.query(querySpec);
+        }
+        return m_cache.get(accountId, id -> m_provider.query(querySpec));
+    }
+
+    /**
+     * @see AccountAliasProvider.java
+     */
+    @Override
+    public void create(AccountAlias alias) throws ProviderException {
+        try {
+            m_provider.create(alias);
+        } finally {
+            // Even a failed create may have changed the alias.
+            m_cache.invalidate(alias.getAccountId());
+        }
+    }
+
+    /**
+     * @see AccountAliasProvider.java
+     */
+    @Override
+    public void delete(AccountAlias alias) throws ProviderException {
+        try {
+            m_provider.delete(alias);
+        } finally {
+            m_cache.invalidate(alias.getAccountId());
+        }
+    }
+
+    /**
+     * @see OrganizationAccountSource.java
+     */
+    @Override
+    public List<String> listAccountIds() throws ProviderException {
+        if (!(m_provider instanceof OrganizationAccountSource)) {
+            String errMsg = "The AccountAlias provider " + m_provider.getClass().getName() +
+                    " can't list the accounts of the organization.";
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg);
+        }
+        return ((OrganizationAccountSource) m_provider).listAccountIds();
+    }
+
+    /**
+     * @return AccountAliasCache, the cache of query results.
+     */
+    public AccountAliasCache getCache() {
+        return m_cache;
+    }
+
+    private long getLongProperty(Properties props, String name, long defaultValue)
+            throws ProviderException {
+        String value = props.getProperty(name);
+        if (value == null || value.equals("")) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException nfe) {
+            String errMsg = "Invalid " + name + " property: " + value;
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, nfe);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.cloudformation.AmazonCloudFormation;
+import com.amazonaws.services.cloudformation.model.DescribeStackEventsRequest;
+import com.amazonaws.services.cloudformation.model.DescribeStackEventsResult;
+import com.amazonaws.services.cloudformation.model.StackEvent;
+import org.apache.log4j.Category;
+import org.openeai.OpenEaiObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Watches the events of a CloudFormation stack until the stack reaches a
+ * terminal status.
+ * <P>
+ * Waiting for a stack by describing it again and again returns the whole
+ * stack each time and says nothing about the progress of its resources. This
+ * watcher reads the events of the stack instead, and on each check only the
+ * events newer than the last one it has seen, so a check is usually a single
+ * call that returns a page of events or less. The latest status of each
+ * resource is kept as the progress of the stack. The watch completes on the
+ * first check that sees a terminal status event of the stack itself.
+ * <P>
+ * Checks run on the thread that watches, which is the request thread that
+ * must answer with the result anyway, so the calls to CloudFormation don't
+ * occupy the threads shared by all transactions. The same CloudFormation
+ * client is used for the whole watch. The interval between checks starts at the
+ * minimum interval and doubles, with jitter, while the stack makes no
+ * progress, up to the maximum interval. It goes back to the minimum
+ * interval when new events arrive. When AWS throttles a check, the watcher
+ * backs off and tries again instead of failing.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class CloudFormationStackWatcher {
+
+    private static final String STACK_RESOURCE_TYPE = "AWS::CloudFormation::Stack";
+
+    private final Category logger = OpenEaiObject.logger;
+    private final String LOGTAG;
+    private final AmazonCloudFormation m_client;
+    private final String m_stackId;
+    private final Set<String> m_terminalStatuses;
+    private final long m_minInterval;
+    private final long m_maxInterval;
+    private final Map<String, String> m_resourceStatuses = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final AtomicInteger m_apiCallCount = new AtomicInteger();
+    private volatile String m_lastEventId = null;
+    private volatile String m_stackStatus = null;
+
+    /**
+     * @param client, the CloudFormation client of the account and region of
+     * the stack.
+     * @param stackId, the id of the stack. The id, unlike the name, still
+     * finds the events of the stack after it has been deleted.
+     * @param terminalStatuses, the stack statuses that end the watch.
+     * @param minInterval, the number of milliseconds between checks while
+     * the stack makes progress.
+     * @param maxInterval, the maximum number of milliseconds between checks.
+     */
+    public CloudFormationStackWatcher(AmazonCloudFormation client, String stackId,
+                                      Set<String> terminalStatuses, long minInterval,
+                                      long maxInterval) {
+        LOGTAG = "[CloudFormationStackWatcher{" + stackId + "}] ";
+        m_client = client;
+        m_stackId = stackId;
+        m_terminalStatuses = terminalStatuses;
+        m_minInterval = Math.max(1, minInterval);
+        m_maxInterval = Math.max(m_minInterval, maxInterval);
+    }
+
+    /**
+     * Skips the events the stack already has, so that a terminal status from
+     * an earlier action on the stack doesn't end the watch. Call this before
+     * starting an action on an existing stack.
+     */
+    public void skipExistingEvents() {
+        DescribeStackEventsRequest request = new DescribeStackEventsRequest().withStackName(m_stackId);
+        DescribeStackEventsResult result = describeStackEvents(request);
+        if (!result.getStackEvents().isEmpty()) {
+            m_lastEventId = result.getStackEvents().get(0).getEventId();
+        }
+    }
+
+    /**
+     * Watches the stack on the calling thread until it reaches a terminal
+     * status. The first check is after the minimum interval.
+     *
+     * @param maxWait, the maximum number of milliseconds to watch.
+     * @return String, the terminal status of the stack, or null if the
+     * maximum wait time elapsed first.
+     * @throws InterruptedException if the thread was interrupted while
+     * waiting between checks.
+     * @throws RuntimeException if the events of the stack could not be
+     * read.
+     */
+    public String watch(long maxWait) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + maxWait;
+        long interval = m_minInterval;
+        long delay = Math.min(m_minInterval, maxWait);
+        while (true) {
+            Thread.sleep(delay);
+            try {
+                List<StackEvent> events = readNewEvents();
+                String terminalStatus = processEvents(events);
+                if (terminalStatus != null) {
+                    return terminalStatus;
+                }
+                interval = events.isEmpty()
+                        ? ProbeScheduler.nextInterval(interval, m_maxInterval) : m_minInterval;
+            } catch (AmazonServiceException ase) {
+                if (!RetryUtils.isThrottlingException(ase)) {
+                    throw ase;
+                }
+                logger.info(LOGTAG + "Reading the stack events was throttled. Backing off.");
+                interval = ProbeScheduler.nextInterval(interval, m_maxInterval);
+            }
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                logger.info(LOGTAG + "Maximum wait time exceeded. The stack status is " +
+                        m_stackStatus + ".");
+                return null;
+            }
+            delay = Math.min(ProbeScheduler.withJitter(interval), remaining);
+        }
+    }
+
+    /**
+     * @return String, the last status of the stack seen, or null if no event
+     * of the stack has been seen.
+     */
+    public String getStackStatus() {
+        return m_stackStatus;
+    }
+
+    /**
+     * @return Map<String, String>, the last status of each resource of the
+     * stack seen, by logical resource id, in the order the resources were
+     * first seen.
+     */
+    public Map<String, String> getResourceStatuses() {
+        synchronized (m_resourceStatuses) {
+            return new LinkedHashMap<>(m_resourceStatuses);
+        }
+    }
+
+    /**
+     * @return int, the number of calls made to CloudFormation.
+     */
+    public int getApiCallCount() {
+        return m_apiCallCount.get();
+    }
+
+    /**
+     * @return List<StackEvent>, the events newer than the last event seen,
+     * oldest first.
+     */
+    private List<StackEvent> readNewEvents() {
+        // CloudFormation returns the newest events first, so read pages
+        // until the last event seen.
+        List<StackEvent> newEvents = new ArrayList<>();
+        String nextToken = null;
+        do {
+            DescribeStackEventsRequest request = new DescribeStackEventsRequest()
+                    .withStackName(m_stackId).withNextToken(nextToken);
+            DescribeStackEventsResult result = describeStackEvents(request);
+            boolean foundLastEvent = false;
+            for (StackEvent event : result.getStackEvents()) {
+                if (event.getEventId().equals(m_lastEventId)) {
+                    foundLastEvent = true;
+                    break;
+                }
+                newEvents.add(event);
+            }
+            nextToken = foundLastEvent ? null : result.getNextToken();
+        } while (nextToken != null);
+
+        if (!newEvents.isEmpty()) {
+            m_lastEventId = newEvents.get(0).getEventId();
+        }
+        Collections.reverse(newEvents);
+        return newEvents;
+    }
+
+    /**
+     * Records the progress of the new events.
+     *
+     * @return String, the terminal status of the stack, or null if the
+     * events don't end the watch.
+     */
+    private String processEvents(List<StackEvent> events) {
+        Map<String, Integer> statusCounts = new HashMap<>();
+        String terminalStatus = null;
+        for (StackEvent event : events) {
+            m_resourceStatuses.put(event.getLogicalResourceId(), event.getResourceStatus());
+            statusCounts.merge(event.getResourceStatus(), 1, Integer::sum);
+            if (isStackEvent(event)) {
+                m_stackStatus = event.getResourceStatus();
+                logger.info(LOGTAG + "The stack status is " + m_stackStatus +
+                        (event.getResourceStatusReason() != null
+                                ? ": " + event.getResourceStatusReason() : "."));
+                if (terminalStatus == null && m_terminalStatuses.contains(m_stackStatus)) {
+                    terminalStatus = m_stackStatus;
+                }
+            }
+        }
+        if (!events.isEmpty()) {
+            logger.info(LOGTAG + events.size() + " new stack events: " + statusCounts +
+                    ". Resources seen: " + m_resourceStatuses.size() + ", API calls: " +
+                    getApiCallCount() + ".");
+        }
+        return terminalStatus;
+    }
+
+    private boolean isStackEvent(StackEvent event) {
+        // Nested stacks are resources of type AWS::CloudFormation::Stack too,
+        // but their physical resource id is their own stack id.
+        return STACK_RESOURCE_TYPE.equals(event.getResourceType()) &&
+                event.getStackId().equals(event.getPhysicalResourceId());
+    }
+
+    private DescribeStackEventsResult describeStackEvents(DescribeStackEventsRequest request) {
+        m_apiCallCount.incrementAndGet();
+        return m_client.describeStackEvents(request);
+    }
+}
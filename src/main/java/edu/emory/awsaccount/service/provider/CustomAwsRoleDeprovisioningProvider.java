@@ -55,6 +55,8 @@ public class CustomAwsRoleDeprovisioningProvider extends OpenEaiObject implement
     private ProducerPool awsAccountServiceProducerPool;
     private ThreadPool threadPool;
     private int threadPoolSleepInterval;
+    private long stateFlushInterval;
+    private volatile StepPlan<Step> stepPlan;
 
     @Override
     public void init(AppConfig aConfig) throws ProviderException {
@@ -117,38 +119,31 @@ public class CustomAwsRoleDeprovisioningProvider extends OpenEaiObject implement
         setThreadPoolSleepInterval(Integer.parseInt(getProperties().getProperty("threadPoolSleepInterval", "1000")));
         logger.info(LOGTAG + "threadPoolSleepInterval property is: " + getThreadPoolSleepInterval());
 
-        // Initialize all provisioning steps this provider will use to
-        // verify the runtime configuration as best we can.
-        List<Properties> stepsAsProperties;
+        // Changes of the steps of a transaction are coalesced for this many milliseconds
+        // before the RoleDeprovisioning object is persisted. A value of 0 persists every change immediately.
+        setStateFlushInterval(Long.parseLong(getProperties().getProperty("stateFlushInterval", "1000")));
+        logger.info(LOGTAG + "stateFlushInterval property is: " + getStateFlushInterval());
+
+        // Build the plan of the steps once. Every transaction uses it until the configuration is reloaded
+        // and this provider is initialized again. Building the plan verifies the step classes.
+        StepPlan<Step> stepPlan;
         try {
-            stepsAsProperties = getStepsAsProperties();
-            logger.info(LOGTAG + "There are " + stepsAsProperties.size() + " steps.");
+            stepPlan = StepPlan.load(getAppConfig(), "ProvisioningStep", Step.class);
+            logger.info(LOGTAG + "There are " + stepPlan.size() + " steps.");
         }
-        catch (EnterpriseConfigurationObjectException e) {
-            String errMsg = "An error occurred getting ProvisioningStep properties from AppConfig. The exception is: " + e.getMessage();
+        catch (ProviderException e) {
+            String errMsg = "An error occurred building the plan of the steps. The exception is: " + e.getMessage();
             logger.error(LOGTAG + errMsg);
             throw new ProviderException(errMsg, e);
         }
 
-        // For each property instantiate the step and log out its details.
-        for (Properties sp : stepsAsProperties) {
-            String className = sp.getProperty("className");
-            String stepId = sp.getProperty("stepId");
-            String stepType = sp.getProperty("type");
-            if (className != null) {
-                // Instantiate the step to verify that the given class exists in the classpath
-                try {
-                    logger.info(LOGTAG + "Step " + stepId + ": " + stepType);
-                    Class.forName(className).newInstance();
-                    logger.info(LOGTAG + "Verified class for step " + stepId + ": " + className);
-                }
-                catch (Exception e) {
-                    String errMsg = "An error occurred instantiating a step. The exception is: " + e.getMessage();
-                    logger.error(LOGTAG + errMsg);
-                    throw new ProviderException(errMsg, e);
-                }
-            }
+        // Instantiate each step once to verify it and log out its details.
+        for (StepPlan.StepDefinition sd : stepPlan.getSteps()) {
+            logger.info(LOGTAG + "Step " + sd.getStepId() + ": " + sd.getType());
+            stepPlan.newStep(sd.getStepId());
+            logger.info(LOGTAG + "Verified class for step " + sd.getStepId() + ": " + sd.getClassName());
         }
+        setStepPlan(stepPlan);
 
         logger.info(LOGTAG + "Initialization complete.");
     }
@@ -244,27 +239,16 @@ public class CustomAwsRoleDeprovisioningProvider extends OpenEaiObject implement
             throw new ProviderException(errMsg, e);
         }
 
-        List<Properties> stepsAsProperties;
-        try {
-            stepsAsProperties = getStepsAsProperties();
-            logger.info(LOGTAG + "There are " + stepsAsProperties.size() + " steps.");
-        }
-        catch (EnterpriseConfigurationObjectException e) {
-            String errMsg = "An error occurred getting ProvisioningStep properties from AppConfig. The exception is: " + e.getMessage();
-            logger.error(LOGTAG + errMsg);
-            throw new ProviderException(errMsg, e);
-        }
-
-        long totalAnticipatedTime = 0;
-
-        // instantiate the steps to prepare for execution
-        for (Properties sp : stepsAsProperties) {
-            String stepId = sp.getProperty("stepId");
-            String stepType = sp.getProperty("type");
-            String stepDesc = sp.getProperty("description");
-            String stepAnticipatedTime = sp.getProperty("anticipatedTime");
+        StepPlan<Step> stepPlan = getStepPlan();
+        logger.info(LOGTAG + "There are " + stepPlan.size() + " steps.");
+        long totalAnticipatedTime = stepPlan.getTotalAnticipatedTime();
 
-            totalAnticipatedTime += Long.parseLong(stepAnticipatedTime);
+        // add the steps of the step plan to prepare for execution
+        for (StepPlan.StepDefinition sd : stepPlan.getSteps()) {
+            String stepId = sd.getStepId();
+            String stepType = sd.getType();
+            String stepDesc = sd.getDescription();
+            String stepAnticipatedTime = Integer.toString(sd.getAnticipatedTime());
 
             RoleDeprovisioningStep provisioningStep = roleDeprovisioning.newRoleDeprovisioningStep();
             try {
@@ -430,22 +414,6 @@ public class CustomAwsRoleDeprovisioningProvider extends OpenEaiObject implement
         }
     }
 
-    private List<Properties> getStepsAsProperties() throws EnterpriseConfigurationObjectException {
-        List<Properties> stepsAsProperties = new ArrayList<>();
-
-        // Get a list of all steps as properties.
-        @SuppressWarnings("unchecked")
-        List<PropertyConfig> stepPropConfigs = getAppConfig().getObjectsLike("ProvisioningStep");
-        // Convert property configs to properties
-        for (PropertyConfig stepConfig : stepPropConfigs) {
-            Properties stepProp = stepConfig.getProperties();
-            stepsAsProperties.add(stepProp);
-        }
-        // Sort the list by stepId
-        stepsAsProperties.sort(Comparator.comparing((Properties p) -> Integer.valueOf(p.getProperty("stepId"))));
-        return stepsAsProperties;
-    }
-
     private AppConfig getAppConfig() { return appConfig; }
     private void setAppConfig(AppConfig v) { this.appConfig = v; }
     public ProducerPool getAwsAccountServiceProducerPool() { return awsAccountServiceProducerPool; }
@@ -461,14 +429,81 @@ public class CustomAwsRoleDeprovisioningProvider extends OpenEaiObject implement
     public void setThreadPool(ThreadPool v) { this.threadPool = v; }
     public int getThreadPoolSleepInterval() { return threadPoolSleepInterval; }
     public void setThreadPoolSleepInterval(int v) { this.threadPoolSleepInterval = v; }
+    public long getStateFlushInterval() { return stateFlushInterval; }
+    public StepPlan<Step> getStepPlan() { return stepPlan; }
+    private void setStepPlan(StepPlan<Step> v) { this.stepPlan = v; }
+    public void setStateFlushInterval(long v) { this.stateFlushInterval = v; }
     public RoleDeprovisioningProvider getRoleDeprovisioningProvider() { return this; }
 
 
+    /**
+     * A provider scoped to one role deprovisioning transaction. It serves the steps of the transaction
+     * the in-memory RoleDeprovisioning object, serializes their updates, and persists their changes
+     * behind them with a TransactionStateWriter. Everything else is delegated to this provider.
+     */
+    private class TransactionScopedProvider implements RoleDeprovisioningProvider {
+        private final TransactionStateWriter<RoleDeprovisioning> stateWriter;
+
+        TransactionScopedProvider(RoleDeprovisioning roleDeprovisioning) {
+            stateWriter = new TransactionStateWriter<>(roleDeprovisioning.getRoleDeprovisioningId(), roleDeprovisioning,
+                    CustomAwsRoleDeprovisioningProvider.this::update, getStateFlushInterval(), this);
+        }
+
+        RoleDeprovisioning getState() { return stateWriter.getState(); }
+
+        void flush() throws ProviderException {
+            stateWriter.flushFinal();
+            logger.info("[RoleDeprovisioningTransaction{" + getState().getRoleDeprovisioningId() + "}] Persisted "
+                    + stateWriter.getChangeCount() + " changes in " + stateWriter.getUpdateCount() + " updates.");
+        }
+
+        @Override
+        public void init(AppConfig aConfig) throws ProviderException {
+            throw new ProviderException("A transaction scoped provider can't be initialized.");
+        }
+
+        @Override
+        public List<RoleDeprovisioning> query(RoleDeprovisioningQuerySpecification querySpec) throws ProviderException {
+            // The in-memory object is the current state of this transaction.
+            if (getState().getRoleDeprovisioningId().equals(querySpec.getRoleDeprovisioningId())) {
+                List<RoleDeprovisioning> results = new ArrayList<>();
+                results.add(getState());
+                return results;
+            }
+            return CustomAwsRoleDeprovisioningProvider.this.query(querySpec);
+        }
+
+        @Override
+        public RoleDeprovisioning generate(RoleDeprovisioningRequisition requisition) throws ProviderException {
+            return CustomAwsRoleDeprovisioningProvider.this.generate(requisition);
+        }
+
+        @Override
+        public void create(RoleDeprovisioning rd) throws ProviderException {
+            CustomAwsRoleDeprovisioningProvider.this.create(rd);
+        }
+
+        @Override
+        public void update(RoleDeprovisioning rd) throws ProviderException {
+            if (rd == getState()) {
+                stateWriter.changed();
+                return;
+            }
+            CustomAwsRoleDeprovisioningProvider.this.update(rd);
+        }
+
+        @Override
+        public void delete(RoleDeprovisioning rd) throws ProviderException {
+            CustomAwsRoleDeprovisioningProvider.this.delete(rd);
+        }
+    }
+
     /**
      * A transaction to process custom AWS role deprovisioning.
      */
     private class RoleDeprovisioningTransaction implements java.lang.Runnable {
         private RoleDeprovisioning roleDeprovisioning;
+        private TransactionScopedProvider transactionProvider;
         private long executionStartTime = 0;
 
         public RoleDeprovisioningTransaction(RoleDeprovisioning roleDeprovisioning) {
@@ -485,34 +520,35 @@ public class CustomAwsRoleDeprovisioningProvider extends OpenEaiObject implement
             String LOGTAG = "[RoleDeprovisioningTransaction{" + getProvisioningId() + "}] ";
             logger.info(LOGTAG + "Running deprovisioning transaction");
 
-            List<Properties> stepsAsProperties;
-            try {
-                stepsAsProperties = getStepsAsProperties();
-                logger.info(LOGTAG + "There are " + stepsAsProperties.size() + " steps.");
-            }
-            catch (EnterpriseConfigurationObjectException e) {
-                String errMsg = "An error occurred getting ProvisioningStep properties from AppConfig. The exception is: " + e.getMessage();
-                logger.error(LOGTAG + errMsg);
+            // Use the step plan current when this transaction started for all of its steps.
+            StepPlan<Step> stepPlan = getStepPlan();
+            logger.info(LOGTAG + "There are " + stepPlan.size() + " steps.");
+
+            // Query for the RoleDeprovisioning object once. From here on the steps share a provider scoped
+            // to this transaction, which serves them the in-memory object and persists their changes.
+            if (!queryForRoleDeprovisioningBaseline()) {
+                logger.error(LOGTAG + "No RoleDeprovisioning object found. Can't continue.");
                 return;
             }
+            transactionProvider = new TransactionScopedProvider(getRoleDeprovisioning());
 
             // For each property instantiate the step, call the execute
             // method, and if successful, place it in the map of completed steps.
             List<Step> completedSteps = new ArrayList<>();
             int stepIndex = 0;
-            for (Properties props : stepsAsProperties) {
+            for (StepPlan.StepDefinition sd : stepPlan.getSteps()) {
                 stepIndex++;
-                String className = props.getProperty("className");
+                Properties props = sd.getStepProperties();
+                String className = sd.getClassName();
                 if (className != null) {
                     // Instantiate the step
                     Step step = null;
                     try {
-                        Class<?> stepClass = Class.forName(className);
-                        step = (Step) stepClass.newInstance();
+                        step = stepPlan.newStep(sd.getStepId());
                         logger.info(LOGTAG + "Initializing step index " + stepIndex + ".");
-                        step.init(getProvisioningId(), props, getAppConfig(), getRoleDeprovisioningProvider());
+                        step.init(getProvisioningId(), props, getAppConfig(), transactionProvider);
                     }
-                    catch (ClassNotFoundException | IllegalAccessException | InstantiationException e) {
+                    catch (ProviderException e) {
                         String errMsg = "An error occurred instantiating the Step. The exception is: " + e.getMessage();
                         logger.error(LOGTAG + errMsg);
                         rollbackCompletedSteps(completedSteps);
@@ -591,25 +627,25 @@ public class CustomAwsRoleDeprovisioningProvider extends OpenEaiObject implement
             // Set the end of execution.
             long executionTime = System.currentTimeMillis() - getExecutionStartTime();
 
-            // Update the state of the RoleDeprovisioning object in this transaction.
-            queryForRoleDeprovisioningBaseline();
-
             // Set the status to complete, the result to success, and the
             // execution time.
-            try {
-                getRoleDeprovisioning().setStatus(ROLE_PROVISIONING_STATUS_COMPLETED);
-                getRoleDeprovisioning().setDeprovisioningResult(ROLE_PROVISIONING_RESULT_SUCCESS);
-                getRoleDeprovisioning().setActualTime(Long.toString(executionTime));
-            }
-            catch (EnterpriseFieldException efe) {
-                String errMsg = "An error occurred setting field values on the RoleDeprovisioning object. The exception is: " + efe.getMessage();
-                logger.error(LOGTAG + errMsg);
-                return;
+            synchronized (transactionProvider) {
+                try {
+                    getRoleDeprovisioning().setStatus(ROLE_PROVISIONING_STATUS_COMPLETED);
+                    getRoleDeprovisioning().setDeprovisioningResult(ROLE_PROVISIONING_RESULT_SUCCESS);
+                    getRoleDeprovisioning().setActualTime(Long.toString(executionTime));
+                }
+                catch (EnterpriseFieldException efe) {
+                    String errMsg = "An error occurred setting field values on the RoleDeprovisioning object. The exception is: " + efe.getMessage();
+                    logger.error(LOGTAG + errMsg);
+                    return;
+                }
             }
 
-            // Update the RoleDeprovisioning object.
+            // Update the RoleDeprovisioning object with the final state of the transaction.
             try {
-                getRoleDeprovisioningProvider().update(getRoleDeprovisioning());
+                transactionProvider.update(getRoleDeprovisioning());
+                transactionProvider.flush();
             }
             catch (ProviderException e) {
                 String errMsg = "An error occurred querying for the  current state of a RoleDeprovisioning object. The exception is: " + e.getMessage();
@@ -643,23 +679,23 @@ public class CustomAwsRoleDeprovisioningProvider extends OpenEaiObject implement
             // All steps completed successfully. Set the end of execution.
             long executionTime = System.currentTimeMillis() - getExecutionStartTime();
 
-            // Update the state of the RoleDeprovisioning object in this transaction.
-            queryForRoleDeprovisioningBaseline();
-
             // Set the status to complete, the result to failure, and the execution time.
-            try {
-                getRoleDeprovisioning().setStatus(ROLE_PROVISIONING_STATUS_COMPLETED);
-                getRoleDeprovisioning().setDeprovisioningResult(ROLE_PROVISIONING_RESULT_FAILURE);
-                getRoleDeprovisioning().setActualTime(Long.toString(executionTime));
-            }
-            catch (EnterpriseFieldException efe) {
-                String errMsg = "An error setting field values on the RoleDeprovisioning object. The exception is: " + efe.getMessage();
-                logger.error(LOGTAG + errMsg);
+            synchronized (transactionProvider) {
+                try {
+                    getRoleDeprovisioning().setStatus(ROLE_PROVISIONING_STATUS_COMPLETED);
+                    getRoleDeprovisioning().setDeprovisioningResult(ROLE_PROVISIONING_RESULT_FAILURE);
+                    getRoleDeprovisioning().setActualTime(Long.toString(executionTime));
+                }
+                catch (EnterpriseFieldException efe) {
+                    String errMsg = "An error setting field values on the RoleDeprovisioning object. The exception is: " + efe.getMessage();
+                    logger.error(LOGTAG + errMsg);
+                }
             }
 
-            // Update the RoleDeprovisioning object.
+            // Update the RoleDeprovisioning object with the final state of the transaction.
             try {
-                getRoleDeprovisioningProvider().update(getRoleDeprovisioning());
+                transactionProvider.update(getRoleDeprovisioning());
+                transactionProvider.flush();
             }
             catch (ProviderException e) {
                 String errMsg = "An error occurred querying for the  current state of a RoleDeprovisioning object. The exception is: " + e.getMessage();
@@ -680,7 +716,7 @@ public class CustomAwsRoleDeprovisioningProvider extends OpenEaiObject implement
             return buf.toString();
         }
 
-        private void queryForRoleDeprovisioningBaseline() {
+        private boolean queryForRoleDeprovisioningBaseline() {
             String LOGTAG = "[RoleDeprovisioningTransaction{" + getProvisioningId() + "}] ";
 
             // Query for the RoleDeprovisioning object in the AWS Account Service.
@@ -714,11 +750,16 @@ public class CustomAwsRoleDeprovisioningProvider extends OpenEaiObject implement
 
             try {
                 List<RoleDeprovisioning> results = getRoleDeprovisioningProvider().query(qs);
+                if (results == null || results.isEmpty()) {
+                    return false;
+                }
                 setRoleDeprovisioning(results.get(0));
+                return true;
             }
             catch (ProviderException pe) {
                 String errMsg = "An error occurred querying for the  current state of a RoleDeprovisioning object. The exception is: " + pe.getMessage();
                 logger.error(LOGTAG + errMsg);
+                return false;
             }
         }
 
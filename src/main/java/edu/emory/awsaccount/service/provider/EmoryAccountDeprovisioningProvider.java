@@ -14,10 +14,17 @@ package edu.emory.awsaccount.service.provider;
 // Java utilities
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Properties;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import javax.jms.JMSException;
 
 
@@ -39,9 +46,13 @@ import org.openeai.moa.EnterpriseObjectQueryException;
 import org.openeai.moa.EnterpriseObjectUpdateException;
 import org.openeai.moa.XmlEnterpriseObjectException;
 import org.openeai.moa.objects.resources.Result;
+import org.openeai.moa.objects.resources.v1_0.QueryLanguage;
 import org.openeai.threadpool.ThreadPool;
-import org.openeai.threadpool.ThreadPoolException;
 import org.openeai.transport.RequestService;
+import org.openeai.utils.lock.Key;
+import org.openeai.utils.lock.Lock;
+import org.openeai.utils.lock.LockAlreadySetException;
+import org.openeai.utils.lock.LockException;
 import org.openeai.utils.sequence.Sequence;
 import org.openeai.utils.sequence.SequenceException;
 import com.amazon.aws.moa.jmsobjects.provisioning.v1_0.AccountDeprovisioning;
@@ -83,9 +94,16 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 	private ProducerPool m_idmServiceProducerPool = null;
 	private ProducerPool m_serviceNowServiceProducerPool = null;
 	private ThreadPool m_threadPool = null;
+	private TransactionAdmissionQueue m_admissionQueue = null;
 	private int m_threadPoolSleepInterval = 1000;
+	private volatile StepPlan<Step> m_stepPlan = null;
+	private long m_stateFlushInterval = 1000;
+	private boolean m_resumeInFlightTransactions = false;
+	private Lock m_transactionLock = null;
+	private final Set<String> m_runningDeprovisioningIds = ConcurrentHashMap.newKeySet();
 	private String LOGTAG = "[EmoryAccountDeprovisioningProvider] ";
 	protected String COMPLETED_STATUS = "completed";
+	protected String IN_PROGRESS_STATUS = "in progress";
 	protected String PENDING_STATUS = "pending";
 	protected String ROLLBACK_STATUS = "rolled back";
 	protected String SUCCESS_RESULT = "success";
@@ -124,6 +142,12 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 		setCentralAdminRoleDn(getProperties().getProperty("centralAdminRoleDn", null));
 		logger.info(LOGTAG + "centralAdminRoleDn is: " + getCentralAdminRoleDn());
 
+		// Set the number of milliseconds a transaction coalesces changes of
+		// its steps before persisting the AccountDeprovisioning object. A
+		// value of 0 persists every change immediately.
+		setStateFlushInterval(getProperties().getProperty("stateFlushInterval", "1000"));
+		logger.info(LOGTAG + "stateFlushInterval is: " + getStateFlushInterval());
+
 		// Set the primed doc URL for a template provisioning object.
 		String primedDocUrl = getProperties().getProperty("primedDocumentUri");
 		setPrimedDocumentUrl(primedDocUrl);
@@ -213,92 +237,180 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 			throw new ProviderException(errMsg);
 		}
 
-		// Initialize all provisioning steps this provider will use to
-		// verify the runtime configuration as best we can.
-		// Get a list of all step properties.
-		List<PropertyConfig> stepPropConfigs = null;
+		// Set the maximum number of new deprovisioning transactions that may
+		// wait for a thread of the thread pool. Requests beyond it are
+		// rejected instead of waiting.
+		setAdmissionQueue(getProperties().getProperty("maxQueuedTransactions", "100"));
+		logger.info(LOGTAG + "maxQueuedTransactions is: " +
+			getAdmissionQueue().getMaxDepth());
+
+		// Build the plan of the deprovisioning steps once. It is used by
+		// every transaction until the configuration is reloaded and this
+		// provider is initialized again. Building the plan verifies the step
+		// classes.
+		StepPlan<Step> stepPlan = null;
 		try {
-			stepPropConfigs = getAppConfig().getObjectsLike("ProvisioningStep");
+			stepPlan = StepPlan.load(getAppConfig(), "DeprovisioningStep", Step.class);
 		}
-		catch (EnterpriseConfigurationObjectException eoce) {
-			String errMsg = "An error occurred getting ProvisioningStep " +
-				"properties from AppConfig. The exception is: " +
-				eoce.getMessage();
+		catch (ProviderException pe) {
+			String errMsg = "An error occurred building the plan of the " +
+				"deprovisioning steps. The exception is: " + pe.getMessage();
 			logger.error(LOGTAG + errMsg);
-			throw new ProviderException(errMsg, eoce);
+			throw new ProviderException(errMsg, pe);
+		}
+		logger.info(LOGTAG + "There are " + stepPlan.size() + " steps.");
+
+		// Instantiate each step once to verify it and log out its details.
+		for (StepPlan.StepDefinition sd : stepPlan.getSteps()) {
+			logger.info(LOGTAG + "Step " + sd.getStepId() + ": " + sd.getType());
+			stepPlan.newStep(sd.getStepId());
+			logger.info(LOGTAG + "Verified class for step "
+				+ sd.getStepId() +": " + sd.getClassName());
+		}
+		setStepPlan(stepPlan);
+
+		// Set whether to resume deprovisioning transactions that were left
+		// pending when the service stopped.
+		setResumeInFlightTransactions(Boolean.parseBoolean(getProperties()
+			.getProperty("resumeInFlightTransactions", "false")));
+		logger.info(LOGTAG + "resumeInFlightTransactions is: " + getResumeInFlightTransactions());
+
+		// Claim each transaction in the AccountDeprovisioningLock, if one is
+		// configured, so that a transaction is never resumed while it is
+		// still running in another instance. The lock is required to resume
+		// transactions, and then every instance must be configured with it.
+		// Its expiration must be longer than the longest transaction, so that
+		// the claims of a stopped instance expire only once its transactions
+		// can no longer be running.
+		try {
+			setTransactionLock((Lock)getAppConfig()
+				.getObject("AccountDeprovisioningLock"));
+			logger.info(LOGTAG + "Transactions are claimed in the " +
+				"AccountDeprovisioningLock.");
+		}
+		catch (EnterpriseConfigurationObjectException ecoe) {
+			if (getResumeInFlightTransactions()) {
+				String errMsg = "resumeInFlightTransactions is true, but there is no " +
+					"AccountDeprovisioningLock to claim the transactions in. " +
+					"The exception is: " + ecoe.getMessage();
+				logger.fatal(LOGTAG + errMsg);
+				throw new ProviderException(errMsg);
+			}
+			logger.info(LOGTAG + "No AccountDeprovisioningLock is configured. " +
+				"Transactions are not claimed.");
 		}
-		logger.info(LOGTAG + "There are " + stepPropConfigs.size() + " steps.");
 
-		// Convert property configs to properties
-		List<Properties> stepProps = new ArrayList<Properties>();
-		ListIterator stepPropConfigsIterator = stepPropConfigs.listIterator();
-		while (stepPropConfigsIterator.hasNext()) {
-			PropertyConfig stepConfig = (PropertyConfig)stepPropConfigsIterator.next();
-			Properties stepProp = stepConfig.getProperties();
-			stepProps.add(stepProp);
+		if (getResumeInFlightTransactions()) {
+			long resumeDelay = Long.parseLong(getProperties().getProperty("resumeDelay", "30000"));
+			long resumeInterval = Long.parseLong(getProperties().getProperty("resumeInterval", "0"));
+			logger.info(LOGTAG + "resumeDelay is: " + resumeDelay + ", resumeInterval is: " +
+				resumeInterval);
+			scheduleResumeInFlightTransactions(resumeDelay, resumeInterval);
 		}
 
-		// Sort the list by stepId integer.
-		stepProps.sort(new StepPropIdComparator(1));
+		logger.info(LOGTAG + "Initialization complete.");
+	}
 
-		// For each property instantiate the step and log out its details.
-		List<Step> completedSteps = new ArrayList();
-		ListIterator stepPropsIterator = stepProps.listIterator();
-		int i = 0;
-		while (stepPropsIterator.hasNext()) {
-			i++;
-			Properties sp = (Properties)stepPropsIterator.next();
-			String className = sp.getProperty("className");
-			String stepId = sp.getProperty("stepId");
-			String stepType = sp.getProperty("type");
-			if (className != null) {
-				// Instantiate the step
-				Step step = null;
-				try {
-					logger.info(LOGTAG + "Step " + stepId + ": " + stepType);
-					Class stepClass = Class.forName(className);
-					step = (Step)stepClass.newInstance();
-					logger.info(LOGTAG + "Verified class for step "
-						+ stepId +": " + className);
-//					logger.info(LOGTAG + "Invoking " + className + ".init() method");
-//					VirtualPrivateCloudProvisioning vpcp = (VirtualPrivateCloudProvisioning) aConfig
-//							.getObjectByType(this.getClass().getName());
-//					step.init(vpcp.getProvisioningId(), props, getAppConfig(),
-//							getVirtualPrivateCloudProvisioningProvider());
-//					logger.info(LOGTAG + "Step initialization succeeded");
-				}
-				catch (ClassNotFoundException cnfe) {
-					String errMsg = "An error occurred instantiating " +
-						"a step. The exception is: " + cnfe.getMessage();
-					logger.error(LOGTAG + errMsg);
-					throw new ProviderException(errMsg, cnfe);
-				}
-				catch (IllegalAccessException iae) {
-					String errMsg = "An error occurred instantiating " +
-						"a step. The exception is: " + iae.getMessage();
-					logger.error(LOGTAG + errMsg);
-					throw new ProviderException(errMsg, iae);
-				}
-				catch (InstantiationException ie) {
-					String errMsg = "An error occurred instantiating " +
-						"a step. The exception is: " + ie.getMessage();
-					logger.error(LOGTAG + errMsg);
-					throw new ProviderException(errMsg, ie);
-//				} catch (StepException error) {
-//					String errMsg = "An error occurred instantiating " +
-//							"a step. The exception is: " + error.getMessage();
-//					logger.error(LOGTAG + errMsg);
-//					throw new ProviderException(errMsg, error);
-//				} catch (EnterpriseConfigurationObjectException error) {
-//					String errMsg = "An error occurred instantiating " +
-//							"a step. The exception is: " + error.getMessage();
-//					logger.error(LOGTAG + errMsg);
-//					throw new ProviderException(errMsg, error);
-				}
+	/**
+	 * Resumes the deprovisioning transactions found by the named query given
+	 * by the resumeQueryName property, by default all pending transactions
+	 * created within the last 24 hours. The query runs after the given delay
+	 * on a background thread, so the service can finish starting first, and
+	 * again after each interval if the interval is greater than 0, to pick up
+	 * the transactions whose claims had not yet expired.
+	 */
+	private void scheduleResumeInFlightTransactions(long delay, long interval) {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "AccountDeprovisioningResume");
+			t.setDaemon(true);
+			return t;
+		});
+		Runnable resume = () -> {
+			try {
+				resumeInFlightTransactions();
 			}
+			catch (ProviderException pe) {
+				String errMsg = "An error occurred resuming in-flight deprovisioning " +
+					"transactions. The exception is: " + pe.getMessage();
+				logger.error(LOGTAG + errMsg);
+			}
+		};
+		if (interval > 0) {
+			scheduler.scheduleWithFixedDelay(resume, delay, interval, TimeUnit.MILLISECONDS);
 		}
+		else {
+			scheduler.schedule(resume, delay, TimeUnit.MILLISECONDS);
+			scheduler.shutdown();
+		}
+		logger.info(LOGTAG + "In-flight deprovisioning transactions will be resumed in " +
+			delay + " ms.");
+	}
 
-		logger.info(LOGTAG + "Initialization complete.");
+	/**
+	 * Queries for deprovisioning transactions that are still pending and
+	 * adds a transaction to the thread pool for each one that is not already
+	 * running in this instance and that this instance can claim, so it is not
+	 * running in another one either. The transaction resumes at the first
+	 * step that has not completed.
+	 *
+	 * @return int, the number of transactions resumed.
+	 */
+	public int resumeInFlightTransactions() throws ProviderException {
+		String LOGTAG = "[EmoryAccountDeprovisioningProvider.resumeInFlightTransactions] ";
+
+		AccountDeprovisioningQuerySpecification querySpec =
+			new AccountDeprovisioningQuerySpecification();
+		try {
+			querySpec = (AccountDeprovisioningQuerySpecification)getAppConfig()
+				.getObjectByType(querySpec.getClass().getName());
+			QueryLanguage ql = querySpec.newQueryLanguage();
+			ql.setType("named");
+			ql.setName(getProperties().getProperty("resumeQueryName",
+				"AccountDeprovisioningPendingWithin24hours"));
+			querySpec.setQueryLanguage(ql);
+		}
+		catch (EnterpriseConfigurationObjectException | EnterpriseFieldException e) {
+			String errMsg = "An error occurred building the query for in-flight " +
+				"deprovisioning transactions. The exception is: " + e.getMessage();
+			logger.error(LOGTAG + errMsg);
+			throw new ProviderException(errMsg, e);
+		}
+
+		List<AccountDeprovisioning> ads = query(querySpec);
+		int resumed = 0;
+		for (AccountDeprovisioning ad : ads) {
+			if (!PENDING_STATUS.equalsIgnoreCase(ad.getStatus())) {
+				continue;
+			}
+			if (m_runningDeprovisioningIds.contains(ad.getDeprovisioningId())) {
+				logger.info(LOGTAG + "DeprovisioningId " + ad.getDeprovisioningId() +
+					" is already running.");
+				continue;
+			}
+			Key claim;
+			try {
+				claim = claimTransaction(ad.getDeprovisioningId());
+			}
+			catch (LockAlreadySetException lase) {
+				logger.info(LOGTAG + "DeprovisioningId " + ad.getDeprovisioningId() +
+					" is claimed by another instance.");
+				continue;
+			}
+			catch (LockException le) {
+				String errMsg = "An error occurred claiming DeprovisioningId " +
+					ad.getDeprovisioningId() + ". The exception is: " + le.getMessage();
+				logger.error(LOGTAG + errMsg);
+				continue;
+			}
+			logger.info(LOGTAG + "Resuming DeprovisioningId " + ad.getDeprovisioningId());
+			AccountDeprovisioningTransaction transaction = new AccountDeprovisioningTransaction(ad);
+			transaction.setClaim(claim);
+			resumeTransaction(transaction);
+			resumed++;
+		}
+		logger.info(LOGTAG + "Resumed " + resumed + " of " + ads.size() +
+			" in-flight deprovisioning transactions.");
+		return resumed;
 	}
 
 	/**
@@ -413,6 +525,55 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 	public AccountDeprovisioning generate(AccountDeprovisioningRequisition adr)
 			throws ProviderException {
 
+		// Reserve a place in the admission queue before creating anything,
+		// so a busy service rejects the request right away.
+		getAdmissionQueue().reserve();
+		try {
+			AccountDeprovisioning ad = generateDeprovisioning(adr);
+
+			// Claim the new transaction, so no other instance resumes it
+			// while it is pending.
+			Key claim;
+			try {
+				claim = claimTransaction(ad.getDeprovisioningId());
+			}
+			catch (LockException | LockAlreadySetException le) {
+				String errMsg = "An error occurred claiming DeprovisioningId " +
+					ad.getDeprovisioningId() + ". The exception is: " + le.getMessage();
+				logger.error(LOGTAG + errMsg);
+				throw new ProviderException(errMsg, le);
+			}
+
+			// Queue the AccountDeprovisioning for processing and return it
+			// with status pending. The transaction starts when a thread is
+			// free.
+			AccountDeprovisioningTransaction transaction = new AccountDeprovisioningTransaction(ad);
+			transaction.setClaim(claim);
+			int position;
+			try {
+				position = getAdmissionQueue().admit(ad.getDeprovisioningId(), transaction);
+			}
+			catch (RuntimeException re) {
+				transaction.release();
+				throw re;
+			}
+			logger.info(LOGTAG + "DeprovisioningId " + ad.getDeprovisioningId() +
+				" is pending at position " + position + " of the admission queue.");
+			return ad;
+		}
+		catch (ProviderException | RuntimeException e) {
+			getAdmissionQueue().cancelReservation();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates the AccountDeprovisioning object for a requisition with all
+	 * of its steps pending.
+	 */
+	private AccountDeprovisioning generateDeprovisioning(AccountDeprovisioningRequisition adr)
+			throws ProviderException {
+
 	    // Get a configured AccountDeprovisioning object from AppConfig
 	    AccountDeprovisioning ad = new AccountDeprovisioning();
 	    try {
@@ -457,60 +618,18 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 			throw new ProviderException(errMsg, efe);
 		}
 
-		// Add all of the steps.
-		// Initialize all provisioning steps this provider will use to
-		// verify the runtime configuration as best we can.
-		// Get a list of all step properties.
-		List<PropertyConfig> stepPropConfigs = null;
-		try {
-			stepPropConfigs = getAppConfig().getObjectsLike("DeprovisioningStep");
-		}
-		catch (EnterpriseConfigurationObjectException eoce) {
-			String errMsg = "An error occurred getting DeprovisioningStep " +
-				"properties from AppConfig. The exception is: " +
-				eoce.getMessage();
-			logger.error(LOGTAG + errMsg);
-			throw new ProviderException(errMsg, eoce);
-		}
-		logger.info(LOGTAG + "There are " + stepPropConfigs.size() + " steps.");
-
-		// Convert property configs to properties
-		List<Properties> stepProps = new ArrayList<Properties>();
-		ListIterator stepPropConfigsIterator = stepPropConfigs.listIterator();
-		while (stepPropConfigsIterator.hasNext()) {
-			PropertyConfig stepConfig = (PropertyConfig)stepPropConfigsIterator.next();
-			Properties stepProp = stepConfig.getProperties();
-			stepProps.add(stepProp);
-		}
-
-		// Sort the list by stepId integer.
-		stepProps.sort(new StepPropIdComparator(1));
-
-		// For each property instantiate a provisioning step
-		// and add it to the provisioning object.
-		ListIterator stepPropsIterator = stepProps.listIterator();
-		int i = 0;
-		int totalAnticipatedTime = 0;
-		while (stepPropsIterator.hasNext()) {
-			i++;
-			Properties sp = (Properties)stepPropsIterator.next();
-			String stepId = sp.getProperty("stepId");
-			String stepType = sp.getProperty("type");
-			String stepDesc = sp.getProperty("description");
-			String stepAnticipatedTime = sp.getProperty("anticipatedTime");
-			int anticipatedTime = Integer.parseInt(stepAnticipatedTime);
-			totalAnticipatedTime = totalAnticipatedTime + anticipatedTime;
-
+		// Add all of the steps of the step plan.
+		StepPlan<Step> stepPlan = getStepPlan();
+		for (StepPlan.StepDefinition sd : stepPlan.getSteps()) {
 			DeprovisioningStep dStep = ad.newDeprovisioningStep();
 			try {
 				dStep.setDeprovisioningId(ad.getDeprovisioningId());
-				dStep.setStepId(stepId);
-				dStep.setType(stepType);
-				dStep.setDescription(stepDesc);
+				dStep.setStepId(sd.getStepId());
+				dStep.setType(sd.getType());
+				dStep.setDescription(sd.getDescription());
 				dStep.setStatus(PENDING_STATUS);
-				dStep.setAnticipatedTime(stepAnticipatedTime);
+				dStep.setAnticipatedTime(Integer.toString(sd.getAnticipatedTime()));
 				dStep.setCreateUser("AwsAccountService");
-				Datetime createDatetime = dStep.newCreateDatetime();
 				dStep.setCreateDatetime(new Datetime("Create", System.currentTimeMillis()));
 
 				ad.addDeprovisioningStep(dStep);
@@ -523,10 +642,11 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 				throw new ProviderException(errMsg, efe);
 
 			}
-			logger.info(LOGTAG + "Added step " + i + " to the deprovisioning object.");
-			logger.info(LOGTAG + "Total anticipated time of this deprovisioning " +
-				"process is " + totalAnticipatedTime + " ms.");
 		}
+		int totalAnticipatedTime = stepPlan.getTotalAnticipatedTime();
+		logger.info(LOGTAG + "Added " + stepPlan.size() + " steps to the " +
+			"deprovisioning object. Total anticipated time of this " +
+			"deprovisioning process is " + totalAnticipatedTime + " ms.");
 
 		// update the AccountDeprovisioning anticipated time.
 		try {
@@ -555,42 +675,54 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 			throw new ProviderException(errMsg, pe);
 		}
 
-		// Add the AccountDeprovisioning to the ThreadPool for processing.
-		// If this thread pool is set to check for available threads before
-		// adding jobs to the pool, it may throw an exception indicating it
-		// is busy when we try to add a job. We need to catch that exception
-		// and try to add the job until we are successful.
-		boolean jobAdded = false;
-		while (jobAdded == false) {
-			try {
-				logger.info(LOGTAG + "Adding job to threadpool for " +
-					"DeprovisioningId: " + ad.getDeprovisioningId());
-				getThreadPool().addJob(new AccountDeprovisioningTransaction(ad));
-				jobAdded = true;
-			}
-			catch (ThreadPoolException tpe) {
-				// The thread pool is busy. Log it and sleep briefly to try to
-				// add the job again later.
-				String msg = "The thread pool is busy. Sleeping for " +
-						getSleepInterval() + " milliseconds.";
-				logger.debug(LOGTAG + msg);
-				try { Thread.sleep(getSleepInterval()); }
-				catch (InterruptedException ie) {
-					// An error occurred while sleeping to allow threads in the pool
-					// to clear for processing. Log it and throw and exception.
-					String errMsg = "An error occurred while sleeping to allow " +
-							"threads in the pool to clear for processing. The exception " +
-							"is " + ie.getMessage();
-					logger.fatal(LOGTAG + errMsg);
-					throw new ProviderException(errMsg);
-				}
-			}
-		}
-
 		// Return the object.
 		return ad;
 	}
 
+	/**
+	 * Claims a deprovisioning transaction for this instance in the
+	 * AccountDeprovisioningLock.
+	 *
+	 * @return Key, the key of the claim, or null if no lock is configured.
+	 * @throws LockAlreadySetException if another instance has claimed the
+	 * transaction.
+	 */
+	private Key claimTransaction(String deprovisioningId)
+			throws LockException, LockAlreadySetException {
+		if (getTransactionLock() == null) {
+			return null;
+		}
+		return getTransactionLock().set("AD-" + deprovisioningId);
+	}
+
+	/**
+	 * Releases the claim of a deprovisioning transaction, if it has one.
+	 */
+	private void releaseTransaction(String deprovisioningId, Key claim) {
+		if (claim == null) {
+			return;
+		}
+		try {
+			getTransactionLock().release("AD-" + deprovisioningId, claim);
+		}
+		catch (LockException le) {
+			// The claim expires on its own.
+			String errMsg = "An error occurred releasing the claim of DeprovisioningId " +
+				deprovisioningId + ". The exception is: " + le.getMessage();
+			logger.error(LOGTAG + errMsg);
+		}
+	}
+
+	/**
+	 * Queues a transaction that is already running, either resumed after a
+	 * restart or with a waiting step that has completed, ahead of all new
+	 * transactions. It never blocks, since it is also called from the probe
+	 * scheduler.
+	 */
+	private void resumeTransaction(AccountDeprovisioningTransaction transaction) {
+		getAdmissionQueue().resume(transaction.getDeprovisioningId(), transaction);
+	}
+
 	/**
 	 * @see AccountDeprovisioningProvider.java
 	 */
@@ -799,6 +931,21 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 		m_threadPool = tp;
 	}
 
+	/**
+	 * This method sets the plan of the deprovisioning steps used by new
+	 * transactions.
+	 */
+	private void setStepPlan(StepPlan<Step> stepPlan) {
+		m_stepPlan = stepPlan;
+	}
+
+	/**
+	 * This method gets the plan of the deprovisioning steps.
+	 */
+	public final StepPlan<Step> getStepPlan() {
+		return m_stepPlan;
+	}
+
 	/**
 	 * This method gets the value of the threadPoolSleepInteval.
 	 */
@@ -806,6 +953,88 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 		return m_threadPoolSleepInterval;
 	}
 
+	/**
+	 * This method creates the queue of transactions waiting for the thread
+	 * pool.
+	 */
+	private void setAdmissionQueue(String maxQueuedTransactions) throws ProviderException {
+		int maxDepth = 0;
+		try {
+			maxDepth = Integer.parseInt(maxQueuedTransactions);
+		}
+		catch (NumberFormatException nfe) {
+			String errMsg = "maxQueuedTransactions property is not an integer: " +
+				maxQueuedTransactions + ". Can't continue.";
+			logger.error(LOGTAG + errMsg);
+			throw new ProviderException(errMsg, nfe);
+		}
+		if (maxDepth < 1) {
+			String errMsg = "maxQueuedTransactions property must be at least 1. Can't continue.";
+			logger.error(LOGTAG + errMsg);
+			throw new ProviderException(errMsg);
+		}
+		m_admissionQueue = new TransactionAdmissionQueue("AccountDeprovisioning",
+			getThreadPool(), maxDepth, getSleepInterval());
+	}
+
+	/**
+	 * This method gets the queue of transactions waiting for the thread pool.
+	 */
+	public final TransactionAdmissionQueue getAdmissionQueue() {
+		return m_admissionQueue;
+	}
+
+	/**
+	 * This method sets the interval in milliseconds between writes of the
+	 * state of a transaction.
+	 */
+	private void setStateFlushInterval(String stateFlushInterval) throws ProviderException {
+		try {
+			m_stateFlushInterval = Long.parseLong(stateFlushInterval);
+		}
+		catch (NumberFormatException nfe) {
+			String errMsg = "stateFlushInterval property is not an integer: " +
+				stateFlushInterval + ". Can't continue.";
+			logger.error(LOGTAG + errMsg);
+			throw new ProviderException(errMsg, nfe);
+		}
+		if (m_stateFlushInterval < 0) {
+			String errMsg = "stateFlushInterval property must not be negative. Can't continue.";
+			logger.error(LOGTAG + errMsg);
+			throw new ProviderException(errMsg);
+		}
+	}
+
+	/**
+	 * This method gets the interval in milliseconds between writes of the
+	 * state of a transaction.
+	 */
+	public final long getStateFlushInterval() {
+		return m_stateFlushInterval;
+	}
+
+	private void setTransactionLock(Lock lock) {
+		m_transactionLock = lock;
+	}
+
+	private Lock getTransactionLock() {
+		return m_transactionLock;
+	}
+
+	/**
+	 * This method sets whether to resume in-flight transactions at startup.
+	 */
+	private void setResumeInFlightTransactions(boolean resume) {
+		m_resumeInFlightTransactions = resume;
+	}
+
+	/**
+	 * This method gets whether to resume in-flight transactions at startup.
+	 */
+	public final boolean getResumeInFlightTransactions() {
+		return m_resumeInFlightTransactions;
+	}
+
     /**
      * @param AppConfig
      *            , the AppConfig object of this provider.
@@ -868,35 +1097,6 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 		return this;
 	}
 
-	private class StepPropIdComparator implements Comparator<Properties> {
-
-		int m_order = 1;
-
-		public StepPropIdComparator(int order) {
-			m_order = order;
-		}
-
-	    public int compare(Properties prop1, Properties prop2) {
-	        int returnVal = 0;
-
-	        // Convert stepIds to integers
-	        int stepId1 = Integer.valueOf(prop1.getProperty("stepId"));
-	        int stepId2 = Integer.valueOf(prop2.getProperty("stepId"));
-
-	        // Compare integer stepIds.
-	        if (stepId1 < stepId2) {
-	        	returnVal =  -1;
-	        }
-	        else if (stepId1 > stepId2) {
-	        	returnVal =  1;
-	        }
-	        else if (stepId1 == stepId2) {
-	        	returnVal =  0;
-	        }
-	        return (returnVal * m_order);
-	    }
-	}
-
 	private class StepIdComparator implements Comparator<Step> {
 
 		int m_order = 1;
@@ -1164,24 +1364,187 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 		return roleAssignments;
 	}
 
+	/**
+	 * A provider scoped to one deprovisioning transaction. It serves the
+	 * steps of the transaction the in-memory AccountDeprovisioning object,
+	 * serializes their updates, and persists their changes behind them with
+	 * a TransactionStateWriter. Everything else is delegated to this
+	 * provider.
+	 */
+	private class TransactionScopedProvider implements AccountDeprovisioningProvider {
+
+		private final TransactionStateWriter<AccountDeprovisioning> m_stateWriter;
+		private final Set<String> m_inProgressStepIds = new HashSet<String>();
+
+		TransactionScopedProvider(AccountDeprovisioning ad) {
+			m_stateWriter = new TransactionStateWriter<>(ad.getDeprovisioningId(), ad,
+				EmoryAccountDeprovisioningProvider.this::update,
+				getStateFlushInterval(), this);
+		}
+
+		AccountDeprovisioning getState() {
+			return m_stateWriter.getState();
+		}
+
+		void flush() throws ProviderException {
+			m_stateWriter.flushFinal();
+			logger.info(LOGTAG + "Persisted " + m_stateWriter.getChangeCount() +
+				" changes of AccountDeprovisioning " + getState().getDeprovisioningId() +
+				" in " + m_stateWriter.getUpdateCount() + " updates.");
+		}
+
+		public void init(AppConfig aConfig) throws ProviderException {
+			throw new ProviderException("A transaction scoped provider can't be initialized.");
+		}
+
+		public List<AccountDeprovisioning> query(AccountDeprovisioningQuerySpecification querySpec)
+			throws ProviderException {
+			// The in-memory object is the current state of this transaction.
+			if (getState().getDeprovisioningId().equals(querySpec.getDeprovisioningId())) {
+				List<AccountDeprovisioning> results = new ArrayList<AccountDeprovisioning>();
+				results.add(getState());
+				return results;
+			}
+			return EmoryAccountDeprovisioningProvider.this.query(querySpec);
+		}
+
+		public AccountDeprovisioning generate(AccountDeprovisioningRequisition requisition)
+			throws ProviderException {
+			return EmoryAccountDeprovisioningProvider.this.generate(requisition);
+		}
+
+		public void create(AccountDeprovisioning ad) throws ProviderException {
+			EmoryAccountDeprovisioningProvider.this.create(ad);
+		}
+
+		public void update(AccountDeprovisioning ad) throws ProviderException {
+			if (ad == getState()) {
+				m_stateWriter.changed();
+
+				// A step is updated to in progress before it does anything.
+				// Persist that right away, so a step that is pending in the
+				// persisted state has certainly not run when the transaction
+				// is resumed. If it can't be persisted, the update fails and
+				// the step does not run.
+				if (hasNewStepInProgress(ad)) {
+					m_stateWriter.flush();
+				}
+				return;
+			}
+			EmoryAccountDeprovisioningProvider.this.update(ad);
+		}
+
+		private boolean hasNewStepInProgress(AccountDeprovisioning ad) {
+			boolean newStepInProgress = false;
+			synchronized (this) {
+				@SuppressWarnings("unchecked")
+				List<DeprovisioningStep> dSteps = ad.getDeprovisioningStep();
+				for (DeprovisioningStep dStep : dSteps) {
+					if (IN_PROGRESS_STATUS.equalsIgnoreCase(dStep.getStatus()) &&
+						m_inProgressStepIds.add(dStep.getStepId())) {
+						newStepInProgress = true;
+					}
+				}
+			}
+			return newStepInProgress;
+		}
+
+		public void delete(AccountDeprovisioning ad) throws ProviderException {
+			EmoryAccountDeprovisioningProvider.this.delete(ad);
+		}
+
+		public Incident generateIncident(IncidentRequisition req) throws ProviderException {
+			return EmoryAccountDeprovisioningProvider.this.generateIncident(req);
+		}
+
+		public int notifyCentralAdministrators(UserNotification notification) throws ProviderException {
+			return EmoryAccountDeprovisioningProvider.this.notifyCentralAdministrators(notification);
+		}
+
+		public List<String> getCentralAdministrators() throws ProviderException {
+			return EmoryAccountDeprovisioningProvider.this.getCentralAdministrators();
+		}
+	}
+
 	/**
 	 * A transaction to process account deprovisioning.
 	 */
 	private class AccountDeprovisioningTransaction implements java.lang.Runnable {
 
 		AccountDeprovisioning m_ad = null;
+		TransactionScopedProvider m_transactionProvider = null;
 		long m_executionStartTime = 0;
 
+		// The progress through the steps, kept while this transaction is
+		// waiting for a step.
+		private StepPlan<Step> m_stepPlan = null;
+		private ListIterator<StepPlan.StepDefinition> m_stepIterator = null;
+		private int m_stepCount = 0;
+		private final List<Step> m_completedSteps = new ArrayList<Step>();
+		private Step m_waitingStep = null;
+		private long m_waitStartTime = 0;
+		private volatile List<Property> m_continuationResultProps = null;
+		private volatile Throwable m_continuationException = null;
+		private Key m_claim = null;
+
 		public AccountDeprovisioningTransaction(AccountDeprovisioning ad) {
 			logger.info(LOGTAG + "Initializing deprovisioning process for " +
 				"DeprovisioningId: " + ad.getDeprovisioningId());
 			m_ad = ad;
+			m_runningDeprovisioningIds.add(ad.getDeprovisioningId());
 		}
 
 		public void run() {
-			setExecutionStartTime(System.currentTimeMillis());
+			boolean finished = true;
+			try {
+				finished = runSteps();
+			}
+			finally {
+				if (finished) {
+					release();
+				}
+				else {
+					awaitContinuation(m_waitingStep);
+				}
+			}
+		}
+
+		/**
+		 * Sets the claim of this transaction, released when it finishes.
+		 */
+		private void setClaim(Key claim) {
+			m_claim = claim;
+		}
+
+		/**
+		 * Releases this transaction in this instance and its claim.
+		 */
+		private void release() {
+			m_runningDeprovisioningIds.remove(getDeprovisioningId());
+			releaseTransaction(getDeprovisioningId(), m_claim);
+			m_claim = null;
+		}
+
+		/**
+		 * Executes the steps one after another in stepId order. A step that
+		 * waits returns from execute with a continuation, and this thread is
+		 * released until the continuation completes and adds the transaction
+		 * back to the thread pool, where it picks up with that step.
+		 *
+		 * @return boolean, true if the transaction is finished, false if it
+		 * is waiting for a step.
+		 */
+		private boolean runSteps() {
 			String LOGTAG = "[AccountDeprovisioningTransaction{" +
 				getDeprovisioningId() + "}] ";
+			if (m_stepIterator != null) {
+				if (!waitingStepCompleted()) {
+					return true;
+				}
+				return executeSteps();
+			}
+
+			setExecutionStartTime(System.currentTimeMillis());
 			logger.info(LOGTAG +  "Processing DeprovisioningId number: "
 				+ getDeprovisioningId());
 /**
@@ -1204,48 +1567,53 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 				}
 			}
 **/
-			// Get a list of all step properties.
-			List<PropertyConfig> stepPropConfigs = null;
-			try {
-				stepPropConfigs = getAppConfig().getObjectsLike("DeprovisioningStep");
-			}
-			catch (EnterpriseConfigurationObjectException eoce) {
-				String errMsg = "An error occurred getting DeprovisioningStep " +
-					"properties from AppConfig. The exception is: " +
-					eoce.getMessage();
+			// Use the step plan current when this transaction started for
+			// all of its steps, even if the configuration is reloaded.
+			m_stepPlan = getStepPlan();
+			logger.info(LOGTAG + "There are " + m_stepPlan.size() + " steps.");
+
+			// Query for the AccountDeprovisioning object once. From here on
+			// the steps share a provider scoped to this transaction, which
+			// serves them the in-memory object and persists their changes.
+			if (!queryForAccountDeprovisioningBaseline()) {
+				String errMsg = "No AccountDeprovisioning object found for " +
+					"DeprovisioningId " + getDeprovisioningId() + ". Can't continue.";
 				logger.error(LOGTAG + errMsg);
-				return;
+				return true;
 			}
-			logger.info(LOGTAG + "There are " + stepPropConfigs.size() + " steps.");
-
-			// Convert property configs to properties
-			List<Properties> stepProps = new ArrayList<Properties>();
-			ListIterator stepPropConfigsIterator = stepPropConfigs.listIterator();
-			while (stepPropConfigsIterator.hasNext()) {
-				PropertyConfig pConfig = (PropertyConfig)stepPropConfigsIterator.next();
-				Properties stepProp = pConfig.getProperties();
-				stepProps.add(stepProp);
+
+			// Another instance may have finished the transaction between the
+			// query that found it pending and its claim by this one.
+			String status = getAccountDeprovisioning().getStatus();
+			if (!PENDING_STATUS.equalsIgnoreCase(status)) {
+				logger.info(LOGTAG + "DeprovisioningId " + getDeprovisioningId() +
+					" has status " + status + " and has already finished.");
+				return true;
 			}
+			m_transactionProvider = new TransactionScopedProvider(getAccountDeprovisioning());
+			m_stepIterator = m_stepPlan.getSteps().listIterator();
+			return executeSteps();
+		}
 
-			// Sort the list by stepId integer.
-			stepProps.sort(new StepPropIdComparator(1));
+		private boolean executeSteps() {
+			String LOGTAG = "[AccountDeprovisioningTransaction{" +
+				getDeprovisioningId() + "}] ";
+			List<Step> completedSteps = m_completedSteps;
 
 			// For each property instantiate the step, call the execute
 			// method, and if successful, place it in the map of
 			// completed steps.
-			List<Step> completedSteps = new ArrayList();
-			ListIterator stepPropsIterator = stepProps.listIterator();
-			int i = 0;
-			while (stepPropsIterator.hasNext()) {
-				i++;
-				Properties props = (Properties)stepPropsIterator.next();
-				String className = props.getProperty("className");
+			while (m_stepIterator.hasNext()) {
+				m_stepCount++;
+				int i = m_stepCount;
+				StepPlan.StepDefinition sd = m_stepIterator.next();
+				Properties props = sd.getStepProperties();
+				String className = sd.getClassName();
 				if (className != null) {
 					// Instantiate the step
 					Step step = null;
 					try {
-						Class stepClass = Class.forName(className);
-						step = (Step)stepClass.newInstance();
+						step = m_stepPlan.newStep(sd.getStepId());
 						logger.info(LOGTAG + "Initializing step " + i + ".");
 /**
 						// If this is the failStep, set the failStep to be true.
@@ -1261,33 +1629,22 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 
 
 						step.init(getDeprovisioningId(), props, getAppConfig(),
-							getAccountDeprovisioningProvider());
+							m_transactionProvider);
 					}
-					catch (ClassNotFoundException cnfe) {
+					catch (ProviderException pe) {
 						// An error occurred instantiating the step.
 						// Log it and roll back all preceding steps.
 						String errMsg = "An error occurred instantiating the Step " +
-							step.getStepId() + "The exception is: " + cnfe.getMessage();
+							sd.getStepId() + ". The exception is: " + pe.getMessage();
 						logger.error(LOGTAG + errMsg);
-						try {
-							logger.info(LOGTAG + "Setting completed status and failure result...");
-							step.update(COMPLETED_STATUS, FAILURE_RESULT);
-							logger.info(LOGTAG + "Updated to completed status and failure result.");
-						}
-						catch (StepException se2) {
-							String errMsg2 = "An error occurred updating the " +
-								"status to indicate failure. The exception " +
-								"is: " + se2.getMessage();
-							logger.error(LOGTAG + errMsg2);
-						}
 						rollbackCompletedSteps(completedSteps);
-						return;
+						return true;
 					}
-					catch (IllegalAccessException iae) {
-						// An error occurred instantiating the step.
+					catch (StepException se) {
+						// An error occurred initializing the step.
 						// Log it and roll back all preceding steps.
-						String errMsg = "An error occurred instantiating the Step " +
-							step.getStepId() + "The exception is: " + iae.getMessage();
+						String errMsg = "An error occurred initializing the Step " +
+							step.getStepId() + "The exception is: " + se.getMessage();
 						logger.error(LOGTAG + errMsg);
 						try {
 							logger.info(LOGTAG + "Setting completed status and failure result...");
@@ -1301,125 +1658,78 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 							logger.error(LOGTAG + errMsg2);
 						}
 						rollbackCompletedSteps(completedSteps);
-						return;
+						return true;
 					}
-					catch (InstantiationException ie) {
-						// An error occurred instantiating the step.
-						// Log it and roll back all preceding steps.
-						String errMsg = "An error occurred instantiating the Step " +
-							step.getStepId() + "The exception is: " + ie.getMessage();
-						logger.error(LOGTAG + errMsg);
-						try {
-							logger.info(LOGTAG + "Setting completed status and failure result...");
-							step.update(COMPLETED_STATUS, FAILURE_RESULT);
-							logger.info(LOGTAG + "Updated to completed status and failure result.");
+
+					// If this transaction was interrupted, skip the steps
+					// that already completed and resume at the first step
+					// that has not.
+					DeprovisioningStep dStep = getPersistedStep(step.getStepId());
+					if (dStep != null && !PENDING_STATUS.equalsIgnoreCase(dStep.getStatus())) {
+						if (COMPLETED_STATUS.equalsIgnoreCase(dStep.getStatus()) &&
+							SUCCESS_RESULT.equalsIgnoreCase(dStep.getStepResult())) {
+							logger.info(LOGTAG + "Step " + step.getStepId() +
+								" already completed.");
+							completedSteps.add(step);
+							continue;
 						}
-						catch (StepException se2) {
-							String errMsg2 = "An error occurred updating the " +
-								"status to indicate failure. The exception " +
-								"is: " + se2.getMessage();
-							logger.error(LOGTAG + errMsg2);
+						else if (IN_PROGRESS_STATUS.equalsIgnoreCase(dStep.getStatus()) &&
+							step.isRerunnable()) {
+							logger.info(LOGTAG + "Step " + step.getStepId() + " was " +
+								"interrupted and will be executed again.");
 						}
-						rollbackCompletedSteps(completedSteps);
-						return;
-					}
-					catch (StepException se) {
-						// An error occurred initializing the step.
-						// Log it and roll back all preceding steps.
-						String errMsg = "An error occurred initializing the Step " +
-							step.getStepId() + "The exception is: " + se.getMessage();
-						logger.error(LOGTAG + errMsg);
-						try {
-							logger.info(LOGTAG + "Setting completed status and failure result...");
-							step.update(COMPLETED_STATUS, FAILURE_RESULT);
-							logger.info(LOGTAG + "Updated to completed status and failure result.");
+						else if (IN_PROGRESS_STATUS.equalsIgnoreCase(dStep.getStatus())) {
+							String errMsg = "Step " + step.getStepId() + " was " +
+								"interrupted and is not safe to execute again.";
+							logger.error(LOGTAG + errMsg);
+							try {
+								step.addResultProperty("stepExecutionException", errMsg);
+								step.update(COMPLETED_STATUS, FAILURE_RESULT);
+							}
+							catch (StepException se2) {
+								String errMsg2 = "An error occurred updating the " +
+									"status to indicate failure. The exception " +
+									"is: " + se2.getMessage();
+								logger.error(LOGTAG + errMsg2);
+							}
+							rollbackCompletedSteps(completedSteps);
+							return true;
 						}
-						catch (StepException se2) {
-							String errMsg2 = "An error occurred updating the " +
-								"status to indicate failure. The exception " +
-								"is: " + se2.getMessage();
-							logger.error(LOGTAG + errMsg2);
+						else {
+							// The step failed or was already rolled back, so
+							// the transaction was failing when it was
+							// interrupted.
+							logger.info(LOGTAG + "Step " + step.getStepId() +
+								" has status " + dStep.getStatus() + " and result " +
+								dStep.getStepResult() + ". Rolling back all " +
+								"completed steps.");
+							rollbackCompletedSteps(completedSteps);
+							return true;
 						}
-						rollbackCompletedSteps(completedSteps);
-						return;
 					}
 
 					// Execute the step
-					List<Property> resultProps = null;
 					try {
 						logger.info(LOGTAG + "Executing [Step-" +
 								step.getStepId() + "] " +
 								step.getDescription());
 						long startTime = System.currentTimeMillis();
-						resultProps = step.execute();
-						long time = System.currentTimeMillis() - startTime;
-						logger.info(LOGTAG + "Completed Step " +
-							step.getStepId() + " with result " +
-							step.getResult() + " in " + time + " ms.");
-						logger.info(LOGTAG + "Step result properties are: " +
-							resultPropsToXmlString(resultProps));
-
-						// If the result of the step is failure, roll back
-						// all completed steps and return.
-						if (step.getResult().equals(FAILURE_RESULT)) {
-							logger.info(LOGTAG + "[Step " + step.getStepId() +
-								"] failed. Rolling back all completed steps.");
-							rollbackCompletedSteps(completedSteps);
-							return;
+						List<Property> resultProps = step.execute();
+						if (step.getContinuation() != null) {
+							logger.info(LOGTAG + "Step " + step.getStepId() +
+								" is waiting. Releasing the thread.");
+							m_waitingStep = step;
+							m_waitStartTime = startTime;
+							return false;
+						}
+						if (!stepExecuted(step, resultProps,
+							System.currentTimeMillis() - startTime)) {
+							return true;
 						}
-
-						// Add all successfully completed steps to the list
-						// of completed steps.
-						completedSteps.add(step);
-
 					}
 					catch (StepException se) {
-						// An error occurred executing the step.
-						// Log it and roll back all preceding steps.
-						LOGTAG = LOGTAG +  "[StepExecutionException][Step-" +
-								step.getStepId() + "] ";
-						String errMsg = "An error occurred executing step " +
-							step.getStepId() + ". The exception is: " + se.getMessage();
-						logger.error(LOGTAG + errMsg);
-
-						try {
-							logger.info(LOGTAG + "Setting completed status, "
-								+ "failure result, and final error details...");
-							// Add an error step property limited to 255 characters.
-							String stepExecutionException = null;
-							if (se.getMessage() != null) {
-								int size = se.getMessage().length();
-								logger.info(LOGTAG + "stepExecutionException size is: "
-										+ size);
-								if (size > 254) size = 254;
-								stepExecutionException =
-									se.getMessage().substring(0, size);
-							}
-							else {
-								stepExecutionException = "No step execution exception found.";
-							}
-							logger.info(LOGTAG + "Final step execution exception text is: " +
-								stepExecutionException);
-
-							step.addResultProperty("stepExecutionException",
-								stepExecutionException);
-							logger.info(LOGTAG + "Added property " +
-									"stepExecutionException: " +
-									stepExecutionException);
-							step.update(COMPLETED_STATUS, FAILURE_RESULT);
-							logger.info(LOGTAG + "Updated to completed status " +
-								"and failure result.");
-						}
-						catch (StepException se2) {
-							String errMsg2 = "An error occurred updating the " +
-								"status to indicate failure. The exception " +
-								"is: " + se2.getMessage();
-							logger.error(LOGTAG + errMsg2);
-						}
-						finally {
-							rollbackCompletedSteps(completedSteps);
-						}
-						return;
+						stepFailed(step, se);
+						return true;
 					}
 				}
 				else {
@@ -1427,7 +1737,7 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 						"a step. The className property is null.";
 					logger.error(LOGTAG + errMsg);
 					rollbackCompletedSteps(completedSteps);
-					return;
+					return true;
 				}
 			}
 
@@ -1435,37 +1745,171 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 			// Set the end of execution.
 			long executionTime = System.currentTimeMillis() - getExecutionStartTime();
 
-			// Update the state of the AccountDeprovisioning object in this transaction.
-			queryForAccountDeprovisioningBaseline();
-
 			// Set the status to complete, the result to success, and the
 			// execution time.
-			try {
-				getAccountDeprovisioning().setStatus(COMPLETED_STATUS);
-				getAccountDeprovisioning().setDeprovisioningResult(SUCCESS_RESULT);
-				getAccountDeprovisioning().setActualTime(Long.toString(executionTime));
-			}
-			catch (EnterpriseFieldException efe) {
-				String errMsg = "An error occurred setting field values on the " +
-			    	  "AccountDeprovisioning object. The exception is: " + efe.getMessage();
-			    logger.error(LOGTAG + errMsg);
+			synchronized (m_transactionProvider) {
+				try {
+					getAccountDeprovisioning().setStatus(COMPLETED_STATUS);
+					getAccountDeprovisioning().setDeprovisioningResult(SUCCESS_RESULT);
+					getAccountDeprovisioning().setActualTime(Long.toString(executionTime));
+				}
+				catch (EnterpriseFieldException efe) {
+					String errMsg = "An error occurred setting field values on the " +
+				    	  "AccountDeprovisioning object. The exception is: " + efe.getMessage();
+				    logger.error(LOGTAG + errMsg);
+				}
 			}
 
-			// Update the AccountDeprovisioning object.
+			// Update the AccountDeprovisioning object with the final state
+			// of the transaction.
 			try {
-				getAccountDeprovisioningProvider()
-					.update(getAccountDeprovisioning());
+				m_transactionProvider.update(getAccountDeprovisioning());
+				m_transactionProvider.flush();
 			}
 			catch (ProviderException pe) {
-				String errMsg = "An error occurred querying for the  " +
-		    	  "current state of an AccountDeprovisioning object. " +
+				String errMsg = "An error occurred persisting the final " +
+		    	  "state of an AccountDeprovisioning object. " +
 		    	  "The exception is: " + pe.getMessage();
 		    	logger.error(LOGTAG + errMsg);
 			}
 
 			// And we're done.
-			return;
+			return true;
+		}
+
+		/**
+		 * Records the outcome of the step that was waiting.
+		 *
+		 * @return boolean, true if the step completed successfully and the
+		 * transaction continues with the next step.
+		 */
+		private boolean waitingStepCompleted() {
+			Step step = m_waitingStep;
+			m_waitingStep = null;
+			long time = System.currentTimeMillis() - m_waitStartTime;
+			Throwable t = m_continuationException;
+			if (t == null) {
+				return stepExecuted(step, m_continuationResultProps, time);
+			}
+			if (t instanceof CompletionException && t.getCause() != null) {
+				t = t.getCause();
+			}
+			if (t instanceof StepException) {
+				stepFailed(step, (StepException)t);
+			}
+			else {
+				String errMsg = "An error occurred waiting for the step. " +
+					"The exception is: " + t.getMessage();
+				stepFailed(step, new StepException(errMsg, t));
+			}
+			return false;
+		}
+
+		/**
+		 * Adds this transaction back to the thread pool when the waiting
+		 * step completes.
+		 */
+		private void awaitContinuation(Step step) {
+			step.getContinuation().whenComplete((resultProps, t) -> {
+				m_continuationResultProps = resultProps;
+				m_continuationException = t;
+				resumeTransaction(this);
+			});
+		}
+
+		/**
+		 * Logs the result of an executed step and rolls back all completed
+		 * steps if it failed.
+		 *
+		 * @return boolean, true if the step completed successfully.
+		 */
+		private boolean stepExecuted(Step step, List<Property> resultProps, long time) {
+			String LOGTAG = "[AccountDeprovisioningTransaction{" +
+				getDeprovisioningId() + "}] ";
+			logger.info(LOGTAG + "Completed Step " +
+				step.getStepId() + " with result " +
+				step.getResult() + " in " + time + " ms.");
+			logger.info(LOGTAG + "Step result properties are: " +
+				resultPropsToXmlString(resultProps));
+
+			// If the result of the step is failure, roll back
+			// all completed steps and return.
+			if (step.getResult().equals(FAILURE_RESULT)) {
+				logger.info(LOGTAG + "[Step " + step.getStepId() +
+					"] failed. Rolling back all completed steps.");
+				rollbackCompletedSteps(m_completedSteps);
+				return false;
+			}
 
+			// Add all successfully completed steps to the list
+			// of completed steps.
+			m_completedSteps.add(step);
+			return true;
+		}
+
+		/**
+		 * Records the exception of a step that failed and rolls back all
+		 * completed steps.
+		 */
+		private void stepFailed(Step step, StepException se) {
+			String LOGTAG = "[AccountDeprovisioningTransaction{" +
+				getDeprovisioningId() + "}] ";
+			// An error occurred executing the step.
+			// Log it and roll back all preceding steps.
+			LOGTAG = LOGTAG +  "[StepExecutionException][Step-" +
+					step.getStepId() + "] ";
+			String errMsg = "An error occurred executing step " +
+				step.getStepId() + ". The exception is: " + se.getMessage();
+			logger.error(LOGTAG + errMsg);
+
+			try {
+				logger.info(LOGTAG + "Setting completed status, "
+					+ "failure result, and final error details...");
+				// Add an error step property limited to 255 characters.
+				String stepExecutionException = null;
+				if (se.getMessage() != null) {
+					int size = se.getMessage().length();
+					logger.info(LOGTAG + "stepExecutionException size is: "
+							+ size);
+					if (size > 254) size = 254;
+					stepExecutionException =
+						se.getMessage().substring(0, size);
+				}
+				else {
+					stepExecutionException = "No step execution exception found.";
+				}
+				logger.info(LOGTAG + "Final step execution exception text is: " +
+					stepExecutionException);
+
+				step.addResultProperty("stepExecutionException",
+					stepExecutionException);
+				logger.info(LOGTAG + "Added property " +
+						"stepExecutionException: " +
+						stepExecutionException);
+				step.update(COMPLETED_STATUS, FAILURE_RESULT);
+				logger.info(LOGTAG + "Updated to completed status " +
+					"and failure result.");
+			}
+			catch (StepException se2) {
+				String errMsg2 = "An error occurred updating the " +
+					"status to indicate failure. The exception " +
+					"is: " + se2.getMessage();
+				logger.error(LOGTAG + errMsg2);
+			}
+			finally {
+				rollbackCompletedSteps(m_completedSteps);
+			}
+		}
+
+		private DeprovisioningStep getPersistedStep(String stepId) {
+			@SuppressWarnings("unchecked")
+			List<DeprovisioningStep> dSteps = getAccountDeprovisioning().getDeprovisioningStep();
+			for (DeprovisioningStep dStep : dSteps) {
+				if (stepId.equals(dStep.getStepId())) {
+					return dStep;
+				}
+			}
+			return null;
 		}
 
 		private void rollbackCompletedSteps(List<Step> completedSteps) {
@@ -1496,30 +1940,30 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 			// Set the end of execution.
 			long executionTime = System.currentTimeMillis() - getExecutionStartTime();
 
-			// Update the state of the VPCP object in this transaction.
-			queryForAccountDeprovisioningBaseline();
-
 			// Set the status to complete, the result to failure, and the
 			// execution time.
-			try {
-				getAccountDeprovisioning().setStatus(COMPLETED_STATUS);
-				getAccountDeprovisioning().setDeprovisioningResult(FAILURE_RESULT);
-				getAccountDeprovisioning().setActualTime(Long.toString(executionTime));
-			}
-			catch (EnterpriseFieldException efe) {
-				String errMsg = "An error setting field values on the Account" +
-			    	  "Deprovisioning object. The exception is: " + efe.getMessage();
-			    logger.error(LOGTAG + errMsg);
+			synchronized (m_transactionProvider) {
+				try {
+					getAccountDeprovisioning().setStatus(COMPLETED_STATUS);
+					getAccountDeprovisioning().setDeprovisioningResult(FAILURE_RESULT);
+					getAccountDeprovisioning().setActualTime(Long.toString(executionTime));
+				}
+				catch (EnterpriseFieldException efe) {
+					String errMsg = "An error setting field values on the Account" +
+				    	  "Deprovisioning object. The exception is: " + efe.getMessage();
+				    logger.error(LOGTAG + errMsg);
+				}
 			}
 
-			// Update the AccountDeprovisioning object.
+			// Update the AccountDeprovisioning object with the final state
+			// of the transaction.
 			try {
-				getAccountDeprovisioningProvider()
-					.update(getAccountDeprovisioning());
+				m_transactionProvider.update(getAccountDeprovisioning());
+				m_transactionProvider.flush();
 			}
 			catch (ProviderException pe) {
-				String errMsg = "An error occurred querying for the  " +
-		    	  "current state of an AccountDeprovisioning object. " +
+				String errMsg = "An error occurred persisting the final " +
+		    	  "state of an AccountDeprovisioning object. " +
 		    	  "The exception is: " + pe.getMessage();
 		    	logger.error(LOGTAG + errMsg);
 			}
@@ -1571,7 +2015,7 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 			return m_ad;
 		}
 
-		private void queryForAccountDeprovisioningBaseline() {
+		private boolean queryForAccountDeprovisioningBaseline() {
 			// Query for the AccountDeprovisioning object in the AWS Account Service.
 			// Get a configured query spec from AppConfig
 			AccountDeprovisioningQuerySpecification querySpec = new
@@ -1616,10 +2060,14 @@ public class EmoryAccountDeprovisioningProvider extends OpenEaiObject implements
 		    	  "The exception is: " + pe.getMessage();
 		    	logger.error(LOGTAG + errMsg);
 			}
+			if (results == null || results.isEmpty()) {
+				return false;
+			}
 			AccountDeprovisioning ad =
 				(AccountDeprovisioning)results.get(0);
 
 			setAccountDeprovisioning(ad);
+			return true;
 		}
 
 		private void setExecutionStartTime(long time) {
@@ -34,26 +34,30 @@ import org.openeai.moa.EnterpriseObjectQueryException;
 import org.openeai.moa.EnterpriseObjectUpdateException;
 import org.openeai.moa.XmlEnterpriseObjectException;
 import org.openeai.transport.RequestService;
-import org.openeai.utils.lock.Key;
 import org.openeai.utils.lock.Lock;
 import org.openeai.utils.lock.LockAlreadySetException;
 import org.openeai.utils.lock.LockException;
 
 import javax.jms.JMSException;
-import java.util.ArrayList;
-import java.util.Enumeration;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Properties;
 import java.util.StringTokenizer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * A provider for AccountNotifications that suppresses duplicate
  * account notifications for the create action and passes all
  * other actions through to a deployment of the RDBMS request
  * command.
+ * <P>
+ * The in-memory suppression index, turned on by the suppressionIndex
+ * property, only knows about the notifications created by its own instance,
+ * so it does not speed up deployments with more than one instance. It
+ * requires lockMode local, and such deployments must use lockMode lease
+ * without the index, which queries for earlier notifications every time.
  *
  * @author Steve Wheat (swheat@emory.edu)
  */
@@ -63,7 +67,7 @@ public class EmoryAccountNotificationProvider extends OpenEaiObject
     private Category logger = OpenEaiObject.logger;
     private AppConfig m_appConfig;
     private boolean m_verbose = false;
-    private Lock m_accountNotificationLock = null;
+    private NotificationLock m_accountNotificationLock = null;
     private ProducerPool m_awsAccountServiceProducerPool = null;
     private ProducerPool m_serviceNowServiceProducerPool = null;
     private String LOGTAG = "[EmoryAccountNotificationProvider] ";
@@ -71,7 +75,12 @@ public class EmoryAccountNotificationProvider extends OpenEaiObject
     private int m_suppressionIntervalInMillis = 3600000;
     private int m_lockSleepInterval = 1000;
     private boolean m_suppressNotifications = true;
-    private ArrayList m_ignoreRegexes = new ArrayList();
+    private volatile NotificationIgnoreRules m_ignoreRules = null;
+    private String m_ignoreRulesFile = null;
+    private long m_ignoreRulesReloadIntervalInMillis = 60000;
+    private volatile long m_nextIgnoreRulesReloadTime = 0;
+    private final Object m_ignoreRulesLock = new Object();
+    private NotificationSuppressionIndex m_suppressionIndex = null;
 
     /**
      * @see AccountNotificationProvider.java
@@ -120,19 +129,25 @@ public class EmoryAccountNotificationProvider extends OpenEaiObject
         logger.info(LOGTAG + "requestTimeoutIntervalInMillis is: " +
                 getRequestTimeoutIntervalInMillis());
 
-        Enumeration<Object> keys = getProperties().keys();
-        ArrayList ignoreRegexes = new ArrayList();
-        while (keys.hasMoreElements()) {
-            String key = (String) keys.nextElement();
-            if (key.startsWith("ignoreRegex")) {
-                String value = getProperties().getProperty(key);
-                ignoreRegexes.add(value);
-            }
-        }
-        setIgnoreRegexes(ignoreRegexes);
-        if (getIgnoreRegexes().size() > 0) {
-            logger.info(LOGTAG + "There are " + ignoreRegexes.size() +
-                    " to ignore. They are: " + ignoreRegexes.toString());
+        // Compile the ignore rules, which come from the ignoreRegex and
+        // ignoreRule properties and the optional ignoreRulesFile. The
+        // properties are read once, but the rules are reloaded when the
+        // ignoreRulesFile changes, checking at most once per
+        // ignoreRulesReloadIntervalInMillis. An interval of 0 turns
+        // reloading off.
+        setIgnoreRulesFile(getProperties().getProperty("ignoreRulesFile"));
+        logger.info(LOGTAG + "ignoreRulesFile is: " + getIgnoreRulesFile());
+        String rInterval = getProperties()
+                .getProperty("ignoreRulesReloadIntervalInMillis", "60000");
+        setIgnoreRulesReloadIntervalInMillis(Long.parseLong(rInterval));
+        logger.info(LOGTAG + "ignoreRulesReloadIntervalInMillis is: " +
+                getIgnoreRulesReloadIntervalInMillis());
+        setIgnoreRules(NotificationIgnoreRules.compile(loadIgnoreRuleProperties(), null));
+        m_nextIgnoreRulesReloadTime = System.currentTimeMillis() +
+                getIgnoreRulesReloadIntervalInMillis();
+        if (getIgnoreRules().size() > 0) {
+            logger.info(LOGTAG + "There are " + getIgnoreRules().size() +
+                    " ignore rules. They are: " + getIgnoreRules().toString());
         }
 
         // This provider needs to send messages to the AWS account service
@@ -151,21 +166,76 @@ public class EmoryAccountNotificationProvider extends OpenEaiObject
             throw new ProviderException(errMsg);
         }
 
-        // This provider needs an AccountNotification lock.
-        Lock lock = null;
-        try {
-            lock = (Lock) getAppConfig()
-                    .getObject("AccountNotificationLock");
-            setAccountNotificationLock(lock);
-        } catch (EnterpriseConfigurationObjectException ecoe) {
-            // An error occurred retrieving an object from AppConfig. Log it and
-            // throw an exception.
-            String errMsg = "An error occurred retrieving an object from " +
-                    "AppConfig. The exception is: " + ecoe.getMessage();
+        // This provider needs an AccountNotification lock. In the default
+        // lease mode it is shared by all instances through the configured
+        // AccountNotificationLock, whose expiration must match the
+        // lockLeaseTtlInMillis, such as the expiration configured for a
+        // DbLock. In local mode, for a single instance, it is held in memory.
+        String lockMode = getProperties().getProperty("lockMode", "lease");
+        int lockStripes = Integer.parseInt(getProperties().getProperty("lockStripes", "64"));
+        logger.info(LOGTAG + "lockMode is: " + lockMode + ", lockStripes is: " + lockStripes);
+        if (lockMode.equals("local")) {
+            setAccountNotificationLock(new StripedNotificationLock(lockStripes));
+        } else if (lockMode.equals("lease")) {
+            Lock lock = null;
+            try {
+                lock = (Lock) getAppConfig()
+                        .getObject("AccountNotificationLock");
+            } catch (EnterpriseConfigurationObjectException ecoe) {
+                // An error occurred retrieving an object from AppConfig. Log it and
+                // throw an exception.
+                String errMsg = "An error occurred retrieving an object from " +
+                        "AppConfig. The exception is: " + ecoe.getMessage();
+                logger.fatal(LOGTAG + errMsg);
+                throw new ProviderException(errMsg);
+            }
+            String ttlProperty = getProperties().getProperty("lockLeaseTtlInMillis", "60000");
+            long leaseTtl;
+            try {
+                leaseTtl = Long.parseLong(ttlProperty);
+            } catch (NumberFormatException nfe) {
+                String errMsg = "lockLeaseTtlInMillis property is not an integer: " +
+                        ttlProperty + ". Can't continue.";
+                logger.fatal(LOGTAG + errMsg);
+                throw new ProviderException(errMsg, nfe);
+            }
+            if (leaseTtl <= 0) {
+                String errMsg = "lockLeaseTtlInMillis property must be positive: " +
+                        ttlProperty + ". Can't continue.";
+                logger.fatal(LOGTAG + errMsg);
+                throw new ProviderException(errMsg);
+            }
+            logger.info(LOGTAG + "lockLeaseTtlInMillis is: " + leaseTtl);
+            setAccountNotificationLock(new LeasedNotificationLock(lock, leaseTtl, lockStripes));
+        } else {
+            String errMsg = "Invalid lockMode property " + lockMode +
+                    ". Expected local or lease.";
             logger.fatal(LOGTAG + errMsg);
             throw new ProviderException(errMsg);
         }
 
+        // Set up the suppression index, which decides whether to suppress
+        // a notification in memory. It only knows about the notifications
+        // created by this instance, so it is off unless the suppressionIndex
+        // property turns it on, which is only allowed with the local lock
+        // mode of a deployment with a single instance.
+        boolean useIndex = Boolean.valueOf(getProperties()
+                .getProperty("suppressionIndex", "false"));
+        logger.info(LOGTAG + "suppressionIndex property is: " + useIndex);
+        if (useIndex == true && !lockMode.equals("local")) {
+            String errMsg = "suppressionIndex property is true but lockMode is " +
+                    lockMode + ". The suppression index only works for a single " +
+                    "instance, which must use lockMode local. Can't continue.";
+            logger.fatal(LOGTAG + errMsg);
+            throw new ProviderException(errMsg);
+        }
+        if (useIndex == true) {
+            setSuppressionIndex(new NotificationSuppressionIndex(getSuppressionIntervalInMillis()));
+            Thread warmer = new Thread(this::warmSuppressionIndex, "NotificationSuppressionIndexWarmer");
+            warmer.setDaemon(true);
+            warmer.start();
+        }
+
         logger.info(LOGTAG + "Initialization complete.");
     }
 
@@ -276,36 +346,26 @@ public class EmoryAccountNotificationProvider extends OpenEaiObject
 
         // Get the annotation text
         logger.info(LOGTAG + "Getting the annotation text...");
-        List<Annotation> aList = aNotification.getAnnotation();
-        ListIterator li = aList.listIterator();
-        String annotationText = null;
-        while (li.hasNext()) {
-            Annotation annotation = (Annotation) li.next();
-            if (annotation.getText().contains("SRDOBJECT")) {
-                logger.info(LOGTAG + "SecurityRiskDetection Annotation is: " +
-                        annotation.getText());
-                annotationText = annotation.getText();
-            }
+        String annotationText = getSrdAnnotationText(aNotification);
+        if (annotationText != null) {
+            logger.info(LOGTAG + "SecurityRiskDetection Annotation is: " +
+                    annotationText);
         }
 
         // If there is a ReferenceId, acquire a lock.
         String refId = aNotification.getReferenceId();
         String type = aNotification.getType();
         String lockName = type + "-" + refId + "-" + annotationText;
-        if (lockName.length() > 255) {
-            lockName = lockName.substring(0, 254);
-        }
-        Lock lock = null;
-        Key key = null;
+        NotificationLock lock = null;
+        NotificationLock.Lease lease = null;
         if (refId != null) {
             logger.info(LOGTAG + "The ReferenceId is not null.");
             lock = getAccountNotificationLock();
-            key = null;
             boolean isLockSet = false;
 
             while (isLockSet == false) {
                 try {
-                    key = lock.set(lockName);
+                    lease = lock.set(lockName);
                     logger.info(LOGTAG + "Set AccountNotificationLock for " +
                             "lockName: " + lockName);
                     isLockSet = true;
@@ -338,70 +398,94 @@ public class EmoryAccountNotificationProvider extends OpenEaiObject
             logger.info(LOGTAG + "The ReferenceId is null.");
         }
 
-        logger.info(LOGTAG + "Setting the values of the query spec...");
-        long endTime = System.currentTimeMillis();
-        long startTime = endTime - getSuppressionIntervalInMillis();
-        try {
-            querySpec.setStartCreateDatetime(new Datetime("StartCreate", startTime));
-            querySpec.setEndCreateDatetime(new Datetime("EndCreate", endTime));
-            querySpec.setAnnotationText(annotationText);
-        } catch (EnterpriseFieldException efe) {
-            String errMsg = "An error occurred setting a field value " +
-                    "on the query specification. The exception is: " +
-                    efe.getMessage();
-            logger.error(LOGTAG + errMsg);
-            if (lock != null) {
-                try {
-                    lock.release(lockName, key);
-                    logger.info(LOGTAG + "released lock: " + lockName);
-                } catch (LockException le) {
-                    String errMsg2 = "An error occurred releasing " +
-                            "with name " + lockName + ". The exception is: " +
-                            le.getMessage();
-                    logger.error(LOGTAG + errMsg2);
+        // Decide whether to suppress the notification. The suppression index
+        // answers from memory, except for a notification it hasn't seen in the
+        // first suppression interval after startup, which could duplicate one
+        // created before the restart and is checked in the database. Like the
+        // database query, the index matches on the SRD annotation text, and a
+        // notification without one is always checked in the database.
+        boolean suppressNotification = false;
+        String indexKey = null;
+        if (getSuppressionIndex() != null && annotationText != null) {
+            indexKey = NotificationSuppressionIndex.key(annotationText);
+        }
+        if (indexKey != null && getSuppressionIndex().isSuppressed(indexKey)) {
+            logger.info(LOGTAG + "The suppression index has an AccountNotification " +
+                    "in the suppression interval, setting suppressNotification to true.");
+            suppressNotification = true;
+        } else if (indexKey == null || getSuppressionIndex().isWarmingUp()) {
+            logger.info(LOGTAG + "Setting the values of the query spec...");
+            long endTime = System.currentTimeMillis();
+            long startTime = endTime - getSuppressionIntervalInMillis();
+            try {
+                querySpec.setStartCreateDatetime(new Datetime("StartCreate", startTime));
+                querySpec.setEndCreateDatetime(new Datetime("EndCreate", endTime));
+                querySpec.setAnnotationText(annotationText);
+            } catch (EnterpriseFieldException efe) {
+                String errMsg = "An error occurred setting a field value " +
+                        "on the query specification. The exception is: " +
+                        efe.getMessage();
+                logger.error(LOGTAG + errMsg);
+                if (lock != null) {
+                    try {
+                        lock.release(lease);
+                        logger.info(LOGTAG + "released lock: " + lockName);
+                    } catch (LockException le) {
+                        String errMsg2 = "An error occurred releasing " +
+                                "with name " + lockName + ". The exception is: " +
+                                le.getMessage();
+                        logger.error(LOGTAG + errMsg2);
+                    }
                 }
+                throw new ProviderException(errMsg, efe);
             }
-            throw new ProviderException(errMsg, efe);
-        }
 
-        // Convert the query spec to an XML string.
-        try {
-            String xmlQuerySpec = querySpec.toXmlString();
-            logger.info(LOGTAG + "The query spec is: " + xmlQuerySpec);
-        } catch (XmlEnterpriseObjectException xeoe) {
-            String errMsg = "An error occurred serializing the query " +
-                    "spec to an XML string. The exception is: " +
-                    xeoe.getMessage();
-            logger.error(LOGTAG + errMsg);
-            if (lock != null) {
-                try {
-                    lock.release(lockName, key);
-                    logger.info(LOGTAG + "released lock: " + lockName);
-                } catch (LockException le) {
-                    String errMsg2 = "An error occurred releasing " +
-                            "with name " + lockName + ". The exception is: " +
-                            le.getMessage();
-                    logger.error(LOGTAG + errMsg2);
+            // Convert the query spec to an XML string.
+            try {
+                String xmlQuerySpec = querySpec.toXmlString();
+                logger.info(LOGTAG + "The query spec is: " + xmlQuerySpec);
+            } catch (XmlEnterpriseObjectException xeoe) {
+                String errMsg = "An error occurred serializing the query " +
+                        "spec to an XML string. The exception is: " +
+                        xeoe.getMessage();
+                logger.error(LOGTAG + errMsg);
+                if (lock != null) {
+                    try {
+                        lock.release(lease);
+                        logger.info(LOGTAG + "released lock: " + lockName);
+                    } catch (LockException le) {
+                        String errMsg2 = "An error occurred releasing " +
+                                "with name " + lockName + ". The exception is: " +
+                                le.getMessage();
+                        logger.error(LOGTAG + errMsg2);
+                    }
                 }
+                throw new ProviderException(errMsg, xeoe);
             }
-            throw new ProviderException(errMsg, xeoe);
-        }
 
-        // Query for any notifications during the suppression interval
-        logger.info(LOGTAG + "Querying any notifications during the " +
-                "suppression interval");
-        long queryStartTime = System.currentTimeMillis();
-        List<AccountNotification> results = query(querySpec);
-        long queryTime = System.currentTimeMillis() - queryStartTime;
-        logger.info(LOGTAG + "Queried for AccountNotifications in the " +
-                "suppression interval in " + queryTime + " ms. Found " +
-                results.size() + " result(s)");
-
-        boolean suppressNotification = false;
-        if (results.size() > 0) {
-            logger.info(LOGTAG + "There are AccountNotifications in the " +
-                    "suppression interval, setting suppressNotification to true.");
-            suppressNotification = true;
+            // Query for any notifications during the suppression interval
+            logger.info(LOGTAG + "Querying any notifications during the " +
+                    "suppression interval");
+            long queryStartTime = System.currentTimeMillis();
+            List<AccountNotification> results = query(querySpec);
+            long queryTime = System.currentTimeMillis() - queryStartTime;
+            logger.info(LOGTAG + "Queried for AccountNotifications in the " +
+                    "suppression interval in " + queryTime + " ms. Found " +
+                    results.size() + " result(s)");
+
+            if (results.size() > 0) {
+                logger.info(LOGTAG + "There are AccountNotifications in the " +
+                        "suppression interval, setting suppressNotification to true.");
+                suppressNotification = true;
+                if (indexKey != null) {
+                    for (AccountNotification result : results) {
+                        if (result.getCreateDatetime() != null) {
+                            getSuppressionIndex().record(indexKey,
+                                    result.getCreateDatetime().toCalendar().getTimeInMillis());
+                        }
+                    }
+                }
+            }
         }
 
         // If suppress is true, log it, do not create a new AccountNotification,
@@ -423,7 +507,7 @@ public class EmoryAccountNotificationProvider extends OpenEaiObject
             } finally {
                 if (lock != null) {
                     try {
-                        lock.release(lockName, key);
+                        lock.release(lease);
                         logger.info(LOGTAG + "released lock: " + lockName);
                     } catch (LockException le) {
                         String errMsg = "An error occurred releasing " +
@@ -447,7 +531,7 @@ public class EmoryAccountNotificationProvider extends OpenEaiObject
                 logger.error(LOGTAG + errMsg);
                 if (lock != null) {
                     try {
-                        lock.release(lockName, key);
+                        lock.release(lease);
                         logger.info(LOGTAG + "released lock: " + lockName);
                     } catch (LockException le) {
                         String errMsg2 = "An error occurred releasing " +
@@ -459,17 +543,57 @@ public class EmoryAccountNotificationProvider extends OpenEaiObject
                 throw new ProviderException(errMsg, jmse);
             }
             try {
+                // Fence the create with the lease. An expired lease is renewed
+                // if no other request has set the lock since, but another
+                // request may still have set it, created the same
+                // AccountNotification and released it in the meantime.
+                if (lease != null && lease.isExpired()) {
+                    long expiredSetTime = lease.getSetTime();
+                    logger.warn(LOGTAG + "The AccountNotificationLock lease " +
+                            lease.getToken() + " for lockName " + lockName + " expired.");
+                    try {
+                        lease = lock.fence(lease);
+                    } catch (LockAlreadySetException lase) {
+                        logger.info(LOGTAG + "The expired lease is fenced off by another " +
+                                "request, will not create the AccountNotification.");
+                        return;
+                    }
+                    logger.info(LOGTAG + "Renewed the lease as " + lease.getToken() +
+                            ". Checking for an AccountNotification created since it expired.");
+                    querySpec.setStartCreateDatetime(new Datetime("StartCreate", expiredSetTime));
+                    querySpec.setEndCreateDatetime(new Datetime("EndCreate", System.currentTimeMillis()));
+                    querySpec.setAnnotationText(annotationText);
+                    if (query(querySpec).size() > 0) {
+                        logger.info(LOGTAG + "An AccountNotification was created since " +
+                                "the lease expired, will not create another.");
+                        return;
+                    }
+                }
                 long createStartTime = System.currentTimeMillis();
                 aNotification.create(rs);
+                if (indexKey != null) {
+                    getSuppressionIndex().record(indexKey, System.currentTimeMillis());
+                }
                 long time = System.currentTimeMillis() - createStartTime;
                 logger.info(LOGTAG + "Created AccountNotification " +
                         "object in " + time + " ms.");
+            } catch (EnterpriseFieldException efe) {
+                String errMsg = "An error occurred setting a field value " +
+                        "on the query specification. The exception is: " +
+                        efe.getMessage();
+                logger.error(LOGTAG + errMsg);
+                throw new ProviderException(errMsg, efe);
             } catch (EnterpriseObjectCreateException eoce) {
                 String errMsg = "An error occurred creating the " +
                         "AccountNotification object The exception is: " +
                         eoce.getMessage();
                 logger.error(LOGTAG + errMsg);
                 throw new ProviderException(errMsg, eoce);
+            } catch (LockException le) {
+                String errMsg = "An error occurred fencing the create with the " +
+                        "AccountNotificationLock. The exception is: " + le.getMessage();
+                logger.error(LOGTAG + errMsg);
+                throw new ProviderException(errMsg, le);
             }
             // In any case, release the producer back to the pool and
             // release the lock if set.
@@ -479,8 +603,9 @@ public class EmoryAccountNotificationProvider extends OpenEaiObject
 
                 if (lock != null) {
                     try {
-                        lock.release(lockName, key);
-                        logger.info(LOGTAG + "released lock: " + lockName);
+                        lock.release(lease);
+                        logger.info(LOGTAG + "released lock: " + lockName +
+                                ". Lock statistics: " + lock.getStatistics());
                     } catch (LockException le) {
                         String errMsg = "An error occurred releasing " +
                                 "with name " + lockName + ". The exception is: " +
@@ -669,11 +794,11 @@ public class EmoryAccountNotificationProvider extends OpenEaiObject
         return m_suppressNotifications;
     }
 
-    private void setAccountNotificationLock(Lock lock) {
+    private void setAccountNotificationLock(NotificationLock lock) {
         m_accountNotificationLock = lock;
     }
 
-    private Lock getAccountNotificationLock() {
+    private NotificationLock getAccountNotificationLock() {
         return m_accountNotificationLock;
     }
 
@@ -681,12 +806,36 @@ public class EmoryAccountNotificationProvider extends OpenEaiObject
         return m_lockSleepInterval;
     }
 
-    private void setIgnoreRegexes(ArrayList list) {
-        m_ignoreRegexes = list;
+    private void setSuppressionIndex(NotificationSuppressionIndex index) {
+        m_suppressionIndex = index;
+    }
+
+    private NotificationSuppressionIndex getSuppressionIndex() {
+        return m_suppressionIndex;
+    }
+
+    private void setIgnoreRules(NotificationIgnoreRules rules) {
+        m_ignoreRules = rules;
+    }
+
+    private NotificationIgnoreRules getIgnoreRules() {
+        return m_ignoreRules;
+    }
+
+    private void setIgnoreRulesFile(String fileName) {
+        m_ignoreRulesFile = fileName;
+    }
+
+    private String getIgnoreRulesFile() {
+        return m_ignoreRulesFile;
+    }
+
+    private void setIgnoreRulesReloadIntervalInMillis(long time) {
+        m_ignoreRulesReloadIntervalInMillis = time;
     }
 
-    private ArrayList getIgnoreRegexes() {
-        return m_ignoreRegexes;
+    private long getIgnoreRulesReloadIntervalInMillis() {
+        return m_ignoreRulesReloadIntervalInMillis;
     }
 
     public Incident generateIncident(IncidentRequisition req)
@@ -800,31 +949,127 @@ public class EmoryAccountNotificationProvider extends OpenEaiObject
         }
     }
 
+    /**
+     * @return String, the text of the last SecurityRiskDetection annotation
+     * of a notification, or null if it has none.
+     */
+    private String getSrdAnnotationText(AccountNotification aNotification) {
+        List<Annotation> aList = aNotification.getAnnotation();
+        ListIterator li = aList.listIterator();
+        String annotationText = null;
+        while (li.hasNext()) {
+            Annotation annotation = (Annotation) li.next();
+            if (annotation.getText() != null && annotation.getText().contains("SRDOBJECT")) {
+                annotationText = annotation.getText();
+            }
+        }
+        return annotationText;
+    }
+
+    /**
+     * Adds the AccountNotifications created in the last suppression interval
+     * to the suppression index. Until it has, and for the rest of the first
+     * interval, notifications the index hasn't seen are checked in the
+     * database, so a failure here only costs database queries.
+     */
+    private void warmSuppressionIndex() {
+        String LOGTAG = "[EmoryAccountNotificationProvider.warmSuppressionIndex] ";
+        long startTime = System.currentTimeMillis();
+        try {
+            AccountNotificationQuerySpecification querySpec = (AccountNotificationQuerySpecification) getAppConfig()
+                    .getObjectByType(AccountNotificationQuerySpecification.class.getName());
+            querySpec.setStartCreateDatetime(new Datetime("StartCreate",
+                    startTime - getSuppressionIntervalInMillis()));
+            querySpec.setEndCreateDatetime(new Datetime("EndCreate", startTime));
+            List<AccountNotification> results = query(querySpec);
+            for (AccountNotification result : results) {
+                String annotationText = getSrdAnnotationText(result);
+                if (result.getCreateDatetime() != null && annotationText != null) {
+                    getSuppressionIndex().record(NotificationSuppressionIndex.key(annotationText),
+                            result.getCreateDatetime().toCalendar().getTimeInMillis());
+                }
+            }
+            long time = System.currentTimeMillis() - startTime;
+            logger.info(LOGTAG + "Warmed the suppression index with " + results.size() +
+                    " AccountNotifications in " + time + " ms.");
+        } catch (EnterpriseConfigurationObjectException | ProviderException e) {
+            String errMsg = "An error occurred warming the suppression index. " +
+                    "Duplicates will be checked in the database for the first " +
+                    "suppression interval. The exception is: " + e.getMessage();
+            logger.error(LOGTAG + errMsg);
+        }
+    }
+
     private boolean ignoreNotification(AccountNotification aNotification) {
         String LOGTAG = "[EmoryAccountNotificationProvider.ignoreNotification] ";
-        String text = aNotification.getText();
-        logger.info(LOGTAG + "AccountNotification text is: " + text);
-        if (getIgnoreRegexes().size() > 0) {
-            logger.info(LOGTAG + "There are " + getIgnoreRegexes().size() +
-                    " patterns to consider to drop notification.");
-            ListIterator li = getIgnoreRegexes().listIterator();
-            while (li.hasNext()) {
-                String regex = (String) li.next();
-                Pattern p = Pattern.compile(regex);
-                Matcher m = p.matcher(text);
-                logger.info(LOGTAG + "m.find");
-                if (m.find() == true) {
-                    logger.info(LOGTAG + "Text matches pattern: " + regex);
-                    return true;
-                } else {
-                    logger.info(LOGTAG + "Text does not match pattern: " + regex);
+        reloadIgnoreRulesIfDue();
+        NotificationIgnoreRules rules = getIgnoreRules();
+        String ruleName = rules.match(aNotification);
+        if (ruleName != null) {
+            logger.info(LOGTAG + "AccountNotification matches ignore rule " +
+                    ruleName + ". Ignore rule hits: " + rules.getHitCounts());
+            return true;
+        }
+        if (getVerbose() == true) {
+            logger.info(LOGTAG + "AccountNotification matches none of the " +
+                    rules.size() + " ignore rules.");
+        }
+        return false;
+    }
+
+    /**
+     * Recompiles the ignore rules if the ignore rules file changed since they
+     * were last compiled. If the new rules can't be read or compiled, the
+     * current ones stay in effect.
+     */
+    private void reloadIgnoreRulesIfDue() {
+        String LOGTAG = "[EmoryAccountNotificationProvider.reloadIgnoreRulesIfDue] ";
+        long now = System.currentTimeMillis();
+        if (getIgnoreRulesReloadIntervalInMillis() <= 0 || now < m_nextIgnoreRulesReloadTime ||
+                getIgnoreRulesFile() == null || getIgnoreRulesFile().equals("")) {
+            return;
+        }
+        synchronized (m_ignoreRulesLock) {
+            if (now < m_nextIgnoreRulesReloadTime) {
+                return;
+            }
+            m_nextIgnoreRulesReloadTime = now + getIgnoreRulesReloadIntervalInMillis();
+            try {
+                Properties props = loadIgnoreRuleProperties();
+                if (NotificationIgnoreRules.signature(props).equals(getIgnoreRules().getSignature())) {
+                    return;
                 }
+                NotificationIgnoreRules rules = NotificationIgnoreRules.compile(props, getIgnoreRules());
+                setIgnoreRules(rules);
+                logger.info(LOGTAG + "Reloaded " + rules.size() + " ignore rules. They are: " +
+                        rules.toString());
+            } catch (ProviderException pe) {
+                String errMsg = "An error occurred reloading the ignore rules. " +
+                        "Keeping the current rules. The exception is: " + pe.getMessage();
+                logger.error(LOGTAG + errMsg);
+            }
+        }
+    }
+
+    /**
+     * @return Properties, the provider properties with those of the ignore
+     * rules file, if any, added.
+     */
+    private Properties loadIgnoreRuleProperties() throws ProviderException {
+        String LOGTAG = "[EmoryAccountNotificationProvider.loadIgnoreRuleProperties] ";
+        Properties props = new Properties();
+        props.putAll(getProperties());
+        if (getIgnoreRulesFile() != null && !getIgnoreRulesFile().equals("")) {
+            try (InputStream in = new FileInputStream(getIgnoreRulesFile())) {
+                props.load(in);
+            } catch (IOException ioe) {
+                String errMsg = "An error occurred reading the ignore rules file " +
+                        getIgnoreRulesFile() + ". The exception is: " + ioe.getMessage();
+                logger.error(LOGTAG + errMsg);
+                throw new ProviderException(errMsg, ioe);
             }
-            return false;
-        } else {
-            logger.info(LOGTAG + "No regex patterns to consider to drop notification.");
-            return false;
         }
+        return props;
     }
 }
 
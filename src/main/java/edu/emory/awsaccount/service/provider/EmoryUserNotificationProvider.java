@@ -18,12 +18,18 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jms.JMSException;
-import javax.mail.internet.AddressException;
 
 // Log4j
 import org.apache.log4j.Category;
@@ -50,6 +56,7 @@ import com.amazon.aws.moa.objects.resources.v1_0.AccountQuerySpecification;
 import com.amazon.aws.moa.objects.resources.v1_0.AccountUserQuerySpecification;
 import com.amazon.aws.moa.objects.resources.v1_0.Datetime;
 import com.amazon.aws.moa.objects.resources.v1_0.Property;
+import com.amazon.aws.moa.objects.resources.v1_0.UserNotificationQuerySpecification;
 import com.amazon.aws.moa.objects.resources.v1_0.UserProfileQuerySpecification;
 
 import edu.emory.moa.jmsobjects.identity.v1_0.DirectoryPerson;
@@ -62,7 +69,8 @@ import edu.emory.moa.objects.resources.v1_0.DirectoryPersonQuerySpecification;
  * @author Steve Wheat (swheat@emory.edu)
  *
  */
-public class EmoryUserNotificationProvider extends OpenEaiObject implements UserNotificationProvider {
+public class EmoryUserNotificationProvider extends OpenEaiObject
+        implements UserNotificationProvider, UserNotificationBatchGenerator {
 
     private Category logger = OpenEaiObject.logger;
     private AppConfig m_appConfig;
@@ -77,6 +85,8 @@ public class EmoryUserNotificationProvider extends OpenEaiObject implements User
     private String m_emailClosing = null;
     private AccountUser accountUser;
     private int m_requestTimeoutIntervalInMillis = 10000;
+    private ExecutorService m_generateExecutor = null;
+    private UserNotificationEmailOutbox m_emailOutbox = null;
     // Added 10/29/2020: TJ: Sprint 4
     private Properties notificationTypeProperties = null;
 
@@ -200,8 +210,39 @@ public class EmoryUserNotificationProvider extends OpenEaiObject implements User
             throw new ProviderException(errMsg, eoce);
         }
 
+        // E-mails are sent from an outbox by a pool of workers, each with its
+        // own MailService for the mail host of the configured one.
+        int outboxWorkers = Integer.parseInt(props.getProperty("emailOutboxWorkers", "4"));
+        int outboxCapacity = Integer.parseInt(props.getProperty("emailOutboxCapacity", "10000"));
+        int emailMaxAttempts = Integer.parseInt(props.getProperty("emailMaxAttempts", "3"));
+        long emailRetryDelay = Long.parseLong(props.getProperty("emailRetryDelayInMillis", "5000"));
+        long outboxDrainTimeout = Long.parseLong(props.getProperty("emailOutboxDrainTimeoutInMillis", "30000"));
+        logger.info(LOGTAG + "emailOutboxWorkers is: " + outboxWorkers + ", emailOutboxCapacity is: "
+                + outboxCapacity + ", emailMaxAttempts is: " + emailMaxAttempts
+                + ", emailRetryDelayInMillis is: " + emailRetryDelay
+                + ", emailOutboxDrainTimeoutInMillis is: " + outboxDrainTimeout);
+        UserNotificationEmailOutbox outbox = new UserNotificationEmailOutbox(ms.getMailHost(), outboxWorkers,
+                outboxCapacity, emailMaxAttempts, emailRetryDelay);
+        setEmailOutbox(outbox);
+
+        // The outbox is in memory only, so send what it holds before the JVM
+        // stops.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> outbox.shutdown(outboxDrainTimeout),
+                "UserNotificationEmailOutboxDrain"));
+
         logger.info(LOGTAG + pConfig.getProperties().toString());
 
+        // The UserNotifications of many users are created over at most this
+        // many producers at a time.
+        int maxParallel = Integer.parseInt(props.getProperty("maxParallelUserNotifications", "8"));
+        logger.info(LOGTAG + "maxParallelUserNotifications is: " + maxParallel);
+        AtomicInteger threadCount = new AtomicInteger();
+        setGenerateExecutor(Executors.newFixedThreadPool(Math.max(1, maxParallel), r -> {
+            Thread t = new Thread(r, "UserNotificationGenerator-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }));
+
         logger.info(LOGTAG + "Initialization complete.");
     }
 
@@ -352,8 +393,81 @@ public class EmoryUserNotificationProvider extends OpenEaiObject implements User
         return uNotification;
     }
 
+    /**
+     * @see UserNotificationBatchGenerator.java
+     *
+     *      The UserNotifications are created in parallel, each with its own
+     *      producer from the pool.
+     */
     @Override
-    public synchronized void processAdditionalNotifications(UserNotification notification) throws ProviderException {
+    public BatchResult generateAll(List<String> userIds, AccountNotification aNotification) {
+        return generateAll(userIds, aNotification, false);
+    }
+
+    /**
+     * @see UserNotificationBatchGenerator.java
+     *
+     *      Each user is first queried for a UserNotification of the
+     *      AccountNotification, in parallel like generateAll.
+     */
+    @Override
+    public BatchResult retryAll(List<String> userIds, AccountNotification aNotification) {
+        return generateAll(userIds, aNotification, true);
+    }
+
+    private BatchResult generateAll(List<String> userIds, AccountNotification aNotification,
+                                    boolean retry) {
+        String LOGTAG = "[EmoryUserNotificationProvider.generateAll] ";
+        long startTime = System.currentTimeMillis();
+
+        Map<String, Future<UserNotification>> futures = new LinkedHashMap<>();
+        for (String userId : userIds) {
+            futures.put(userId, m_generateExecutor.submit(() -> {
+                if (retry) {
+                    UserNotification existing =
+                            userNotificationQuery(aNotification.getAccountNotificationId(), userId);
+                    if (existing != null) {
+                        logger.info(LOGTAG + "UserNotification " + existing.getUserNotificationId() +
+                                " already exists for user " + userId + ".");
+                        return existing;
+                    }
+                }
+                return generate(userId, aNotification);
+            }));
+        }
+
+        BatchResult result = new BatchResult();
+        for (Map.Entry<String, Future<UserNotification>> entry : futures.entrySet()) {
+            String userId = entry.getKey();
+            try {
+                result.addGenerated(userId, entry.getValue().get());
+            } catch (ExecutionException ee) {
+                Throwable cause = ee.getCause();
+                result.addFailure(userId, cause instanceof ProviderException ? (ProviderException) cause
+                        : new ProviderException("An error occurred generating the UserNotification. " +
+                        "The exception is: " + cause.getMessage(), cause));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                entry.getValue().cancel(true);
+                result.addFailure(userId, new ProviderException("Interrupted while generating the " +
+                        "UserNotification.", ie));
+            }
+        }
+
+        long time = System.currentTimeMillis() - startTime;
+        logger.info(LOGTAG + "Generated " + result.getGenerated().size() + " of " + userIds.size() +
+                " UserNotifications in " + time + " ms.");
+        return result;
+    }
+
+    /**
+     * @see UserNotificationProvider.java
+     *
+     *      E-mails are queued in the outbox and sent asynchronously, so this
+     *      method returns once the e-mail is built.
+     */
+    @Override
+    public void processAdditionalNotifications(UserNotification notification) throws ProviderException {
 
         String LOGTAG = "[EmoryUserNotificationProvider.processAdditionalNotifications] ";
         
@@ -392,47 +506,29 @@ public class EmoryUserNotificationProvider extends OpenEaiObject implements User
         if (sendEmailNotification(notification, dp)) {
             logger.info(LOGTAG + "Sending e-mail for user " + dp.getKey() + " (" + dp.getFullName() + ")");
 
-            MailService ms = getMailService();
-            
             // TJ: Sprint 4 12/7/2020
             // if it's a high-priority notification
             // send the email as high-priority
+            String priority = "3";
             if (notification.getPriority() != null && 
             	notification.getPriority().equalsIgnoreCase("high")) {
             	
-            	ms.addHeaderField("X-Priority", "1");
+            	priority = "1";
             }
             else if (notification.getPriority() != null && 
                 	notification.getPriority().equalsIgnoreCase("low")) {
             	
-                	ms.addHeaderField("X-Priority", "5");
-            }
-            else {
-            	ms.addHeaderField("X-Priority", "3");
+                	priority = "5";
             }
             // END
-            
-            try {
-                ms.setFromAddress(getEmailFromAddress());
-                ms.setRecipientList(dp.getEmail().getEmailAddress());
-            } catch (AddressException ae) {
-                String errMsg = "An error occurred setting addresses on " + "the e-mail message. The exception is: " + ae.getMessage();
-                logger.error(LOGTAG + errMsg);
-                throw new ProviderException(errMsg, ae);
-            }
 
-            ms.setSubject("AWS at Emory " + getAccountSeries() + " Notification: " + notification.getSubject());
-            ms.setMessageBody(buildEmailMessageBody(notification, dp));
-            long startTime = System.currentTimeMillis();
-            logger.info(LOGTAG + "Sending e-mail message...");
-            boolean sentMessage = ms.sendMessage();
-            long time = System.currentTimeMillis() - startTime;
-            if (sentMessage == true) {
-                logger.info(LOGTAG + "Sent e-mail in " + time + " ms.");
-            } else {
-                String errMsg = "Failed to send e-mail.";
-                logger.error(LOGTAG + errMsg);
-                throw new ProviderException(errMsg);
+            String subject = "AWS at Emory " + getAccountSeries() + " Notification: " + notification.getSubject();
+            String messageBody = buildEmailMessageBody(notification, dp);
+            // The UserNotification is already persisted, so an e-mail the
+            // outbox can't take is logged and dropped by the outbox.
+            if (getEmailOutbox().enqueue(new UserNotificationEmailOutbox.Email(notification.getUserNotificationId(),
+                    getEmailFromAddress(), dp.getEmail().getEmailAddress(), subject, messageBody, priority))) {
+                logger.info(LOGTAG + "Queued e-mail message. " + getEmailOutbox().getStatistics());
             }
         } else {
             logger.info(LOGTAG + "Will not send e-mail for user " + dp.getKey() + " (" + dp.getFullName() + ").");
@@ -441,6 +537,18 @@ public class EmoryUserNotificationProvider extends OpenEaiObject implements User
         return;
     }
 
+    void setGenerateExecutor(ExecutorService executor) {
+        m_generateExecutor = executor;
+    }
+
+    private void setEmailOutbox(UserNotificationEmailOutbox outbox) {
+        m_emailOutbox = outbox;
+    }
+
+    private UserNotificationEmailOutbox getEmailOutbox() {
+        return m_emailOutbox;
+    }
+
     private AppConfig getAppConfig() {
         return m_appConfig;
     }
@@ -910,6 +1018,71 @@ public class EmoryUserNotificationProvider extends OpenEaiObject implements User
         }
     }
 
+    UserNotification userNotificationQuery(String accountNotificationId, String userId)
+            throws ProviderException {
+
+        String LOGTAG = "[EmoryUserNotificationProvider.userNotificationQuery] ";
+
+        // Get a configured UserNotification and
+        // UserNotificationQuerySpecification from AppConfig
+        UserNotification notification = new UserNotification();
+        UserNotificationQuerySpecification querySpec = new UserNotificationQuerySpecification();
+        try {
+            notification = (UserNotification) m_appConfig.getObjectByType(notification.getClass().getName());
+            querySpec = (UserNotificationQuerySpecification) m_appConfig.getObjectByType(querySpec.getClass().getName());
+        } catch (EnterpriseConfigurationObjectException ecoe) {
+            String errMsg = "An error occurred retrieving an object from " + "AppConfig. The exception is: " + ecoe.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, ecoe);
+        }
+
+        // Set the values of the querySpec.
+        try {
+            querySpec.setAccountNotificationId(accountNotificationId);
+            querySpec.setUserId(userId);
+        } catch (EnterpriseFieldException efe) {
+            String errMsg = "An error occurred setting the values of the " + "query specification object. The exception is: "
+                    + efe.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, efe);
+        }
+
+        // Get a RequestService to use for this transaction.
+        RequestService rs = null;
+        try {
+            rs = (RequestService) getAwsAccountServiceProducerPool().getExclusiveProducer();
+        } catch (JMSException jmse) {
+            String errMsg = "An error occurred getting a request service to use " + "in this transaction. The exception is: "
+                    + jmse.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, jmse);
+        }
+        // Query for the UserNotification.
+        List userNotificationList = null;
+        try {
+            long startTime = System.currentTimeMillis();
+            userNotificationList = notification.query(querySpec, rs);
+            long time = System.currentTimeMillis() - startTime;
+            logger.info(LOGTAG + "Queried for the UserNotification of user " + userId + " for " +
+                    "accountNotificationId " + accountNotificationId + " in " + time + " ms. Returned " +
+                    userNotificationList.size() + " notification(s).");
+        } catch (EnterpriseObjectQueryException eoqe) {
+            String errMsg = "An error occurred querying for the " + "UserNotification objects The exception is: " + eoqe.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, eoqe);
+        }
+        // In any case, release the producer back to the pool.
+        finally {
+            getAwsAccountServiceProducerPool().releaseProducer((PointToPointProducer) rs);
+        }
+
+        if (userNotificationList.size() == 0) {
+            return null;
+        } else {
+            return (UserNotification) userNotificationList.get(0);
+        }
+    }
+
     private AccountNotification accountNotificationQuery(String accountNotificationId) throws ProviderException {
 
     	String LOGTAG = "[EmoryUserNotificationProvider.accountNotificationQuery] ";
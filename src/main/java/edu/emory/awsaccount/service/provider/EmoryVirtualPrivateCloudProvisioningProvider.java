@@ -20,6 +20,7 @@ import com.amazon.aws.moa.objects.resources.v1_0.VirtualPrivateCloudProvisioning
 import com.amazon.aws.moa.objects.resources.v1_0.VirtualPrivateCloudRequisition;
 import com.service_now.moa.jmsobjects.servicedesk.v2_0.Incident;
 import com.service_now.moa.objects.resources.v2_0.IncidentRequisition;
+import edu.emory.awsaccount.service.AwsRateLimiter;
 import edu.emory.awsaccount.service.provider.step.Step;
 import edu.emory.awsaccount.service.provider.step.StepException;
 import edu.emory.moa.jmsobjects.identity.v1_0.RoleAssignment;
@@ -38,9 +39,13 @@ import org.openeai.moa.EnterpriseObjectGenerateException;
 import org.openeai.moa.EnterpriseObjectQueryException;
 import org.openeai.moa.EnterpriseObjectUpdateException;
 import org.openeai.moa.XmlEnterpriseObjectException;
+import org.openeai.moa.objects.resources.v1_0.QueryLanguage;
 import org.openeai.threadpool.ThreadPool;
-import org.openeai.threadpool.ThreadPoolException;
 import org.openeai.transport.RequestService;
+import org.openeai.utils.lock.Key;
+import org.openeai.utils.lock.Lock;
+import org.openeai.utils.lock.LockAlreadySetException;
+import org.openeai.utils.lock.LockException;
 import org.openeai.utils.sequence.Sequence;
 import org.openeai.utils.sequence.SequenceException;
 
@@ -48,12 +53,32 @@ import javax.jms.JMSException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A provider that maintains provisions AWS accounts and VPC
@@ -73,13 +98,23 @@ public class EmoryVirtualPrivateCloudProvisioningProvider extends OpenEaiObject
     private ProducerPool m_idmServiceProducerPool = null;
     private ProducerPool m_serviceNowServiceProducerPool = null;
     private ThreadPool m_threadPool = null;
+    private TransactionAdmissionQueue m_admissionQueue = null;
     private final int m_threadPoolSleepInterval = 1000;
+    private int m_maxParallelSteps = 4;
+    private volatile StepPlan<Step> m_stepPlan = null;
+    private long m_stateFlushInterval = 1000;
+    private long m_rollbackTimeout = 300000;
+    private boolean m_resumeInFlightTransactions = false;
+    private Lock m_transactionLock = null;
+    private final Set<String> m_runningProvisioningIds = ConcurrentHashMap.newKeySet();
     private final String LOGTAG = "[EmoryVirtualPrivateCloudProvisioningProvider] ";
     protected String COMPLETED_STATUS = "completed";
+    protected String IN_PROGRESS_STATUS = "in progress";
     protected String PENDING_STATUS = "pending";
     protected String ROLLBACK_STATUS = "rolled back";
     protected String SUCCESS_RESULT = "success";
     protected String FAILURE_RESULT = "failure";
+    protected String ROLLBACK_FAILURE_RESULT = "rollback failure";
 
     // TJ:11/12/2020 - Sprint 4.15
     private Properties incidentProperties;
@@ -125,6 +160,53 @@ public class EmoryVirtualPrivateCloudProvisioningProvider extends OpenEaiObject
         setCentralAdminRoleDn(getProperties().getProperty("centralAdminRoleDn", null));
         logger.info(LOGTAG + "centralAdminRoleDn is: " + getCentralAdminRoleDn());
 
+        // Set the maximum number of independent steps a transaction may
+        // execute at the same time. The default of 1 executes all steps
+        // one after another in stepId order.
+        setMaxParallelSteps(getProperties().getProperty("maxParallelSteps", "4"));
+        logger.info(LOGTAG + "maxParallelSteps is: " + getMaxParallelSteps());
+
+        // Set the number of milliseconds a transaction coalesces changes of
+        // its steps before persisting the VPCP. A value of 0 persists every
+        // change immediately.
+        setStateFlushInterval(getProperties().getProperty("stateFlushInterval", "1000"));
+        logger.info(LOGTAG + "stateFlushInterval is: " + getStateFlushInterval());
+
+        // Set the number of milliseconds to wait for the rollback of a step
+        // before reporting that the step needs to be cleaned up manually.
+        setRollbackTimeout(getProperties().getProperty("rollbackTimeoutInMillis", "300000"));
+        logger.info(LOGTAG + "rollbackTimeoutInMillis is: " + getRollbackTimeout());
+
+        // Set the number of threads that check on waiting steps for all
+        // transactions. A check may block on a JMS request or a rate limit,
+        // so size the pool for the number of checks that may be blocked at
+        // once. The scheduler is shared by all providers and keeps the
+        // largest pool size any of them asks for.
+        String probeSchedulerPoolSize = getProperties().getProperty("probeSchedulerPoolSize", "16");
+        try {
+            ProbeScheduler.getInstance().ensurePoolSize(Integer.parseInt(probeSchedulerPoolSize));
+        } catch (IllegalArgumentException iae) {
+            String errMsg = "probeSchedulerPoolSize property is not a positive " +
+                    "integer: " + probeSchedulerPoolSize + ". Can't continue.";
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, iae);
+        }
+        logger.info(LOGTAG + "probeSchedulerPoolSize is: " +
+                ProbeScheduler.getInstance().getPoolSize());
+
+        // Set the rates of the calls to each AWS API, shared by all providers
+        // and steps, and how long a call may wait for its turn.
+        try {
+            AwsRateLimiter.getInstance().configure(getProperties());
+        } catch (IllegalArgumentException iae) {
+            String errMsg = "An awsRateLimit property is not valid. The " +
+                    "exception is: " + iae.getMessage() + ". Can't continue.";
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, iae);
+        }
+        logger.info(LOGTAG + "awsRateLimitMaxWaitInMillis is: " +
+                AwsRateLimiter.getInstance().getMaxWait());
+
         // Get the sequences to use.
         // This provider needs a sequence to generate a unique ProvisioningId
         // for each transaction in multiple threads and multiple instances.
@@ -205,87 +287,180 @@ public class EmoryVirtualPrivateCloudProvisioningProvider extends OpenEaiObject
             throw new ProviderException(errMsg);
         }
 
-        // Initialize all provisioning steps this provider will use to
-        // verify the runtime configuration as best we can.
-        // Get a list of all step properties.
-        List<PropertyConfig> stepPropConfigs;
+        // Set the maximum number of new provisioning transactions that may
+        // wait for a thread of the thread pool. Requests beyond it are
+        // rejected instead of waiting.
+        setAdmissionQueue(getProperties().getProperty("maxQueuedTransactions", "100"));
+        logger.info(LOGTAG + "maxQueuedTransactions is: " +
+                getAdmissionQueue().getMaxDepth());
+
+        // Build the plan of the provisioning steps once. It is used by every
+        // transaction until the configuration is reloaded and this provider
+        // is initialized again. Building the plan verifies the step classes
+        // and the step dependencies.
+        StepPlan<Step> stepPlan;
         try {
-            stepPropConfigs = getAppConfig().getObjectsLike("ProvisioningStep");
-        } catch (EnterpriseConfigurationObjectException eoce) {
-            String errMsg = "An error occurred getting ProvisioningStep " +
-                    "properties from AppConfig. The exception is: " +
-                    eoce.getMessage();
+            stepPlan = StepPlan.load(getAppConfig(), "ProvisioningStep", Step.class);
+        } catch (ProviderException pe) {
+            String errMsg = "An error occurred building the plan of the " +
+                    "provisioning steps. The exception is: " + pe.getMessage();
             logger.error(LOGTAG + errMsg);
-            throw new ProviderException(errMsg, eoce);
+            throw new ProviderException(errMsg, pe);
         }
-        logger.info(LOGTAG + "There are " + stepPropConfigs.size() + " steps.");
-
-        // Convert property configs to properties
-        List<Properties> stepProps = new ArrayList<>();
-        ListIterator<PropertyConfig> stepPropConfigsIterator = stepPropConfigs.listIterator();
-        while (stepPropConfigsIterator.hasNext()) {
-            PropertyConfig stepConfig = stepPropConfigsIterator.next();
-            Properties stepProp = stepConfig.getProperties();
-            stepProps.add(stepProp);
-        }
-
-        // Sort the list by stepId integer.
-        stepProps.sort(new StepPropIdComparator(1));
-
-        // For each property instantiate the step and log out its details.
-        ListIterator<Properties> stepPropsIterator = stepProps.listIterator();
-        while (stepPropsIterator.hasNext()) {
-            Properties sp = stepPropsIterator.next();
-            String className = sp.getProperty("className");
-            String stepId = sp.getProperty("stepId");
-            String stepType = sp.getProperty("type");
-            if (className != null) {
-                // Instantiate the step
-                Step step = null;
-                try {
-                    logger.info(LOGTAG + "Step " + stepId + ": " + stepType);
-                    Class stepClass = Class.forName(className);
-                    step = (Step) stepClass.newInstance();
-                    logger.info(LOGTAG + "Verified class for step "
-                            + stepId + ": " + className);
-//					logger.info(LOGTAG + "Invoking " + className + ".init() method");
-//					VirtualPrivateCloudProvisioning vpcp = (VirtualPrivateCloudProvisioning) aConfig
-//							.getObjectByType(this.getClass().getName());
-//					step.init(vpcp.getProvisioningId(), props, getAppConfig(),
-//							getVirtualPrivateCloudProvisioningProvider());
-//					logger.info(LOGTAG + "Step initialization succeeded");
-                } catch (ClassNotFoundException cnfe) {
-                    String errMsg = "An error occurred instantiating " +
-                            "a step. The exception is: " + cnfe.getMessage();
-                    logger.error(LOGTAG + errMsg);
-                    throw new ProviderException(errMsg, cnfe);
-                } catch (IllegalAccessException iae) {
-                    String errMsg = "An error occurred instantiating " +
-                            "a step. The exception is: " + iae.getMessage();
-                    logger.error(LOGTAG + errMsg);
-                    throw new ProviderException(errMsg, iae);
-                } catch (InstantiationException ie) {
-                    String errMsg = "An error occurred instantiating " +
-                            "a step. The exception is: " + ie.getMessage();
-                    logger.error(LOGTAG + errMsg);
-                    throw new ProviderException(errMsg, ie);
-//				} catch (StepException error) {
-//					String errMsg = "An error occurred instantiating " +
-//							"a step. The exception is: " + error.getMessage();
-//					logger.error(LOGTAG + errMsg);
-//					throw new ProviderException(errMsg, error);
-//				} catch (EnterpriseConfigurationObjectException error) {
-//					String errMsg = "An error occurred instantiating " +
-//							"a step. The exception is: " + error.getMessage();
-//					logger.error(LOGTAG + errMsg);
-//					throw new ProviderException(errMsg, error);
-                }
+        logger.info(LOGTAG + "There are " + stepPlan.size() + " steps.");
+        logger.info(LOGTAG + "Step dependencies verified. Steps will run " +
+                (stepPlan.getDependencyGraph().isSequential() ? "sequentially." :
+                        "as a dependency graph with up to " + getMaxParallelSteps() +
+                                " steps in parallel."));
+
+        // Instantiate each step once to verify it and log out its details.
+        for (StepPlan.StepDefinition sd : stepPlan.getSteps()) {
+            logger.info(LOGTAG + "Step " + sd.getStepId() + ": " + sd.getType());
+            stepPlan.newStep(sd.getStepId());
+            logger.info(LOGTAG + "Verified class for step "
+                    + sd.getStepId() + ": " + sd.getClassName());
+        }
+        setStepPlan(stepPlan);
+
+        // Set whether to resume provisioning transactions that were left
+        // pending when the service stopped. Only one instance of the
+        // service should be configured to resume transactions.
+        setResumeInFlightTransactions(Boolean.parseBoolean(getProperties()
+                .getProperty("resumeInFlightTransactions", "false")));
+        logger.info(LOGTAG + "resumeInFlightTransactions is: " + getResumeInFlightTransactions());
+
+        // Claim each transaction in the VirtualPrivateCloudProvisioningLock,
+        // if one is configured, so that a transaction is never resumed while
+        // it is still running in another instance. The lock is required to
+        // resume transactions, and then every instance must be configured
+        // with it. Its expiration must be longer than the longest
+        // transaction, so that the claims of a stopped instance expire only
+        // once its transactions can no longer be running.
+        try {
+            setTransactionLock((Lock) getAppConfig()
+                    .getObject("VirtualPrivateCloudProvisioningLock"));
+            logger.info(LOGTAG + "Transactions are claimed in the " +
+                    "VirtualPrivateCloudProvisioningLock.");
+        } catch (EnterpriseConfigurationObjectException ecoe) {
+            if (getResumeInFlightTransactions()) {
+                String errMsg = "resumeInFlightTransactions is true, but there is no " +
+                        "VirtualPrivateCloudProvisioningLock to claim the transactions " +
+                        "in. The exception is: " + ecoe.getMessage();
+                logger.fatal(LOGTAG + errMsg);
+                throw new ProviderException(errMsg);
             }
+            logger.info(LOGTAG + "No VirtualPrivateCloudProvisioningLock is configured. " +
+                    "Transactions are not claimed.");
+        }
+
+        if (getResumeInFlightTransactions()) {
+            long resumeDelay = Long.parseLong(getProperties().getProperty("resumeDelay", "30000"));
+            long resumeInterval = Long.parseLong(getProperties().getProperty("resumeInterval", "0"));
+            logger.info(LOGTAG + "resumeDelay is: " + resumeDelay + ", resumeInterval is: " +
+                    resumeInterval);
+            scheduleResumeInFlightTransactions(resumeDelay, resumeInterval);
         }
 
         logger.info(LOGTAG + "Initialization complete.");
     }
 
+    /**
+     * Resumes the provisioning transactions found by the named query given
+     * by the resumeQueryName property, by default all pending transactions
+     * created within the last 24 hours. The query runs after the given delay
+     * on a background thread, so the service can finish starting first, and
+     * again after each interval if the interval is greater than 0, to pick up
+     * the transactions whose claims had not yet expired.
+     */
+    private void scheduleResumeInFlightTransactions(long delay, long interval) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "VpcpResume");
+            t.setDaemon(true);
+            return t;
+        });
+        Runnable resume = () -> {
+            try {
+                resumeInFlightTransactions();
+            } catch (ProviderException pe) {
+                String errMsg = "An error occurred resuming in-flight provisioning " +
+                        "transactions. The exception is: " + pe.getMessage();
+                logger.error(LOGTAG + errMsg);
+            }
+        };
+        if (interval > 0) {
+            scheduler.scheduleWithFixedDelay(resume, delay, interval, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler.schedule(resume, delay, TimeUnit.MILLISECONDS);
+            scheduler.shutdown();
+        }
+        logger.info(LOGTAG + "In-flight provisioning transactions will be resumed in " +
+                delay + " ms.");
+    }
+
+    /**
+     * Queries for provisioning transactions that are still pending and
+     * adds a transaction to the thread pool for each one that is not already
+     * running in this instance and that this instance can claim, so it is not
+     * running in another one either. The transaction resumes at the first
+     * step that has not completed.
+     *
+     * @return int, the number of transactions resumed.
+     */
+    public int resumeInFlightTransactions() throws ProviderException {
+        String LOGTAG = "[EmoryVirtualPrivateCloudProvisioningProvider.resumeInFlightTransactions] ";
+
+        VirtualPrivateCloudProvisioningQuerySpecification querySpec =
+                new VirtualPrivateCloudProvisioningQuerySpecification();
+        try {
+            querySpec = (VirtualPrivateCloudProvisioningQuerySpecification) getAppConfig()
+                    .getObjectByType(querySpec.getClass().getName());
+            QueryLanguage ql = querySpec.newQueryLanguage();
+            ql.setType("named");
+            ql.setName(getProperties().getProperty("resumeQueryName", "pendingWithin24hours"));
+            querySpec.setQueryLanguage(ql);
+        } catch (EnterpriseConfigurationObjectException | EnterpriseFieldException e) {
+            String errMsg = "An error occurred building the query for in-flight " +
+                    "provisioning transactions. The exception is: " + e.getMessage();
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, e);
+        }
+
+        List<VirtualPrivateCloudProvisioning> vpcps = query(querySpec);
+        int resumed = 0;
+        for (VirtualPrivateCloudProvisioning vpcp : vpcps) {
+            if (!PENDING_STATUS.equalsIgnoreCase(vpcp.getStatus())) {
+                continue;
+            }
+            if (m_runningProvisioningIds.contains(vpcp.getProvisioningId())) {
+                logger.info(LOGTAG + "ProvisioningId " + vpcp.getProvisioningId() +
+                        " is already running.");
+                continue;
+            }
+            Key claim;
+            try {
+                claim = claimTransaction(vpcp.getProvisioningId());
+            } catch (LockAlreadySetException lase) {
+                logger.info(LOGTAG + "ProvisioningId " + vpcp.getProvisioningId() +
+                        " is claimed by another instance.");
+                continue;
+            } catch (LockException le) {
+                String errMsg = "An error occurred claiming ProvisioningId " +
+                        vpcp.getProvisioningId() + ". The exception is: " + le.getMessage();
+                logger.error(LOGTAG + errMsg);
+                continue;
+            }
+            logger.info(LOGTAG + "Resuming ProvisioningId " + vpcp.getProvisioningId());
+            VirtualPrivateCloudProvisioningTransaction transaction =
+                    new VirtualPrivateCloudProvisioningTransaction(vpcp);
+            transaction.setClaim(claim);
+            resumeTransaction(transaction);
+            resumed++;
+        }
+        logger.info(LOGTAG + "Resumed " + resumed + " of " + vpcps.size() +
+                " in-flight provisioning transactions.");
+        return resumed;
+    }
+
     /**
      * This method proxys a query to an RDBMS command that handles it. The
      * purpose of including this operation in this command (and not just the
@@ -388,6 +563,51 @@ public class EmoryVirtualPrivateCloudProvisioningProvider extends OpenEaiObject
     public VirtualPrivateCloudProvisioning generate(VirtualPrivateCloudRequisition vpcr)
             throws ProviderException {
 
+        // Reserve a place in the admission queue before creating anything,
+        // so a busy service rejects the request right away.
+        getAdmissionQueue().reserve();
+        try {
+            VirtualPrivateCloudProvisioning vpcp = generateProvisioning(vpcr);
+
+            // Claim the new transaction, so no other instance resumes it
+            // while it is pending.
+            Key claim;
+            try {
+                claim = claimTransaction(vpcp.getProvisioningId());
+            } catch (LockException | LockAlreadySetException le) {
+                String errMsg = "An error occurred claiming ProvisioningId " +
+                        vpcp.getProvisioningId() + ". The exception is: " + le.getMessage();
+                logger.error(LOGTAG + errMsg);
+                throw new ProviderException(errMsg, le);
+            }
+
+            // Queue the VPCP for processing and return it with status
+            // pending. The transaction starts when a thread is free.
+            VirtualPrivateCloudProvisioningTransaction transaction =
+                    new VirtualPrivateCloudProvisioningTransaction(vpcp);
+            transaction.setClaim(claim);
+            int position;
+            try {
+                position = getAdmissionQueue().admit(vpcp.getProvisioningId(), transaction);
+            } catch (RuntimeException re) {
+                transaction.release();
+                throw re;
+            }
+            logger.info(LOGTAG + "ProvisioningId " + vpcp.getProvisioningId() +
+                    " is pending at position " + position + " of the admission queue.");
+            return vpcp;
+        } catch (ProviderException | RuntimeException e) {
+            getAdmissionQueue().cancelReservation();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the VPCP for a requisition with all of its steps pending.
+     */
+    private VirtualPrivateCloudProvisioning generateProvisioning(VirtualPrivateCloudRequisition vpcr)
+            throws ProviderException {
+
         // Get a configured VirtualPrivateCloudProvisioning object from AppConfig
         VirtualPrivateCloudProvisioning vpcp =
                 new VirtualPrivateCloudProvisioning();
@@ -430,55 +650,17 @@ public class EmoryVirtualPrivateCloudProvisioningProvider extends OpenEaiObject
             throw new ProviderException(errMsg, efe);
         }
 
-        // Add all of the steps.
-        // Initialize all provisioning steps this provider will use to
-        // verify the runtime configuration as best we can.
-        // Get a list of all step properties.
-        List<PropertyConfig> stepPropConfigs;
-        try {
-            stepPropConfigs = getAppConfig().getObjectsLike("ProvisioningStep");
-        } catch (EnterpriseConfigurationObjectException eoce) {
-            String errMsg = "An error occurred getting ProvisioningStep " +
-                    "properties from AppConfig. The exception is: " +
-                    eoce.getMessage();
-            logger.error(LOGTAG + errMsg);
-            throw new ProviderException(errMsg, eoce);
-        }
-        logger.info(LOGTAG + "There are " + stepPropConfigs.size() + " steps.");
-
-        // Convert property configs to properties
-        List<Properties> stepProps = new ArrayList<>();
-        ListIterator<PropertyConfig> stepPropConfigsIterator = stepPropConfigs.listIterator();
-        while (stepPropConfigsIterator.hasNext()) {
-            PropertyConfig stepConfig = stepPropConfigsIterator.next();
-            Properties stepProp = stepConfig.getProperties();
-            stepProps.add(stepProp);
-        }
-
-        // Sort the list by stepId integer.
-        stepProps.sort(new StepPropIdComparator(1));
-
-        // For each property instantiate a provisioning step
-        // and add it to the provisioning object.
-        ListIterator<Properties> stepPropsIterator = stepProps.listIterator();
-        int totalAnticipatedTime = 0;
-        while (stepPropsIterator.hasNext()) {
-            Properties sp = stepPropsIterator.next();
-            String stepId = sp.getProperty("stepId");
-            String stepType = sp.getProperty("type");
-            String stepDesc = sp.getProperty("description");
-            String stepAnticipatedTime = sp.getProperty("anticipatedTime");
-            int anticipatedTime = Integer.parseInt(stepAnticipatedTime);
-            totalAnticipatedTime = totalAnticipatedTime + anticipatedTime;
-
+        // Add all of the steps of the step plan.
+        StepPlan<Step> stepPlan = getStepPlan();
+        for (StepPlan.StepDefinition sd : stepPlan.getSteps()) {
             ProvisioningStep pStep = vpcp.newProvisioningStep();
             try {
                 pStep.setProvisioningId(vpcp.getProvisioningId());
-                pStep.setStepId(stepId);
-                pStep.setType(stepType);
-                pStep.setDescription(stepDesc);
+                pStep.setStepId(sd.getStepId());
+                pStep.setType(sd.getType());
+                pStep.setDescription(sd.getDescription());
                 pStep.setStatus(PENDING_STATUS);
-                pStep.setAnticipatedTime(stepAnticipatedTime);
+                pStep.setAnticipatedTime(Integer.toString(sd.getAnticipatedTime()));
                 pStep.setCreateUser("AwsAccountService");
                 pStep.setCreateDatetime(new Datetime("Create", System.currentTimeMillis()));
 
@@ -491,9 +673,10 @@ public class EmoryVirtualPrivateCloudProvisioningProvider extends OpenEaiObject
                 throw new ProviderException(errMsg, efe);
 
             }
-            logger.info(LOGTAG + "Added step " + stepId + " " + stepType + " to the provisioning object"
-                    + " bringing total anticipated time to " + totalAnticipatedTime + " ms.");
         }
+        int totalAnticipatedTime = stepPlan.getTotalAnticipatedTime();
+        logger.info(LOGTAG + "Added " + stepPlan.size() + " steps to the provisioning " +
+                "object with a total anticipated time of " + totalAnticipatedTime + " ms.");
 
         // update the VPCP anticipated time.
         try {
@@ -519,42 +702,53 @@ public class EmoryVirtualPrivateCloudProvisioningProvider extends OpenEaiObject
             throw new ProviderException(errMsg, pe);
         }
 
-        // Add the VPCP to the ThreadPool for processing.
-        // If this thread pool is set to check for available threads before
-        // adding jobs to the pool, it may throw an exception indicating it
-        // is busy when we try to add a job. We need to catch that exception
-        // and try to add the job until we are successful.
-        boolean jobAdded = false;
-        while (jobAdded == false) {
-            try {
-                logger.info(LOGTAG + "Adding job to threadpool for " +
-                        "ProvisioningId: " + vpcp.getProvisioningId());
-                getThreadPool().addJob(new VirtualPrivateCloudProvisioningTransaction(vpcp));
-                jobAdded = true;
-            } catch (ThreadPoolException tpe) {
-                // The thread pool is busy. Log it and sleep briefly to try to
-                // add the job again later.
-                String msg = "The thread pool is busy. Sleeping for " +
-                        getSleepInterval() + " milliseconds.";
-                logger.debug(LOGTAG + msg);
-                try {
-                    Thread.sleep(getSleepInterval());
-                } catch (InterruptedException ie) {
-                    // An error occurred while sleeping to allow threads in the pool
-                    // to clear for processing. Log it and throw and exception.
-                    String errMsg = "An error occurred while sleeping to allow " +
-                            "threads in the pool to clear for processing. The exception " +
-                            "is " + ie.getMessage();
-                    logger.fatal(LOGTAG + errMsg);
-                    throw new ProviderException(errMsg);
-                }
-            }
-        }
-
         // Return the object.
         return vpcp;
     }
 
+    /**
+     * Claims a provisioning transaction for this instance in the
+     * VirtualPrivateCloudProvisioningLock.
+     *
+     * @return Key, the key of the claim, or null if no lock is configured.
+     * @throws LockAlreadySetException if another instance has claimed the
+     * transaction.
+     */
+    private Key claimTransaction(String provisioningId)
+            throws LockException, LockAlreadySetException {
+        if (getTransactionLock() == null) {
+            return null;
+        }
+        return getTransactionLock().set("VPCP-" + provisioningId);
+    }
+
+    /**
+     * Releases the claim of a provisioning transaction, if it has one.
+     */
+    private void releaseTransaction(String provisioningId, Key claim) {
+        if (claim == null) {
+            return;
+        }
+        try {
+            getTransactionLock().release("VPCP-" + provisioningId, claim);
+        } catch (LockException le) {
+            // The claim expires on its own.
+            String errMsg = "An error occurred releasing the claim of ProvisioningId " +
+                    provisioningId + ". The exception is: " + le.getMessage();
+            logger.error(LOGTAG + errMsg);
+        }
+    }
+
+    /**
+     * Queues a provisioning transaction that is already running, either
+     * resumed after a restart or with a waiting step that has completed,
+     * ahead of all new transactions. It never blocks, since it is also
+     * called from the probe scheduler.
+     */
+    private void resumeTransaction(VirtualPrivateCloudProvisioningTransaction transaction) {
+        getAdmissionQueue().resume(transaction.getProvisioningId(), transaction);
+    }
+
     public void update(VirtualPrivateCloudProvisioning vpcp) throws ProviderException {
         String LOGTAG = "[EmoryVirtualPrivateCloudProvisioningProvider.update] ";
 
@@ -737,76 +931,171 @@ public class EmoryVirtualPrivateCloudProvisioningProvider extends OpenEaiObject
     }
 
     /**
-     * This method sets the AppConfig object for this provider to use.
+     * This method creates the queue of transactions waiting for the thread
+     * pool.
      */
-    private void setAppConfig(AppConfig aConfig) {
-        m_appConfig = aConfig;
+    private void setAdmissionQueue(String maxQueuedTransactions) throws ProviderException {
+        int maxDepth;
+        try {
+            maxDepth = Integer.parseInt(maxQueuedTransactions);
+        } catch (NumberFormatException nfe) {
+            String errMsg = "maxQueuedTransactions property is not an integer: " +
+                    maxQueuedTransactions + ". Can't continue.";
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, nfe);
+        }
+        if (maxDepth < 1) {
+            String errMsg = "maxQueuedTransactions property must be at least 1. Can't continue.";
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg);
+        }
+        m_admissionQueue = new TransactionAdmissionQueue("VirtualPrivateCloudProvisioning",
+                getThreadPool(), maxDepth, getSleepInterval());
     }
 
     /**
-     * This method returns a reference to the AppConfig this provider is
-     * using.
+     * @return TransactionAdmissionQueue, the queue of transactions waiting
+     * for the thread pool.
      */
-    private AppConfig getAppConfig() {
-        return m_appConfig;
+    public final TransactionAdmissionQueue getAdmissionQueue() {
+        return m_admissionQueue;
     }
 
-    private VirtualPrivateCloudProvisioningProvider getVirtualPrivateCloudProvisioningProvider() {
-        return this;
+    /**
+     * This method sets the maximum number of steps to execute in parallel.
+     */
+    private void setMaxParallelSteps(String maxParallelSteps) throws ProviderException {
+        try {
+            m_maxParallelSteps = Integer.parseInt(maxParallelSteps);
+        } catch (NumberFormatException nfe) {
+            String errMsg = "maxParallelSteps property is not an integer: " +
+                    maxParallelSteps + ". Can't continue.";
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, nfe);
+        }
+        if (m_maxParallelSteps < 1) {
+            String errMsg = "maxParallelSteps property must be at least 1. Can't continue.";
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg);
+        }
     }
 
-    private class StepPropIdComparator implements Comparator<Properties> {
+    /**
+     * This method returns the maximum number of steps to execute in parallel.
+     */
+    public final int getMaxParallelSteps() {
+        return m_maxParallelSteps;
+    }
 
-        int m_order;
+    /**
+     * Sets the plan of the provisioning steps used by new transactions.
+     */
+    private void setStepPlan(StepPlan<Step> stepPlan) {
+        m_stepPlan = stepPlan;
+    }
 
-        public StepPropIdComparator(int order) {
-            m_order = order;
-        }
+    /**
+     * @return StepPlan, the plan of the provisioning steps.
+     */
+    public final StepPlan<Step> getStepPlan() {
+        return m_stepPlan;
+    }
 
-        public int compare(Properties prop1, Properties prop2) {
-            int returnVal = 0;
+    /**
+     * This method sets the interval in milliseconds between writes of the
+     * state of a transaction.
+     */
+    private void setStateFlushInterval(String stateFlushInterval) throws ProviderException {
+        try {
+            m_stateFlushInterval = Long.parseLong(stateFlushInterval);
+        } catch (NumberFormatException nfe) {
+            String errMsg = "stateFlushInterval property is not an integer: " +
+                    stateFlushInterval + ". Can't continue.";
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, nfe);
+        }
+        if (m_stateFlushInterval < 0) {
+            String errMsg = "stateFlushInterval property must not be negative. Can't continue.";
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg);
+        }
+    }
 
-            // Convert stepIds to integers
-            int stepId1 = Integer.parseInt(prop1.getProperty("stepId"));
-            int stepId2 = Integer.parseInt(prop2.getProperty("stepId"));
+    /**
+     * This method returns the interval in milliseconds between writes of the
+     * state of a transaction.
+     */
+    public final long getStateFlushInterval() {
+        return m_stateFlushInterval;
+    }
 
-            // Compare integer stepIds.
-            if (stepId1 < stepId2) {
-                returnVal = -1;
-            } else if (stepId1 > stepId2) {
-                returnVal = 1;
-            } else if (stepId1 == stepId2) {
-                returnVal = 0;
-            }
-            return (returnVal * m_order);
+    /**
+     * This method sets the time in milliseconds to wait for the rollback of
+     * a step.
+     */
+    private void setRollbackTimeout(String rollbackTimeout) throws ProviderException {
+        try {
+            m_rollbackTimeout = Long.parseLong(rollbackTimeout);
+        } catch (NumberFormatException nfe) {
+            String errMsg = "rollbackTimeoutInMillis property is not an integer: " +
+                    rollbackTimeout + ". Can't continue.";
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg, nfe);
+        }
+        if (m_rollbackTimeout < 1) {
+            String errMsg = "rollbackTimeoutInMillis property must be positive. Can't continue.";
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg);
         }
     }
 
-    private class StepIdComparator implements Comparator<Step> {
+    /**
+     * This method returns the time in milliseconds to wait for the rollback
+     * of a step.
+     */
+    public final long getRollbackTimeout() {
+        return m_rollbackTimeout;
+    }
 
-        int m_order;
+    /**
+     * This method sets whether to resume in-flight transactions at startup.
+     */
+    private void setTransactionLock(Lock lock) {
+        m_transactionLock = lock;
+    }
 
-        public StepIdComparator(int order) {
-            m_order = order;
-        }
+    private Lock getTransactionLock() {
+        return m_transactionLock;
+    }
 
-        public int compare(Step step1, Step step2) {
-            int returnVal = 0;
+    private void setResumeInFlightTransactions(boolean resume) {
+        m_resumeInFlightTransactions = resume;
+    }
 
-            // Convert stepIds to integers
-            int stepId1 = Integer.valueOf(step1.getStepId());
-            int stepId2 = Integer.valueOf(step2.getStepId());
+    /**
+     * This method returns whether to resume in-flight transactions at startup.
+     */
+    public final boolean getResumeInFlightTransactions() {
+        return m_resumeInFlightTransactions;
+    }
 
-            // Compare integer stepIds.
-            if (stepId1 < stepId2) {
-                returnVal = -1;
-            } else if (stepId1 > stepId2) {
-                returnVal = 1;
-            } else if (stepId1 == stepId2) {
-                returnVal = 0;
-            }
-            return (returnVal * m_order);
-        }
+    /**
+     * This method sets the AppConfig object for this provider to use.
+     */
+    private void setAppConfig(AppConfig aConfig) {
+        m_appConfig = aConfig;
+    }
+
+    /**
+     * This method returns a reference to the AppConfig this provider is
+     * using.
+     */
+    private AppConfig getAppConfig() {
+        return m_appConfig;
+    }
+
+    private VirtualPrivateCloudProvisioningProvider getVirtualPrivateCloudProvisioningProvider() {
+        return this;
     }
 
     public Incident generateIncident(IncidentRequisition req)
@@ -1034,21 +1323,270 @@ public class EmoryVirtualPrivateCloudProvisioningProvider extends OpenEaiObject
         return roleAssignments;
     }
 
+    /**
+     * The outcome of executing one step of a transaction.
+     */
+    private static class StepOutcome {
+        private final Step m_step;
+        private final String m_stepId;
+        private final boolean m_success;
+        private final String m_errMsg;
+
+        private final boolean m_waiting;
+
+        private StepOutcome(Step step, String stepId, boolean success, String errMsg,
+                            boolean waiting) {
+            m_step = step;
+            m_stepId = stepId;
+            m_success = success;
+            m_errMsg = errMsg;
+            m_waiting = waiting;
+        }
+
+        static StepOutcome success(Step step) {
+            return new StepOutcome(step, step.getStepId(), true, null, false);
+        }
+
+        static StepOutcome failure(Step step, String stepId, String errMsg) {
+            return new StepOutcome(step, stepId, false, errMsg, false);
+        }
+
+        static StepOutcome waiting(Step step) {
+            return new StepOutcome(step, step.getStepId(), false, null, true);
+        }
+
+        Step getStep() {
+            return m_step;
+        }
+
+        String getStepId() {
+            return m_stepId;
+        }
+
+        boolean isSuccess() {
+            return m_success;
+        }
+
+        String getErrMsg() {
+            return m_errMsg;
+        }
+
+        boolean isWaiting() {
+            return m_waiting;
+        }
+    }
+
+    /**
+     * Names the threads that execute the steps of a transaction.
+     */
+    private static class StepThreadFactory implements ThreadFactory {
+        private final String m_provisioningId;
+        private final AtomicInteger m_count = new AtomicInteger();
+
+        StepThreadFactory(String provisioningId) {
+            m_provisioningId = provisioningId;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "VpcpStep-" + m_provisioningId + "-" +
+                    m_count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * The provider handed to the steps of one transaction. It delegates to
+     * this provider and gives the steps of the transaction a common object
+     * to serialize their updates of the VPCP on.
+     */
+    private class TransactionScopedProvider implements VirtualPrivateCloudProvisioningProvider {
+
+        private final TransactionStateWriter<VirtualPrivateCloudProvisioning> m_stateWriter;
+        private final Set<String> m_inProgressStepIds = new HashSet<>();
+
+        TransactionScopedProvider(VirtualPrivateCloudProvisioning vpcp) {
+            m_stateWriter = new TransactionStateWriter<>(vpcp.getProvisioningId(), vpcp,
+                    EmoryVirtualPrivateCloudProvisioningProvider.this::update,
+                    getStateFlushInterval(), this);
+        }
+
+        /**
+         * @return VirtualPrivateCloudProvisioning, the in-memory VPCP of the
+         * transaction.
+         */
+        VirtualPrivateCloudProvisioning getState() {
+            return m_stateWriter.getState();
+        }
+
+        /**
+         * Persists the final state of the VPCP, retrying until it succeeds
+         * or the attempts run out.
+         */
+        void flush() throws ProviderException {
+            m_stateWriter.flushFinal();
+            logger.info(LOGTAG + "Persisted " + m_stateWriter.getChangeCount() +
+                    " changes of VPCP " + getState().getProvisioningId() + " in " +
+                    m_stateWriter.getUpdateCount() + " updates.");
+        }
+
+        public void init(AppConfig aConfig) throws ProviderException {
+            throw new ProviderException("A transaction scoped provider can't be initialized.");
+        }
+
+        public List<VirtualPrivateCloudProvisioning> query(VirtualPrivateCloudProvisioningQuerySpecification querySpec)
+                throws ProviderException {
+            // The in-memory VPCP is the current state of this transaction.
+            if (getState().getProvisioningId().equals(querySpec.getProvisioningId())) {
+                List<VirtualPrivateCloudProvisioning> results = new ArrayList<>();
+                results.add(getState());
+                return results;
+            }
+            return EmoryVirtualPrivateCloudProvisioningProvider.this.query(querySpec);
+        }
+
+        public VirtualPrivateCloudProvisioning generate(VirtualPrivateCloudRequisition requisition)
+                throws ProviderException {
+            return EmoryVirtualPrivateCloudProvisioningProvider.this.generate(requisition);
+        }
+
+        public void create(VirtualPrivateCloudProvisioning vpcp) throws ProviderException {
+            EmoryVirtualPrivateCloudProvisioningProvider.this.create(vpcp);
+        }
+
+        public void update(VirtualPrivateCloudProvisioning vpcp) throws ProviderException {
+            if (vpcp == getState()) {
+                m_stateWriter.changed();
+
+                // A step is updated to in progress before it does anything.
+                // Persist that right away, so a step that is pending in the
+                // persisted state has certainly not run when the transaction
+                // is resumed.
+                if (hasNewStepInProgress(vpcp)) {
+                    m_stateWriter.flush();
+                }
+                return;
+            }
+            EmoryVirtualPrivateCloudProvisioningProvider.this.update(vpcp);
+        }
+
+        public void delete(VirtualPrivateCloudProvisioning vpcp) throws ProviderException {
+            EmoryVirtualPrivateCloudProvisioningProvider.this.delete(vpcp);
+        }
+
+        private boolean hasNewStepInProgress(VirtualPrivateCloudProvisioning vpcp) {
+            boolean newStepInProgress = false;
+            synchronized (this) {
+                @SuppressWarnings("unchecked")
+                List<ProvisioningStep> pSteps = vpcp.getProvisioningStep();
+                for (ProvisioningStep pStep : pSteps) {
+                    if (IN_PROGRESS_STATUS.equalsIgnoreCase(pStep.getStatus()) &&
+                            m_inProgressStepIds.add(pStep.getStepId())) {
+                        newStepInProgress = true;
+                    }
+                }
+            }
+            return newStepInProgress;
+        }
+
+        public Incident generateIncident(IncidentRequisition req) throws ProviderException {
+            return EmoryVirtualPrivateCloudProvisioningProvider.this.generateIncident(req);
+        }
+
+        public int notifyCentralAdministrators(UserNotification notification) throws ProviderException {
+            return EmoryVirtualPrivateCloudProvisioningProvider.this.notifyCentralAdministrators(notification);
+        }
+
+        public List<String> getCentralAdministrators() throws ProviderException {
+            return EmoryVirtualPrivateCloudProvisioningProvider.this.getCentralAdministrators();
+        }
+    }
+
     /**
      * A transaction to process virtual private cloud provisioning.
      */
     private class VirtualPrivateCloudProvisioningTransaction implements java.lang.Runnable {
 
         VirtualPrivateCloudProvisioning m_vpcp;
+        TransactionScopedProvider m_transactionProvider = null;
         long m_executionStartTime = 0;
 
+        // The state of the steps, kept while this transaction is waiting
+        // for steps to complete.
+        private StepPlan<Step> m_stepPlan = null;
+        private StepDependencyGraph m_graph = null;
+        private int m_failStep = 0;
+        private ExecutorService m_executor = null;
+        private CompletionService<StepOutcome> m_completionService = null;
+        private final List<Step> m_completedSteps = new ArrayList<>();
+        private final Set<String> m_completedStepIds = new HashSet<>();
+        private final Set<String> m_startedStepIds = new HashSet<>();
+        private StepOutcome m_failure = null;
+        private int m_running = 0;
+        private int m_waiting = 0;
+        private final Queue<StepOutcome> m_resumedOutcomes = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean m_active = new AtomicBoolean(true);
+        private Key m_claim = null;
+
         public VirtualPrivateCloudProvisioningTransaction(VirtualPrivateCloudProvisioning vpcp) {
             logger.info(LOGTAG + "Initializing provisioning process for " +
                     "ProvisioningId: " + vpcp.getProvisioningId());
             m_vpcp = vpcp;
+            m_runningProvisioningIds.add(vpcp.getProvisioningId());
         }
 
         public void run() {
+            boolean finished = true;
+            try {
+                finished = runSteps();
+            } finally {
+                if (finished) {
+                    release();
+                }
+            }
+        }
+
+        /**
+         * Sets the claim of this transaction, released when it finishes.
+         */
+        private void setClaim(Key claim) {
+            m_claim = claim;
+        }
+
+        /**
+         * Releases this transaction in this instance and its claim.
+         */
+        private void release() {
+            m_runningProvisioningIds.remove(getProvisioningId());
+            releaseTransaction(getProvisioningId(), m_claim);
+            m_claim = null;
+        }
+
+        /**
+         * Runs the steps of this transaction until all of them have finished
+         * or all steps still to finish are waiting.
+         *
+         * @return boolean, true if the transaction is finished, false if it
+         * is resumed when a waiting step completes.
+         */
+        private boolean runSteps() {
+            if (m_graph == null && !startSteps()) {
+                return true;
+            }
+            if (!executeSteps()) {
+                return false;
+            }
+            finishSteps();
+            return true;
+        }
+
+        /**
+         * Prepares the steps of this transaction, restoring the steps that
+         * already ran if the transaction was interrupted.
+         *
+         * @return boolean, false if the transaction can't continue.
+         */
+        private boolean startSteps() {
             setExecutionStartTime(System.currentTimeMillis());
             String LOGTAG = "[VirtualPrivateCloudProvisioningTransaction{" +
                     getProvisioningId() + "}] ";
@@ -1073,297 +1611,580 @@ public class EmoryVirtualPrivateCloudProvisioningProvider extends OpenEaiObject
                 }
             }
 
-            // Get a list of all step properties.
-            List<PropertyConfig> stepPropConfigs;
-            try {
-                stepPropConfigs = getAppConfig().getObjectsLike("ProvisioningStep");
-            } catch (EnterpriseConfigurationObjectException eoce) {
-                String errMsg = "An error occurred getting ProvisioningStep " +
-                        "properties from AppConfig. The exception is: " +
-                        eoce.getMessage();
+            // Use the step plan current when this transaction started for
+            // all of its steps, even if the configuration is reloaded.
+            m_stepPlan = getStepPlan();
+            StepDependencyGraph graph = m_stepPlan.getDependencyGraph();
+            logger.info(LOGTAG + "There are " + m_stepPlan.size() + " steps.");
+
+            // Query for the VPCP once. From here on the steps of this
+            // transaction share a provider scoped to the transaction, which
+            // serves them the in-memory VPCP, serializes their updates and
+            // persists their changes behind them.
+            if (!queryForVpcpBaseline()) {
+                String errMsg = "No VirtualPrivateCloudProvisioning object " +
+                        "found for ProvisioningId " + getProvisioningId() +
+                        ". Can't continue.";
                 logger.error(LOGTAG + errMsg);
-                return;
+                return false;
             }
-            logger.info(LOGTAG + "There are " + stepPropConfigs.size() + " steps.");
-
-            // Convert property configs to properties
-            List<Properties> stepProps = new ArrayList<>();
-            ListIterator<PropertyConfig> stepPropConfigsIterator = stepPropConfigs.listIterator();
-            while (stepPropConfigsIterator.hasNext()) {
-                PropertyConfig pConfig = stepPropConfigsIterator.next();
-                Properties stepProp = pConfig.getProperties();
-                stepProps.add(stepProp);
+
+            // Another instance may have finished the transaction between the
+            // query that found it pending and its claim by this one.
+            String status = getVirtualPrivateCloudProvisioning().getStatus();
+            if (!PENDING_STATUS.equalsIgnoreCase(status)) {
+                logger.info(LOGTAG + "ProvisioningId " + getProvisioningId() +
+                        " has status " + status + " and has already finished.");
+                return false;
+            }
+            TransactionScopedProvider transactionProvider =
+                    new TransactionScopedProvider(getVirtualPrivateCloudProvisioning());
+            m_transactionProvider = transactionProvider;
+
+            // Execute the steps on a pool of threads only if the steps
+            // declare their dependencies and parallelism is configured.
+            if (getMaxParallelSteps() > 1 && !graph.isSequential()) {
+                m_executor = Executors.newFixedThreadPool(getMaxParallelSteps(),
+                        new StepThreadFactory(getProvisioningId()));
+                m_completionService = new ExecutorCompletionService<>(m_executor);
+            } else {
+                m_completionService = new ExecutorCompletionService<>(Runnable::run);
             }
 
-            // Sort the list by stepId integer.
-            stepProps.sort(new StepPropIdComparator(1));
-
-            // For each property instantiate the step, call the execute
-            // method, and if successful, place it in the map of
-            // completed steps.
-            List<Step> completedSteps = new ArrayList<>();
-            ListIterator<Properties> stepPropsIterator = stepProps.listIterator();
-            int i = 0;
-            while (stepPropsIterator.hasNext()) {
-                i++;
-                Properties props = stepPropsIterator.next();
-                String className = props.getProperty("className");
-                if (className != null) {
-                    // Instantiate the step
-                    Step step = null;
-                    try {
-                        Class stepClass = Class.forName(className);
-                        step = (Step) stepClass.newInstance();
-                        logger.info(LOGTAG + "Initializing step " + i + ".");
-
-                        // If this is the failStep, set the failStep to be true.
-                        if (i == failStep) {
-                            logger.info(LOGTAG + "This step (" + i + ") is the FailStep. " +
-                                    "Setting failStep property to true.");
-                            props.setProperty("failStep", "true");
-                        } else {
-                            logger.info(LOGTAG + "This step (" + i + ") is not the FailStep.");
-                        }
+            // If this transaction was interrupted, pick up the steps that
+            // already ran and resume at the first step that has not.
+            m_failure = restoreSteps(transactionProvider,
+                    m_completedSteps, m_completedStepIds, m_startedStepIds);
+            m_failStep = failStep;
+            m_graph = graph;
+            return true;
+        }
 
-                        step.init(getProvisioningId(), props, getAppConfig(),
-                                getVirtualPrivateCloudProvisioningProvider());
-                    } catch (ClassNotFoundException cnfe) {
-                        // An error occurred instantiating the step.
-                        // Log it and roll back all preceding steps.
-                        String errMsg = "An error occurred instantiating the Step " +
-                                step.getStepId() + "The exception is: " + cnfe.getMessage();
-                        logger.error(LOGTAG + errMsg);
-                        try {
-                            logger.info(LOGTAG + "Setting completed status and failure result...");
-                            step.update(COMPLETED_STATUS, FAILURE_RESULT);
-                            logger.info(LOGTAG + "Updated to completed status and failure result.");
-                        } catch (StepException se2) {
-                            String errMsg2 = "An error occurred updating the " +
-                                    "status to indicate failure. The exception " +
-                                    "is: " + se2.getMessage();
-                            logger.error(LOGTAG + errMsg2);
-                        }
-                        rollbackCompletedSteps(completedSteps, step, errMsg);
-                        return;
-                    } catch (IllegalAccessException iae) {
-                        // An error occurred instantiating the step.
-                        // Log it and roll back all preceding steps.
-                        String errMsg = "An error occurred instantiating the Step " +
-                                step.getStepId() + "The exception is: " + iae.getMessage();
-                        logger.error(LOGTAG + errMsg);
-                        try {
-                            logger.info(LOGTAG + "Setting completed status and failure result...");
-                            step.update(COMPLETED_STATUS, FAILURE_RESULT);
-                            logger.info(LOGTAG + "Updated to completed status and failure result.");
-                        } catch (StepException se2) {
-                            String errMsg2 = "An error occurred updating the " +
-                                    "status to indicate failure. The exception " +
-                                    "is: " + se2.getMessage();
-                            logger.error(LOGTAG + errMsg2);
+        /**
+         * Executes the steps as their dependencies complete. With a
+         * parallelism of one the steps run on this thread in stepId order,
+         * exactly as they always have. Each successfully completed step is
+         * added to the list of completed steps in the order of completion.
+         * On the first failure no further steps are started, and steps
+         * already running or waiting are allowed to finish.
+         * <P>
+         * A step that waits returns from execute with a continuation and
+         * does not count against the parallelism. When every step still to
+         * finish is waiting, this thread is released, and the continuation of
+         * the next step to finish waiting adds the transaction back to the
+         * thread pool.
+         *
+         * @return boolean, true if all steps have finished, false if the
+         * transaction is waiting to be resumed.
+         */
+        private boolean executeSteps() {
+            String LOGTAG = "[VirtualPrivateCloudProvisioningTransaction{" +
+                    getProvisioningId() + "}] ";
+            try {
+                while (true) {
+                    // Record the outcomes of steps that finished waiting.
+                    StepOutcome resumed;
+                    while ((resumed = m_resumedOutcomes.poll()) != null) {
+                        m_waiting--;
+                        recordOutcome(resumed);
+                    }
+
+                    if (m_failure == null) {
+                        for (Properties planProps : m_graph.getReadySteps(m_completedStepIds, m_startedStepIds)) {
+                            if (m_running >= getMaxParallelSteps()) {
+                                break;
+                            }
+                            String stepId = planProps.getProperty("stepId");
+                            int position = m_graph.getPosition(stepId);
+
+                            // The plan is shared, so give the step its own
+                            // copy of the step properties.
+                            Properties props = m_stepPlan.getStep(stepId).getStepProperties();
+
+                            // If this is the failStep, set the failStep to be true.
+                            if (position == m_failStep) {
+                                logger.info(LOGTAG + "This step (" + position + ") is the FailStep. " +
+                                        "Setting failStep property to true.");
+                                props.setProperty("failStep", "true");
+                            } else {
+                                logger.info(LOGTAG + "This step (" + position + ") is not the FailStep.");
+                            }
+
+                            m_startedStepIds.add(stepId);
+                            m_running++;
+                            m_completionService.submit(() ->
+                                    executeStep(props, position, m_transactionProvider));
                         }
-                        rollbackCompletedSteps(completedSteps, step, errMsg);
-                        return;
-                    } catch (InstantiationException ie) {
-                        // An error occurred instantiating the step.
-                        // Log it and roll back all preceding steps.
-                        String errMsg = "An error occurred instantiating the Step " +
-                                step.getStepId() + "The exception is: " + ie.getMessage();
-                        logger.error(LOGTAG + errMsg);
-                        try {
-                            logger.info(LOGTAG + "Setting completed status and failure result...");
-                            step.update(COMPLETED_STATUS, FAILURE_RESULT);
-                            logger.info(LOGTAG + "Updated to completed status and failure result.");
-                        } catch (StepException se2) {
-                            String errMsg2 = "An error occurred updating the " +
-                                    "status to indicate failure. The exception " +
-                                    "is: " + se2.getMessage();
-                            logger.error(LOGTAG + errMsg2);
+                    }
+                    if (m_running == 0) {
+                        if (m_waiting == 0) {
+                            break;
                         }
-                        rollbackCompletedSteps(completedSteps, step, errMsg);
-                        return;
-                    } catch (StepException se) {
-                        // An error occurred initializing the step.
-                        // Log it and roll back all preceding steps.
-                        String errMsg = "An error occurred initializing the Step " +
-                                step.getStepId() + "The exception is: " + se.getMessage();
-                        logger.error(LOGTAG + errMsg);
-                        try {
-                            logger.info(LOGTAG + "Setting completed status and failure result...");
-                            step.update(COMPLETED_STATUS, FAILURE_RESULT);
-                            logger.info(LOGTAG + "Updated to completed status and failure result.");
-                        } catch (StepException se2) {
-                            String errMsg2 = "An error occurred updating the " +
-                                    "status to indicate failure. The exception " +
-                                    "is: " + se2.getMessage();
-                            logger.error(LOGTAG + errMsg2);
+                        // Every step still to finish is waiting. Release this
+                        // thread unless a step finished waiting meanwhile.
+                        m_active.set(false);
+                        if (m_resumedOutcomes.isEmpty() || !m_active.compareAndSet(false, true)) {
+                            logger.info(LOGTAG + "Releasing the thread while " +
+                                    m_waiting + " step(s) are waiting.");
+                            return false;
                         }
-                        rollbackCompletedSteps(completedSteps, step, errMsg);
-                        return;
+                        continue;
                     }
 
-                    // Execute the step
-                    List<Property> resultProps;
-                    try {
-                        logger.info(LOGTAG + "Executing [Step-" +
-                                step.getStepId() + "] " +
-                                step.getDescription());
-                        long startTime = System.currentTimeMillis();
-                        resultProps = step.execute();
-                        long time = System.currentTimeMillis() - startTime;
-                        logger.info(LOGTAG + "Completed Step " +
-                                step.getStepId() + " with result " +
-                                step.getResult() + " in " + time + " ms.");
-                        logger.info(LOGTAG + "Step result properties are: " +
-                                resultPropsToXmlString(resultProps));
-
-                        // If the result of the step is failure, roll back
-                        // all completed steps and return.
-                        if (step.getResult().equals(FAILURE_RESULT)) {
-                            logger.info(LOGTAG + "[Step " + step.getStepId() +
-                                    "] failed. Rolling back all completed steps.");
-                            rollbackCompletedSteps(completedSteps, step, null);
-                            return;
-                        }
+                    Future<StepOutcome> done = m_completionService.take();
+                    m_running--;
+                    completed(done.get());
+                }
+            } catch (InterruptedException | ExecutionException | RuntimeException e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                String errMsg = "An error occurred waiting for steps to " +
+                        "complete. The exception is: " + e.getMessage();
+                logger.error(LOGTAG + errMsg, e);
+                if (m_failure == null) {
+                    m_failure = StepOutcome.failure(null, null, errMsg);
+                }
+                awaitInFlightSteps();
+            }
 
-                        // Add all successfully completed steps to the list
-                        // of completed steps.
-                        completedSteps.add(step);
+            if (m_executor != null) {
+                m_executor.shutdownNow();
+            }
+            return true;
+        }
 
-                    } catch (StepException se) {
-                        // An error occurred executing the step.
-                        // Log it and roll back all preceding steps.
-                        LOGTAG = LOGTAG + "[StepExecutionException][Step-" +
-                                step.getStepId() + "] ";
-                        String errMsg = "An error occurred executing step " +
-                                step.getStepId() + ". The exception is: " + se.getMessage();
-                        logger.error(LOGTAG + errMsg);
+        private void completed(StepOutcome outcome) {
+            if (outcome.isWaiting()) {
+                m_waiting++;
+                awaitContinuation(outcome.getStep());
+            } else {
+                recordOutcome(outcome);
+            }
+        }
 
-                        try {
-                            logger.info(LOGTAG + "Setting completed status, "
-                                    + "failure result, and final error details...");
-                            // Add an error step property limited to 255 characters.
-                            String stepExecutionException;
-                            if (se.getMessage() != null) {
-                                int size = se.getMessage().length();
-                                logger.info(LOGTAG + "stepExecutionException size is: "
-                                        + size);
-                                if (size > 254) size = 254;
-                                stepExecutionException =
-                                        se.getMessage().substring(0, size);
-                            } else {
-                                stepExecutionException = "No step execution exception found.";
-                            }
-                            logger.info(LOGTAG + "Final step execution exception text is: " +
-                                    stepExecutionException);
-
-                            step.addResultProperty("stepExecutionException",
-                                    stepExecutionException);
-                            logger.info(LOGTAG + "Added property " +
-                                    "stepExecutionException: " +
-                                    stepExecutionException);
-                            step.update(COMPLETED_STATUS, FAILURE_RESULT);
-                            logger.info(LOGTAG + "Updated to completed status " +
-                                    "and failure result.");
-                        } catch (StepException se2) {
-                            String errMsg2 = "An error occurred updating the " +
-                                    "status to indicate failure. The exception " +
-                                    "is: " + se2.getMessage();
-                            logger.error(LOGTAG + errMsg2);
-                        } finally {
-                            rollbackCompletedSteps(completedSteps, step, errMsg);
+        /**
+         * Waits for the steps still running or waiting after an error, so
+         * the steps they complete are rolled back with the others instead of
+         * being abandoned. If this thread is interrupted, the running steps
+         * are interrupted too and still waited for, and the interrupt is
+         * restored before returning.
+         */
+        private void awaitInFlightSteps() {
+            String LOGTAG = "[VirtualPrivateCloudProvisioningTransaction{" +
+                    getProvisioningId() + "}] ";
+            boolean interrupted = Thread.interrupted();
+            if (interrupted && m_executor != null) {
+                m_executor.shutdownNow();
+            }
+            if (m_running + m_waiting > 0) {
+                logger.info(LOGTAG + "Waiting for " + (m_running + m_waiting) +
+                        " running steps to finish before rolling back.");
+            }
+            while (m_running + m_waiting > 0) {
+                StepOutcome resumed;
+                while ((resumed = m_resumedOutcomes.poll()) != null) {
+                    m_waiting--;
+                    recordOutcome(resumed);
+                }
+                try {
+                    if (m_running == 0) {
+                        if (m_waiting > 0) {
+                            Thread.sleep(100);
                         }
-                        return;
+                        continue;
                     }
-                } else {
-                    String errMsg = "An error occurred instantiating " +
-                            "a step. The className property is null.";
-                    logger.error(LOGTAG + errMsg);
-                    rollbackCompletedSteps(completedSteps, null, errMsg);
-                    return;
+                    Future<StepOutcome> done = m_completionService.poll(100, TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        continue;
+                    }
+                    m_running--;
+                    completed(done.get());
+                } catch (InterruptedException ie) {
+                    if (!interrupted && m_executor != null) {
+                        m_executor.shutdownNow();
+                    }
+                    interrupted = true;
+                } catch (ExecutionException ee) {
+                    logger.error(LOGTAG + "A step failed while waiting to roll back. " +
+                            "The exception is: " + ee.getMessage());
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void recordOutcome(StepOutcome outcome) {
+            String LOGTAG = "[VirtualPrivateCloudProvisioningTransaction{" +
+                    getProvisioningId() + "}] ";
+            if (outcome.isSuccess()) {
+                m_completedSteps.add(outcome.getStep());
+                m_completedStepIds.add(outcome.getStepId());
+            } else if (m_failure == null) {
+                m_failure = outcome;
+                if (m_running + m_waiting > 0) {
+                    logger.info(LOGTAG + "Waiting for " + (m_running + m_waiting) +
+                            " running steps to finish before rolling back.");
+                }
+            } else {
+                logger.error(LOGTAG + "Step " + outcome.getStepId() +
+                        " also failed while waiting to roll back.");
+            }
+        }
+
+        /**
+         * Records the outcome of a waiting step when its continuation
+         * completes, and resumes this transaction if it released its thread.
+         */
+        private void awaitContinuation(Step step) {
+            long startTime = System.currentTimeMillis();
+            step.getContinuation().whenComplete((resultProps, t) -> {
+                m_resumedOutcomes.add(continuationCompleted(step, resultProps, t,
+                        System.currentTimeMillis() - startTime));
+                if (m_active.compareAndSet(false, true)) {
+                    resumeTransaction(this);
                 }
+            });
+        }
+
+        private StepOutcome continuationCompleted(Step step, List<Property> resultProps,
+                                                  Throwable t, long time) {
+            if (t == null) {
+                return stepExecuted(step, resultProps, time);
+            }
+            Throwable cause = t;
+            if (t instanceof CompletionException && t.getCause() != null) {
+                cause = t.getCause();
+            }
+            if (cause instanceof StepException) {
+                return stepFailed(step, (StepException) cause);
+            }
+            String errMsg = "An error occurred waiting for the step. " +
+                    "The exception is: " + cause.getMessage();
+            return stepFailed(step, new StepException(errMsg, cause));
+        }
+
+        /**
+         * Sets the final state of the transaction once all steps have
+         * finished, rolling back the completed steps if any step failed.
+         */
+        private void finishSteps() {
+            String LOGTAG = "[VirtualPrivateCloudProvisioningTransaction{" +
+                    getProvisioningId() + "}] ";
+            TransactionScopedProvider transactionProvider = m_transactionProvider;
+
+            // If any step failed, roll back all completed steps and return.
+            if (m_failure != null) {
+                rollbackCompletedSteps(m_completedSteps, m_failure.getStep(),
+                        m_failure.getErrMsg());
+                return;
             }
 
             // All steps completed successfully.
             // Set the end of execution.
             long executionTime = System.currentTimeMillis() - getExecutionStartTime();
 
-            // Update the state of the VPCP object in this transaction.
-            queryForVpcpBaseline();
-
             // Set the status to complete, the result to success, and the
             // execution time.
-            try {
-                getVirtualPrivateCloudProvisioning().setStatus(COMPLETED_STATUS);
-                getVirtualPrivateCloudProvisioning().setProvisioningResult(SUCCESS_RESULT);
-                getVirtualPrivateCloudProvisioning().setActualTime(Long.toString(executionTime));
-            } catch (EnterpriseFieldException efe) {
-                String errMsg = "An error occurred setting field values on the " +
-                        "VPCP object. The exception is: " + efe.getMessage();
-                logger.error(LOGTAG + errMsg);
+            synchronized (transactionProvider) {
+                try {
+                    getVirtualPrivateCloudProvisioning().setStatus(COMPLETED_STATUS);
+                    getVirtualPrivateCloudProvisioning().setProvisioningResult(SUCCESS_RESULT);
+                    getVirtualPrivateCloudProvisioning().setActualTime(Long.toString(executionTime));
+                } catch (EnterpriseFieldException efe) {
+                    String errMsg = "An error occurred setting field values on the " +
+                            "VPCP object. The exception is: " + efe.getMessage();
+                    logger.error(LOGTAG + errMsg);
+                }
             }
 
-            // Update the VPCP object.
+            // Update the VPCP object with the final state of the transaction.
             try {
-                getVirtualPrivateCloudProvisioningProvider()
-                        .update(getVirtualPrivateCloudProvisioning());
+                transactionProvider.update(getVirtualPrivateCloudProvisioning());
+                transactionProvider.flush();
             } catch (ProviderException pe) {
-                String errMsg = "An error occurred querying for the  " +
-                        "current state of a VirtualPrivateCloudProvisioning object. " +
+                String errMsg = "An error occurred persisting the final " +
+                        "state of a VirtualPrivateCloudProvisioning object. " +
                         "The exception is: " + pe.getMessage();
                 logger.error(LOGTAG + errMsg);
             }
         }
 
-        private void rollbackCompletedSteps(List<Step> completedSteps,
-                                            Step failedStep, String extraErrMsg) {
-            logger.info(LOGTAG + "Starting rollback of completed steps...");
-
-            // Reverse the order of the completedSteps list.
-            completedSteps.sort(new StepIdComparator(-1));
+        /**
+         * Restores the steps of a transaction that was interrupted, for
+         * example by a restart of the service, from the persisted state of
+         * its ProvisioningSteps. Steps that completed successfully are added
+         * to the completed steps without executing them again. A step that
+         * was in progress is executed again if it is rerunnable and fails
+         * otherwise. If any step failed or was being rolled back, the failure
+         * is returned so all completed steps are rolled back. For a new
+         * transaction all steps are pending and nothing is restored.
+         *
+         * @return StepOutcome, the failure to roll back or null to continue.
+         */
+        private StepOutcome restoreSteps(VirtualPrivateCloudProvisioningProvider vpcpp,
+                                         List<Step> completedSteps,
+                                         Set<String> completedStepIds,
+                                         Set<String> startedStepIds) {
+            String LOGTAG = "[VirtualPrivateCloudProvisioningTransaction{" +
+                    getProvisioningId() + "}] ";
+            StepOutcome failure = null;
+            for (StepPlan.StepDefinition sd : m_stepPlan.getSteps()) {
+                String stepId = sd.getStepId();
+                ProvisioningStep pStep = getPersistedStep(stepId);
+                if (pStep == null || PENDING_STATUS.equalsIgnoreCase(pStep.getStatus())) {
+                    continue;
+                }
 
-            ListIterator<Step> completedStepsIterator = completedSteps.listIterator();
-            long startTime = System.currentTimeMillis();
-            while (completedStepsIterator.hasNext()) {
-                Step completedStep = completedStepsIterator.next();
+                Step step;
                 try {
-                    completedStep.rollback();
-                } catch (StepException se) {
-                    String errMsg = "An error occurred rolling back step " +
-                            completedStep.getStepId() + ": " +
-                            completedStep.getType() + ". The exception is: " +
-                            se.getMessage();
+                    step = m_stepPlan.newStep(stepId);
+                    step.init(getProvisioningId(), sd.getStepProperties(), getAppConfig(), vpcpp);
+                } catch (ProviderException | StepException e) {
+                    String errMsg = "An error occurred restoring step " + stepId +
+                            ". The exception is: " + e.getMessage();
                     logger.error(LOGTAG + errMsg);
+                    startedStepIds.add(stepId);
+                    if (failure == null) {
+                        failure = StepOutcome.failure(null, stepId, errMsg);
+                    }
+                    continue;
+                }
+
+                String status = pStep.getStatus();
+                if (COMPLETED_STATUS.equalsIgnoreCase(status) &&
+                        SUCCESS_RESULT.equalsIgnoreCase(pStep.getStepResult())) {
+                    logger.info(LOGTAG + "Step " + stepId + " already completed.");
+                    completedSteps.add(step);
+                    completedStepIds.add(stepId);
+                    startedStepIds.add(stepId);
+                } else if (IN_PROGRESS_STATUS.equalsIgnoreCase(status) && step.isRerunnable()) {
+                    logger.info(LOGTAG + "Step " + stepId + " was interrupted " +
+                            "and will be executed again.");
+                } else if (IN_PROGRESS_STATUS.equalsIgnoreCase(status)) {
+                    String errMsg = "Step " + stepId + " was interrupted and is " +
+                            "not safe to execute again.";
+                    logger.error(LOGTAG + errMsg);
+                    try {
+                        step.addResultProperty("stepExecutionException", errMsg);
+                        step.update(COMPLETED_STATUS, FAILURE_RESULT);
+                    } catch (StepException se) {
+                        String errMsg2 = "An error occurred updating the " +
+                                "status to indicate failure. The exception " +
+                                "is: " + se.getMessage();
+                        logger.error(LOGTAG + errMsg2);
+                    }
+                    startedStepIds.add(stepId);
+                    if (failure == null) {
+                        failure = StepOutcome.failure(step, stepId, errMsg);
+                    }
+                } else {
+                    // The step failed or was already rolled back, so the
+                    // transaction was failing when it was interrupted.
+                    logger.info(LOGTAG + "Step " + stepId + " has status " + status +
+                            " and result " + pStep.getStepResult() + ".");
+                    startedStepIds.add(stepId);
+                    if (failure == null) {
+                        failure = StepOutcome.failure(step, stepId, "Step " + stepId +
+                                " failed before the transaction was interrupted.");
+                    }
+                }
+            }
+            if (!startedStepIds.isEmpty()) {
+                logger.info(LOGTAG + "Resuming transaction with " + completedSteps.size() +
+                        " completed steps.");
+            }
+            return failure;
+        }
+
+        private ProvisioningStep getPersistedStep(String stepId) {
+            @SuppressWarnings("unchecked")
+            List<ProvisioningStep> pSteps = getVirtualPrivateCloudProvisioning().getProvisioningStep();
+            for (ProvisioningStep pStep : pSteps) {
+                if (stepId.equals(pStep.getStepId())) {
+                    return pStep;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Instantiates, initializes and executes one step. Errors are
+         * recorded on the step and returned as a failed outcome so the
+         * transaction can roll back all completed steps.
+         */
+        private StepOutcome executeStep(Properties props, int position,
+                                        VirtualPrivateCloudProvisioningProvider vpcpp) {
+            String LOGTAG = "[VirtualPrivateCloudProvisioningTransaction{" +
+                    getProvisioningId() + "}] ";
+            String stepId = props.getProperty("stepId");
+
+            // Instantiate the step
+            Step step = null;
+            try {
+                step = m_stepPlan.newStep(stepId);
+                logger.info(LOGTAG + "Initializing step " + position + ".");
+                step.init(getProvisioningId(), props, getAppConfig(), vpcpp);
+            } catch (ProviderException | StepException e) {
+                // An error occurred instantiating or initializing the step.
+                // Log it and record the failure on the step if it exists.
+                String errMsg = "An error occurred instantiating the Step " +
+                        stepId + ". The exception is: " + e.getMessage();
+                logger.error(LOGTAG + errMsg);
+                if (step != null) {
+                    try {
+                        logger.info(LOGTAG + "Setting completed status and failure result...");
+                        step.update(COMPLETED_STATUS, FAILURE_RESULT);
+                        logger.info(LOGTAG + "Updated to completed status and failure result.");
+                    } catch (StepException se2) {
+                        String errMsg2 = "An error occurred updating the " +
+                                "status to indicate failure. The exception " +
+                                "is: " + se2.getMessage();
+                        logger.error(LOGTAG + errMsg2);
+                    }
+                }
+                return StepOutcome.failure(step, stepId, errMsg);
+            }
+
+            // Execute the step
+            try {
+                logger.info(LOGTAG + "Executing [Step-" +
+                        step.getStepId() + "] " +
+                        step.getDescription());
+                long startTime = System.currentTimeMillis();
+                List<Property> resultProps = step.execute();
+                if (step.getContinuation() != null) {
+                    logger.info(LOGTAG + "Step " + step.getStepId() + " is waiting.");
+                    return StepOutcome.waiting(step);
                 }
+                return stepExecuted(step, resultProps, System.currentTimeMillis() - startTime);
+            } catch (StepException se) {
+                return stepFailed(step, se);
+            }
+        }
+
+        private StepOutcome stepExecuted(Step step, List<Property> resultProps, long time) {
+            String LOGTAG = "[VirtualPrivateCloudProvisioningTransaction{" +
+                    getProvisioningId() + "}] ";
+            logger.info(LOGTAG + "Completed Step " +
+                    step.getStepId() + " with result " +
+                    step.getResult() + " in " + time + " ms.");
+            logger.info(LOGTAG + "Step result properties are: " +
+                    resultPropsToXmlString(resultProps));
+
+            // If the result of the step is failure, roll back
+            // all completed steps.
+            if (FAILURE_RESULT.equals(step.getResult())) {
+                logger.info(LOGTAG + "[Step " + step.getStepId() +
+                        "] failed. Rolling back all completed steps.");
+                return StepOutcome.failure(step, step.getStepId(), null);
             }
+
+            return StepOutcome.success(step);
+        }
+
+        private StepOutcome stepFailed(Step step, StepException se) {
+            String LOGTAG = "[VirtualPrivateCloudProvisioningTransaction{" +
+                    getProvisioningId() + "}] ";
+            String stepId = step.getStepId();
+            // An error occurred executing the step.
+            // Log it and roll back all preceding steps.
+            LOGTAG = LOGTAG + "[StepExecutionException][Step-" +
+                    step.getStepId() + "] ";
+            String errMsg = "An error occurred executing step " +
+                    step.getStepId() + ". The exception is: " + se.getMessage();
+            logger.error(LOGTAG + errMsg);
+
+            try {
+                logger.info(LOGTAG + "Setting completed status, "
+                        + "failure result, and final error details...");
+                // Add an error step property limited to 255 characters.
+                String stepExecutionException;
+                if (se.getMessage() != null) {
+                    int size = se.getMessage().length();
+                    logger.info(LOGTAG + "stepExecutionException size is: "
+                            + size);
+                    if (size > 254) size = 254;
+                    stepExecutionException =
+                            se.getMessage().substring(0, size);
+                } else {
+                    stepExecutionException = "No step execution exception found.";
+                }
+                logger.info(LOGTAG + "Final step execution exception text is: " +
+                        stepExecutionException);
+
+                step.addResultProperty("stepExecutionException",
+                        stepExecutionException);
+                logger.info(LOGTAG + "Added property " +
+                        "stepExecutionException: " +
+                        stepExecutionException);
+                step.update(COMPLETED_STATUS, FAILURE_RESULT);
+                logger.info(LOGTAG + "Updated to completed status " +
+                        "and failure result.");
+            } catch (StepException se2) {
+                String errMsg2 = "An error occurred updating the " +
+                        "status to indicate failure. The exception " +
+                        "is: " + se2.getMessage();
+                logger.error(LOGTAG + errMsg2);
+            }
+            return StepOutcome.failure(step, stepId, errMsg);
+        }
+
+        private void rollbackCompletedSteps(List<Step> completedSteps,
+                                            Step failedStep, String extraErrMsg) {
+            logger.info(LOGTAG + "Starting rollback of completed steps...");
+            long startTime = System.currentTimeMillis();
+            String rollbackReport = rollbackSteps(completedSteps);
             long time = System.currentTimeMillis() - startTime;
             logger.info(LOGTAG + "Provisioning rollback complete in " + time + " ms.");
 
-            // All steps completed successfully.
+            // Record the steps that still need to be cleaned up manually on
+            // the failed step and in the incident.
+            if (rollbackReport != null) {
+                logger.error(LOGTAG + "Partial rollback. " + rollbackReport);
+                if (failedStep != null) {
+                    try {
+                        failedStep.addResultProperty("partialRollback",
+                                truncate(rollbackReport));
+                        failedStep.update(COMPLETED_STATUS, FAILURE_RESULT);
+                    } catch (StepException se) {
+                        String errMsg = "An error occurred recording the partial " +
+                                "rollback. The exception is: " + se.getMessage();
+                        logger.error(LOGTAG + errMsg);
+                    }
+                }
+                extraErrMsg = (extraErrMsg == null ? "" : extraErrMsg + " ") +
+                        "Partial rollback. " + rollbackReport;
+            }
+
             // Set the end of execution.
             long executionTime = System.currentTimeMillis() - getExecutionStartTime();
 
-            // Update the state of the VPCP object in this transaction.
-            queryForVpcpBaseline();
-
-            // Set the status to complete, the result to failure, and the
+            // Set the status to complete, the result to failure, or to
+            // rollback failure if some steps were not rolled back, and the
             // execution time.
-            try {
-                getVirtualPrivateCloudProvisioning().setStatus(COMPLETED_STATUS);
-                getVirtualPrivateCloudProvisioning().setProvisioningResult(FAILURE_RESULT);
-                getVirtualPrivateCloudProvisioning().setActualTime(Long.toString(executionTime));
-            } catch (EnterpriseFieldException efe) {
-                String errMsg = "An error setting field values on the " +
-                        "VPCP object. The exception is: " + efe.getMessage();
-                logger.error(LOGTAG + errMsg);
+            TransactionScopedProvider transactionProvider = m_transactionProvider;
+            synchronized (transactionProvider) {
+                try {
+                    getVirtualPrivateCloudProvisioning().setStatus(COMPLETED_STATUS);
+                    getVirtualPrivateCloudProvisioning().setProvisioningResult(
+                            rollbackReport == null ? FAILURE_RESULT : ROLLBACK_FAILURE_RESULT);
+                    getVirtualPrivateCloudProvisioning().setActualTime(Long.toString(executionTime));
+                } catch (EnterpriseFieldException efe) {
+                    String errMsg = "An error setting field values on the " +
+                            "VPCP object. The exception is: " + efe.getMessage();
+                    logger.error(LOGTAG + errMsg);
+                }
             }
 
-            // Update the VPCP object.
+            // Update the VPCP object with the final state of the transaction.
             try {
-                getVirtualPrivateCloudProvisioningProvider()
-                        .update(getVirtualPrivateCloudProvisioning());
+                transactionProvider.update(getVirtualPrivateCloudProvisioning());
+                transactionProvider.flush();
             } catch (ProviderException pe) {
-                String errMsg = "An error occurred querying for the  " +
-                        "current state of a VirtualPrivateCloudProvisioning object. " +
+                String errMsg = "An error occurred persisting the final " +
+                        "state of a VirtualPrivateCloudProvisioning object. " +
                         "The exception is: " + pe.getMessage();
                 logger.error(LOGTAG + errMsg);
             }
@@ -1425,7 +2246,7 @@ public class EmoryVirtualPrivateCloudProvisioningProvider extends OpenEaiObject
 
                     // put more info in the requisition (description)?
                     String provisioningId = this.getProvisioningId();
-                    String failedStepId = failedStep.getStepId();
+                    String failedStepId = failedStep != null ? failedStep.getStepId() : "unknown";
                     String d = ir.getDescription();
                     d = d.replaceAll("PROVISIONING_ID", provisioningId);
                     if (extraErrMsg == null) {
@@ -1461,6 +2282,96 @@ public class EmoryVirtualPrivateCloudProvisioningProvider extends OpenEaiObject
             }
         }
 
+        /**
+         * Rolls back the completed steps in the reverse order of their
+         * dependencies. The steps of each wave of the rollback are
+         * independent, so up to maxParallelSteps of them are rolled back at
+         * the same time. A rollback that fails or does not finish within
+         * rollbackTimeoutInMillis is recorded on its step with a
+         * rollbackFailure result property and the rolled back status with a
+         * failure result.
+         *
+         * @return String, a report of the steps that were not rolled back or
+         * null if all of them were.
+         */
+        private String rollbackSteps(List<Step> completedSteps) {
+            String LOGTAG = "[VirtualPrivateCloudProvisioningTransaction{" +
+                    getProvisioningId() + "}] ";
+            Map<String, Step> stepsById = new HashMap<>();
+            for (Step step : completedSteps) {
+                stepsById.put(step.getStepId(), step);
+            }
+            List<List<String>> waves = m_graph.getRollbackWaves(stepsById.keySet());
+            int batchSize = getMaxParallelSteps();
+            ExecutorService executor = Executors.newFixedThreadPool(batchSize,
+                    new StepThreadFactory(getProvisioningId()));
+
+            StringBuilder report = new StringBuilder();
+            try {
+                for (List<String> wave : waves) {
+                    logger.info(LOGTAG + "Rolling back steps " + wave + "...");
+                    for (int i = 0; i < wave.size(); i += batchSize) {
+                        Map<Step, Future<?>> rollbacks = new LinkedHashMap<>();
+                        for (String stepId : wave.subList(i, Math.min(i + batchSize, wave.size()))) {
+                            Step step = stepsById.get(stepId);
+                            rollbacks.put(step, executor.submit(() -> {
+                                step.rollback();
+                                return null;
+                            }));
+                        }
+
+                        long deadline = System.currentTimeMillis() + getRollbackTimeout();
+                        for (Map.Entry<Step, Future<?>> rollback : rollbacks.entrySet()) {
+                            Step step = rollback.getKey();
+                            String failure;
+                            try {
+                                rollback.getValue().get(Math.max(0,
+                                        deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                                continue;
+                            } catch (TimeoutException te) {
+                                rollback.getValue().cancel(true);
+                                failure = "timed out after " + getRollbackTimeout() + " ms";
+                            } catch (ExecutionException ee) {
+                                failure = "failed: " + ee.getCause().getMessage();
+                            } catch (InterruptedException ie) {
+                                Thread.currentThread().interrupt();
+                                rollback.getValue().cancel(true);
+                                failure = "was interrupted";
+                            }
+                            String errMsg = "Rollback of step " + step.getStepId() +
+                                    " (" + step.getType() + ") " + failure + ".";
+                            logger.error(LOGTAG + errMsg);
+                            report.append(step.getStepId()).append(" (")
+                                    .append(step.getType()).append(") ")
+                                    .append(failure).append(". ");
+                            try {
+                                step.addResultProperty("rollbackFailure", truncate(errMsg));
+                                step.update(ROLLBACK_STATUS, FAILURE_RESULT);
+                            } catch (StepException se) {
+                                String errMsg2 = "An error occurred recording the " +
+                                        "rollback failure. The exception is: " + se.getMessage();
+                                logger.error(LOGTAG + errMsg2);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+
+            if (report.length() == 0) {
+                return null;
+            }
+            return "Steps not rolled back: " + report.toString().trim();
+        }
+
+        /**
+         * Limits a result property value to the size of its column.
+         */
+        private String truncate(String value) {
+            return value.length() > 254 ? value.substring(0, 254) : value;
+        }
+
         private String resultPropsToXmlString(List<Property> resultProps) {
             String stringProps = "";
 
@@ -1491,7 +2402,7 @@ public class EmoryVirtualPrivateCloudProvisioningProvider extends OpenEaiObject
             return m_vpcp;
         }
 
-        private void queryForVpcpBaseline() {
+        private boolean queryForVpcpBaseline() {
             // Query for the VPCP object in the AWS Account Service.
             // Get a configured query spec from AppConfig
             VirtualPrivateCloudProvisioningQuerySpecification vpcpqs = new
@@ -1533,10 +2444,14 @@ public class EmoryVirtualPrivateCloudProvisioningProvider extends OpenEaiObject
                         "The exception is: " + pe.getMessage();
                 logger.error(LOGTAG + errMsg);
             }
+            if (results == null || results.isEmpty()) {
+                return false;
+            }
             VirtualPrivateCloudProvisioning vpcp =
                     (VirtualPrivateCloudProvisioning) results.get(0);
 
             setVirtualPrivateCloudProvisioning(vpcp);
+            return true;
         }
 
         private void setExecutionStartTime(long time) {
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import org.apache.log4j.Category;
+import org.openeai.OpenEaiObject;
+import org.openeai.utils.lock.Key;
+import org.openeai.utils.lock.Lock;
+import org.openeai.utils.lock.LockAlreadySetException;
+import org.openeai.utils.lock.LockException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A NotificationLock shared by all instances of the service, for
+ * deployments with more than one.
+ * <P>
+ * The locks are set in a shared OpenEAI lock, such as a DbLock, under a hash
+ * of the full name, so that names of any length fit and don't collide. The
+ * shared lock must expire its locks after the lease time to live, so a lock
+ * left by a crashed instance frees itself, and the time to live given to
+ * this lock must match that expiration, such as the expiration configured
+ * for a DbLock.
+ * <P>
+ * The token of a lease is taken from the time it was set, so the tokens of
+ * the leases of a name increase across instances as long as their clocks
+ * agree to within the time to live. The holder fences its write with
+ * fence(), which sets the shared lock again for an expired lease. This
+ * succeeds with a new lease and token only if no other caller holds the
+ * lock. Another caller may also have set the lock and released it since,
+ * so the holder of a renewed lease must still check whether the work it was
+ * about to do has been done since the expired lease was set.
+ * <P>
+ * A striped lock in front of the shared lock answers for the names already
+ * locked in this instance without a round trip.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class LeasedNotificationLock extends AbstractNotificationLock {
+
+    private final Category logger = OpenEaiObject.logger;
+    private final String LOGTAG = "[LeasedNotificationLock] ";
+    private final Lock m_sharedLock;
+    private final long m_ttl;
+    private final StripedNotificationLock m_localLock;
+    private final AtomicLong m_lastToken = new AtomicLong();
+
+    /**
+     * @param sharedLock, the shared lock, which must expire its locks after
+     * the time to live.
+     * @param ttl, the lease time to live in milliseconds.
+     * @param stripes, the number of stripes of the lock in front of the
+     * shared lock.
+     */
+    public LeasedNotificationLock(Lock sharedLock, long ttl, int stripes) {
+        m_sharedLock = sharedLock;
+        m_ttl = ttl;
+        m_localLock = new StripedNotificationLock(stripes);
+    }
+
+    /**
+     * @return long, the lease time to live in milliseconds, or Long.MAX_VALUE
+     * if leases never expire.
+     */
+    public long getTtl() {
+        return m_ttl;
+    }
+
+    @Override
+    protected Lease doSet(String name) throws LockException, LockAlreadySetException {
+        Lease localLease = m_localLock.set(name);
+        Key key;
+        try {
+            key = m_sharedLock.set(sharedName(name));
+        } catch (LockException | LockAlreadySetException | RuntimeException e) {
+            m_localLock.release(localLease);
+            throw e;
+        }
+        return newLease(name, key, localLease);
+    }
+
+    @Override
+    protected Lease doRenew(Lease lease) throws LockException, LockAlreadySetException {
+        Object[] handle = (Object[]) lease.getHandle();
+        String sharedName = sharedName(lease.getName());
+
+        // The shared lock only removes the lock if it still has our key, and
+        // the set fails if another caller has set the lock since.
+        m_sharedLock.release(sharedName, (Key) handle[0]);
+        Key key;
+        try {
+            key = m_sharedLock.set(sharedName);
+        } catch (LockAlreadySetException lase) {
+            logger.warn(LOGTAG + "The expired lease " + lease.getToken() + " of lock " +
+                    lease.getName() + " is fenced off by a later lease.");
+            throw lase;
+        }
+        Lease renewed = newLease(lease.getName(), key, (Lease) handle[1]);
+        logger.info(LOGTAG + "Renewed the expired lease " + lease.getToken() + " of lock " +
+                lease.getName() + " as lease " + renewed.getToken() + ".");
+        return renewed;
+    }
+
+    @Override
+    protected void doRelease(Lease lease) throws LockException {
+        Object[] handle = (Object[]) lease.getHandle();
+        try {
+            if (lease.isExpired()) {
+                // The shared lock only removes the lock if it still has our
+                // key, so this can't release the lock of a later lease.
+                logger.warn(LOGTAG + "Releasing the expired lease " + lease.getToken() + " of lock " +
+                        lease.getName() + ".");
+            }
+            m_sharedLock.release(sharedName(lease.getName()), (Key) handle[0]);
+        } finally {
+            m_localLock.release((Lease) handle[1]);
+        }
+    }
+
+    private Lease newLease(String name, Key key, Lease localLease) {
+        long setTime = System.currentTimeMillis();
+        long token = m_lastToken.accumulateAndGet(setTime, (last, now) -> Math.max(last + 1, now));
+        long expirationTime = m_ttl == Long.MAX_VALUE ? Long.MAX_VALUE : setTime + m_ttl;
+        return new Lease(name, token, setTime, expirationTime, new Object[] {key, localLease});
+    }
+
+    private static String sharedName(String name) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return "AN-" + Base64.getEncoder().encodeToString(digest.digest(name.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException nsae) {
+            // Every JVM has SHA-256.
+            throw new IllegalStateException(nsae);
+        }
+    }
+}
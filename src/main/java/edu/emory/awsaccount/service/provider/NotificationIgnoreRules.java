@@ -0,0 +1,498 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import com.amazon.aws.moa.jmsobjects.provisioning.v1_0.AccountNotification;
+import com.amazon.aws.moa.objects.resources.v1_0.Annotation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The compiled rules for ignoring AccountNotifications.
+ * <P>
+ * A rule has a regular expression for one or more of the text, type,
+ * priority and annotations of a notification, and matches a notification
+ * when each of its expressions is found in the field, or in the text of one
+ * of the annotations. Rules are read from properties:
+ * <pre>
+ *   ignoreRegex&lt;anything&gt;=&lt;regex on the text&gt;
+ *   ignoreRule.&lt;name&gt;.text=&lt;regex&gt;
+ *   ignoreRule.&lt;name&gt;.type=&lt;regex&gt;
+ *   ignoreRule.&lt;name&gt;.priority=&lt;regex&gt;
+ *   ignoreRule.&lt;name&gt;.annotation=&lt;regex&gt;
+ * </pre>
+ * The expressions are compiled once. Most expressions contain a literal that
+ * every match must contain, and the literals of all rules are searched for
+ * in each field with one pass of an Aho-Corasick automaton, so only the rules
+ * whose literals were found, and the few without one, run their expressions.
+ * <P>
+ * A set of rules is immutable apart from the number of notifications each
+ * rule matched, and is replaced as a whole when the rules change.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class NotificationIgnoreRules {
+
+    private static final String LEGACY_PREFIX = "ignoreRegex";
+    private static final String RULE_PREFIX = "ignoreRule.";
+    private static final String[] FIELDS = {"text", "type", "priority", "annotation"};
+    private static final int TEXT = 0;
+    private static final int TYPE = 1;
+    private static final int PRIORITY = 2;
+    private static final int ANNOTATION = 3;
+
+    // The escapes that are followed by more than the escaped character:
+    // hexadecimal, unicode, octal and control characters, named groups,
+    // properties, quoting and named characters.
+    private static final String MULTI_CHARACTER_ESCAPES = "xu0ckpPQEN";
+
+    private static class Rule {
+        private final String m_name;
+        private final Pattern[] m_patterns = new Pattern[FIELDS.length];
+        private final int[] m_literalIds = new int[FIELDS.length];
+        private final AtomicLong m_hitCount;
+
+        private Rule(String name, AtomicLong hitCount) {
+            m_name = name;
+            m_hitCount = hitCount;
+        }
+    }
+
+    private final List<Rule> m_rules;
+    private final String m_signature;
+    private final Automaton[] m_automatons = new Automaton[FIELDS.length];
+
+    private NotificationIgnoreRules(List<Rule> rules, String signature, List<List<String>> literals) {
+        m_rules = rules;
+        m_signature = signature;
+        for (int field = 0; field < FIELDS.length; field++) {
+            m_automatons[field] = new Automaton(literals.get(field));
+        }
+    }
+
+    /**
+     * Compiles the ignore rules in a set of properties.
+     *
+     * @param props, the properties, of which only the ignore rules are read.
+     * @param previous, the rules being replaced, whose hit counts are carried
+     * over to the rules with the same name, or null.
+     * @return NotificationIgnoreRules, the compiled rules.
+     * @throws ProviderException if an expression is invalid or a rule has
+     * an unknown field.
+     */
+    public static NotificationIgnoreRules compile(Properties props, NotificationIgnoreRules previous)
+            throws ProviderException {
+        Map<String, String> entries = ignoreEntries(props);
+        Map<String, Map<Integer, String>> regexesByRule = new TreeMap<>();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            String key = entry.getKey();
+            if (key.startsWith(LEGACY_PREFIX)) {
+                regexesByRule.computeIfAbsent(key, k -> new HashMap<>()).put(TEXT, entry.getValue());
+                continue;
+            }
+            int dot = key.lastIndexOf('.');
+            String name = key.substring(RULE_PREFIX.length(), Math.max(dot, RULE_PREFIX.length()));
+            int field = fieldIndex(key.substring(dot + 1));
+            if (name.isEmpty() || field < 0) {
+                String errMsg = "Invalid ignore rule property " + key + ". Expected " + RULE_PREFIX +
+                        "<name>.<text|type|priority|annotation>.";
+                throw new ProviderException(errMsg);
+            }
+            regexesByRule.computeIfAbsent(name, k -> new HashMap<>()).put(field, entry.getValue());
+        }
+
+        Map<String, AtomicLong> previousHitCounts = new HashMap<>();
+        if (previous != null) {
+            for (Rule rule : previous.m_rules) {
+                previousHitCounts.put(rule.m_name, rule.m_hitCount);
+            }
+        }
+
+        List<Rule> rules = new ArrayList<>();
+        List<List<String>> literals = new ArrayList<>();
+        for (int field = 0; field < FIELDS.length; field++) {
+            literals.add(new ArrayList<>());
+        }
+        for (Map.Entry<String, Map<Integer, String>> entry : regexesByRule.entrySet()) {
+            String name = entry.getKey();
+            Rule rule = new Rule(name, previousHitCounts.getOrDefault(name, new AtomicLong()));
+            for (int field = 0; field < FIELDS.length; field++) {
+                rule.m_literalIds[field] = -1;
+                String regex = entry.getValue().get(field);
+                if (regex == null) {
+                    continue;
+                }
+                try {
+                    rule.m_patterns[field] = Pattern.compile(regex);
+                } catch (PatternSyntaxException pse) {
+                    String errMsg = "Invalid " + FIELDS[field] + " expression in ignore rule " + name +
+                            ". The exception is: " + pse.getMessage();
+                    throw new ProviderException(errMsg, pse);
+                }
+                String literal = requiredLiteral(regex);
+                if (literal != null) {
+                    rule.m_literalIds[field] = literals.get(field).size();
+                    literals.get(field).add(literal);
+                }
+            }
+            rules.add(rule);
+        }
+        return new NotificationIgnoreRules(rules, signature(entries), literals);
+    }
+
+    /**
+     * @return String, a value that changes when the ignore rules in the
+     * properties change.
+     */
+    public static String signature(Properties props) {
+        return signature(ignoreEntries(props));
+    }
+
+    /**
+     * @return String, the signature of the properties these rules were
+     * compiled from.
+     */
+    public String getSignature() {
+        return m_signature;
+    }
+
+    /**
+     * Finds the first rule, in the order of their names, that matches a
+     * notification, and counts the match.
+     *
+     * @return String, the name of the rule, or null if no rule matches.
+     */
+    public String match(AccountNotification notification) {
+        if (m_rules.isEmpty()) {
+            return null;
+        }
+        String[] values = new String[FIELDS.length];
+        values[TEXT] = notification.getText();
+        values[TYPE] = notification.getType();
+        values[PRIORITY] = notification.getPriority();
+        List<String> annotations = new ArrayList<>();
+        for (Object o : notification.getAnnotation()) {
+            String text = ((Annotation) o).getText();
+            if (text != null) {
+                annotations.add(text);
+            }
+        }
+
+        BitSet[] found = new BitSet[FIELDS.length];
+        for (int field = 0; field < FIELDS.length; field++) {
+            found[field] = new BitSet();
+            if (field == ANNOTATION) {
+                for (String annotation : annotations) {
+                    m_automatons[field].search(annotation, found[field]);
+                }
+            } else if (values[field] != null) {
+                m_automatons[field].search(values[field], found[field]);
+            }
+        }
+
+        for (Rule rule : m_rules) {
+            if (matches(rule, values, annotations, found)) {
+                rule.m_hitCount.incrementAndGet();
+                return rule.m_name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return int, the number of rules.
+     */
+    public int size() {
+        return m_rules.size();
+    }
+
+    /**
+     * @return Map<String, Long>, the number of notifications each rule
+     * matched, by rule name.
+     */
+    public Map<String, Long> getHitCounts() {
+        Map<String, Long> hitCounts = new LinkedHashMap<>();
+        for (Rule rule : m_rules) {
+            hitCounts.put(rule.m_name, rule.m_hitCount.get());
+        }
+        return Collections.unmodifiableMap(hitCounts);
+    }
+
+    /**
+     * @return String, the names of the rules and their expressions, for
+     * logging.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Rule rule : m_rules) {
+            sb.append(sb.length() == 0 ? "" : ", ").append(rule.m_name).append(" {");
+            String separator = "";
+            for (int field = 0; field < FIELDS.length; field++) {
+                if (rule.m_patterns[field] != null) {
+                    sb.append(separator).append(FIELDS[field]).append("=").append(rule.m_patterns[field].pattern());
+                    separator = ", ";
+                }
+            }
+            sb.append("}");
+        }
+        return sb.toString();
+    }
+
+    private boolean matches(Rule rule, String[] values, List<String> annotations, BitSet[] found) {
+        // Check the literals of all fields before running any expression.
+        for (int field = 0; field < FIELDS.length; field++) {
+            if (rule.m_literalIds[field] >= 0 && !found[field].get(rule.m_literalIds[field])) {
+                return false;
+            }
+        }
+        for (int field = 0; field < FIELDS.length; field++) {
+            Pattern pattern = rule.m_patterns[field];
+            if (pattern == null) {
+                continue;
+            }
+            if (field == ANNOTATION) {
+                boolean annotationMatches = false;
+                for (String annotation : annotations) {
+                    if (pattern.matcher(annotation).find()) {
+                        annotationMatches = true;
+                        break;
+                    }
+                }
+                if (!annotationMatches) {
+                    return false;
+                }
+            } else if (values[field] == null || !pattern.matcher(values[field]).find()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Map<String, String> ignoreEntries(Properties props) {
+        Map<String, String> entries = new TreeMap<>();
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith(LEGACY_PREFIX) || key.startsWith(RULE_PREFIX)) {
+                entries.put(key, props.getProperty(key));
+            }
+        }
+        return entries;
+    }
+
+    private static String signature(Map<String, String> entries) {
+        return entries.toString();
+    }
+
+    private static int fieldIndex(String field) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the longest literal that every match of an expression must
+     * contain, or null if there is none that is easy to prove. Only literals
+     * outside of groups and character classes and not made optional by a
+     * quantifier are considered. Expressions with alternatives, embedded
+     * flags, escapes longer than one character, such as code points,
+     * properties, back references and quoting, or nested or intersected
+     * character classes have none.
+     */
+    static String requiredLiteral(String regex) {
+        if (regex.contains("|") || regex.contains("(?")) {
+            return null;
+        }
+        String best = "";
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()) {
+                char escaped = regex.charAt(i + 1);
+                if (MULTI_CHARACTER_ESCAPES.indexOf(escaped) >= 0 || Character.isDigit(escaped)) {
+                    return null;
+                }
+                i += 2;
+                if (depth > 0) {
+                    continue;
+                }
+                if (Character.isLetterOrDigit(escaped)) {
+                    // A character class, boundary or code; not a literal.
+                    best = longer(best, run);
+                    run.setLength(0);
+                } else {
+                    run.append(escaped);
+                }
+                continue;
+            }
+            i++;
+            switch (c) {
+                case '[':
+                    // Skip the character class, in which a leading ] is
+                    // a literal.
+                    if (i < regex.length() && regex.charAt(i) == '^') {
+                        i++;
+                    }
+                    if (i < regex.length() && regex.charAt(i) == ']') {
+                        i++;
+                    }
+                    while (i < regex.length() && regex.charAt(i) != ']') {
+                        char member = regex.charAt(i);
+                        if (member == '[' || (member == '&' && i + 1 < regex.length() &&
+                                regex.charAt(i + 1) == '&')) {
+                            return null;
+                        }
+                        if (member == '\\' && i + 1 < regex.length() &&
+                                MULTI_CHARACTER_ESCAPES.indexOf(regex.charAt(i + 1)) >= 0) {
+                            return null;
+                        }
+                        i += member == '\\' ? 2 : 1;
+                    }
+                    i++;
+                    best = longer(best, run);
+                    run.setLength(0);
+                    break;
+                case '(':
+                    depth++;
+                    best = longer(best, run);
+                    run.setLength(0);
+                    break;
+                case ')':
+                    depth--;
+                    break;
+                case '*':
+                case '?':
+                case '{':
+                    // The character before is optional.
+                    if (depth == 0 && run.length() > 0) {
+                        run.setLength(run.length() - 1);
+                    }
+                    best = longer(best, run);
+                    run.setLength(0);
+                    if (c == '{') {
+                        while (i < regex.length() && regex.charAt(i) != '}') {
+                            i++;
+                        }
+                        i++;
+                    }
+                    break;
+                case '+':
+                case '.':
+                case '^':
+                case '$':
+                    best = longer(best, run);
+                    run.setLength(0);
+                    break;
+                default:
+                    if (depth == 0) {
+                        run.append(c);
+                    }
+            }
+        }
+        best = longer(best, run);
+        return best.length() >= 2 ? best : null;
+    }
+
+    private static String longer(String best, StringBuilder run) {
+        return run.length() > best.length() ? run.toString() : best;
+    }
+
+    /**
+     * An Aho-Corasick automaton that finds which of a set of literals occur
+     * in a string in one pass.
+     */
+    private static class Automaton {
+        private final List<Map<Character, Integer>> m_transitions = new ArrayList<>();
+        private final List<Integer> m_failures = new ArrayList<>();
+        private final List<List<Integer>> m_outputs = new ArrayList<>();
+
+        private Automaton(List<String> literals) {
+            addState();
+            for (int id = 0; id < literals.size(); id++) {
+                int state = 0;
+                for (char c : literals.get(id).toCharArray()) {
+                    Integer next = m_transitions.get(state).get(c);
+                    if (next == null) {
+                        next = addState();
+                        m_transitions.get(state).put(c, next);
+                    }
+                    state = next;
+                }
+                m_outputs.get(state).add(id);
+            }
+
+            // Link each state to the longest proper suffix that is also a
+            // prefix of a literal, breadth first.
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int next : m_transitions.get(0).values()) {
+                m_failures.set(next, 0);
+                queue.add(next);
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                for (Map.Entry<Character, Integer> transition : m_transitions.get(state).entrySet()) {
+                    int next = transition.getValue();
+                    int failure = m_failures.get(state);
+                    while (failure > 0 && !m_transitions.get(failure).containsKey(transition.getKey())) {
+                        failure = m_failures.get(failure);
+                    }
+                    Integer target = m_transitions.get(failure).get(transition.getKey());
+                    m_failures.set(next, target != null && target != next ? target : 0);
+                    m_outputs.get(next).addAll(m_outputs.get(m_failures.get(next)));
+                    queue.add(next);
+                }
+            }
+        }
+
+        private int addState() {
+            m_transitions.add(new HashMap<>());
+            m_failures.add(0);
+            m_outputs.add(new ArrayList<>());
+            return m_transitions.size() - 1;
+        }
+
+        private void search(String value, BitSet found) {
+            if (m_transitions.get(0).isEmpty()) {
+                return;
+            }
+            int state = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                while (state > 0 && !m_transitions.get(state).containsKey(c)) {
+                    state = m_failures.get(state);
+                }
+                Integer next = m_transitions.get(state).get(c);
+                state = next != null ? next : 0;
+                for (int id : m_outputs.get(state)) {
+                    found.set(id);
+                }
+            }
+        }
+    }
+}
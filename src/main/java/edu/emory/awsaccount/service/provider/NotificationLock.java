@@ -0,0 +1,124 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import org.openeai.utils.lock.LockAlreadySetException;
+import org.openeai.utils.lock.LockException;
+
+/**
+ * A lock by name that keeps two requests from processing the same
+ * AccountNotification at the same time. Setting a lock does not wait: if
+ * the name is already locked, the caller is told so and can drop its
+ * request, as another one is processing the notification.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public interface NotificationLock {
+
+    /**
+     * A lock held by a caller.
+     */
+    class Lease {
+        private final String m_name;
+        private final long m_token;
+        private final long m_setTime;
+        private final long m_expirationTime;
+        private final Object m_handle;
+
+        /**
+         * @param name, the name that is locked.
+         * @param token, the token of the lease.
+         * @param setTime, the time the lock was set.
+         * @param expirationTime, the time after which another caller may
+         * set the lock, or Long.MAX_VALUE.
+         * @param handle, what the implementation needs to release the lock.
+         */
+        public Lease(String name, long token, long setTime, long expirationTime, Object handle) {
+            m_name = name;
+            m_token = token;
+            m_setTime = setTime;
+            m_expirationTime = expirationTime;
+            m_handle = handle;
+        }
+
+        public String getName() {
+            return m_name;
+        }
+
+        /**
+         * @return long, the fencing token of the lease. Each lease a lock
+         * sets gets a larger token than the last, and fence() renews an
+         * expired lease with a new token or fences it off.
+         */
+        public long getToken() {
+            return m_token;
+        }
+
+        public long getSetTime() {
+            return m_setTime;
+        }
+
+        public long getExpirationTime() {
+            return m_expirationTime;
+        }
+
+        /**
+         * @return boolean, true if another caller may have set the lock
+         * because this lease expired.
+         */
+        public boolean isExpired() {
+            return System.currentTimeMillis() >= m_expirationTime;
+        }
+
+        public Object getHandle() {
+            return m_handle;
+        }
+    }
+
+    /**
+     * Sets the lock of a name.
+     *
+     * @param name, the name to lock, of any length.
+     * @return Lease, the lease to release the lock with.
+     * @throws LockAlreadySetException if the name is already locked.
+     * @throws LockException if the lock could not be set.
+     */
+    Lease set(String name) throws LockException, LockAlreadySetException;
+
+    /**
+     * Checks a lease just before the write it protects. A lease that has not
+     * expired still holds the lock. An expired lease is renewed with a new
+     * token if no other caller has set the lock since it expired, and is
+     * fenced off otherwise, in which case the write must not be made.
+     *
+     * @return Lease, the lease to make the write and release the lock with,
+     * which is the given lease if it has not expired.
+     * @throws LockAlreadySetException if another caller set the lock after
+     * the lease expired.
+     * @throws LockException if the lock could not be checked.
+     */
+    Lease fence(Lease lease) throws LockException, LockAlreadySetException;
+
+    /**
+     * Releases a lock. Releasing an expired lease does not release the lock
+     * of another caller that set it since.
+     *
+     * @throws LockException if the lock could not be released.
+     */
+    void release(Lease lease) throws LockException;
+
+    /**
+     * @return String, the lock counts and wait and hold times, for logging.
+     */
+    String getStatistics();
+}
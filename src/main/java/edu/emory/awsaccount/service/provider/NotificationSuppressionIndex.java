@@ -0,0 +1,136 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A sliding-window index of the AccountNotifications created recently, used
+ * to decide in memory whether a new notification duplicates one created
+ * within the suppression interval.
+ * <P>
+ * Notifications are identified by a hash of their SecurityRiskDetection
+ * annotation, the same text the database is queried with, so the index
+ * suppresses exactly the notifications the query would. The index keeps the time each key was
+ * last created and forgets keys older than the window. It only knows about
+ * the notifications created by this instance of the service since it
+ * started, plus those it was warmed with, so for one window after it was
+ * created a key that is not in the index is not proof that there is no
+ * duplicate and the caller should ask the database. After that the index
+ * answers on its own.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class NotificationSuppressionIndex {
+
+    private static final long PURGE_INTERVAL = 60 * 1000;
+
+    private final ConcurrentHashMap<String, Long> m_createTimes = new ConcurrentHashMap<>();
+    private final long m_window;
+    private final long m_startTime;
+    private volatile long m_nextPurgeTime;
+    private final AtomicLong m_suppressedCount = new AtomicLong();
+    private final AtomicLong m_missCount = new AtomicLong();
+
+    /**
+     * @param window, the suppression interval in milliseconds.
+     */
+    public NotificationSuppressionIndex(long window) {
+        m_window = window;
+        m_startTime = System.currentTimeMillis();
+        m_nextPurgeTime = m_startTime + PURGE_INTERVAL;
+    }
+
+    /**
+     * Builds the key of a notification.
+     *
+     * @param annotationText, the text of the SecurityRiskDetection
+     * annotation of the notification.
+     * @return String, the key.
+     */
+    public static String key(String annotationText) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(annotationText.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException nsae) {
+            // Every JVM has SHA-256.
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    /**
+     * @return boolean, true if a notification with the key was created
+     * within the window.
+     */
+    public boolean isSuppressed(String key) {
+        Long createTime = m_createTimes.get(key);
+        if (createTime != null && System.currentTimeMillis() - createTime < m_window) {
+            m_suppressedCount.incrementAndGet();
+            return true;
+        }
+        m_missCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return boolean, true while a key that is not in the index may still
+     * have been created within the window before the index was created.
+     */
+    public boolean isWarmingUp() {
+        return System.currentTimeMillis() - m_startTime < m_window;
+    }
+
+    /**
+     * Records that a notification with the key was created at a time. An
+     * earlier time than the one already recorded is ignored.
+     */
+    public void record(String key, long createTime) {
+        long now = System.currentTimeMillis();
+        if (now - createTime >= m_window) {
+            return;
+        }
+        m_createTimes.merge(key, createTime, Math::max);
+        if (now >= m_nextPurgeTime) {
+            m_nextPurgeTime = now + PURGE_INTERVAL;
+            m_createTimes.values().removeIf(time -> now - time >= m_window);
+        }
+    }
+
+    /**
+     * @return int, the number of keys in the index, including any that
+     * expired since the last purge.
+     */
+    public int size() {
+        return m_createTimes.size();
+    }
+
+    /**
+     * @return long, the number of lookups that found a duplicate.
+     */
+    public long getSuppressedCount() {
+        return m_suppressedCount.get();
+    }
+
+    /**
+     * @return long, the number of lookups that found no duplicate.
+     */
+    public long getMissCount() {
+        return m_missCount.get();
+    }
+}
@@ -0,0 +1,30 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import java.util.List;
+
+/**
+ * Implemented by providers that can list the accounts of the AWS
+ * organization.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public interface OrganizationAccountSource {
+    /**
+     * @return List<String>, the ids of all accounts in the organization.
+     * @throws ProviderException with details of the error listing the
+     * accounts.
+     */
+    List<String> listAccountIds() throws ProviderException;
+}
@@ -0,0 +1,405 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import com.amazonaws.services.organizations.AWSOrganizations;
+import com.amazonaws.services.organizations.model.Account;
+import com.amazonaws.services.organizations.model.ListAccountsForParentRequest;
+import com.amazonaws.services.organizations.model.ListAccountsForParentResult;
+import com.amazonaws.services.organizations.model.ListOrganizationalUnitsForParentRequest;
+import com.amazonaws.services.organizations.model.ListOrganizationalUnitsForParentResult;
+import com.amazonaws.services.organizations.model.ListParentsRequest;
+import com.amazonaws.services.organizations.model.ListParentsResult;
+import com.amazonaws.services.organizations.model.ListRootsRequest;
+import com.amazonaws.services.organizations.model.ListRootsResult;
+import com.amazonaws.services.organizations.model.OrganizationalUnit;
+import com.amazonaws.services.organizations.model.Parent;
+import com.amazonaws.services.organizations.model.Root;
+import org.apache.log4j.Category;
+import org.openeai.OpenEaiObject;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory index of the AWS Organizations tree: the roots and
+ * organizational units, their parents, and the parent of each account.
+ * <P>
+ * Organizations is one of the most throttled AWS APIs, and finding the
+ * parent of an account or an organizational unit by name used to take
+ * several calls each time. The index is built once by listing the tree,
+ * page by page, and rebuilt when it is older than the maximum age. The
+ * rebuild runs on a background thread while requests are still answered
+ * from the old index, so no request waits for a listing of the tree unless
+ * it needs the tree and there is no index yet. The parent of an account is
+ * never worth a listing: while there is no index, it is looked up with one
+ * call. Between builds the index is kept up to date incrementally: an
+ * account that is not in the index is looked up on its own and added, and
+ * the account moves made by this service update the parent of the account. An account moved by
+ * another application is seen at the next build, or earlier if a move from
+ * its stale parent fails and the account is invalidated.
+ * <P>
+ * The index is shared by all providers and steps. Each call that may have
+ * to read the tree takes the Organizations client to read it with.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class OrganizationHierarchyIndex {
+
+    public static final String ROOT = "ROOT";
+    public static final String ORGANIZATIONAL_UNIT = "ORGANIZATIONAL_UNIT";
+
+    private static final String LOGTAG = "[OrganizationHierarchyIndex] ";
+    private static final long DEFAULT_MAX_AGE = 60 * 60 * 1000;
+    private static final long BUILD_RETRY_DELAY = 60 * 1000;
+    private static final OrganizationHierarchyIndex s_instance = new OrganizationHierarchyIndex();
+
+    /**
+     * A root or organizational unit.
+     */
+    public static class Node {
+        private final String m_id;
+        private final String m_name;
+        private final String m_type;
+        private final String m_parentId;
+
+        private Node(String id, String name, String type, String parentId) {
+            m_id = id;
+            m_name = name;
+            m_type = type;
+            m_parentId = parentId;
+        }
+
+        public String getId() {
+            return m_id;
+        }
+
+        public String getName() {
+            return m_name;
+        }
+
+        /**
+         * @return String, ROOT or ORGANIZATIONAL_UNIT.
+         */
+        public String getType() {
+            return m_type;
+        }
+
+        /**
+         * @return String, the id of the parent, or null for a root.
+         */
+        public String getParentId() {
+            return m_parentId;
+        }
+    }
+
+    private final Category logger = OpenEaiObject.logger;
+    private final Object m_buildLock = new Object();
+    private final Object m_moveLock = new Object();
+    private volatile Map<String, Node> m_nodes = null;
+    private volatile ConcurrentHashMap<String, String> m_accountParents = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> m_moveTimes = new ConcurrentHashMap<>();
+    private volatile long m_buildTime = 0;
+    private volatile long m_buildRetryTime = 0;
+    private final AtomicBoolean m_rebuilding = new AtomicBoolean(false);
+    private final ExecutorService m_rebuilder = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "OrganizationHierarchyIndex");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile long m_maxAge = DEFAULT_MAX_AGE;
+    private final AtomicLong m_hitCount = new AtomicLong();
+    private final AtomicLong m_lookupCount = new AtomicLong();
+    private final AtomicLong m_buildCount = new AtomicLong();
+    private final AtomicLong m_apiCallCount = new AtomicLong();
+
+    /**
+     * @return OrganizationHierarchyIndex, the index shared by all providers
+     * and steps.
+     */
+    public static OrganizationHierarchyIndex getInstance() {
+        return s_instance;
+    }
+
+    /**
+     * Sets the number of milliseconds after which the index is rebuilt.
+     */
+    public void setMaxAge(long maxAge) {
+        m_maxAge = maxAge;
+    }
+
+    public long getMaxAge() {
+        return m_maxAge;
+    }
+
+    /**
+     * Returns the parent of an account. An account that is not in the index
+     * is looked up with one call and added to it. If there is no index yet
+     * or it is out of date, it is built in the background.
+     *
+     * @param client, the client to read the tree with if needed.
+     * @param accountId, the account.
+     * @return Parent, the id and type of the parent of the account.
+     */
+    public Parent getParent(AWSOrganizations client, String accountId) {
+        Map<String, Node> nodes = m_nodes;
+        if (nodes == null || isStale()) {
+            rebuildInBackground(client);
+        }
+        String parentId = m_accountParents.get(accountId);
+        if (parentId == null) {
+            return lookupParent(client, accountId);
+        }
+        m_hitCount.incrementAndGet();
+        Node node = nodes != null ? nodes.get(parentId) : null;
+        return new Parent().withId(parentId).withType(node != null ? node.getType() : ORGANIZATIONAL_UNIT);
+    }
+
+    /**
+     * @return String, the id of the parent of an account.
+     * @see #getParent(AWSOrganizations, String)
+     */
+    public String getParentId(AWSOrganizations client, String accountId) {
+        return getParent(client, accountId).getId();
+    }
+
+    /**
+     * Looks up the parent of an account with one call, bypassing and then
+     * updating the index. Use it where a stale parent would do harm, as
+     * before a rollback.
+     *
+     * @return String, the id of the parent of the account.
+     */
+    public String refreshParentId(AWSOrganizations client, String accountId) {
+        return lookupParent(client, accountId).getId();
+    }
+
+    /**
+     * Finds an organizational unit by name. If there is no index yet, it is
+     * built first. If no organizational unit has the name, the index is
+     * rebuilt once in case it was just created.
+     *
+     * @param client, the client to read the tree with if needed.
+     * @param name, the name of the organizational unit.
+     * @return Node, the first organizational unit with the name, in the
+     * order of the tree, or null if there is none.
+     */
+    public Node findOrganizationalUnit(AWSOrganizations client, String name) {
+        long lookupTime = System.currentTimeMillis();
+        Node node = findOrganizationalUnit(ensureBuilt(client), name);
+        if (node == null) {
+            synchronized (m_buildLock) {
+                // Skip the rebuild if one started after the lookup.
+                if (m_buildTime < lookupTime) {
+                    build(client);
+                }
+                node = findOrganizationalUnit(m_nodes, name);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Records that this service moved an account.
+     */
+    public void accountMoved(String accountId, String destinationParentId) {
+        synchronized (m_moveLock) {
+            m_moveTimes.put(accountId, System.currentTimeMillis());
+            m_accountParents.put(accountId, destinationParentId);
+        }
+    }
+
+    /**
+     * Forgets the parent of an account, so that the next request for it
+     * looks it up.
+     */
+    public void invalidateAccount(String accountId) {
+        m_accountParents.remove(accountId);
+    }
+
+    /**
+     * Makes the next request rebuild the index.
+     */
+    public void invalidate() {
+        m_buildTime = 0;
+    }
+
+    public long getHitCount() {
+        return m_hitCount.get();
+    }
+
+    public long getLookupCount() {
+        return m_lookupCount.get();
+    }
+
+    public long getBuildCount() {
+        return m_buildCount.get();
+    }
+
+    /**
+     * @return long, the number of calls made to Organizations.
+     */
+    public long getApiCallCount() {
+        return m_apiCallCount.get();
+    }
+
+    /**
+     * @return Map<String, Node>, the nodes of the index, built on this
+     * thread only if there is no index yet.
+     */
+    private Map<String, Node> ensureBuilt(AWSOrganizations client) {
+        Map<String, Node> nodes = m_nodes;
+        if (nodes != null) {
+            if (isStale()) {
+                rebuildInBackground(client);
+            }
+            return nodes;
+        }
+        synchronized (m_buildLock) {
+            if (m_nodes == null) {
+                build(client);
+            }
+            return m_nodes;
+        }
+    }
+
+    private boolean isStale() {
+        return System.currentTimeMillis() - m_buildTime >= m_maxAge;
+    }
+
+    /**
+     * Rebuilds the index on the background thread, unless a rebuild is
+     * already running or the last one failed less than a minute ago.
+     */
+    private void rebuildInBackground(AWSOrganizations client) {
+        if (System.currentTimeMillis() < m_buildRetryTime || !m_rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        m_rebuilder.execute(() -> {
+            try {
+                synchronized (m_buildLock) {
+                    if (m_nodes == null || isStale()) {
+                        build(client);
+                    }
+                }
+            } catch (RuntimeException re) {
+                m_buildRetryTime = System.currentTimeMillis() + BUILD_RETRY_DELAY;
+                logger.error(LOGTAG + "An error occurred rebuilding the index. Serving the old " +
+                        "index until the next attempt. The exception is: " + re.getMessage());
+            } finally {
+                m_rebuilding.set(false);
+            }
+        });
+    }
+
+    private Parent lookupParent(AWSOrganizations client, String accountId) {
+        m_lookupCount.incrementAndGet();
+        m_apiCallCount.incrementAndGet();
+        ListParentsResult result = client.listParents(new ListParentsRequest().withChildId(accountId));
+        // An account has exactly one parent.
+        Parent parent = result.getParents().get(0);
+        m_accountParents.put(accountId, parent.getId());
+        return new Parent().withId(parent.getId()).withType(parent.getType());
+    }
+
+    /**
+     * Lists the whole tree. Called with the build lock held.
+     */
+    private void build(AWSOrganizations client) {
+        long startTime = System.currentTimeMillis();
+        long apiCallCount = m_apiCallCount.get();
+        Map<String, Node> nodes = new LinkedHashMap<>();
+        ConcurrentHashMap<String, String> accountParents = new ConcurrentHashMap<>();
+
+        ListRootsRequest rootsRequest = new ListRootsRequest();
+        ListRootsResult rootsResult;
+        do {
+            m_apiCallCount.incrementAndGet();
+            rootsResult = client.listRoots(rootsRequest);
+            for (Root root : rootsResult.getRoots()) {
+                nodes.put(root.getId(), new Node(root.getId(), root.getName(), ROOT, null));
+                addChildren(client, root.getId(), nodes, accountParents);
+            }
+            rootsRequest.setNextToken(rootsResult.getNextToken());
+        } while (rootsResult.getNextToken() != null);
+
+        // Keep the accounts moved while the tree was listed, since the
+        // listing may predate the move.
+        synchronized (m_moveLock) {
+            for (Map.Entry<String, Long> move : m_moveTimes.entrySet()) {
+                String parentId = m_accountParents.get(move.getKey());
+                if (move.getValue() >= startTime && parentId != null) {
+                    accountParents.put(move.getKey(), parentId);
+                }
+            }
+            m_moveTimes.values().removeIf(moveTime -> moveTime < startTime);
+            m_nodes = Collections.unmodifiableMap(nodes);
+            m_accountParents = accountParents;
+        }
+        m_buildTime = startTime;
+        m_buildCount.incrementAndGet();
+
+        long time = System.currentTimeMillis() - startTime;
+        logger.info(LOGTAG + "Indexed " + nodes.size() + " roots and organizational units and " +
+                accountParents.size() + " accounts in " + time + " ms with " +
+                (m_apiCallCount.get() - apiCallCount) + " calls.");
+    }
+
+    private void addChildren(AWSOrganizations client, String parentId, Map<String, Node> nodes,
+                             Map<String, String> accountParents) {
+        ListAccountsForParentRequest accountsRequest = new ListAccountsForParentRequest().withParentId(parentId);
+        ListAccountsForParentResult accountsResult;
+        do {
+            m_apiCallCount.incrementAndGet();
+            accountsResult = client.listAccountsForParent(accountsRequest);
+            for (Account account : accountsResult.getAccounts()) {
+                accountParents.put(account.getId(), parentId);
+            }
+            accountsRequest.setNextToken(accountsResult.getNextToken());
+        } while (accountsResult.getNextToken() != null);
+
+        ListOrganizationalUnitsForParentRequest ousRequest = new ListOrganizationalUnitsForParentRequest()
+                .withParentId(parentId);
+        ListOrganizationalUnitsForParentResult ousResult;
+        do {
+            m_apiCallCount.incrementAndGet();
+            ousResult = client.listOrganizationalUnitsForParent(ousRequest);
+            for (OrganizationalUnit ou : ousResult.getOrganizationalUnits()) {
+                nodes.put(ou.getId(), new Node(ou.getId(), ou.getName(), ORGANIZATIONAL_UNIT, parentId));
+                addChildren(client, ou.getId(), nodes, accountParents);
+            }
+            ousRequest.setNextToken(ousResult.getNextToken());
+        } while (ousResult.getNextToken() != null);
+    }
+
+    private Node findOrganizationalUnit(Map<String, Node> nodes, String name) {
+        Node found = null;
+        for (Node node : nodes.values()) {
+            if (ORGANIZATIONAL_UNIT.equals(node.getType()) && node.getName().equals(name)) {
+                if (found != null) {
+                    logger.warn(LOGTAG + "More than one organizational unit is named " + name +
+                            ". Using " + found.getId() + ".");
+                    break;
+                }
+                found = node;
+            }
+        }
+        return found;
+    }
+}
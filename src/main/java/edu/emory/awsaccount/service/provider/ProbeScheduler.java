@@ -0,0 +1,240 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import org.apache.log4j.Category;
+import org.openeai.OpenEaiObject;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the probes of waiting steps on a pool of threads shared by all
+ * transactions.
+ * <P>
+ * A step that waits for something outside of the service, for example AWS
+ * creating an account or the Network Ops Service provisioning a VPN
+ * connection, gives this scheduler a probe that checks once whether the wait
+ * is over. The scheduler runs the probe at a fixed interval until it returns
+ * a result or the maximum wait time has elapsed, and then completes the
+ * future returned to the step. No thread is held between the checks, so a
+ * few threads can carry many transactions that are mostly waiting. A probe
+ * may also back off, starting with a short interval that doubles after each
+ * check up to a maximum, with jitter so that many waits started together
+ * don't call AWS at the same moments.
+ * <P>
+ * Probes block: a check may take a JMS round trip of up to the request
+ * timeout, or wait in the AwsRateLimiter before an AWS call. A single timer
+ * thread therefore only keeps time, and each check runs on a separate pool
+ * of check threads, so a slow check never delays the timing of the others.
+ * The pool size bounds the number of checks running at the same time. Size
+ * it for the number of checks that may be blocked at once, since the checks
+ * that are due while all check threads are busy wait for one of them.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class ProbeScheduler {
+
+    /**
+     * Checks once whether a wait is over.
+     */
+    public interface Probe<T> {
+        /**
+         * @return T, the result of the wait or null to check again later.
+         * @throws Exception if the wait failed, which completes the wait
+         * exceptionally.
+         */
+        T check() throws Exception;
+    }
+
+    private static final int DEFAULT_POOL_SIZE = 16;
+    private static final ProbeScheduler s_instance = new ProbeScheduler(DEFAULT_POOL_SIZE);
+
+    private final Category logger = OpenEaiObject.logger;
+    private final ScheduledThreadPoolExecutor m_timer;
+    private final ThreadPoolExecutor m_checkers;
+    private final AtomicInteger m_waitingCount = new AtomicInteger();
+
+    /**
+     * @param poolSize, the number of threads that run the probes.
+     */
+    public ProbeScheduler(int poolSize) {
+        m_timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "ProbeScheduler-Timer");
+            t.setDaemon(true);
+            return t;
+        });
+        m_timer.setRemoveOnCancelPolicy(true);
+        AtomicInteger threadCount = new AtomicInteger();
+        m_checkers = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "ProbeScheduler-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        m_checkers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return ProbeScheduler, the scheduler shared by all providers and steps.
+     */
+    public static ProbeScheduler getInstance() {
+        return s_instance;
+    }
+
+    /**
+     * Raises the number of threads that run the probes to at least the given
+     * number. The scheduler is shared, so each provider asks for the threads
+     * it needs and the largest request wins, whatever the order in which the
+     * providers are initialized.
+     *
+     * @throws IllegalArgumentException if poolSize is less than 1.
+     */
+    public synchronized void ensurePoolSize(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be positive: " + poolSize);
+        }
+        if (poolSize > m_checkers.getMaximumPoolSize()) {
+            m_checkers.setMaximumPoolSize(poolSize);
+            m_checkers.setCorePoolSize(poolSize);
+        }
+    }
+
+    /**
+     * @return int, the number of threads that run the probes.
+     */
+    public int getPoolSize() {
+        return m_checkers.getMaximumPoolSize();
+    }
+
+    /**
+     * Runs the probe after the initial delay and then every interval until
+     * it returns a result or maxWait milliseconds have elapsed.
+     *
+     * @param name, the name of the wait, used for logging.
+     * @param probe, the probe to run.
+     * @param initialDelay, the number of milliseconds before the first check.
+     * @param interval, the number of milliseconds between checks.
+     * @param maxWait, the maximum number of milliseconds to wait.
+     * @return CompletableFuture<T>, completed with the result of the probe,
+     * with null if the maximum wait time elapsed first, or exceptionally with
+     * the exception thrown by the probe. Cancelling it stops the checks.
+     */
+    public <T> CompletableFuture<T> poll(String name, Probe<T> probe,
+                                         long initialDelay, long interval, long maxWait) {
+        return poll(name, probe, initialDelay, interval, interval, maxWait);
+    }
+
+    /**
+     * Runs the probe after the initial delay and then with a backoff until
+     * it returns a result or maxWait milliseconds have elapsed. The interval
+     * starts at minInterval and doubles after each check up to maxInterval.
+     * If the intervals differ, jitter is added to each of them.
+     *
+     * @param name, the name of the wait, used for logging.
+     * @param probe, the probe to run.
+     * @param initialDelay, the number of milliseconds before the first check.
+     * @param minInterval, the number of milliseconds between the first checks.
+     * @param maxInterval, the maximum number of milliseconds between checks.
+     * @param maxWait, the maximum number of milliseconds to wait.
+     * @return CompletableFuture<T>, completed with the result of the probe,
+     * with null if the maximum wait time elapsed first, or exceptionally with
+     * the exception thrown by the probe. Cancelling it stops the checks.
+     */
+    public <T> CompletableFuture<T> poll(String name, Probe<T> probe, long initialDelay,
+                                         long minInterval, long maxInterval, long maxWait) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long deadline = System.currentTimeMillis() + maxWait;
+        m_waitingCount.incrementAndGet();
+        future.whenComplete((result, t) -> m_waitingCount.decrementAndGet());
+        boolean backoff = maxInterval > minInterval;
+        schedule(() -> check(name, probe, minInterval, Math.max(minInterval, maxInterval),
+                backoff, deadline, future), initialDelay);
+        return future;
+    }
+
+    /**
+     * Runs a task once after the delay on a check thread. The task may
+     * block, but occupies a check thread while it does.
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delay) {
+        return m_timer.schedule(() -> m_checkers.execute(task), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return int, the number of checks and tasks that are due and waiting
+     * for a check thread.
+     */
+    public int getQueuedCount() {
+        return m_checkers.getQueue().size();
+    }
+
+    /**
+     * @return int, the number of waits in progress.
+     */
+    public int getWaitingCount() {
+        return m_waitingCount.get();
+    }
+
+    /**
+     * @return long, the interval after the given one when backing off: twice
+     * the interval, but at most maxInterval.
+     */
+    public static long nextInterval(long interval, long maxInterval) {
+        return Math.max(1, Math.min(maxInterval, interval * 2));
+    }
+
+    /**
+     * @return long, a random delay between half the interval and the
+     * interval.
+     */
+    public static long withJitter(long interval) {
+        long half = interval / 2;
+        return half + ThreadLocalRandom.current().nextLong(interval - half + 1);
+    }
+
+    private <T> void check(String name, Probe<T> probe, long interval, long maxInterval,
+                           boolean backoff, long deadline, CompletableFuture<T> future) {
+        if (future.isDone()) {
+            // The wait was cancelled.
+            return;
+        }
+        T result;
+        try {
+            result = probe.check();
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            return;
+        }
+        if (result != null) {
+            future.complete(result);
+            return;
+        }
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            logger.info(name + "Maximum wait time exceeded.");
+            future.complete(null);
+            return;
+        }
+        long delay = backoff ? withJitter(interval) : interval;
+        long nextInterval = backoff ? nextInterval(interval, maxInterval) : interval;
+        schedule(() -> check(name, probe, nextInterval, maxInterval, backoff, deadline, future),
+                Math.min(delay, remaining));
+    }
+}
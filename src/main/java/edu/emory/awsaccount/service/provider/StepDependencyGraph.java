@@ -0,0 +1,285 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * The dependency graph of the steps of a provisioning transaction.
+ * <P>
+ * Each step is described by its step properties. A step may declare the
+ * steps whose results it consumes with a dependsOn property, a comma
+ * separated list of step types, for example:
+ * <pre>
+ *   dependsOn=GENERATE_NEW_ACCOUNT,CREATE_LDS_GROUP_FOR_ADMIN_ROLE
+ * </pre>
+ * A step that declares dependsOn may run as soon as the named steps have
+ * completed. An empty dependsOn value declares no dependencies at all. All
+ * dependencies must name steps with a lower stepId, so the graph is always
+ * acyclic and executing it with a parallelism of one runs the steps in stepId
+ * order.
+ * <P>
+ * A step that does not declare dependsOn gets the default dependencies of
+ * its step class, which are the step types whose results the class reads
+ * with getStepPropertyValue:
+ * <pre>
+ *   EnableEbsEncryptionByDefault             GENERATE_NEW_ACCOUNT
+ *   CreateLdsGroup                           GENERATE_NEW_ACCOUNT
+ *   CreateGrouperIdmGroup                    GENERATE_NEW_ACCOUNT
+ *   CreateIdmRoleAndResourcesForAdminRole    GENERATE_NEW_ACCOUNT,
+ *                                            CREATE_ACCOUNT_ALIAS,
+ *                                            CREATE_LDS_GROUP_FOR_ADMIN_ROLE
+ *   CreateIdmRoleAndResourcesForAuditorRole  GENERATE_NEW_ACCOUNT,
+ *                                            CREATE_LDS_GROUP_FOR_AUDITOR_ROLE
+ *   CreateIdmRoleAndResourcesForCentralAdminRole
+ *                                            GENERATE_NEW_ACCOUNT,
+ *                                            CREATE_LDS_GROUP_FOR_CENTRAL_ADMIN_ROLE
+ *   CreateCaseForEnterpriseSupport           GENERATE_NEW_ACCOUNT
+ * </pre>
+ * The defaults are only used when all of the step types they name precede
+ * the step. Any other step that does not declare dependsOn keeps the
+ * original sequential semantics and depends on every step that precedes it.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class StepDependencyGraph {
+
+    private static final Map<String, List<String>> DEFAULT_DEPENDENCIES = new HashMap<>();
+    static {
+        DEFAULT_DEPENDENCIES.put("EnableEbsEncryptionByDefault",
+                Arrays.asList("GENERATE_NEW_ACCOUNT"));
+        DEFAULT_DEPENDENCIES.put("CreateLdsGroup",
+                Arrays.asList("GENERATE_NEW_ACCOUNT"));
+        DEFAULT_DEPENDENCIES.put("CreateGrouperIdmGroup",
+                Arrays.asList("GENERATE_NEW_ACCOUNT"));
+        DEFAULT_DEPENDENCIES.put("CreateIdmRoleAndResourcesForAdminRole",
+                Arrays.asList("GENERATE_NEW_ACCOUNT", "CREATE_ACCOUNT_ALIAS",
+                        "CREATE_LDS_GROUP_FOR_ADMIN_ROLE"));
+        DEFAULT_DEPENDENCIES.put("CreateIdmRoleAndResourcesForAuditorRole",
+                Arrays.asList("GENERATE_NEW_ACCOUNT", "CREATE_LDS_GROUP_FOR_AUDITOR_ROLE"));
+        DEFAULT_DEPENDENCIES.put("CreateIdmRoleAndResourcesForCentralAdminRole",
+                Arrays.asList("GENERATE_NEW_ACCOUNT", "CREATE_LDS_GROUP_FOR_CENTRAL_ADMIN_ROLE"));
+        DEFAULT_DEPENDENCIES.put("CreateCaseForEnterpriseSupport",
+                Arrays.asList("GENERATE_NEW_ACCOUNT"));
+    }
+
+    private final List<Properties> m_steps;
+    private final Map<String, Set<String>> m_dependencies = new HashMap<>();
+    private boolean m_sequential = true;
+
+    /**
+     * @param stepProps, the step properties sorted by stepId.
+     * @throws ProviderException if a dependency names an unknown step or a
+     * step that does not precede the dependent step.
+     */
+    public StepDependencyGraph(List<Properties> stepProps) throws ProviderException {
+        m_steps = Collections.unmodifiableList(new ArrayList<>(stepProps));
+
+        List<Properties> preceding = new ArrayList<>();
+        for (Properties sp : m_steps) {
+            String stepId = sp.getProperty("stepId");
+            String dependsOn = sp.getProperty("dependsOn");
+            Set<String> dependencies = new LinkedHashSet<>();
+
+            if (dependsOn == null) {
+                List<String> defaults = getDefaultDependencies(sp.getProperty("className"));
+                if (defaults != null && precedes(defaults, preceding)) {
+                    for (Properties p : preceding) {
+                        if (containsType(defaults, p.getProperty("type"))) {
+                            dependencies.add(p.getProperty("stepId"));
+                        }
+                    }
+                    m_sequential = false;
+                } else {
+                    // No known inputs, so wait for everything before this step.
+                    for (Properties p : preceding) {
+                        dependencies.add(p.getProperty("stepId"));
+                    }
+                }
+            } else {
+                m_sequential = false;
+                for (String type : dependsOn.split(",")) {
+                    type = type.trim();
+                    if (type.isEmpty()) {
+                        continue;
+                    }
+                    boolean found = false;
+                    for (Properties p : preceding) {
+                        if (type.equalsIgnoreCase(p.getProperty("type"))) {
+                            dependencies.add(p.getProperty("stepId"));
+                            found = true;
+                        }
+                    }
+                    if (!found) {
+                        String errMsg = "Step " + stepId + " (" + sp.getProperty("type") +
+                                ") depends on step type " + type + " which is not " +
+                                "a preceding step.";
+                        throw new ProviderException(errMsg);
+                    }
+                }
+            }
+
+            m_dependencies.put(stepId, Collections.unmodifiableSet(dependencies));
+            preceding.add(sp);
+        }
+    }
+
+    /**
+     * @return List<Properties>, the step properties in stepId order.
+     */
+    public List<Properties> getSteps() {
+        return m_steps;
+    }
+
+    /**
+     * @return Set<String>, the stepIds the given step depends on.
+     */
+    public Set<String> getDependencies(String stepId) {
+        Set<String> dependencies = m_dependencies.get(stepId);
+        if (dependencies == null) {
+            return Collections.emptySet();
+        }
+        return dependencies;
+    }
+
+    /**
+     * @return int, the 1-based position of the step in stepId order.
+     */
+    public int getPosition(String stepId) {
+        for (int i = 0; i < m_steps.size(); i++) {
+            if (m_steps.get(i).getProperty("stepId").equals(stepId)) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the steps that have not been started and whose dependencies
+     * have all completed, in stepId order.
+     *
+     * @param completedStepIds, the stepIds of steps that completed successfully.
+     * @param startedStepIds, the stepIds of steps that have been started.
+     * @return List<Properties>, the step properties of the ready steps.
+     */
+    public List<Properties> getReadySteps(Set<String> completedStepIds,
+                                          Set<String> startedStepIds) {
+        List<Properties> ready = new ArrayList<>();
+        for (Properties sp : m_steps) {
+            String stepId = sp.getProperty("stepId");
+            if (startedStepIds.contains(stepId)) {
+                continue;
+            }
+            if (completedStepIds.containsAll(getDependencies(stepId))) {
+                ready.add(sp);
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Groups completed steps into the waves in which they can be rolled
+     * back. A step is rolled back only after every completed step that
+     * depends on it, so the waves run in reverse topological order and the
+     * steps of one wave are independent of each other. For steps that run
+     * sequentially every wave is a single step, in reverse stepId order.
+     *
+     * @param completedStepIds, the stepIds of steps that completed successfully.
+     * @return List<List<String>>, the stepIds of each wave, each in reverse
+     * stepId order.
+     */
+    public List<List<String>> getRollbackWaves(Set<String> completedStepIds) {
+        // Walk the steps backwards, so each wave lists its steps in reverse
+        // stepId order.
+        List<String> remaining = new ArrayList<>();
+        for (int i = m_steps.size() - 1; i >= 0; i--) {
+            String stepId = m_steps.get(i).getProperty("stepId");
+            if (completedStepIds.contains(stepId)) {
+                remaining.add(stepId);
+            }
+        }
+
+        List<List<String>> waves = new ArrayList<>();
+        while (!remaining.isEmpty()) {
+            List<String> wave = new ArrayList<>();
+            for (String stepId : remaining) {
+                boolean hasRemainingDependent = false;
+                for (String other : remaining) {
+                    if (getDependencies(other).contains(stepId)) {
+                        hasRemainingDependent = true;
+                        break;
+                    }
+                }
+                if (!hasRemainingDependent) {
+                    wave.add(stepId);
+                }
+            }
+            remaining.removeAll(wave);
+            waves.add(wave);
+        }
+        return waves;
+    }
+
+    /**
+     * @return boolean, true if no step declares a dependsOn property or has
+     * default dependencies, meaning the steps can only run one after another.
+     */
+    public boolean isSequential() {
+        return m_sequential;
+    }
+
+    /**
+     * @return List<String>, the default dependencies of a step class or null
+     * if the class has none.
+     */
+    static List<String> getDefaultDependencies(String className) {
+        if (className == null) {
+            return null;
+        }
+        String simpleName = className.substring(className.lastIndexOf('.') + 1);
+        return DEFAULT_DEPENDENCIES.get(simpleName);
+    }
+
+    private static boolean precedes(List<String> types, List<Properties> preceding) {
+        for (String type : types) {
+            boolean found = false;
+            for (Properties p : preceding) {
+                if (type.equalsIgnoreCase(p.getProperty("type"))) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsType(List<String> types, String type) {
+        for (String t : types) {
+            if (t.equalsIgnoreCase(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,296 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import org.openeai.config.AppConfig;
+import org.openeai.config.EnterpriseConfigurationObjectException;
+import org.openeai.config.PropertyConfig;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The steps a provider executes for each transaction, read from AppConfig
+ * once when the provider is initialized.
+ * <P>
+ * The plan holds the step properties sorted by stepId, the dependency graph
+ * of the steps and the resolved constructor of each step class. All of them
+ * are verified when the plan is built, so a configuration error fails the
+ * initialization of the provider instead of a transaction. The plan never
+ * changes after it is built. A provider builds a new plan when its
+ * configuration is reloaded, and a transaction keeps using the plan it
+ * started with.
+ * <P>
+ * The step properties are shared by all transactions. A transaction that
+ * needs to modify the properties of a step must use getStepProperties(),
+ * which returns a copy.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class StepPlan<S> {
+
+    /**
+     * A step of the plan.
+     */
+    public static class StepDefinition {
+        private final Properties m_properties;
+        private final Constructor<?> m_constructor;
+        private final int m_position;
+        private final int m_anticipatedTime;
+
+        private StepDefinition(Properties properties, Constructor<?> constructor,
+                               int position, int anticipatedTime) {
+            m_properties = properties;
+            m_constructor = constructor;
+            m_position = position;
+            m_anticipatedTime = anticipatedTime;
+        }
+
+        public String getStepId() {
+            return m_properties.getProperty("stepId");
+        }
+
+        public String getType() {
+            return m_properties.getProperty("type");
+        }
+
+        public String getDescription() {
+            return m_properties.getProperty("description");
+        }
+
+        public String getClassName() {
+            return m_properties.getProperty("className");
+        }
+
+        /**
+         * @return int, the 1-based position of the step in stepId order.
+         */
+        public int getPosition() {
+            return m_position;
+        }
+
+        /**
+         * @return int, the anticipated time of the step in milliseconds or
+         * 0 if the step does not declare one.
+         */
+        public int getAnticipatedTime() {
+            return m_anticipatedTime;
+        }
+
+        /**
+         * @return Properties, a copy of the step properties that the caller
+         * may modify.
+         */
+        public Properties getStepProperties() {
+            return (Properties) m_properties.clone();
+        }
+    }
+
+    private final List<StepDefinition> m_steps;
+    private final Map<String, StepDefinition> m_stepsById = new HashMap<>();
+    private final StepDependencyGraph m_graph;
+    private final Class<S> m_stepType;
+    private final int m_totalAnticipatedTime;
+
+    /**
+     * @param stepProps, the properties of the steps in any order.
+     * @param stepType, the interface all step classes must implement.
+     * @throws ProviderException if a step is missing a required property,
+     * its class can't be instantiated, or the step dependencies are invalid.
+     */
+    public StepPlan(List<Properties> stepProps, Class<S> stepType) throws ProviderException {
+        m_stepType = stepType;
+
+        // Copy the properties, so a later change of the configuration
+        // objects can't change the plan, and sort them by stepId.
+        List<Properties> sortedProps = new ArrayList<>();
+        for (Properties sp : stepProps) {
+            String stepId = sp.getProperty("stepId");
+            try {
+                Integer.parseInt(stepId);
+            } catch (NumberFormatException nfe) {
+                String errMsg = "Step with type " + sp.getProperty("type") +
+                        " has an invalid stepId: " + stepId;
+                throw new ProviderException(errMsg, nfe);
+            }
+            sortedProps.add((Properties) sp.clone());
+        }
+        sortedProps.sort(Comparator.comparingInt(
+                (Properties p) -> Integer.parseInt(p.getProperty("stepId"))));
+
+        List<StepDefinition> steps = new ArrayList<>();
+        int totalAnticipatedTime = 0;
+        int position = 0;
+        for (Properties sp : sortedProps) {
+            position++;
+            String stepId = sp.getProperty("stepId");
+            if (m_stepsById.containsKey(stepId)) {
+                String errMsg = "More than one step has the stepId " + stepId + ".";
+                throw new ProviderException(errMsg);
+            }
+            if (sp.getProperty("type") == null) {
+                String errMsg = "Step " + stepId + " has no type property.";
+                throw new ProviderException(errMsg);
+            }
+
+            int anticipatedTime = 0;
+            String sAnticipatedTime = sp.getProperty("anticipatedTime");
+            if (sAnticipatedTime != null) {
+                try {
+                    anticipatedTime = Integer.parseInt(sAnticipatedTime);
+                } catch (NumberFormatException nfe) {
+                    String errMsg = "Step " + stepId + " has an invalid " +
+                            "anticipatedTime: " + sAnticipatedTime;
+                    throw new ProviderException(errMsg, nfe);
+                }
+            }
+            totalAnticipatedTime += anticipatedTime;
+
+            StepDefinition step = new StepDefinition(sp, resolveConstructor(sp),
+                    position, anticipatedTime);
+            steps.add(step);
+            m_stepsById.put(stepId, step);
+        }
+        m_steps = Collections.unmodifiableList(steps);
+        m_totalAnticipatedTime = totalAnticipatedTime;
+        m_graph = new StepDependencyGraph(sortedProps);
+    }
+
+    /**
+     * Builds the plan from the configuration objects of a provider.
+     *
+     * @param appConfig, the AppConfig of the provider.
+     * @param stepConfigName, the name the step PropertyConfig objects start
+     * with, for example ProvisioningStep.
+     * @param stepType, the interface all step classes must implement.
+     */
+    public static <S> StepPlan<S> load(AppConfig appConfig, String stepConfigName,
+                                       Class<S> stepType) throws ProviderException {
+        List<PropertyConfig> stepPropConfigs;
+        try {
+            @SuppressWarnings("unchecked")
+            List<PropertyConfig> configs = appConfig.getObjectsLike(stepConfigName);
+            stepPropConfigs = configs;
+        } catch (EnterpriseConfigurationObjectException eoce) {
+            String errMsg = "An error occurred getting " + stepConfigName +
+                    " properties from AppConfig. The exception is: " +
+                    eoce.getMessage();
+            throw new ProviderException(errMsg, eoce);
+        }
+
+        List<Properties> stepProps = new ArrayList<>();
+        for (PropertyConfig stepConfig : stepPropConfigs) {
+            stepProps.add(stepConfig.getProperties());
+        }
+        return new StepPlan<>(stepProps, stepType);
+    }
+
+    /**
+     * @return List<StepDefinition>, the steps in stepId order.
+     */
+    public List<StepDefinition> getSteps() {
+        return m_steps;
+    }
+
+    /**
+     * @return StepDefinition, the step with the stepId or null if there is
+     * no such step.
+     */
+    public StepDefinition getStep(String stepId) {
+        return m_stepsById.get(stepId);
+    }
+
+    /**
+     * @return int, the number of steps.
+     */
+    public int size() {
+        return m_steps.size();
+    }
+
+    /**
+     * @return StepDependencyGraph, the dependency graph of the steps.
+     */
+    public StepDependencyGraph getDependencyGraph() {
+        return m_graph;
+    }
+
+    /**
+     * @return int, the sum of the anticipated times of all steps in
+     * milliseconds.
+     */
+    public int getTotalAnticipatedTime() {
+        return m_totalAnticipatedTime;
+    }
+
+    /**
+     * Creates a new, uninitialized instance of a step.
+     *
+     * @param stepId, the stepId of the step.
+     * @throws ProviderException if there is no such step or the step class
+     * can't be instantiated.
+     */
+    public S newStep(String stepId) throws ProviderException {
+        StepDefinition step = m_stepsById.get(stepId);
+        if (step == null) {
+            String errMsg = "There is no step with the stepId " + stepId + ".";
+            throw new ProviderException(errMsg);
+        }
+        try {
+            return m_stepType.cast(step.m_constructor.newInstance());
+        } catch (InstantiationException | IllegalAccessException e) {
+            String errMsg = "An error occurred instantiating the Step " +
+                    stepId + ". The exception is: " + e.getMessage();
+            throw new ProviderException(errMsg, e);
+        } catch (InvocationTargetException ite) {
+            String errMsg = "An error occurred instantiating the Step " +
+                    stepId + ". The exception is: " + ite.getCause().getMessage();
+            throw new ProviderException(errMsg, ite.getCause());
+        }
+    }
+
+    private Constructor<?> resolveConstructor(Properties sp) throws ProviderException {
+        String stepId = sp.getProperty("stepId");
+        String className = sp.getProperty("className");
+        if (className == null) {
+            String errMsg = "Step " + stepId + " has no className property.";
+            throw new ProviderException(errMsg);
+        }
+        Class<?> stepClass;
+        try {
+            stepClass = Class.forName(className);
+        } catch (ClassNotFoundException cnfe) {
+            String errMsg = "The class " + className + " of step " + stepId +
+                    " was not found.";
+            throw new ProviderException(errMsg, cnfe);
+        }
+        if (!m_stepType.isAssignableFrom(stepClass)) {
+            String errMsg = "The class " + className + " of step " + stepId +
+                    " is not a " + m_stepType.getName() + ".";
+            throw new ProviderException(errMsg);
+        }
+        try {
+            return stepClass.getConstructor();
+        } catch (NoSuchMethodException nsme) {
+            String errMsg = "The class " + className + " of step " + stepId +
+                    " has no public constructor without arguments.";
+            throw new ProviderException(errMsg, nsme);
+        }
+    }
+}
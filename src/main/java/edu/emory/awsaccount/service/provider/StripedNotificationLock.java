@@ -0,0 +1,95 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import org.openeai.utils.lock.LockAlreadySetException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A NotificationLock held in memory, for deployments with a single instance
+ * of the service.
+ * <P>
+ * The names are spread by hash over a fixed number of stripes, each with a
+ * ReentrantLock that guards the names locked in the stripe. The stripe lock
+ * is only held to check and record a name, so two names that share a stripe
+ * never wait on each other for longer than that, and only the full name
+ * decides whether a lock is already set.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class StripedNotificationLock extends AbstractNotificationLock {
+
+    /**
+     * The names locked in a stripe and the lock that guards them.
+     */
+    private static class Stripe {
+        private final ReentrantLock m_lock = new ReentrantLock();
+        private final Map<String, Long> m_names = new HashMap<>();
+    }
+
+    private final Stripe[] m_stripes;
+    private final AtomicLong m_lastToken = new AtomicLong();
+
+    /**
+     * @param stripes, the number of stripes, rounded up to a power of two.
+     */
+    public StripedNotificationLock(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        m_stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            m_stripes[i] = new Stripe();
+        }
+    }
+
+    @Override
+    protected Lease doSet(String name) throws LockAlreadySetException {
+        Stripe stripe = stripe(name);
+        stripe.m_lock.lock();
+        try {
+            if (stripe.m_names.containsKey(name)) {
+                throw new LockAlreadySetException("Lock " + name + " is already set.");
+            }
+            long token = m_lastToken.incrementAndGet();
+            stripe.m_names.put(name, token);
+            return new Lease(name, token, System.currentTimeMillis(), Long.MAX_VALUE, null);
+        } finally {
+            stripe.m_lock.unlock();
+        }
+    }
+
+    @Override
+    protected Lease doRenew(Lease lease) {
+        // The leases of a lock in memory never expire.
+        return lease;
+    }
+
+    @Override
+    protected void doRelease(Lease lease) {
+        Stripe stripe = stripe(lease.getName());
+        stripe.m_lock.lock();
+        try {
+            stripe.m_names.remove(lease.getName(), lease.getToken());
+        } finally {
+            stripe.m_lock.unlock();
+        }
+    }
+
+    private Stripe stripe(String name) {
+        int h = name.hashCode();
+        return m_stripes[(h ^ (h >>> 16)) & (m_stripes.length - 1)];
+    }
+}
@@ -0,0 +1,299 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import org.apache.log4j.Category;
+import org.openeai.OpenEaiObject;
+import org.openeai.threadpool.ThreadPool;
+import org.openeai.threadpool.ThreadPoolException;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * A bounded queue of transactions waiting for a thread of the ThreadPool of a
+ * provider.
+ * <P>
+ * Providers used to add a new transaction to their ThreadPool on the thread
+ * of the request, sleeping and trying again for as long as the pool was busy.
+ * This held the consumer thread of the request and starved all other
+ * requests of the same consumer. Now the request only queues the transaction
+ * and returns, and a dispatcher thread of the queue adds the queued
+ * transactions to the ThreadPool as threads become free.
+ * <P>
+ * Transactions that are already running, such as a transaction resumed after
+ * a restart or a transaction whose waiting step has completed, are dispatched
+ * before new transactions and are never rejected. The number of new
+ * transactions in the queue is limited to the maximum depth. A new
+ * transaction reserves its place with reserve() before the request creates
+ * its state object, so a full queue is reported before anything is created.
+ * <P>
+ * A transaction the ThreadPool fails to accept with an error is kept at the
+ * head of the queue and added again after a delay that doubles with each
+ * failure, up to the maximum retry delay, so it is never lost.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class TransactionAdmissionQueue {
+
+    public static final int PRIORITY_RESUMED = 0;
+    public static final int PRIORITY_NEW = 1;
+    private static final int MAX_RETRY_DELAY_FACTOR = 64;
+
+    private static class Entry {
+        private final String m_id;
+        private final Runnable m_transaction;
+        private final int m_priority;
+        private final long m_sequence;
+        private final long m_queueTime = System.currentTimeMillis();
+
+        private Entry(String id, Runnable transaction, int priority, long sequence) {
+            m_id = id;
+            m_transaction = transaction;
+            m_priority = priority;
+            m_sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Entry> ORDER = Comparator
+            .comparingInt((Entry e) -> e.m_priority)
+            .thenComparingLong(e -> e.m_sequence);
+
+    private final Category logger = OpenEaiObject.logger;
+    private final String LOGTAG;
+    private final String m_name;
+    private final ThreadPool m_threadPool;
+    private final int m_maxDepth;
+    private final long m_retryInterval;
+    private final PriorityQueue<Entry> m_queue = new PriorityQueue<>(ORDER);
+    private Thread m_dispatcher = null;
+    private long m_sequence = 0;
+    private int m_newCount = 0;
+    private int m_reservedCount = 0;
+    private long m_admittedCount = 0;
+    private long m_rejectedCount = 0;
+    private long m_dispatchedCount = 0;
+    private long m_totalWaitTime = 0;
+    private long m_maxWaitTime = 0;
+
+    /**
+     * @param name, the name of the queue, used for logging.
+     * @param threadPool, the ThreadPool that runs the transactions.
+     * @param maxDepth, the maximum number of new transactions in the queue.
+     * @param retryInterval, the number of milliseconds to wait before adding
+     * a transaction again when the ThreadPool is busy.
+     */
+    public TransactionAdmissionQueue(String name, ThreadPool threadPool,
+                                     int maxDepth, long retryInterval) {
+        LOGTAG = "[TransactionAdmissionQueue{" + name + "}] ";
+        m_name = name;
+        m_threadPool = threadPool;
+        m_maxDepth = maxDepth;
+        m_retryInterval = retryInterval;
+    }
+
+    /**
+     * Reserves a place in the queue for a new transaction. The reservation
+     * must be followed by admit() or cancelReservation().
+     *
+     * @throws ProviderException if the queue is full.
+     */
+    public synchronized void reserve() throws ProviderException {
+        if (m_newCount + m_reservedCount >= m_maxDepth) {
+            m_rejectedCount++;
+            String errMsg = "The service is busy. " + m_newCount + " new " +
+                    "transactions are already waiting to be processed, which " +
+                    "is the maximum of " + m_maxDepth + ". Try again later.";
+            logger.error(LOGTAG + errMsg);
+            throw new ProviderException(errMsg);
+        }
+        m_reservedCount++;
+    }
+
+    /**
+     * Releases a reservation that will not be used.
+     */
+    public synchronized void cancelReservation() {
+        m_reservedCount--;
+    }
+
+    /**
+     * Queues a new transaction in the place reserved for it.
+     *
+     * @return int, the position of the transaction in the queue, 1 being the
+     * next to be dispatched.
+     */
+    public synchronized int admit(String id, Runnable transaction) {
+        m_reservedCount--;
+        m_newCount++;
+        m_admittedCount++;
+        return add(id, transaction, PRIORITY_NEW);
+    }
+
+    /**
+     * Queues a transaction that is already running. It is dispatched before
+     * all new transactions and is never rejected.
+     *
+     * @return int, the position of the transaction in the queue.
+     */
+    public synchronized int resume(String id, Runnable transaction) {
+        return add(id, transaction, PRIORITY_RESUMED);
+    }
+
+    /**
+     * @return int, the position of the transaction in the queue, or 0 if it
+     * is not queued.
+     */
+    public synchronized int getPosition(String id) {
+        for (Entry e : m_queue) {
+            if (e.m_id.equals(id)) {
+                return position(e);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return int, the number of transactions in the queue.
+     */
+    public synchronized int getDepth() {
+        return m_queue.size();
+    }
+
+    /**
+     * @return int, the maximum number of new transactions in the queue.
+     */
+    public int getMaxDepth() {
+        return m_maxDepth;
+    }
+
+    /**
+     * @return long, the number of new transactions admitted to the queue.
+     */
+    public synchronized long getAdmittedCount() {
+        return m_admittedCount;
+    }
+
+    /**
+     * @return long, the number of new transactions rejected because the
+     * queue was full.
+     */
+    public synchronized long getRejectedCount() {
+        return m_rejectedCount;
+    }
+
+    /**
+     * @return long, the average number of milliseconds transactions waited
+     * in the queue.
+     */
+    public synchronized long getAverageWaitTime() {
+        return m_dispatchedCount == 0 ? 0 : m_totalWaitTime / m_dispatchedCount;
+    }
+
+    /**
+     * @return long, the longest number of milliseconds a transaction waited
+     * in the queue.
+     */
+    public synchronized long getMaxWaitTime() {
+        return m_maxWaitTime;
+    }
+
+    private int add(String id, Runnable transaction, int priority) {
+        Entry entry = new Entry(id, transaction, priority, m_sequence++);
+        m_queue.add(entry);
+        if (m_dispatcher == null) {
+            m_dispatcher = new Thread(this::dispatch, "TransactionAdmissionQueue-" + m_name);
+            m_dispatcher.setDaemon(true);
+            m_dispatcher.start();
+        }
+        notifyAll();
+        int position = position(entry);
+        logger.info(LOGTAG + "Queued " + id + " at position " + position +
+                " of " + m_queue.size() + ".");
+        return position;
+    }
+
+    private int position(Entry entry) {
+        int position = 1;
+        for (Entry e : m_queue) {
+            if (ORDER.compare(e, entry) < 0) {
+                position++;
+            }
+        }
+        return position;
+    }
+
+    private void dispatch() {
+        int errorCount = 0;
+        while (true) {
+            Entry entry;
+            synchronized (this) {
+                while (m_queue.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ie) {
+                        logger.error(LOGTAG + "The dispatcher was interrupted.");
+                        return;
+                    }
+                }
+                entry = m_queue.peek();
+            }
+
+            try {
+                m_threadPool.addJob(entry.m_transaction);
+                errorCount = 0;
+            } catch (ThreadPoolException tpe) {
+                // The thread pool is busy. Only this thread waits for it.
+                logger.debug(LOGTAG + "The thread pool is busy. Sleeping for " +
+                        m_retryInterval + " milliseconds.");
+                try {
+                    Thread.sleep(m_retryInterval);
+                } catch (InterruptedException ie) {
+                    logger.error(LOGTAG + "The dispatcher was interrupted.");
+                    return;
+                }
+                continue;
+            } catch (RuntimeException re) {
+                // Keep the transaction queued and add it again later.
+                errorCount++;
+                long delay = m_retryInterval *
+                        Math.min(1L << Math.min(errorCount - 1, 30), MAX_RETRY_DELAY_FACTOR);
+                logger.error(LOGTAG + "An error occurred adding " + entry.m_id +
+                        " to the thread pool. Retrying in " + delay + " milliseconds. " +
+                        "The exception is: " + re.getMessage(), re);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    logger.error(LOGTAG + "The dispatcher was interrupted.");
+                    return;
+                }
+                continue;
+            }
+
+            synchronized (this) {
+                m_queue.remove(entry);
+                if (entry.m_priority == PRIORITY_NEW) {
+                    m_newCount--;
+                }
+                long waitTime = System.currentTimeMillis() - entry.m_queueTime;
+                m_dispatchedCount++;
+                m_totalWaitTime += waitTime;
+                m_maxWaitTime = Math.max(m_maxWaitTime, waitTime);
+                logger.info(LOGTAG + "Dispatched " + entry.m_id + " after waiting " +
+                        waitTime + " ms. Depth: " + m_queue.size() + ", admitted: " +
+                        m_admittedCount + ", rejected: " + m_rejectedCount +
+                        ", average wait: " + getAverageWaitTime() + " ms.");
+            }
+        }
+    }
+}
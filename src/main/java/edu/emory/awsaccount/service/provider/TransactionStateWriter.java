@@ -0,0 +1,291 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import org.apache.log4j.Category;
+import org.openeai.OpenEaiObject;
+import org.openeai.moa.XmlEnterpriseObject;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persists the state object of a provisioning transaction behind the steps
+ * that change it.
+ * <P>
+ * The transaction keeps a single in-memory copy of its state object (for
+ * example the VirtualPrivateCloudProvisioning) that all of its steps read and
+ * modify. A step reports a change with changed() instead of querying and
+ * updating the object in the AWS Account Service itself. Changes made within
+ * the flush interval are coalesced into a single update, and an interval with
+ * no changes causes no update at all. The transaction calls flushFinal() when
+ * it completes or rolls back to persist the final state before returning.
+ * <P>
+ * Modifications of the state object must be made while holding the lock
+ * object given to the constructor, which the writer also holds while it
+ * takes a snapshot of the state to persist. A flush interval of 0 persists
+ * every change immediately on the thread that reports it.
+ * <P>
+ * When a scheduled flush fails, the changes stay pending and the flush is
+ * retried after the flush interval, doubling the delay after each further
+ * failure up to 64 times the flush interval, until a flush succeeds. The
+ * final flush is retried the same way on the thread of the transaction, and
+ * if it still fails after 8 attempts, it is logged as fatal, a retry stays
+ * scheduled until a flush succeeds, and the failure is reported to the
+ * transaction.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class TransactionStateWriter<T extends XmlEnterpriseObject> {
+
+    /**
+     * Persists a snapshot of the state object, usually the update method of
+     * the provider.
+     */
+    public interface Persister<T> {
+        void update(T state) throws ProviderException;
+    }
+
+    private static final ScheduledExecutorService FLUSHER =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "TransactionStateWriter");
+                t.setDaemon(true);
+                return t;
+            });
+    private static final AtomicInteger s_pendingWriters = new AtomicInteger();
+    private static final long MAX_RETRY_DELAY_FACTOR = 64;
+    private static final long MIN_RETRY_DELAY = 1000;
+    private static final int MAX_FINAL_FLUSH_ATTEMPTS = 8;
+
+    private final Category logger = OpenEaiObject.logger;
+    private final String LOGTAG;
+    private final T m_state;
+    private final Persister<T> m_persister;
+    private final long m_flushInterval;
+    private final Object m_lock;
+    private final Object m_flushLock = new Object();
+    private XmlEnterpriseObject m_baseline = null;
+    private ScheduledFuture<?> m_scheduledFlush = null;
+    private long m_changeVersion = 0;
+    private volatile long m_persistedVersion = 0;
+    private int m_updateCount = 0;
+    private final AtomicInteger m_failureCount = new AtomicInteger();
+
+    /**
+     * @param id, the id of the transaction, used for logging.
+     * @param state, the in-memory state object of the transaction. Its
+     * baseline, if any, is the last persisted state.
+     * @param persister, persists a snapshot of the state object.
+     * @param flushInterval, the number of milliseconds to coalesce changes
+     * before persisting them.
+     * @param lock, the lock held while modifying the state object.
+     */
+    public TransactionStateWriter(String id, T state, Persister<T> persister,
+                                  long flushInterval, Object lock) {
+        LOGTAG = "[TransactionStateWriter{" + id + "}] ";
+        m_state = state;
+        m_persister = persister;
+        m_flushInterval = flushInterval;
+        m_lock = lock;
+        m_baseline = state.getBaseline();
+    }
+
+    /**
+     * @return T, the in-memory state object.
+     */
+    public T getState() {
+        return m_state;
+    }
+
+    /**
+     * Records a change of the state object and schedules a flush if none is
+     * pending.
+     *
+     * @throws ProviderException if the flush interval is 0 and the change
+     * could not be persisted.
+     */
+    public void changed() throws ProviderException {
+        synchronized (m_lock) {
+            m_changeVersion++;
+            if (m_flushInterval > 0) {
+                if (m_scheduledFlush == null) {
+                    s_pendingWriters.incrementAndGet();
+                    m_scheduledFlush = FLUSHER.schedule(this::scheduledFlush,
+                            m_flushInterval, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Persists the current state of the state object if it has changed since
+     * it was last persisted. Snapshots are persisted in the order of the
+     * changes they contain, so a slow flush can never overwrite a newer state.
+     *
+     * @throws ProviderException if the state could not be persisted. The
+     * changes remain pending and are persisted by the next flush.
+     */
+    @SuppressWarnings("unchecked")
+    public void flush() throws ProviderException {
+        T snapshot;
+        long version;
+        synchronized (m_lock) {
+            if (m_scheduledFlush != null) {
+                m_scheduledFlush.cancel(false);
+                m_scheduledFlush = null;
+                s_pendingWriters.decrementAndGet();
+            }
+            version = m_changeVersion;
+            if (version == m_persistedVersion) {
+                return;
+            }
+            try {
+                snapshot = (T) m_state.clone();
+            } catch (CloneNotSupportedException cnse) {
+                String errMsg = "An error occurred taking a snapshot of the " +
+                        "transaction state. The exception is: " + cnse.getMessage();
+                logger.error(LOGTAG + errMsg);
+                throw new ProviderException(errMsg, cnse);
+            }
+        }
+
+        synchronized (m_flushLock) {
+            if (version <= m_persistedVersion) {
+                // A later snapshot was persisted while this one waited.
+                return;
+            }
+            long previousVersion = m_persistedVersion;
+            snapshot.setBaseline(m_baseline);
+            long startTime = System.currentTimeMillis();
+            m_persister.update(snapshot);
+            long time = System.currentTimeMillis() - startTime;
+
+            // Keep only one generation of baselines.
+            snapshot.setBaseline(null);
+            m_baseline = snapshot;
+            m_persistedVersion = version;
+            m_updateCount++;
+            m_failureCount.set(0);
+            logger.info(LOGTAG + "Persisted " + (version - previousVersion) +
+                    " state change(s) in " + time + " ms.");
+        }
+    }
+
+    /**
+     * Persists the final state of the transaction, retrying on the calling
+     * thread with the backoff of the scheduled flushes.
+     *
+     * @throws ProviderException if the state could not be persisted after
+     * all attempts. A flush stays scheduled and is retried until one
+     * succeeds.
+     */
+    public void flushFinal() throws ProviderException {
+        for (int attempt = 1; ; attempt++) {
+            Exception error;
+            try {
+                flush();
+                return;
+            } catch (ProviderException | RuntimeException e) {
+                error = e;
+            }
+
+            if (attempt < MAX_FINAL_FLUSH_ATTEMPTS) {
+                long delay = retryDelay(attempt);
+                logger.warn(LOGTAG + "An error occurred persisting the final " +
+                        "transaction state. Retrying in " + delay + " ms. The " +
+                        "exception is: " + error.getMessage());
+                try {
+                    Thread.sleep(delay);
+                    continue;
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            String errMsg = "The final transaction state could not be " +
+                    "persisted after " + attempt + " attempt(s), so the " +
+                    "persisted state is stale. A flush stays scheduled until " +
+                    "one succeeds. The exception is: " + error.getMessage();
+            logger.fatal(LOGTAG + errMsg);
+            retryFlush();
+            throw new ProviderException(errMsg, error);
+        }
+    }
+
+    /**
+     * @return long, the number of changes reported so far.
+     */
+    public long getChangeCount() {
+        synchronized (m_lock) {
+            return m_changeVersion;
+        }
+    }
+
+    /**
+     * @return int, the number of updates it took to persist those changes.
+     */
+    public int getUpdateCount() {
+        synchronized (m_flushLock) {
+            return m_updateCount;
+        }
+    }
+
+    /**
+     * @return int, the number of transactions with a flush scheduled.
+     */
+    public static int getPendingWriterCount() {
+        return s_pendingWriters.get();
+    }
+
+    private void scheduledFlush() {
+        try {
+            flush();
+        } catch (ProviderException pe) {
+            // The changes stay pending and the flush is retried.
+            String errMsg = "An error occurred persisting the transaction " +
+                    "state. The exception is: " + pe.getMessage();
+            logger.error(LOGTAG + errMsg);
+            retryFlush();
+        } catch (RuntimeException re) {
+            String errMsg = "An unexpected error occurred persisting the " +
+                    "transaction state. The exception is: " + re.getMessage();
+            logger.error(LOGTAG + errMsg, re);
+            retryFlush();
+        }
+    }
+
+    private void retryFlush() {
+        synchronized (m_lock) {
+            if (m_scheduledFlush != null || m_changeVersion == m_persistedVersion) {
+                return;
+            }
+            int failureCount = m_failureCount.incrementAndGet();
+            long delay = retryDelay(failureCount);
+            s_pendingWriters.incrementAndGet();
+            m_scheduledFlush = FLUSHER.schedule(this::scheduledFlush, delay, TimeUnit.MILLISECONDS);
+            logger.info(LOGTAG + "Retrying the flush in " + delay + " ms after " +
+                    failureCount + " failure(s).");
+        }
+    }
+
+    private long retryDelay(int failureCount) {
+        // A writer that persists every change immediately still backs off.
+        long interval = Math.max(m_flushInterval, MIN_RETRY_DELAY);
+        return interval * Math.min(1L << Math.min(failureCount - 1, 30), MAX_RETRY_DELAY_FACTOR);
+    }
+}
@@ -0,0 +1,27 @@
+/* *****************************************************************************
+ This file is part of the RHEDcloud AWS Account Service.
+
+ Copyright (C) 2020 RHEDcloud Foundation. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import java.util.Map;
+
+/**
+ * Implemented by TransitGatewayStatus providers that can tell cheaply whether the TGW attachments
+ * of an account have changed, so that a refresh of the TransitGatewayStatusSnapshot only recomputes
+ * the status of the accounts that changed.
+ */
+public interface TransitGatewayAttachmentFingerprintSource {
+    /**
+     * Fingerprint the TGW attachments of every account with TGW VPCs.
+     * The fingerprint of an account changes when a TGW VPC is added or removed, or when an attachment
+     * of one of its VPCs is created, deleted, changes state or is associated with another route table.
+     *
+     * @return the fingerprint of each account with TGW VPCs, by account ID.
+     * The fingerprint is null if the attachments of the account could not be described.
+     * @throws ProviderException with details of the error.
+     */
+    Map<String, String> queryAttachmentFingerprints() throws ProviderException;
+}
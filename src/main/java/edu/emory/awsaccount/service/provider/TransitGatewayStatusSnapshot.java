@@ -0,0 +1,167 @@
+/* *****************************************************************************
+ This file is part of the RHEDcloud AWS Account Service.
+
+ Copyright (C) 2020 RHEDcloud Foundation. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import edu.emory.moa.jmsobjects.network.v1_0.TransitGatewayStatus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The last computed TransitGatewayStatus of every TGW VPC, by account.
+ * <p>
+ * Computing the status of a VPC takes several calls to NetworkOps and EC2, so the
+ * TransitGatewayStatusSnapshotScheduledCommand computes the status of all accounts
+ * in the background and keeps them here, and the TransitGatewayStatusRequestCommand
+ * answers queries from here while the statuses of the account are recent enough.
+ * Each account also keeps the fingerprint of its TGW attachments at the time its
+ * statuses were computed, so a refresh can skip the accounts whose attachments
+ * have not changed.
+ */
+public class TransitGatewayStatusSnapshot {
+    private static final TransitGatewayStatusSnapshot instance = new TransitGatewayStatusSnapshot();
+
+    private static class AccountEntry {
+        private final List<TransitGatewayStatus> statuses;
+        private final String fingerprint;
+        private final long computedTime;
+
+        private AccountEntry(List<TransitGatewayStatus> statuses, String fingerprint, long computedTime) {
+            this.statuses = statuses;
+            this.fingerprint = fingerprint;
+            this.computedTime = computedTime;
+        }
+    }
+
+    private final ConcurrentHashMap<String, AccountEntry> accounts = new ConcurrentHashMap<>();
+    private volatile long lastRefreshTime = 0;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @return the snapshot shared by the commands of the service.
+     */
+    public static TransitGatewayStatusSnapshot getInstance() {
+        return instance;
+    }
+
+    /**
+     * Replace the statuses of an account.
+     *
+     * @param accountId the account.
+     * @param statuses the statuses of all TGW VPCs of the account.
+     * @param fingerprint the fingerprint of the TGW attachments of the account, or null if unknown.
+     */
+    public void putAccount(String accountId, List<TransitGatewayStatus> statuses, String fingerprint) {
+        accounts.put(accountId, new AccountEntry(Collections.unmodifiableList(new ArrayList<>(statuses)),
+                fingerprint, System.currentTimeMillis()));
+    }
+
+    /**
+     * Remove the accounts that no longer have TGW VPCs.
+     *
+     * @param accountIds the accounts to keep.
+     * @return the number of accounts removed.
+     */
+    public int retainAccounts(Set<String> accountIds) {
+        int before = accounts.size();
+        accounts.keySet().retainAll(accountIds);
+        return before - accounts.size();
+    }
+
+    /**
+     * Record that every account has been refreshed.
+     */
+    public void refreshed() {
+        lastRefreshTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the statuses that match a query from the snapshot.
+     *
+     * @param accountId the account of the query or null for all accounts.
+     * @param vpcId the VPC of the query or null for all VPCs.
+     * @param maxAge the maximum age in milliseconds of the statuses.
+     * @return clones of the matching statuses, or null if the snapshot can't answer the query
+     * because the statuses are missing or older than maxAge.
+     * @throws CloneNotSupportedException if a status can't be cloned.
+     */
+    public List<TransitGatewayStatus> query(String accountId, String vpcId, long maxAge) throws CloneNotSupportedException {
+        long oldest = System.currentTimeMillis() - maxAge;
+        List<AccountEntry> entries = new ArrayList<>();
+        if (accountId != null && !accountId.isEmpty()) {
+            AccountEntry entry = accounts.get(accountId);
+            if (entry == null || entry.computedTime < oldest) {
+                missCount.incrementAndGet();
+                return null;
+            }
+            entries.add(entry);
+        }
+        else {
+            // the snapshot only answers for all accounts after a refresh of all of them
+            if (lastRefreshTime < oldest) {
+                missCount.incrementAndGet();
+                return null;
+            }
+            entries.addAll(accounts.values());
+        }
+
+        List<TransitGatewayStatus> results = new ArrayList<>();
+        for (AccountEntry entry : entries) {
+            for (TransitGatewayStatus status : entry.statuses) {
+                if (vpcId == null || vpcId.isEmpty() || vpcId.equals(status.getVpcId())) {
+                    results.add((TransitGatewayStatus) status.clone());
+                }
+            }
+        }
+        hitCount.incrementAndGet();
+        return results;
+    }
+
+    /**
+     * @param accountId the account.
+     * @return the fingerprint of the TGW attachments of the account when its statuses were computed,
+     * or null if the account is not in the snapshot.
+     */
+    public String getFingerprint(String accountId) {
+        AccountEntry entry = accounts.get(accountId);
+        return entry == null ? null : entry.fingerprint;
+    }
+
+    /**
+     * @param accountId the account.
+     * @return the time the statuses of the account were computed, or 0 if the account is not in the snapshot.
+     */
+    public long getComputedTime(String accountId) {
+        AccountEntry entry = accounts.get(accountId);
+        return entry == null ? 0 : entry.computedTime;
+    }
+
+    public int getAccountCount() { return accounts.size(); }
+    public int getVpcCount() { return accounts.values().stream().mapToInt(e -> e.statuses.size()).sum(); }
+    public long getLastRefreshTime() { return lastRefreshTime; }
+    public long getHitCount() { return hitCount.get(); }
+    public long getMissCount() { return missCount.get(); }
+
+    /**
+     * @return the statistics of the snapshot, for logging.
+     */
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("accounts", (long) getAccountCount());
+        stats.put("vpcs", (long) getVpcCount());
+        stats.put("hits", getHitCount());
+        stats.put("misses", getMissCount());
+        return stats;
+    }
+}
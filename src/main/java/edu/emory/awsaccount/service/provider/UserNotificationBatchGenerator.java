@@ -0,0 +1,91 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2018 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazon.aws.moa.jmsobjects.provisioning.v1_0.AccountNotification;
+import com.amazon.aws.moa.jmsobjects.user.v1_0.UserNotification;
+
+/**
+ * Implemented by UserNotification providers that can generate the
+ * UserNotifications of many users at once, faster than one at a time.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public interface UserNotificationBatchGenerator {
+
+    /**
+     * The outcome of generating the UserNotifications of many users.
+     */
+    class BatchResult {
+        private final Map<String, UserNotification> m_generated = new LinkedHashMap<>();
+        private final Map<String, ProviderException> m_failures = new LinkedHashMap<>();
+
+        public void addGenerated(String userId, UserNotification notification) {
+            m_generated.put(userId, notification);
+            m_failures.remove(userId);
+        }
+
+        public void addFailure(String userId, ProviderException pe) {
+            m_failures.put(userId, pe);
+        }
+
+        /**
+         * @return Map<String, UserNotification>, the generated
+         * UserNotifications by UserId.
+         */
+        public Map<String, UserNotification> getGenerated() {
+            return Collections.unmodifiableMap(m_generated);
+        }
+
+        /**
+         * @return Map<String, ProviderException>, the errors of the users
+         * whose UserNotifications were not generated, by UserId.
+         */
+        public Map<String, ProviderException> getFailures() {
+            return Collections.unmodifiableMap(m_failures);
+        }
+    }
+
+    /**
+     * Generates a UserNotification from an AccountNotification for each of a
+     * list of users. An error generating the UserNotification of one user
+     * does not keep the others from being generated.
+     *
+     * @param userIds, the UserIds.
+     * @param aNotification, the account notification with which to create
+     * the UserNotifications.
+     * @return BatchResult, the UserNotifications generated and the errors of
+     * the users whose UserNotifications were not.
+     */
+    BatchResult generateAll(List<String> userIds, AccountNotification aNotification);
+
+    /**
+     * Generates again the UserNotifications of users whose generation
+     * failed. The create of a UserNotification may have reached the service
+     * even though it failed, so a UserNotification that already exists for
+     * the user and the AccountNotification is returned instead of creating
+     * another.
+     *
+     * @param userIds, the UserIds.
+     * @param aNotification, the account notification with which to create
+     * the UserNotifications.
+     * @return BatchResult, the UserNotifications generated or found and the
+     * errors of the users whose UserNotifications were not.
+     */
+    BatchResult retryAll(List<String> userIds, AccountNotification aNotification);
+}
@@ -0,0 +1,349 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+
+package edu.emory.awsaccount.service.provider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.mail.internet.AddressException;
+
+import org.apache.log4j.Category;
+import org.openeai.OpenEaiObject;
+import org.openeai.loggingutils.MailService;
+
+/**
+ * An outbox for the e-mails sent about UserNotifications.
+ * <P>
+ * E-mails are queued and sent by a pool of workers, each with its own
+ * MailService, so that neither the caller nor the other e-mails wait on a
+ * mail server round trip. An e-mail the mail server doesn't accept is sent
+ * again after a delay that doubles with each attempt, up to the maximum
+ * number of attempts. Each e-mail has one recipient, so one recipient's
+ * failures don't hold up the e-mails of others.
+ * <P>
+ * The outbox is kept in memory only. The UserNotification is persisted
+ * before its e-mail is queued, so the outbox can only lose e-mails, never
+ * notifications. An e-mail is lost when the outbox is full, when the JVM
+ * stops without shutting down the outbox, or when the e-mails waiting to be
+ * sent or retried at shutdown are not all sent within the drain timeout.
+ * Lost e-mails are logged with the id of their UserNotification and counted
+ * as dropped.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class UserNotificationEmailOutbox {
+
+    /**
+     * An e-mail to one recipient.
+     */
+    public static class Email {
+        private final String m_notificationId;
+        private final String m_fromAddress;
+        private final String m_recipient;
+        private final String m_subject;
+        private final String m_body;
+        private final String m_priority;
+        private int m_attempts = 0;
+
+        /**
+         * @param notificationId, the id of the UserNotification, for logging.
+         * @param fromAddress, the from address.
+         * @param recipient, the e-mail address of the recipient.
+         * @param subject, the subject.
+         * @param body, the message body.
+         * @param priority, the value of the X-Priority header.
+         */
+        public Email(String notificationId, String fromAddress, String recipient, String subject,
+                     String body, String priority) {
+            m_notificationId = notificationId;
+            m_fromAddress = fromAddress;
+            m_recipient = recipient;
+            m_subject = subject;
+            m_body = body;
+            m_priority = priority;
+        }
+    }
+
+    private final Category logger = OpenEaiObject.logger;
+    private final String LOGTAG = "[UserNotificationEmailOutbox] ";
+    private final BlockingQueue<Email> m_queue;
+    private final ScheduledExecutorService m_retryScheduler;
+    private final int m_maxAttempts;
+    private final long m_retryDelay;
+    private final List<Thread> m_workers = new ArrayList<>();
+    private final Set<Email> m_retrying = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger m_pendingCount = new AtomicInteger();
+    private volatile boolean m_shutdown = false;
+    private final AtomicLong m_sentCount = new AtomicLong();
+    private final AtomicLong m_retryCount = new AtomicLong();
+    private final AtomicLong m_failedCount = new AtomicLong();
+    private final AtomicLong m_droppedCount = new AtomicLong();
+    private final AtomicLong m_totalSendMillis = new AtomicLong();
+    private final AtomicLong m_maxSendMillis = new AtomicLong();
+
+    /**
+     * Creates the outbox and starts its workers.
+     *
+     * @param mailHost, the mail server.
+     * @param workers, the number of e-mails sent at the same time.
+     * @param capacity, the maximum number of e-mails waiting to be sent.
+     * @param maxAttempts, the number of times to try to send an e-mail.
+     * @param retryDelay, the number of milliseconds to wait before the first
+     * retry of an e-mail.
+     */
+    public UserNotificationEmailOutbox(String mailHost, int workers, int capacity, int maxAttempts,
+                                       long retryDelay) {
+        this(() -> {
+            MailService ms = new MailService();
+            ms.setMailHost(mailHost);
+            return ms;
+        }, workers, capacity, maxAttempts, retryDelay);
+    }
+
+    /**
+     * Creates the outbox with the MailService of each worker made by the
+     * given factory.
+     */
+    UserNotificationEmailOutbox(Supplier<MailService> mailServiceFactory, int workers, int capacity,
+                                int maxAttempts, long retryDelay) {
+        m_queue = new LinkedBlockingQueue<>(capacity);
+        m_maxAttempts = Math.max(1, maxAttempts);
+        m_retryDelay = retryDelay;
+        m_retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "UserNotificationEmailRetry");
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 1; i <= Math.max(1, workers); i++) {
+            MailService ms = mailServiceFactory.get();
+            Thread t = new Thread(() -> work(ms), "UserNotificationEmailSender-" + i);
+            t.setDaemon(true);
+            t.start();
+            m_workers.add(t);
+        }
+    }
+
+    /**
+     * Queues an e-mail to be sent. An e-mail that can't be queued because the
+     * outbox is full or shut down is logged and dropped.
+     *
+     * @return boolean, true if the e-mail was queued.
+     */
+    public boolean enqueue(Email email) {
+        m_pendingCount.incrementAndGet();
+        if (m_shutdown || !m_queue.offer(email)) {
+            m_pendingCount.decrementAndGet();
+            m_droppedCount.incrementAndGet();
+            String errMsg = "The e-mail outbox is " + (m_shutdown ? "shut down" : "full") +
+                    ". Dropping the e-mail to " + email.m_recipient + " for UserNotification " +
+                    email.m_notificationId + ". " + getStatistics();
+            logger.error(LOGTAG + errMsg);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting e-mails and sends the e-mails waiting to be sent or
+     * retried, retrying without delay, until they are all sent or the
+     * timeout has passed. Then stops the workers and logs the e-mails that
+     * were not sent.
+     *
+     * @param timeout, the maximum number of milliseconds to drain the outbox.
+     * @return int, the number of e-mails that were not sent.
+     */
+    public int shutdown(long timeout) {
+        if (m_shutdown) {
+            return m_pendingCount.get();
+        }
+        m_shutdown = true;
+        logger.info(LOGTAG + "Draining the e-mail outbox. " + getStatistics());
+        m_retryScheduler.shutdownNow();
+        for (Email email : m_retrying) {
+            if (m_retrying.remove(email)) {
+                requeue(email);
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + timeout;
+        try {
+            while (m_pendingCount.get() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        // Take the e-mails not yet sent before the workers stop.
+        List<Email> lost = new ArrayList<>();
+        m_queue.drainTo(lost);
+        int unsent = m_pendingCount.get();
+        for (Thread worker : m_workers) {
+            worker.interrupt();
+        }
+
+        if (unsent > 0) {
+            for (Email email : lost) {
+                m_droppedCount.incrementAndGet();
+                m_pendingCount.decrementAndGet();
+                logger.error(LOGTAG + "Dropping the e-mail to " + email.m_recipient +
+                        " for UserNotification " + email.m_notificationId + " at shutdown.");
+            }
+            logger.error(LOGTAG + unsent + " e-mail(s) were not sent within the drain timeout of " +
+                    timeout + " ms. " + getStatistics());
+        } else {
+            logger.info(LOGTAG + "Drained the e-mail outbox. " + getStatistics());
+        }
+        return unsent;
+    }
+
+    /**
+     * @return int, the number of e-mails waiting to be sent, not counting
+     * those waiting to be retried.
+     */
+    public int getQueueDepth() {
+        return m_queue.size();
+    }
+
+    public long getSentCount() {
+        return m_sentCount.get();
+    }
+
+    public long getRetryCount() {
+        return m_retryCount.get();
+    }
+
+    /**
+     * @return long, the number of e-mails given up on after the maximum
+     * number of attempts.
+     */
+    public long getFailedCount() {
+        return m_failedCount.get();
+    }
+
+    /**
+     * @return long, the number of e-mails dropped because the outbox was full
+     * or shut down.
+     */
+    public long getDroppedCount() {
+        return m_droppedCount.get();
+    }
+
+    /**
+     * @return String, the queue depth, counts and send times, for logging.
+     */
+    public String getStatistics() {
+        long attempts = m_sentCount.get() + m_retryCount.get() + m_failedCount.get();
+        long averageSendMillis = attempts == 0 ? 0 : m_totalSendMillis.get() / attempts;
+        return "Outbox depth: " + getQueueDepth() + ", sent: " + getSentCount() + ", retried: " +
+                getRetryCount() + ", failed: " + getFailedCount() + ", dropped: " +
+                getDroppedCount() + ", send avg/max: " +
+                averageSendMillis + "/" + m_maxSendMillis.get() + " ms.";
+    }
+
+    private void work(MailService ms) {
+        while (true) {
+            Email email;
+            try {
+                email = m_queue.take();
+            } catch (InterruptedException ie) {
+                return;
+            }
+            send(ms, email);
+        }
+    }
+
+    private void send(MailService ms, Email email) {
+        String LOGTAG = "[UserNotificationEmailOutbox.send] ";
+        email.m_attempts++;
+        boolean sentMessage = false;
+        long startTime = System.currentTimeMillis();
+        try {
+            ms.addHeaderField("X-Priority", email.m_priority);
+            ms.setFromAddress(email.m_fromAddress);
+            ms.setRecipientList(email.m_recipient);
+            ms.setSubject(email.m_subject);
+            ms.setMessageBody(email.m_body);
+            sentMessage = ms.sendMessage();
+        } catch (AddressException ae) {
+            // Sending again won't help.
+            m_failedCount.incrementAndGet();
+            m_pendingCount.decrementAndGet();
+            String errMsg = "An error occurred setting addresses on the e-mail message for " +
+                    "UserNotification " + email.m_notificationId + ". The exception is: " + ae.getMessage();
+            logger.error(LOGTAG + errMsg);
+            return;
+        } catch (RuntimeException re) {
+            logger.error(LOGTAG + "An error occurred sending the e-mail for UserNotification " +
+                    email.m_notificationId + ". The exception is: " + re.getMessage());
+        }
+        long time = System.currentTimeMillis() - startTime;
+        m_totalSendMillis.addAndGet(time);
+        m_maxSendMillis.accumulateAndGet(time, Math::max);
+
+        if (sentMessage == true) {
+            m_sentCount.incrementAndGet();
+            m_pendingCount.decrementAndGet();
+            logger.info(LOGTAG + "Sent e-mail for UserNotification " + email.m_notificationId +
+                    " in " + time + " ms. " + getStatistics());
+        } else if (email.m_attempts < m_maxAttempts) {
+            m_retryCount.incrementAndGet();
+            if (m_shutdown) {
+                // Don't wait out the delay while draining.
+                requeue(email);
+                return;
+            }
+            long delay = m_retryDelay << (email.m_attempts - 1);
+            logger.warn(LOGTAG + "Failed to send e-mail for UserNotification " + email.m_notificationId +
+                    " on attempt " + email.m_attempts + ". Retrying in " + delay + " ms.");
+            m_retrying.add(email);
+            try {
+                m_retryScheduler.schedule(() -> {
+                    if (m_retrying.remove(email)) {
+                        requeue(email);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ree) {
+                // The outbox is shutting down, so drain the e-mail now.
+                if (m_retrying.remove(email)) {
+                    requeue(email);
+                }
+            }
+        } else {
+            m_failedCount.incrementAndGet();
+            m_pendingCount.decrementAndGet();
+            String errMsg = "Failed to send e-mail for UserNotification " + email.m_notificationId +
+                    " after " + email.m_attempts + " attempts. " + getStatistics();
+            logger.error(LOGTAG + errMsg);
+        }
+    }
+
+    private void requeue(Email email) {
+        if (!m_queue.offer(email)) {
+            m_droppedCount.incrementAndGet();
+            m_pendingCount.decrementAndGet();
+            logger.error(LOGTAG + "The e-mail outbox is full. Dropping the retry of the e-mail to " +
+                    email.m_recipient + " for UserNotification " + email.m_notificationId + ".");
+        }
+    }
+}
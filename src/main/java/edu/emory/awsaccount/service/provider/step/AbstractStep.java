@@ -16,6 +16,7 @@ import com.amazon.aws.moa.objects.resources.v1_0.Datetime;
 import com.amazon.aws.moa.objects.resources.v1_0.Property;
 import com.amazon.aws.moa.objects.resources.v1_0.ProvisioningStep;
 import com.amazon.aws.moa.objects.resources.v1_0.VirtualPrivateCloudProvisioningQuerySpecification;
+import edu.emory.awsaccount.service.provider.ProbeScheduler;
 import edu.emory.awsaccount.service.provider.ProviderException;
 import edu.emory.awsaccount.service.provider.VirtualPrivateCloudProvisioningProvider;
 import org.apache.log4j.Category;
@@ -31,6 +32,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * An abstract class from which all provisioning steps inherit. This class
@@ -45,6 +48,19 @@ import java.util.TimeZone;
  * @version 1.0 - 21 May 2017
  */
 public abstract class AbstractStep {
+
+    /**
+     * Completes a waiting step with the result of its probe.
+     */
+    public interface Continuation<T> {
+        /**
+         * @param result, the result of the probe or null if the maximum wait
+         * time elapsed first.
+         * @return List<Property>, the result properties of the step.
+         */
+        List<Property> resume(T result) throws StepException;
+    }
+
     private static final String LOGTAG = "[AbstractStep] ";
     private static final String CREATE_USER = "AwsAccountService";
 
@@ -82,6 +98,8 @@ public abstract class AbstractStep {
     protected long m_executionTime = 0;
     protected long m_executionEndTime = 0;
     protected Properties m_props = null;
+    private volatile CompletableFuture<List<Property>> m_continuation = null;
+    private volatile int m_waitCount = 0;
 
     protected final String PROPERTY_VALUE_NOT_APPLICABLE = "not applicable";
     protected final String PROPERTY_VALUE_NOT_AVAILABLE = "not available";
@@ -119,6 +137,15 @@ public abstract class AbstractStep {
                 setType(step.getType());
                 setDescription(step.getDescription());
                 setStatus(step.getStatus());
+                // Restore the result of a step that already ran, so a
+                // resumed transaction can roll it back and later steps can
+                // use its result properties.
+                setResult(step.getStepResult());
+                if (step.getProperty() != null && !step.getProperty().isEmpty()) {
+                    @SuppressWarnings("unchecked")
+                    List<Property> persistedProps = step.getProperty();
+                    setResultProperties(new ArrayList<>(persistedProps));
+                }
                 setCreateUser(step.getCreateUser());
                 setCreateDatetime(step.getCreateDatetime());
                 if (step.getLastUpdateUser() != null) {
@@ -187,15 +214,84 @@ public abstract class AbstractStep {
             return props;
         }
 
-        // Otherwise run the step logic.
+        // Otherwise run the step logic. If the step is waiting, its
+        // continuation sets the execution time when it completes.
         else {
             logger.info(LOGTAG + "Running the step.");
             List<Property> props = run();
-            setExecutionTime();
+            if (getContinuation() == null) {
+                setExecutionTime();
+            }
             return props;
         }
     }
 
+    /**
+     * This method makes the step wait without holding a thread. The probe
+     * runs on the shared ProbeScheduler every interval until it returns a
+     * result or maxWait milliseconds have elapsed, and then the continuation
+     * completes the step, usually by updating it to completed. A continuation
+     * may wait again by returning the value of another call to this method.
+     * The run method of the step returns the value of this method, and the
+     * transaction resumes the step when its continuation completes.
+     *
+     * @return List<Property>, the result properties of the step so far.
+     */
+    protected <T> List<Property> waitFor(String description, ProbeScheduler.Probe<T> probe,
+                                         long initialDelay, long interval, long maxWait,
+                                         Continuation<T> continuation) {
+        return waitFor(description, probe, initialDelay, interval, interval, maxWait, continuation);
+    }
+
+    /**
+     * This method makes the step wait without holding a thread, like the
+     * method above, but the interval between checks starts at minInterval
+     * and doubles after each check, with jitter, up to maxInterval.
+     *
+     * @return List<Property>, the result properties of the step so far.
+     */
+    protected <T> List<Property> waitFor(String description, ProbeScheduler.Probe<T> probe,
+                                         long initialDelay, long minInterval, long maxInterval,
+                                         long maxWait, Continuation<T> continuation) {
+        String LOGTAG = getStepTag() + "[AbstractStep.waitFor] ";
+        if (maxInterval > minInterval) {
+            logger.info(LOGTAG + "Waiting for " + description + ". Checking every " +
+                    minInterval + " to " + maxInterval + " ms for up to " + maxWait + " ms.");
+        } else {
+            logger.info(LOGTAG + "Waiting for " + description + ". Checking every " +
+                    minInterval + " ms for up to " + maxWait + " ms.");
+        }
+        m_waitCount++;
+        m_continuation = ProbeScheduler.getInstance()
+                .poll(getStepTag(), probe, initialDelay, minInterval, maxInterval, maxWait)
+                .thenCompose(result -> resume(continuation, result));
+        return getResultProperties();
+    }
+
+    private <T> CompletableFuture<List<Property>> resume(Continuation<T> continuation, T result) {
+        int waitCount = m_waitCount;
+        List<Property> props;
+        try {
+            props = continuation.resume(result);
+        } catch (StepException se) {
+            throw new CompletionException(se);
+        }
+        if (m_waitCount != waitCount) {
+            // The continuation is waiting again.
+            return m_continuation;
+        }
+        return CompletableFuture.completedFuture(props);
+    }
+
+    /**
+     * This method returns the continuation of a waiting step, which
+     * completes with the result properties of the step, or null if the step
+     * is not waiting.
+     */
+    public CompletableFuture<List<Property>> getContinuation() {
+        return m_continuation;
+    }
+
     protected abstract List<Property> simulate() throws StepException;
 
     protected abstract List<Property> run() throws StepException;
@@ -288,6 +384,21 @@ public abstract class AbstractStep {
         return m_skipStep;
     }
 
+    /**
+     * This method returns whether the step may be executed again after it
+     * was interrupted, for example by a restart of the service while it was
+     * in progress. Steps are not safe to re-run unless their rerunnable
+     * property is true. Steps that only read and compute values may override
+     * this method to always return true. A skipped step is always safe to
+     * re-run.
+     */
+    public boolean isRerunnable() {
+        if (getSkipStep()) {
+            return true;
+        }
+        return Boolean.parseBoolean(getProperties().getProperty("rerunnable", "false"));
+    }
+
     /**
      * This method sets the simulateStep property
      */
@@ -542,6 +653,14 @@ public abstract class AbstractStep {
     }
 
     public void addResultProperty(String key, String value) throws StepException {
+        // The result properties of this step are part of the VPCP, which
+        // may be persisted in the background, so hold the same lock as update.
+        synchronized (getVirtualPrivateCloudProvisioningProvider()) {
+            putResultProperty(key, value);
+        }
+    }
+
+    private void putResultProperty(String key, String value) throws StepException {
         String LOGTAG = getStepTag() + "[AbstractStep.addResultProperty] ";
         logger.debug(LOGTAG + "Adding result property " + key + ": " + value);
 
@@ -665,8 +784,21 @@ public abstract class AbstractStep {
         String LOGTAG = getStepTag() + "[AbstractStep.update] ";
         logger.info(LOGTAG + "Updating step with status " + status + " and result " + result);
 
-        // Update the baseline state of the VPCP
-        queryForVpcpBaseline();
+        // Steps of one transaction may run in parallel and each one writes
+        // the whole VPCP back, so the query, modify and update must not
+        // interleave. The provisioning transaction hands its steps a provider
+        // scoped to that transaction, which makes it the right lock.
+        synchronized (getVirtualPrivateCloudProvisioningProvider()) {
+            updateVpcp(status, result);
+        }
+    }
+
+    private void updateVpcp(String status, String result) throws StepException {
+        String LOGTAG = getStepTag() + "[AbstractStep.update] ";
+
+        // The VPCP queried at initialization is the in-memory state of the
+        // transaction, shared by all of its steps, so there is no need to
+        // query for it again before every update.
 
         // If the status is changing from in progress to anything else,
         // set the executionEndTime.
@@ -766,6 +898,14 @@ public abstract class AbstractStep {
         logger.info(LOGTAG + "Getting " + key + " property from preceding step " + stepType);
         ProvisioningStep step = getProvisioningStepByType(stepType);
         if (step != null) {
+            // A step that has not started yet has no results to offer. With
+            // parallel step execution this means the dependsOn property of
+            // this step is missing the preceding step.
+            if (PENDING_STATUS.equalsIgnoreCase(step.getStatus())) {
+                logger.warn(LOGTAG + "Preceding step " + stepType + " has status " +
+                        step.getStatus() + ". Check the dependsOn property of step " +
+                        getStepId() + ".");
+            }
             String value = getResultProperty(step, key);
             if (value == null || value.equals("")) {
                 value = PROPERTY_VALUE_NOT_AVAILABLE;
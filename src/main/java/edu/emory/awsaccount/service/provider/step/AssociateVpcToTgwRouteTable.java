@@ -13,6 +13,7 @@ import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder
 import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
 import com.amazonaws.services.securitytoken.model.AssumeRoleResult;
 import com.amazonaws.services.securitytoken.model.Credentials;
+import edu.emory.awsaccount.service.AwsRateLimiter;
 import edu.emory.awsaccount.service.provider.VirtualPrivateCloudProvisioningProvider;
 import org.openeai.config.AppConfig;
 
@@ -172,6 +173,7 @@ public class AssociateVpcToTgwRouteTable extends AbstractStep implements Step {
         AWSSecurityTokenService sts = AWSSecurityTokenServiceClientBuilder.standard()
                 .withCredentials(cp)
                 .withRegion(region)
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.STS, null))
                 .build();
 
         AssumeRoleRequest assumeRequest = new AssumeRoleRequest().withRoleArn(roleArn)
@@ -189,6 +191,7 @@ public class AssociateVpcToTgwRouteTable extends AbstractStep implements Step {
         return (AmazonEC2Client) AmazonEC2ClientBuilder.standard()
                 .withCredentials(cp)
                 .withRegion(region)
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.EC2, accountId))
                 .build();
     }
 }
@@ -26,6 +26,7 @@ import com.amazonaws.services.support.model.CreateCaseResult;
 import com.amazonaws.services.support.model.DescribeCasesRequest;
 import com.amazonaws.services.support.model.DescribeCasesResult;
 
+import edu.emory.awsaccount.service.AwsRateLimiter;
 import edu.emory.awsaccount.service.provider.ProviderException;
 import edu.emory.awsaccount.service.provider.VirtualPrivateCloudProvisioningProvider;
 import edu.emory.moa.jmsobjects.identity.v1_0.DirectoryPerson;
@@ -119,6 +120,7 @@ public class CreateCaseForEnterpriseSupport extends AbstractStep implements Step
         AWSSupportClientBuilder builder = AWSSupportClientBuilder.standard()
             .withCredentials(new AWSStaticCredentialsProvider(awsCredentials));
         builder.setRegion("us-east-1");
+        builder.setRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.SUPPORT, null));
 
         // Initialize the AWS client
         logger.info("Initializing AWS support client...");
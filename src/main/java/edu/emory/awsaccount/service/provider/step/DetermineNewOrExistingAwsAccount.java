@@ -142,6 +142,11 @@ public class DetermineNewOrExistingAwsAccount extends AbstractStep implements St
         return getResultProperties();
     }
 
+    public boolean isRerunnable() {
+        // This step only reads and computes values, so it is safe to run again.
+        return true;
+    }
+
     public void rollback() throws StepException {
 
         super.rollback();
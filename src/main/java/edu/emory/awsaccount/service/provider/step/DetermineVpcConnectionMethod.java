@@ -252,6 +252,11 @@ public class DetermineVpcConnectionMethod extends AbstractStep implements Step {
         return getResultProperties();
     }
 
+    public boolean isRerunnable() {
+        // This step only reads and computes values, so it is safe to run again.
+        return true;
+    }
+
     public void rollback() throws StepException {
         long startTime = System.currentTimeMillis();
 
@@ -67,6 +67,12 @@ public class DetermineVpcType extends AbstractStep implements Step {
         return getResultProperties();
     }
 
+    @Override
+    public boolean isRerunnable() {
+        // This step only reads and computes values, so it is safe to run again.
+        return true;
+    }
+
     @Override
     public void rollback() throws StepException {
         String LOGTAG = getStepTag() + "[DetermineVpcType.rollback] ";
@@ -11,17 +11,14 @@
 package edu.emory.awsaccount.service.provider.step;
 
 import com.amazon.aws.moa.objects.resources.v1_0.Property;
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
-import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
+import com.amazonaws.services.ec2.model.DisableEbsEncryptionByDefaultRequest;
 import com.amazonaws.services.ec2.model.EnableEbsEncryptionByDefaultRequest;
-import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
-import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
-import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
-import com.amazonaws.services.securitytoken.model.AssumeRoleResult;
-import com.amazonaws.services.securitytoken.model.Credentials;
+import edu.emory.awsaccount.service.AssumedRoleCredentialsCache;
+import edu.emory.awsaccount.service.AwsClientRegistry;
+import edu.emory.awsaccount.service.AwsRateLimiter;
 import edu.emory.awsaccount.service.provider.VirtualPrivateCloudProvisioningProvider;
 import org.openeai.config.AppConfig;
 
@@ -32,6 +29,11 @@ import java.util.Properties;
 /**
  * If this is a new account, enable EBS encryption by default.
  * <P>
+ * The regions are set up at the same time, at most maxParallelRegions
+ * (default 4) at a time. The outcome in each region is recorded in a result
+ * property named ebsEncryptionByDefault.region, and the rollback disables
+ * EBS encryption by default in the regions where it was enabled.
+ * <P>
  *
  * @author Steve Wheat (swheat@emory.edu)
  * @version 1.0 - 4 March 2020
@@ -42,6 +44,8 @@ public class EnableEbsEncryptionByDefault extends AbstractStep implements Step {
     private String m_roleArnPattern = null;
     private int m_roleAssumptionDurationSeconds = 0;
     private List<String> m_regions = null;
+    private int m_maxParallelRegions = 4;
+    private static final String REGION_PROPERTY_PREFIX = "ebsEncryptionByDefault";
 
     public void init (String provisioningId, Properties props,
             AppConfig aConfig, VirtualPrivateCloudProvisioningProvider vpcpp)
@@ -86,6 +90,17 @@ public class EnableEbsEncryptionByDefault extends AbstractStep implements Step {
             logger.info(LOGTAG + "Regions list is: " + String.join(",", getRegions()));
         }
 
+        // Set the maximum number of regions to set up at the same time
+        String maxParallelRegions = getProperties().getProperty("maxParallelRegions", "4");
+        try {
+            m_maxParallelRegions = Integer.parseInt(maxParallelRegions);
+        } catch (NumberFormatException nfe) {
+            String errMsg = "Invalid maxParallelRegions property: " + maxParallelRegions;
+            logger.error(LOGTAG + errMsg);
+            throw new StepException(errMsg, nfe);
+        }
+        logger.info(LOGTAG + "maxParallelRegions is: " + m_maxParallelRegions);
+
         logger.info(LOGTAG + "Initialization complete.");
     }
 
@@ -113,27 +128,43 @@ public class EnableEbsEncryptionByDefault extends AbstractStep implements Step {
             logger.info(LOGTAG + "allocatedNewAccount is true and newAccountId " +
                     "is not null. Setting EBS encryption by default.");
 
-            List<String> regions = getRegions();
-            for (String region : regions) {
+            RegionFanOut fanOut = new RegionFanOut(getStepTag() + "EnableEbsEncryptionByDefault",
+                    m_maxParallelRegions);
+            RegionFanOut.Result result = fanOut.run(getRegions(), region -> {
                 logger.info(LOGTAG + "Setting EBS encryption by default for region: " + region);
 
                 // Build the EC2 client.
                 AmazonEC2Client client = buildAmazonEC2Client(newAccountId, region);
 
-                // Build the request.
-                EnableEbsEncryptionByDefaultRequest request = new EnableEbsEncryptionByDefaultRequest();
-
-                try {
-                    logger.info(LOGTAG + "Sending the encryption by default request...");
-                    long queryStartTime = System.currentTimeMillis();
-                    client.enableEbsEncryptionByDefault(request);
-                    long queryTime = System.currentTimeMillis() - queryStartTime;
-                    logger.info(LOGTAG + "received response to encryption by default request in " + queryTime + " ms.");
-                } catch (Exception e) {
-                    String errMsg = "An error occurred setting EBS encryption by default. The exception is: " + e.getMessage();
-                    logger.error(LOGTAG + errMsg);
-                    throw new StepException(errMsg, e);
+                // Send the request.
+                long queryStartTime = System.currentTimeMillis();
+                client.enableEbsEncryptionByDefault(new EnableEbsEncryptionByDefaultRequest());
+                long queryTime = System.currentTimeMillis() - queryStartTime;
+                logger.info(LOGTAG + "received response to encryption by default request for region " +
+                        region + " in " + queryTime + " ms.");
+            });
+            RegionFanOut.addResultProperties(this, REGION_PROPERTY_PREFIX, result);
+
+            if (!result.isSuccessful()) {
+                String errMsg = "An error occurred setting EBS encryption by default. " +
+                        "The errors are: " + result.getFailureSummary();
+                logger.error(LOGTAG + errMsg);
+
+                // Undo the regions that succeeded, so a failed step leaves
+                // nothing behind.
+                if (!result.getSucceededRegions().isEmpty()) {
+                    RegionFanOut.Result undoResult = disableEbsEncryptionByDefault(newAccountId,
+                            result.getSucceededRegions(), LOGTAG);
+                    for (String region : undoResult.getSucceededRegions()) {
+                        addResultProperty(REGION_PROPERTY_PREFIX + "." + region, "rolled back");
+                    }
+                    if (!undoResult.isSuccessful()) {
+                        logger.error(LOGTAG + "An error occurred disabling EBS encryption by default " +
+                                "in the regions that succeeded. The errors are: " +
+                                undoResult.getFailureSummary());
+                    }
                 }
+                throw new StepException(errMsg, result.getFailure(result.getFailedRegions().get(0)));
             }
             encryptionSet = true;
         }
@@ -203,15 +234,42 @@ public class EnableEbsEncryptionByDefault extends AbstractStep implements Step {
 
         String LOGTAG = getStepTag() + "[EnableEbsEncryptionByDefault.rollback] ";
 
-        logger.info(LOGTAG + "Rollback called, but this step has nothing to roll back.");
-
-        update(ROLLBACK_STATUS, SUCCESS_RESULT);
+        // Disable EBS encryption by default in the regions where this step
+        // enabled it.
+        List<String> regions = RegionFanOut.getSucceededRegions(this, REGION_PROPERTY_PREFIX, getRegions());
+        if (regions.isEmpty()) {
+            logger.info(LOGTAG + "Rollback called, but this step has nothing to roll back.");
+            update(ROLLBACK_STATUS, SUCCESS_RESULT);
+        }
+        else {
+            String newAccountId = getStepPropertyValue("GENERATE_NEW_ACCOUNT", "newAccountId");
+            RegionFanOut.Result result = disableEbsEncryptionByDefault(newAccountId, regions, LOGTAG);
+
+            if (!result.isSuccessful()) {
+                String errMsg = "An error occurred disabling EBS encryption by default. " +
+                        "The errors are: " + result.getFailureSummary();
+                logger.error(LOGTAG + errMsg);
+                throw new StepException(errMsg, result.getFailure(result.getFailedRegions().get(0)));
+            }
+            update(ROLLBACK_STATUS, SUCCESS_RESULT);
+        }
 
         // Log completion time.
         long time = System.currentTimeMillis() - startTime;
         logger.info(LOGTAG + "Rollback completed in " + time + "ms.");
     }
 
+    private RegionFanOut.Result disableEbsEncryptionByDefault(String accountId, List<String> regions,
+                                                              String LOGTAG) {
+        RegionFanOut fanOut = new RegionFanOut(getStepTag() + "EnableEbsEncryptionByDefault.rollback",
+                m_maxParallelRegions);
+        return fanOut.run(regions, region -> {
+            logger.info(LOGTAG + "Disabling EBS encryption by default for region: " + region);
+            AmazonEC2Client client = buildAmazonEC2Client(accountId, region);
+            client.disableEbsEncryptionByDefault(new DisableEbsEncryptionByDefaultRequest());
+        });
+    }
+
     private void setAccessKeyId (String accessKeyId) throws StepException {
         if (accessKeyId == null) {
             String errMsg = "accessKeyId property is null. Can't continue.";
@@ -284,32 +342,20 @@ public class EnableEbsEncryptionByDefault extends AbstractStep implements Step {
         String roleArn = getRoleArnPattern().replace("ACCOUNT_NUMBER", accountId);
         logger.info(LOGTAG + "Role ARN to assume for this request is: " + roleArn);
 
-        // Instantiate a basic credential provider
-        BasicAWSCredentials creds = new BasicAWSCredentials(getAccessKeyId(), getSecretKey());
-        AWSStaticCredentialsProvider cp = new AWSStaticCredentialsProvider(creds);
-
-        // Create the STS client
-        AWSSecurityTokenService sts = AWSSecurityTokenServiceClientBuilder.standard()
-                                        .withCredentials(cp)
-                                        .withRegion(region)
-                                        .build();
-
-        // Assume the appropriate role in the appropriate account.
-        AssumeRoleRequest assumeRequest = new AssumeRoleRequest().withRoleArn(roleArn)
-            .withDurationSeconds(getRoleAssumptionDurationSeconds())
-            .withRoleSessionName("AwsAccountService");
-
-        AssumeRoleResult assumeResult = sts.assumeRole(assumeRequest);
-        Credentials credentials = assumeResult.getCredentials();
-
-        // Instantiate a credential provider
-        BasicSessionCredentials temporaryCredentials = new BasicSessionCredentials(credentials.getAccessKeyId(), credentials.getSecretAccessKey(), credentials.getSessionToken());
-        AWSStaticCredentialsProvider credProvider = new AWSStaticCredentialsProvider(temporaryCredentials);
-
-        // Create the EC2 client
-        return (AmazonEC2Client)AmazonEC2ClientBuilder.standard()
-                .withCredentials(credProvider)
-                .withRegion(region)
-                .build();
+        // Get the session credentials of the role, shared with other requests
+        // for the same account until they are about to expire.
+        AWSCredentialsProvider credProvider = AssumedRoleCredentialsCache.getInstance()
+                .getCredentialsProvider(accountId, roleArn, getAccessKeyId(), getSecretKey(),
+                region, getRoleAssumptionDurationSeconds());
+
+        // Get the shared EC2 client
+        return AwsClientRegistry.getInstance().getClient(AmazonEC2Client.class,
+                accountId, region,
+                AwsClientRegistry.roleIdentity(roleArn, getAccessKeyId(), getRoleAssumptionDurationSeconds()),
+                () -> (AmazonEC2Client)AmazonEC2ClientBuilder.standard()
+                        .withCredentials(credProvider)
+                        .withRegion(region)
+                        .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.EC2, accountId))
+                        .build());
     }
 }
@@ -71,6 +71,8 @@ public class GenerateNewAccount extends AbstractStep implements Step {
     private String m_accessKey = null;
     private String m_secretKey = null;
     private AWSOrganizationsClient m_awsOrganizationsClient = null;
+    private long m_sleepTimeInMillis = 5000;
+    private long m_maxWaitTimeInMillis = 3600000;
 
     public void init (String provisioningId, Properties props,
             AppConfig aConfig, VirtualPrivateCloudProvisioningProvider vpcpp)
@@ -107,6 +109,17 @@ public class GenerateNewAccount extends AbstractStep implements Step {
         setSecretKey(secretKey);
         logger.info(LOGTAG + "secretKey is: present");
 
+        String sleepTime = getProperties()
+            .getProperty("sleepTimeInMillis", "5000");
+        setSleepTimeInMillis(Long.parseLong(sleepTime));
+        logger.info(LOGTAG + "sleepTimeInMillis is: " +
+            getSleepTimeInMillis());
+
+        String maxWaitTime = getProperties()
+            .getProperty("maxWaitTimeInMillis", "3600000");
+        setMaxWaitTimeInMillis(Long.parseLong(maxWaitTime));
+        logger.info(LOGTAG + "maxWaitTimeInMillis is: " +
+            getMaxWaitTimeInMillis());
 
         // Set the AWS account credentials
         BasicAWSCredentials creds = new BasicAWSCredentials(accessKey,
@@ -139,7 +152,6 @@ public class GenerateNewAccount extends AbstractStep implements Step {
         logger.info(LOGTAG + "Begin running the step.");
 
         boolean allocatedNewAccount = false;
-        String newAccountId;
 
         // Return properties
         addResultProperty("stepExecutionMethod", RUN_EXEC_TYPE);
@@ -232,67 +244,82 @@ public class GenerateNewAccount extends AbstractStep implements Step {
                 throw new StepException(errMsg, e);
             }
 
-            // Wait for the request to complete.
-            boolean createComplete = false;
+            // Wait for the request to complete. The status is checked on
+            // the shared ProbeScheduler, so no thread is held while AWS
+            // creates the account.
             DescribeCreateAccountStatusRequest casRequest = new DescribeCreateAccountStatusRequest();
             casRequest.setCreateAccountRequestId(id);
-            DescribeCreateAccountStatusResult casResult = null;
-            while (createComplete == false) {
-                logger.info(LOGTAG + "Checking for the staus of the create account transaction...");
-                casResult = getAwsOrganizationsClient().describeCreateAccountStatus(casRequest);
-                state = casResult.getCreateAccountStatus().getState();
-                logger.info(LOGTAG + "Account creation status is: " + state);
-                if (state.equals(IN_PROGRESS) == false) {
-                    createComplete = true;
-                }
-                else {
+            return waitFor("AWS to create the account", () -> {
+                logger.info(LOGTAG + "Checking for the status of the create account transaction...");
+                DescribeCreateAccountStatusResult casResult =
+                    getAwsOrganizationsClient().describeCreateAccountStatus(casRequest);
+                String casState = casResult.getCreateAccountStatus().getState();
+                logger.info(LOGTAG + "Account creation status is: " + casState);
+                if (casState.equals(IN_PROGRESS)) {
                     logger.info(LOGTAG + "Waiting to check account creation status again.");
-                    try {
-                        Thread.sleep(5000);
-                    }
-                    catch (InterruptedException ie) {
-                        String errMsg = "An error occurred waiting for AWS to create the new account. The exception is: " + ie.getMessage();
-                        logger.error(LOGTAG + errMsg);
-                        throw new StepException(errMsg, ie);
-                    }
+                    return null;
                 }
-            }
-
-            if (state.equalsIgnoreCase(SUCCEEDED)) {
-                allocatedNewAccount = true;
-                newAccountId = casResult.getCreateAccountStatus().getAccountId();
-                logger.info(LOGTAG + "Successfully created new account: " + newAccountId);
-                addResultProperty("allocatedNewAccount", Boolean.toString(allocatedNewAccount));
-                addResultProperty("newAccountId", newAccountId);
-            }
-            else {
-                allocatedNewAccount = false;
-                String failureReason = casResult.getCreateAccountStatus().getFailureReason();
-                if (failureReason == null)
-                    failureReason = "none returned";
-                logger.info(LOGTAG + "Failed to create new account. Failure reason: " + failureReason);
-                addResultProperty("allocatedNewAccount", Boolean.toString(allocatedNewAccount));
-                addResultProperty("failureReason", failureReason);
-            }
+                return casResult.getCreateAccountStatus();
+            }, 0, getSleepTimeInMillis(), getMaxWaitTimeInMillis(),
+                status -> completeAccountCreation(status, startTime));
         }
 
         // If allocateNewAccount and accountSequenceNumber is false, log it and add result props.
+        logger.info(LOGTAG + "allocateNewAccount is false. no need to create a new account.");
+        addResultProperty("allocatedNewAccount", Boolean.toString(allocatedNewAccount));
+        addResultProperty("newAccountId", PROPERTY_VALUE_NOT_APPLICABLE);
+
+        // Update the step.
+        update(COMPLETED_STATUS, SUCCESS_RESULT);
+
+        // Log completion time.
+        long time = System.currentTimeMillis() - startTime;
+        logger.info(LOGTAG + "Step run completed in " + time + "ms.");
+
+        // Return the properties.
+        return getResultProperties();
+
+    }
+
+    /**
+     * Completes the step with the final status of the account creation, or
+     * a null status if AWS did not finish creating the account in the
+     * maximum wait time.
+     */
+    private List<Property> completeAccountCreation(CreateAccountStatus status, long startTime)
+        throws StepException {
+
+        String LOGTAG = getStepTag() + "[GenerateNewAccount.completeAccountCreation] ";
+
+        boolean allocatedNewAccount = false;
+        if (status != null && status.getState().equalsIgnoreCase(SUCCEEDED)) {
+            allocatedNewAccount = true;
+            String newAccountId = status.getAccountId();
+            logger.info(LOGTAG + "Successfully created new account: " + newAccountId);
+            addResultProperty("allocatedNewAccount", Boolean.toString(allocatedNewAccount));
+            addResultProperty("newAccountId", newAccountId);
+        }
         else {
-            logger.info(LOGTAG + "allocateNewAccount is false. no need to create a new account.");
+            String failureReason = null;
+            if (status == null) {
+                failureReason = "AWS did not create the account within " +
+                    getMaxWaitTimeInMillis() + " ms";
+            }
+            else {
+                failureReason = status.getFailureReason();
+            }
+            if (failureReason == null)
+                failureReason = "none returned";
+            logger.info(LOGTAG + "Failed to create new account. Failure reason: " + failureReason);
             addResultProperty("allocatedNewAccount", Boolean.toString(allocatedNewAccount));
-            addResultProperty("newAccountId", PROPERTY_VALUE_NOT_APPLICABLE);
+            addResultProperty("failureReason", failureReason);
         }
 
         // Update the step.
         String stepResult = FAILURE_RESULT;
-        if (allocateNewAccount == true && allocatedNewAccount == true) {
+        if (allocatedNewAccount == true) {
             stepResult = SUCCESS_RESULT;
         }
-        if (allocateNewAccount == false) {
-            stepResult = SUCCESS_RESULT;
-        }
-
-        // Update the step.
         update(COMPLETED_STATUS, stepResult);
 
         // Log completion time.
@@ -301,7 +328,6 @@ public class GenerateNewAccount extends AbstractStep implements Step {
 
         // Return the properties.
         return getResultProperties();
-
     }
 
     protected List<Property> simulate() throws StepException {
@@ -449,6 +475,22 @@ public class GenerateNewAccount extends AbstractStep implements Step {
         return m_awsOrganizationsClient;
     }
 
+    private void setSleepTimeInMillis(long time) {
+        m_sleepTimeInMillis = time;
+    }
+
+    private long getSleepTimeInMillis() {
+        return m_sleepTimeInMillis;
+    }
+
+    private void setMaxWaitTimeInMillis(long time) {
+        m_maxWaitTimeInMillis = time;
+    }
+
+    private long getMaxWaitTimeInMillis() {
+        return m_maxWaitTimeInMillis;
+    }
+
     private void setAccountSeriesName (String name) throws
         StepException {
 
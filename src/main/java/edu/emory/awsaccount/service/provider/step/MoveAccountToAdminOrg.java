@@ -17,17 +17,15 @@ import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.organizations.AWSOrganizationsClient;
 import com.amazonaws.services.organizations.AWSOrganizationsClientBuilder;
-import com.amazonaws.services.organizations.model.ListAccountsForParentRequest;
-import com.amazonaws.services.organizations.model.ListAccountsForParentResult;
 import com.amazonaws.services.organizations.model.ListAccountsRequest;
 import com.amazonaws.services.organizations.model.ListAccountsResult;
 import com.amazonaws.services.organizations.model.MoveAccountRequest;
 import com.amazonaws.services.organizations.model.MoveAccountResult;
+import edu.emory.awsaccount.service.provider.OrganizationHierarchyIndex;
 import edu.emory.awsaccount.service.provider.VirtualPrivateCloudProvisioningProvider;
 import org.openeai.config.AppConfig;
 
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Properties;
 
 /**
@@ -164,6 +162,7 @@ public class MoveAccountToAdminOrg extends AbstractStep implements Step {
             logger.info(LOGTAG + "Sending the move account request...");
             long moveStartTime = System.currentTimeMillis();
             getAwsOrganizationsClient().moveAccount(request);
+            OrganizationHierarchyIndex.getInstance().accountMoved(accountId, getDestinationParentId());
             long moveTime = System.currentTimeMillis() - moveStartTime;
             logger.info(LOGTAG + "received response to move account request in " + moveTime + " ms.");
             accountMoved = true;
@@ -246,15 +245,11 @@ public class MoveAccountToAdminOrg extends AbstractStep implements Step {
         // the destination ou.
         if (newAccountId != null) {
             try {
-                ListAccountsForParentRequest request = new ListAccountsForParentRequest();
-                request.setParentId(getDestinationParentId());
-                ListAccountsForParentResult result = getAwsOrganizationsClient().listAccountsForParent(request);
-                List<com.amazonaws.services.organizations.model.Account> accounts = result.getAccounts();
-                ListIterator<com.amazonaws.services.organizations.model.Account> li = accounts.listIterator();
-                while (li.hasNext()) {
-                    com.amazonaws.services.organizations.model.Account account = li.next();
-                    isAccountInAdminOu = true;
-                }
+                // Look the parent up rather than trusting the index before
+                // moving the account back.
+                String parentId = OrganizationHierarchyIndex.getInstance()
+                        .refreshParentId(getAwsOrganizationsClient(), newAccountId);
+                isAccountInAdminOu = getDestinationParentId().equals(parentId);
             } catch (Exception e) {
                 String errMsg = "An error occurred querying for a list of accounts in the admin org. The exception is: " + e.getMessage();
                 logger.error(LOGTAG + errMsg);
@@ -276,6 +271,7 @@ public class MoveAccountToAdminOrg extends AbstractStep implements Step {
                 logger.info(LOGTAG + "Sending the move account request...");
                 long moveStartTime = System.currentTimeMillis();
                 getAwsOrganizationsClient().moveAccount(request);
+                OrganizationHierarchyIndex.getInstance().accountMoved(newAccountId, getSourceParentId());
                 long moveTime = System.currentTimeMillis() - moveStartTime;
                 logger.info(LOGTAG + "received response to move account request in " + moveTime + " ms.");
                 movedAccountBackToOrgRoot = true;
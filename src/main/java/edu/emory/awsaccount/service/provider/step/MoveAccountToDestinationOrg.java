@@ -23,12 +23,12 @@ import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.organizations.AWSOrganizationsClient;
 import com.amazonaws.services.organizations.AWSOrganizationsClientBuilder;
-import com.amazonaws.services.organizations.model.ListAccountsForParentRequest;
-import com.amazonaws.services.organizations.model.ListAccountsForParentResult;
 import com.amazonaws.services.organizations.model.ListAccountsRequest;
 import com.amazonaws.services.organizations.model.ListAccountsResult;
 import com.amazonaws.services.organizations.model.MoveAccountRequest;
 import com.amazonaws.services.organizations.model.MoveAccountResult;
+import edu.emory.awsaccount.service.AwsRateLimiter;
+import edu.emory.awsaccount.service.provider.OrganizationHierarchyIndex;
 import edu.emory.awsaccount.service.provider.VirtualPrivateCloudProvisioningProvider;
 
 /**
@@ -88,6 +88,7 @@ public class MoveAccountToDestinationOrg extends AbstractStep implements Step {
         AWSOrganizationsClientBuilder builder = AWSOrganizationsClientBuilder.standard()
                 .withCredentials(new AWSStaticCredentialsProvider(creds));
         builder.setRegion("us-east-1");
+        builder.setRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.ORGANIZATIONS, null));
 
         // Initialize the AWS client
         logger.info("Initializing AmazonCloudFormationClient...");
@@ -150,6 +151,7 @@ public class MoveAccountToDestinationOrg extends AbstractStep implements Step {
             logger.info(LOGTAG + "Sending the move account request...");
             long moveStartTime = System.currentTimeMillis();
             MoveAccountResult result = getAwsOrganizationsClient().moveAccount(request);
+            OrganizationHierarchyIndex.getInstance().accountMoved(accountId, getDestinationParentId());
             long moveTime = System.currentTimeMillis() - moveStartTime;
             logger.info(LOGTAG + "received response to move account request in " + moveTime + " ms.");
         }
@@ -231,14 +233,11 @@ public class MoveAccountToDestinationOrg extends AbstractStep implements Step {
         // the destination ou.
         if (newAccountId != null) {
             try {
-                ListAccountsForParentRequest request = new ListAccountsForParentRequest();
-                request.setParentId(getDestinationParentId());
-                ListAccountsForParentResult result = getAwsOrganizationsClient().listAccountsForParent(request);
-                List<com.amazonaws.services.organizations.model.Account> accounts = result.getAccounts();
-                for (com.amazonaws.services.organizations.model.Account account : accounts) {
-                    if (account.getId().equalsIgnoreCase(newAccountId))
-                        isAccountInAdminOu = true;
-                }
+                // Look the parent up rather than trusting the index before
+                // moving the account back.
+                String parentId = OrganizationHierarchyIndex.getInstance()
+                        .refreshParentId(getAwsOrganizationsClient(), newAccountId);
+                isAccountInAdminOu = getDestinationParentId().equals(parentId);
             }
             catch (Exception e) {
                 String errMsg = "An error occurred querying for a list of accounts in the admin org. The exception is: " + e.getMessage();
@@ -260,6 +259,7 @@ public class MoveAccountToDestinationOrg extends AbstractStep implements Step {
                 logger.info(LOGTAG + "Sending the move account request...");
                 long moveStartTime = System.currentTimeMillis();
                 getAwsOrganizationsClient().moveAccount(request);
+                OrganizationHierarchyIndex.getInstance().accountMoved(newAccountId, getSourceParentId());
                 long moveTime = System.currentTimeMillis() - moveStartTime;
                 logger.info(LOGTAG + "received response to move account request in " + moveTime + " ms.");
                 movedAccountBackToOrgRoot = true;
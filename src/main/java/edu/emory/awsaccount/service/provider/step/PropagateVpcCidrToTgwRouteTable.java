@@ -14,6 +14,7 @@ import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder
 import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
 import com.amazonaws.services.securitytoken.model.AssumeRoleResult;
 import com.amazonaws.services.securitytoken.model.Credentials;
+import edu.emory.awsaccount.service.AwsRateLimiter;
 import edu.emory.awsaccount.service.provider.VirtualPrivateCloudProvisioningProvider;
 import org.openeai.config.AppConfig;
 
@@ -190,6 +191,7 @@ public class PropagateVpcCidrToTgwRouteTable extends AbstractStep implements Ste
         AWSSecurityTokenService sts = AWSSecurityTokenServiceClientBuilder.standard()
                 .withCredentials(cp)
                 .withRegion(region)
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.STS, null))
                 .build();
 
         AssumeRoleRequest assumeRequest = new AssumeRoleRequest().withRoleArn(roleArn)
@@ -207,6 +209,7 @@ public class PropagateVpcCidrToTgwRouteTable extends AbstractStep implements Ste
         return (AmazonEC2Client) AmazonEC2ClientBuilder.standard()
                 .withCredentials(cp)
                 .withRegion(region)
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.EC2, accountId))
                 .build();
     }
 }
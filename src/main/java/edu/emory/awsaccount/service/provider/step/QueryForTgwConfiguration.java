@@ -15,6 +15,7 @@ import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder
 import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
 import com.amazonaws.services.securitytoken.model.AssumeRoleResult;
 import com.amazonaws.services.securitytoken.model.Credentials;
+import edu.emory.awsaccount.service.AwsRateLimiter;
 import edu.emory.awsaccount.service.provider.VirtualPrivateCloudProvisioningProvider;
 import org.openeai.config.AppConfig;
 
@@ -160,6 +161,12 @@ public class QueryForTgwConfiguration extends AbstractStep implements Step {
         return getResultProperties();
     }
 
+    @Override
+    public boolean isRerunnable() {
+        // This step only reads and computes values, so it is safe to run again.
+        return true;
+    }
+
     @Override
     public void rollback() throws StepException {
         long startTime = System.currentTimeMillis();
@@ -189,6 +196,7 @@ public class QueryForTgwConfiguration extends AbstractStep implements Step {
         AWSSecurityTokenService sts = AWSSecurityTokenServiceClientBuilder.standard()
                 .withCredentials(cp)
                 .withRegion(region)
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.STS, null))
                 .build();
 
         AssumeRoleRequest assumeRequest = new AssumeRoleRequest().withRoleArn(roleArn)
@@ -206,6 +214,7 @@ public class QueryForTgwConfiguration extends AbstractStep implements Step {
         return (AmazonEC2Client) AmazonEC2ClientBuilder.standard()
                 .withCredentials(cp)
                 .withRegion(region)
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.EC2, accountId))
                 .build();
     }
 }
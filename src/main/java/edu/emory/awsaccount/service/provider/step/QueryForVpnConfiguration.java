@@ -24,6 +24,7 @@ import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder
 import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
 import com.amazonaws.services.securitytoken.model.AssumeRoleResult;
 import com.amazonaws.services.securitytoken.model.Credentials;
+import edu.emory.awsaccount.service.AwsRateLimiter;
 import edu.emory.awsaccount.service.provider.VirtualPrivateCloudProvisioningProvider;
 import org.apache.commons.net.util.SubnetUtils;
 import org.apache.commons.net.util.SubnetUtils.SubnetInfo;
@@ -190,6 +191,11 @@ public class QueryForVpnConfiguration extends AbstractStep implements Step {
         return getResultProperties();
     }
 
+    public boolean isRerunnable() {
+        // This step only reads and computes values, so it is safe to run again.
+        return true;
+    }
+
     public void rollback() throws StepException {
         long startTime = System.currentTimeMillis();
 
@@ -324,6 +330,7 @@ public class QueryForVpnConfiguration extends AbstractStep implements Step {
         AWSSecurityTokenService sts = AWSSecurityTokenServiceClientBuilder.standard()
                 .withCredentials(cp)
                 .withRegion(region)
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.STS, null))
                 .build();
 
         // Assume the appropriate role in the appropriate account.
@@ -339,7 +346,9 @@ public class QueryForVpnConfiguration extends AbstractStep implements Step {
         AWSStaticCredentialsProvider credProvider = new AWSStaticCredentialsProvider(temporaryCredentials);
 
         // Create the EC2 client
-        return (AmazonEC2Client) AmazonEC2ClientBuilder.standard().withCredentials(credProvider).withRegion(region).build();
+        return (AmazonEC2Client) AmazonEC2ClientBuilder.standard().withCredentials(credProvider).withRegion(region)
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.EC2, accountId))
+                .build();
     }
 
     private String getRemoteIpAddress(String customerGatewayConfig, String insideIpCidr) throws StepException {
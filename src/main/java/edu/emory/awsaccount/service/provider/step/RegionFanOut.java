@@ -0,0 +1,215 @@
+/*******************************************************************************
+ $Source: $
+ $Revision: $
+ *******************************************************************************/
+
+/******************************************************************************
+ This file is part of the Emory AWS Account Service.
+
+ Copyright (C) 2017 Emory University. All rights reserved.
+ ******************************************************************************/
+package edu.emory.awsaccount.service.provider.step;
+
+import org.apache.log4j.Category;
+import org.openeai.OpenEaiObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the work of a step in several AWS regions at the same time.
+ * <P>
+ * Steps that set up something in every region of an account, such as EBS
+ * encryption by default, used to do one region after the other. This class
+ * runs the work for each region on its own thread, with at most the
+ * configured number of regions at a time, and waits for all of them. A
+ * failure in one region does not stop the others. The outcome of each region
+ * is recorded in a result property of the step named prefix.region, so the
+ * rollback of the step can undo the work in the regions that succeeded, even
+ * after a restart of the service.
+ * <P>
+ *
+ * @version 1.0 - 17 October 2026
+ */
+public class RegionFanOut {
+
+    /**
+     * The work of a step in one region.
+     */
+    public interface RegionTask {
+        /**
+         * @param region, the region to do the work in.
+         * @throws Exception if the work failed in the region.
+         */
+        void run(String region) throws Exception;
+    }
+
+    /**
+     * The outcome of the work in each region.
+     */
+    public static class Result {
+        private final List<String> m_succeededRegions = new ArrayList<>();
+        private final Map<String, Throwable> m_failures = new LinkedHashMap<>();
+
+        /**
+         * @return List<String>, the regions the work succeeded in.
+         */
+        public List<String> getSucceededRegions() {
+            return Collections.unmodifiableList(m_succeededRegions);
+        }
+
+        /**
+         * @return List<String>, the regions the work failed in.
+         */
+        public List<String> getFailedRegions() {
+            return new ArrayList<>(m_failures.keySet());
+        }
+
+        /**
+         * @return Throwable, the reason the work failed in the region or null
+         * if it did not fail.
+         */
+        public Throwable getFailure(String region) {
+            return m_failures.get(region);
+        }
+
+        /**
+         * @return boolean, true if the work succeeded in all regions.
+         */
+        public boolean isSuccessful() {
+            return m_failures.isEmpty();
+        }
+
+        /**
+         * @return String, the failed regions and their errors.
+         */
+        public String getFailureSummary() {
+            StringBuilder summary = new StringBuilder();
+            for (Map.Entry<String, Throwable> failure : m_failures.entrySet()) {
+                if (summary.length() > 0) {
+                    summary.append("; ");
+                }
+                summary.append(failure.getKey()).append(": ")
+                        .append(failure.getValue().getMessage());
+            }
+            return summary.toString();
+        }
+    }
+
+    private static final int MAX_PROPERTY_LENGTH = 254;
+
+    private final Category logger = OpenEaiObject.logger;
+    private final String LOGTAG;
+    private final int m_maxParallelRegions;
+
+    /**
+     * @param name, the name of the work, used for logging and thread names.
+     * @param maxParallelRegions, the maximum number of regions to work in at
+     * the same time.
+     */
+    public RegionFanOut(String name, int maxParallelRegions) {
+        LOGTAG = "[RegionFanOut{" + name + "}] ";
+        m_maxParallelRegions = Math.max(1, maxParallelRegions);
+    }
+
+    /**
+     * Runs the task in all regions and waits for it to finish in each of
+     * them.
+     *
+     * @param regions, the regions to run the task in.
+     * @param task, the work to do in each region.
+     * @return Result, the outcome in each region, in the order of the regions.
+     */
+    public Result run(List<String> regions, RegionTask task) {
+        long startTime = System.currentTimeMillis();
+        Result result = new Result();
+        if (regions.isEmpty()) {
+            return result;
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(m_maxParallelRegions, regions.size()), r -> {
+                    Thread t = new Thread(r, "RegionFanOut-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        try {
+            Map<String, Future<?>> futures = new LinkedHashMap<>();
+            for (String region : regions) {
+                futures.put(region, executor.submit(() -> {
+                    task.run(region);
+                    return null;
+                }));
+            }
+
+            for (Map.Entry<String, Future<?>> future : futures.entrySet()) {
+                String region = future.getKey();
+                try {
+                    future.getValue().get();
+                    result.m_succeededRegions.add(region);
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause() != null ? ee.getCause() : ee;
+                    logger.error(LOGTAG + "The work failed in region " + region +
+                            ". The exception is: " + cause.getMessage());
+                    result.m_failures.put(region, cause);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    result.m_failures.put(region, ie);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long time = System.currentTimeMillis() - startTime;
+        logger.info(LOGTAG + "Completed " + regions.size() + " regions in " + time +
+                " ms. Succeeded: " + result.m_succeededRegions.size() + ", failed: " +
+                result.m_failures.size() + ".");
+        return result;
+    }
+
+    /**
+     * Adds a result property named prefix.region to the step for each
+     * region, with the value success or the error in the region.
+     */
+    public static void addResultProperties(AbstractStep step, String prefix,
+                                           Result result) throws StepException {
+        for (String region : result.getSucceededRegions()) {
+            step.addResultProperty(prefix + "." + region, "success");
+        }
+        for (String region : result.getFailedRegions()) {
+            String value = "failure: " + result.getFailure(region).getMessage();
+            if (value.length() > MAX_PROPERTY_LENGTH) {
+                value = value.substring(0, MAX_PROPERTY_LENGTH);
+            }
+            step.addResultProperty(prefix + "." + region, value);
+        }
+    }
+
+    /**
+     * @return List<String>, the regions whose result property named
+     * prefix.region shows the work succeeded, in the order of the regions.
+     */
+    public static List<String> getSucceededRegions(AbstractStep step, String prefix,
+                                                   List<String> regions) {
+        List<String> succeeded = new ArrayList<>();
+        if (step.getResultProperties() == null) {
+            return succeeded;
+        }
+        for (String region : regions) {
+            if ("success".equals(step.getResultProperty(prefix + "." + region))) {
+                succeeded.add(region);
+            }
+        }
+        return succeeded;
+    }
+}
@@ -14,6 +14,7 @@ package edu.emory.awsaccount.service.provider.step;
 // Core Java
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 // OpenEAI Core
 import org.openeai.config.AppConfig;
@@ -51,6 +52,13 @@ public interface Step {
      * @throws StepException, with details of the error executing the step.
      */
     public List<Property> execute() throws StepException;
+    /**
+     * @return CompletableFuture<List<Property>>, the continuation of the
+     * step if execute returned while the step is waiting, or null if it did
+     * not. The continuation completes with the result properties of the step,
+     * or exceptionally with a StepException.
+     */
+    public CompletableFuture<List<Property>> getContinuation();
     /**
      *
      * <P>
@@ -75,6 +83,11 @@ public interface Step {
      * @return String, the step result
      */
     public String getResult();
+    /**
+     * @return boolean, true if the step may be executed again after it was
+     * interrupted while in progress.
+     */
+    public boolean isRerunnable();
     /**
      * @return List<Property>, the step result properties
      */
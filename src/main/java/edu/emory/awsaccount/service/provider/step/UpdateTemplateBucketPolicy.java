@@ -22,6 +22,7 @@ import com.amazonaws.services.s3.model.Bucket;
 import com.amazonaws.services.s3.model.BucketPolicy;
 import com.amazonaws.services.s3.model.ListBucketsRequest;
 import com.amazonaws.services.s3.model.SetBucketPolicyRequest;
+import edu.emory.awsaccount.service.AwsRateLimiter;
 import edu.emory.awsaccount.service.provider.VirtualPrivateCloudProvisioningProvider;
 import org.openeai.config.AppConfig;
 
@@ -80,7 +81,8 @@ public class UpdateTemplateBucketPolicy extends AbstractStep implements Step {
         // Instantiate an AWS client builder
         AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard()
                 .withCredentials(new AWSStaticCredentialsProvider(creds))
-                .withRegion("us-east-1");
+                .withRegion("us-east-1")
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.S3, null));
 
         // Initialize the AWS client
         logger.info("Initializing AmazonS3Client...");
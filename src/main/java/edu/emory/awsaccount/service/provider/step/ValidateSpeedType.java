@@ -207,6 +207,11 @@ public class ValidateSpeedType extends AbstractStep implements Step {
         return getResultProperties();
     }
 
+    public boolean isRerunnable() {
+        // This step only reads and computes values, so it is safe to run again.
+        return true;
+    }
+
     public void rollback() throws StepException {
 
         super.rollback();
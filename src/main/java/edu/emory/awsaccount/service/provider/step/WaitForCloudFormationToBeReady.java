@@ -14,6 +14,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jms.JMSException;
 
@@ -51,6 +52,7 @@ public class WaitForCloudFormationToBeReady extends AbstractStep implements Step
     private String m_stackName = null;
     private long m_maxWaitTimeInMillis = 60000;
     private long m_sleepTimeInMillis = 10000;
+    private long m_minSleepTimeInMillis = 1000;
     private ProducerPool m_awsAccountServiceProducerPool = null;
 
     public void init (String provisioningId, Properties props,
@@ -83,6 +85,16 @@ public class WaitForCloudFormationToBeReady extends AbstractStep implements Step
         String sMaxWaitTime = getProperties().getProperty("maxWaitTimeInMillis", "60000");
         setMaxWaitTimeInMillis(Long.parseLong(sMaxWaitTime));
 
+        String sSleepTime = getProperties().getProperty("sleepTimeInMillis", "10000");
+        setSleepTimeInMillis(Long.parseLong(sSleepTime));
+
+        // The sleep time starts at the minimum and backs off to the sleep
+        // time, so a stack query that succeeds soon is not delayed.
+        String sMinSleepTime = getProperties().getProperty("minSleepTimeInMillis", "1000");
+        setMinSleepTimeInMillis(Math.min(Long.parseLong(sMinSleepTime), getSleepTimeInMillis()));
+        logger.info(LOGTAG + "minSleepTimeInMillis is: " + getMinSleepTimeInMillis() +
+            ", sleepTimeInMillis is: " + getSleepTimeInMillis());
+
         logger.info(LOGTAG + "Initialization complete.");
     }
 
@@ -114,28 +126,33 @@ public class WaitForCloudFormationToBeReady extends AbstractStep implements Step
 
         logger.info(LOGTAG + "Begin querying for a stack to see if CloudFormation is ready.");
 
-        boolean isCloudFormationReady = false;
-        int attempts = 0;
-        while (!isCloudFormationReady && getQueryTimeInMillis(startTime) < getMaxWaitTimeInMillis()) {
+        // Query for the stack on the shared ProbeScheduler until the query
+        // succeeds, so no thread is held while CloudFormation gets ready.
+        AtomicInteger attempts = new AtomicInteger();
+        final String stackAccountId = accountId;
+        return waitFor("CloudFormation to be ready", () -> {
             try {
-                attempts++;
-                logger.info(LOGTAG + "Attempting stack query attempt # " + attempts + ".");
-                stackQuery(accountId, getStackName(), region);
-                isCloudFormationReady = true;
+                logger.info(LOGTAG + "Attempting stack query attempt # " + attempts.incrementAndGet() + ".");
+                stackQuery(stackAccountId, getStackName(), region);
                 logger.info(LOGTAG + "Stack query was successful. CloudFormation is ready.");
+                return Boolean.TRUE;
             }
             catch (StepException se) {
                 String errMsg = "An error occurred querying for the stack. to see if CloudFormation is ready. The exception is: " + se.getMessage();
-                try {
-                    Thread.sleep(10000);
-                }
-                catch (InterruptedException ie) {
-                    String errMsg2 = "An error occurred sleeping before retrying the stack query. The exception is: " + ie.getMessage();
-                    logger.error(LOGTAG + errMsg2);
-                    throw new StepException(errMsg, ie);
-                }
+                logger.info(LOGTAG + errMsg);
+                return null;
             }
-        }
+        }, 0, getMinSleepTimeInMillis(), getSleepTimeInMillis(), getMaxWaitTimeInMillis(),
+            ready -> completeWait(ready != null, attempts.get(), startTime));
+    }
+
+    /**
+     * Completes the step with the result of waiting for CloudFormation.
+     */
+    private List<Property> completeWait(boolean isCloudFormationReady, int attempts, long startTime)
+        throws StepException {
+
+        String LOGTAG = getStepTag() + "[WaitForCloudFormationToBeReady.completeWait] ";
 
         // Add result properties
         addResultProperty("attempts", Integer.toString(attempts));
@@ -303,11 +320,19 @@ public class WaitForCloudFormationToBeReady extends AbstractStep implements Step
         return m_maxWaitTimeInMillis;
     }
 
+    private void setSleepTimeInMillis(long sleepTimeInMillis) {
+        m_sleepTimeInMillis = sleepTimeInMillis;
+    }
+
     private Long getSleepTimeInMillis() {
         return m_sleepTimeInMillis;
     }
 
-    private long getQueryTimeInMillis(long queryStartTime) {
-        return System.currentTimeMillis() - queryStartTime;
+    private void setMinSleepTimeInMillis(long minSleepTimeInMillis) {
+        m_minSleepTimeInMillis = minSleepTimeInMillis;
+    }
+
+    private Long getMinSleepTimeInMillis() {
+        return m_minSleepTimeInMillis;
     }
 }
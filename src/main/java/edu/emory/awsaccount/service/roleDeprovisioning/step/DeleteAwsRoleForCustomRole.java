@@ -27,6 +27,7 @@ import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder
 import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
 import com.amazonaws.services.securitytoken.model.AssumeRoleResult;
 import com.amazonaws.services.securitytoken.model.Credentials;
+import edu.emory.awsaccount.service.AwsRateLimiter;
 import edu.emory.awsaccount.service.provider.RoleDeprovisioningProvider;
 import org.openeai.config.AppConfig;
 
@@ -218,6 +219,7 @@ public class DeleteAwsRoleForCustomRole extends AbstractStep implements Step {
         AWSSecurityTokenService sts = AWSSecurityTokenServiceClientBuilder.standard()
                 .withRegion("us-east-1")
                 .withCredentials(cp)
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.STS, null))
                 .build();
 
         // Assume the appropriate role in the appropriate account.
@@ -238,6 +240,7 @@ public class DeleteAwsRoleForCustomRole extends AbstractStep implements Step {
         return AmazonIdentityManagementClientBuilder.standard()
                 .withRegion("us-east-1")
                 .withCredentials(sessionCreds)
+                .withRequestHandlers(AwsRateLimiter.getInstance().getRequestHandler(AwsRateLimiter.IAM, accountId))
                 .build();
     }
 
@@ -333,6 +333,14 @@ public abstract class AbstractStep {
 
     protected void setResultProperties(List<Property> resultProps) { m_resultProperties = resultProps; }
     public void addResultProperty(String key, String value) throws StepException {
+        // The result properties of this step are part of the RoleProvisioning object, which
+        // may be persisted in the background, so hold the same lock as update.
+        synchronized (getRoleProvisioningProvider()) {
+            putResultProperty(key, value);
+        }
+    }
+
+    private void putResultProperty(String key, String value) throws StepException {
         String LOGTAG = getStepTag() + "[AbstractStep.addResultProperty] ";
         logger.debug(LOGTAG + "Adding result property " + key + ": " + value);
 
@@ -454,8 +462,21 @@ public abstract class AbstractStep {
         String LOGTAG = getStepTag() + "[AbstractStep.update] ";
         logger.info(LOGTAG + "Updating step with status " + status + " and result " + result);
 
-        // Update the baseline state of the RoleProvisioning
-        queryForRoleProvisioningBaseline();
+        // The role provisioning transaction hands its steps a provider scoped
+        // to that transaction, which persists the RoleProvisioning object in
+        // the background. Hold it while modifying the object, so it is never
+        // persisted half way through an update.
+        synchronized (getRoleProvisioningProvider()) {
+            updateRoleProvisioning(status, result);
+        }
+    }
+
+    private void updateRoleProvisioning(String status, String result) throws StepException {
+        String LOGTAG = getStepTag() + "[AbstractStep.update] ";
+
+        // The RoleProvisioning object queried at initialization is the
+        // in-memory state of the transaction, so there is no need to query
+        // for it again before every update.
 
         // If the current status is in progress, update the
         // execution time. Note that we don't want to
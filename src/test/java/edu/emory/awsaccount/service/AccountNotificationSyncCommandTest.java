@@ -0,0 +1,133 @@
+package edu.emory.awsaccount.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.JMSException;
+
+import org.junit.Test;
+import org.openeai.config.AppConfig;
+
+import com.amazon.aws.moa.jmsobjects.provisioning.v1_0.AccountNotification;
+import com.amazon.aws.moa.jmsobjects.user.v1_0.UserNotification;
+
+import edu.emory.awsaccount.service.provider.ProviderException;
+import edu.emory.awsaccount.service.provider.UserNotificationBatchGenerator;
+import edu.emory.awsaccount.service.provider.UserNotificationProvider;
+
+public class AccountNotificationSyncCommandTest {
+
+    /**
+     * A provider that generates UserNotifications one at a time and fails
+     * each user with the given causes first.
+     */
+    private static class FakeProvider implements UserNotificationProvider {
+        final Map<String, List<Throwable>> m_failures = new HashMap<>();
+        final List<String> m_calls = new ArrayList<>();
+
+        @Override
+        public void init(AppConfig aConfig) {
+        }
+
+        @Override
+        public UserNotification generate(String userId, AccountNotification aNotification)
+                throws ProviderException {
+            m_calls.add(userId);
+            List<Throwable> causes = m_failures.get(userId);
+            if (causes != null && !causes.isEmpty()) {
+                Throwable cause = causes.remove(0);
+                throw new ProviderException("An error occurred generating the UserNotification.", cause);
+            }
+            return new UserNotification();
+        }
+
+        @Override
+        public List<String> getUserIdsForAccount(String accountId) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void processAdditionalNotifications(UserNotification notification) {
+        }
+    }
+
+    /**
+     * A provider that generates the UserNotifications of many users at once
+     * and fails each user the given number of times first.
+     */
+    private static class FakeBatchProvider extends FakeProvider implements UserNotificationBatchGenerator {
+        final Map<String, Integer> m_batchFailures = new HashMap<>();
+
+        @Override
+        public BatchResult generateAll(List<String> userIds, AccountNotification aNotification) {
+            m_calls.add("generateAll " + userIds);
+            return result(userIds);
+        }
+
+        @Override
+        public BatchResult retryAll(List<String> userIds, AccountNotification aNotification) {
+            m_calls.add("retryAll " + userIds);
+            return result(userIds);
+        }
+
+        private BatchResult result(List<String> userIds) {
+            BatchResult result = new BatchResult();
+            for (String userId : userIds) {
+                int failures = m_batchFailures.getOrDefault(userId, 0);
+                if (failures > 0) {
+                    m_batchFailures.put(userId, failures - 1);
+                    result.addFailure(userId, new ProviderException("failed"));
+                } else {
+                    result.addGenerated(userId, new UserNotification());
+                }
+            }
+            return result;
+        }
+    }
+
+    private static List<Throwable> causes(Throwable... causes) {
+        return new ArrayList<>(Arrays.asList(causes));
+    }
+
+    @Test
+    public void batchProviderRetriesOnlyTheFailedUsers() {
+        FakeBatchProvider provider = new FakeBatchProvider();
+        provider.m_batchFailures.put("u2", 1);
+        Map<String, ProviderException> failures = AccountNotificationSyncCommand.generateWithRetries(
+                provider, Arrays.asList("u1", "u2"), new AccountNotification(), 2, 1);
+
+        assertEquals(Collections.emptyMap(), failures);
+        assertEquals(Arrays.asList("generateAll [u1, u2]", "retryAll [u2]"), provider.m_calls);
+    }
+
+    @Test
+    public void batchProviderStopsAfterTheRetries() {
+        FakeBatchProvider provider = new FakeBatchProvider();
+        provider.m_batchFailures.put("u1", 10);
+        Map<String, ProviderException> failures = AccountNotificationSyncCommand.generateWithRetries(
+                provider, Arrays.asList("u1"), new AccountNotification(), 2, 1);
+
+        assertEquals(Collections.singleton("u1"), failures.keySet());
+        assertEquals(Arrays.asList("generateAll [u1]", "retryAll [u1]", "retryAll [u1]"), provider.m_calls);
+    }
+
+    @Test
+    public void providerRetriesOnlyProducerFailures() {
+        FakeProvider provider = new FakeProvider();
+        // u1 failed getting a producer, before anything was sent. The create
+        // of u2 failed and may have reached the service.
+        provider.m_failures.put("u1", causes(new JMSException("No producer.")));
+        provider.m_failures.put("u2", causes(new IllegalStateException("Create failed.")));
+        Map<String, ProviderException> failures = AccountNotificationSyncCommand.generateWithRetries(
+                provider, Arrays.asList("u1", "u2"), new AccountNotification(), 2, 1);
+
+        assertEquals(Collections.singleton("u2"), failures.keySet());
+        assertEquals(Arrays.asList("u1", "u2", "u1"), provider.m_calls);
+    }
+}
@@ -0,0 +1,152 @@
+package edu.emory.awsaccount.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.services.securitytoken.AbstractAWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.model.AssumeRoleRequest;
+import com.amazonaws.services.securitytoken.model.AssumeRoleResult;
+import com.amazonaws.services.securitytoken.model.Credentials;
+
+public class AssumedRoleCredentialsCacheTest {
+
+    private static final String ROLE_ARN = "arn:aws:iam::123:role/rhedcloud/RHEDcloudAdministratorRole";
+
+    /**
+     * An STS client that returns new session credentials that expire after
+     * the given number of milliseconds, optionally waiting for a latch first.
+     */
+    private static class FakeSts extends AbstractAWSSecurityTokenService {
+        private final AtomicInteger m_calls = new AtomicInteger();
+        private volatile long m_expiresIn;
+        private volatile CountDownLatch m_release = null;
+
+        private FakeSts(long expiresIn) {
+            m_expiresIn = expiresIn;
+        }
+
+        @Override
+        public AssumeRoleResult assumeRole(AssumeRoleRequest request) {
+            int call = m_calls.incrementAndGet();
+            if (m_release != null) {
+                try {
+                    m_release.await();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new AssumeRoleResult().withCredentials(new Credentials("ASIA" + call, "secret",
+                    "token" + call, new Date(System.currentTimeMillis() + m_expiresIn)));
+        }
+    }
+
+    private static AssumedRoleCredentialsCache cache(FakeSts sts) {
+        return new AssumedRoleCredentialsCache((accessKeyId, secretKey, region) -> sts);
+    }
+
+    @Test
+    public void keyIsStable() {
+        assertEquals(AssumedRoleCredentialsCache.key("123", ROLE_ARN, "AKIA1", 900),
+                AssumedRoleCredentialsCache.key("123", ROLE_ARN, "AKIA1", 900));
+    }
+
+    @Test
+    public void masterAccessKeysDoNotShareCredentials() {
+        assertFalse(AssumedRoleCredentialsCache.key("123", ROLE_ARN, "AKIA1", 900)
+                .equals(AssumedRoleCredentialsCache.key("123", ROLE_ARN, "AKIA2", 900)));
+    }
+
+    @Test
+    public void durationsDoNotShareCredentials() {
+        assertFalse(AssumedRoleCredentialsCache.key("123", ROLE_ARN, "AKIA1", 900)
+                .equals(AssumedRoleCredentialsCache.key("123", ROLE_ARN, "AKIA1", 3600)));
+    }
+
+    @Test
+    public void credentialsAreReusedUntilNearExpiry() {
+        FakeSts sts = new FakeSts(3600 * 1000L);
+        AssumedRoleCredentialsCache cache = cache(sts);
+        AWSCredentialsProvider provider = cache.getCredentialsProvider("123", ROLE_ARN, "AKIA1",
+                "secret", null, 3600);
+        AWSCredentials first = provider.getCredentials();
+        AWSCredentials second = cache.getCredentialsProvider("123", ROLE_ARN, "AKIA1", "secret",
+                null, 3600).getCredentials();
+        assertTrue(first == second);
+        assertEquals(1, sts.m_calls.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(3, cache.getHitCount());
+
+        // Credentials that expire within the margin are assumed again.
+        FakeSts expiring = new FakeSts(10 * 1000L);
+        AssumedRoleCredentialsCache expiringCache = cache(expiring);
+        AWSCredentialsProvider expiringProvider = expiringCache.getCredentialsProvider("123", ROLE_ARN,
+                "AKIA1", "secret", null, 900);
+        expiringProvider.getCredentials();
+        assertEquals(2, expiring.m_calls.get());
+        assertEquals(2, expiringCache.getMissCount());
+        assertEquals(0, expiringCache.getHitCount());
+    }
+
+    @Test
+    public void credentialsAreRefreshedInTheLastQuarter() throws Exception {
+        // A quarter of 900 seconds is 225 seconds, so credentials that expire
+        // in 200 seconds are due for a refresh but still usable.
+        FakeSts sts = new FakeSts(200 * 1000L);
+        AssumedRoleCredentialsCache cache = cache(sts);
+        AWSCredentialsProvider provider = cache.getCredentialsProvider("123", ROLE_ARN, "AKIA1",
+                "secret", null, 900);
+        assertEquals("ASIA1", provider.getCredentials().getAWSAccessKeyId());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.getRefreshCount() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, cache.getRefreshCount());
+        assertEquals(0, cache.getRefreshFailureCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, sts.m_calls.get());
+        assertEquals("ASIA2", cache.getCredentialsProvider("123", ROLE_ARN, "AKIA1", "secret", null, 900)
+                .getCredentials().getAWSAccessKeyId());
+    }
+
+    @Test
+    public void concurrentMissesAssumeTheRoleOnce() throws Exception {
+        FakeSts sts = new FakeSts(3600 * 1000L);
+        sts.m_release = new CountDownLatch(1);
+        AssumedRoleCredentialsCache cache = cache(sts);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<AWSCredentialsProvider>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> cache.getCredentialsProvider("123", ROLE_ARN, "AKIA1",
+                        "secret", null, 3600)));
+            }
+            Thread.sleep(100);
+            sts.m_release.countDown();
+            for (Future<AWSCredentialsProvider> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, sts.m_calls.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(7, cache.getHitCount());
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,142 @@
+package edu.emory.awsaccount.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class AwsClientRegistryTest {
+
+    @Test
+    public void sameKeyReturnsSameClient() {
+        AwsClientRegistry registry = new AwsClientRegistry(10, 60000);
+        Object first = registry.getClient(Object.class, "123", "us-east-1", "role", Object::new);
+        Object second = registry.getClient(Object.class, "123", "us-east-1", "role", Object::new);
+
+        assertSame(first, second);
+        assertEquals(1, registry.getCreatedCount());
+        assertEquals(1, registry.getHitCount());
+    }
+
+    @Test
+    public void concurrentRequestsBuildOnce() throws Exception {
+        AwsClientRegistry registry = new AwsClientRegistry(10, 60000);
+        AtomicInteger builds = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> registry.getClient(Object.class, "123", "us-east-1",
+                        "role", () -> {
+                            builds.incrementAndGet();
+                            try {
+                                release.await();
+                            } catch (InterruptedException ie) {
+                                Thread.currentThread().interrupt();
+                            }
+                            return new Object();
+                        })));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            Object client = futures.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<Object> future : futures) {
+                assertSame(client, future.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, builds.get());
+        assertEquals(1, registry.getCreatedCount());
+    }
+
+    @Test
+    public void slowBuildDoesNotBlockOtherKeys() throws Exception {
+        AwsClientRegistry registry = new AwsClientRegistry(10, 60000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Object> slow = executor.submit(() -> registry.getClient(Object.class, "123",
+                    "us-east-1", "role", () -> {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return new Object();
+                    }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            // Another client is built while the slow build is in progress.
+            registry.getClient(Object.class, "456", "us-east-1", "role", Object::new);
+            assertEquals(1, registry.size());
+
+            release.countDown();
+            slow.get(5, TimeUnit.SECONDS);
+            assertEquals(2, registry.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failedBuildIsNotRegistered() {
+        AwsClientRegistry registry = new AwsClientRegistry(10, 60000);
+        try {
+            registry.getClient(Object.class, "123", "us-east-1", "role", () -> {
+                throw new IllegalStateException("no credentials");
+            });
+            fail("Expected the build error.");
+        } catch (IllegalStateException ise) {
+            assertEquals("no credentials", ise.getMessage());
+        }
+        assertEquals(0, registry.size());
+
+        registry.getClient(Object.class, "123", "us-east-1", "role", Object::new);
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedClientIsEvicted() {
+        AwsClientRegistry registry = new AwsClientRegistry(2, 60000);
+        Object a = registry.getClient(Object.class, "a", null, "role", Object::new);
+        registry.getClient(Object.class, "b", null, "role", Object::new);
+        registry.getClient(Object.class, "a", null, "role", Object::new);
+        registry.getClient(Object.class, "c", null, "role", Object::new);
+
+        assertEquals(2, registry.size());
+        assertEquals(1, registry.getEvictedCount());
+        assertSame(a, registry.getClient(Object.class, "a", null, "role", Object::new));
+    }
+
+    @Test
+    public void otherMasterCredentialsOrDurationGetAnotherClient() {
+        AwsClientRegistry registry = new AwsClientRegistry(10, 60000);
+        String roleArn = "arn:aws:iam::123:role/Admin";
+        Object client = registry.getClient(Object.class, "123", "us-east-1",
+                AwsClientRegistry.roleIdentity(roleArn, "AKIA1", 900), Object::new);
+
+        assertSame(client, registry.getClient(Object.class, "123", "us-east-1",
+                AwsClientRegistry.roleIdentity(roleArn, "AKIA1", 900), Object::new));
+        assertFalse(client == registry.getClient(Object.class, "123", "us-east-1",
+                AwsClientRegistry.roleIdentity(roleArn, "AKIA2", 900), Object::new));
+        assertFalse(client == registry.getClient(Object.class, "123", "us-east-1",
+                AwsClientRegistry.roleIdentity(roleArn, "AKIA1", 3600), Object::new));
+        assertEquals(3, registry.size());
+    }
+}
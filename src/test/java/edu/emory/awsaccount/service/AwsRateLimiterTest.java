@@ -0,0 +1,110 @@
+package edu.emory.awsaccount.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class AwsRateLimiterTest {
+
+    @Test
+    public void fullBucketDoesNotWait() {
+        AwsRateLimiter.Bucket bucket = new AwsRateLimiter.Bucket(5, 0);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.take(0, 1000));
+        }
+    }
+
+    @Test
+    public void emptyBucketWaitsForTheNextToken() {
+        AwsRateLimiter.Bucket bucket = new AwsRateLimiter.Bucket(5, 0);
+        for (int i = 0; i < 5; i++) {
+            bucket.take(0, 1000);
+        }
+        assertEquals(200, bucket.take(0, 1000));
+        assertEquals(400, bucket.take(0, 1000));
+
+        // The tokens taken in advance are paid back as time passes.
+        assertEquals(200, bucket.take(400, 1000));
+    }
+
+    @Test
+    public void waitLongerThanTheMaximumFailsWithoutTakingAToken() {
+        AwsRateLimiter.Bucket bucket = new AwsRateLimiter.Bucket(1, 0);
+        assertEquals(0, bucket.take(0, 1500));
+        assertEquals(1000, bucket.take(0, 1500));
+        assertEquals(-1, bucket.take(0, 1500));
+        assertEquals(-1, bucket.take(0, 1500));
+
+        // The rejected calls did not add to the debt.
+        assertEquals(1000, bucket.take(1000, 1500));
+    }
+
+    @Test
+    public void throttlingHalvesTheRateDownToTheMinimum() {
+        AwsRateLimiter.Bucket bucket = new AwsRateLimiter.Bucket(10, 0);
+        bucket.throttled(0);
+        assertEquals(5, bucket.getRate(), 0.001);
+        for (int i = 0; i < 10; i++) {
+            bucket.throttled(0);
+        }
+        assertEquals(1, bucket.getRate(), 0.001);
+    }
+
+    @Test
+    public void rateRecoversWithTimeNotWithCalls() {
+        AwsRateLimiter.Bucket bucket = new AwsRateLimiter.Bucket(10, 0);
+        bucket.throttled(0);
+
+        // Many calls at the same time do not raise the rate.
+        for (int i = 0; i < 100; i++) {
+            bucket.succeeded(0);
+        }
+        assertEquals(5, bucket.getRate(), 0.001);
+
+        // Six seconds raise it by a tenth of the configured rate.
+        bucket.succeeded(6000);
+        assertEquals(6, bucket.getRate(), 0.001);
+        bucket.succeeded(60 * 1000);
+        assertEquals(10, bucket.getRate(), 0.001);
+    }
+
+    @Test
+    public void acquireFailsFastBeyondTheMaximumWait() {
+        AwsRateLimiter limiter = new AwsRateLimiter();
+        limiter.setRate("test", 1);
+        limiter.setMaxWait(0);
+        limiter.acquire("test", "123");
+        try {
+            limiter.acquire("test", "123");
+            fail("Expected the call to be rejected.");
+        } catch (AwsRateLimiter.RateLimitExceededException rlee) {
+            assertEquals(false, rlee.isRetryable());
+        }
+        assertEquals(1, limiter.getRejectedCount("test"));
+
+        // Other accounts have their own bucket.
+        limiter.acquire("test", "456");
+    }
+
+    @Test
+    public void ratesAreConfigured() {
+        AwsRateLimiter limiter = new AwsRateLimiter();
+        Properties props = new Properties();
+        props.setProperty("awsRateLimit.organizations", "2.5");
+        props.setProperty("awsRateLimitMaxWaitInMillis", "5000");
+        limiter.configure(props);
+        assertEquals(2.5, limiter.getRate(AwsRateLimiter.ORGANIZATIONS), 0.001);
+        assertEquals(20, limiter.getRate(AwsRateLimiter.EC2), 0.001);
+        assertEquals(5000, limiter.getMaxWait());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRateIsRejected() {
+        Properties props = new Properties();
+        props.setProperty("awsRateLimit.iam", "0");
+        new AwsRateLimiter().configure(props);
+    }
+}
@@ -0,0 +1,80 @@
+package edu.emory.awsaccount.service.provider;
+
+import static edu.emory.awsaccount.service.provider.AwsQueryResultCacheTest.aliases;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class AccountAliasCacheTest {
+
+    @Test
+    public void aliasesAreLoadedOncePerAccount() throws Exception {
+        AccountAliasCache cache = new AccountAliasCache(60000, 60000, 10);
+        AtomicInteger loads = new AtomicInteger();
+        AccountAliasCache.Loader loader = accountId -> {
+            loads.incrementAndGet();
+            return aliases("emory-" + accountId);
+        };
+
+        assertEquals("emory-123", cache.get("123", loader).get(0).getName());
+        assertEquals("emory-123", cache.get("123", loader).get(0).getName());
+        assertEquals("emory-456", cache.get("456", loader).get(0).getName());
+        assertEquals(2, loads.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void invalidatedAccountIsReloaded() throws Exception {
+        AccountAliasCache cache = new AccountAliasCache(60000, 60000, 10);
+        AtomicInteger loads = new AtomicInteger();
+        AccountAliasCache.Loader loader = accountId -> {
+            loads.incrementAndGet();
+            return Collections.emptyList();
+        };
+        cache.get("123", loader);
+        cache.get("123", loader);
+        assertEquals(1, loads.get());
+
+        cache.invalidate("123");
+        assertEquals(0, cache.size());
+        cache.get("123", loader);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void leastRecentlyUsedAccountIsEvicted() throws Exception {
+        AccountAliasCache cache = new AccountAliasCache(60000, 60000, 2);
+        AtomicInteger loads = new AtomicInteger();
+        AccountAliasCache.Loader loader = accountId -> {
+            loads.incrementAndGet();
+            return aliases(accountId);
+        };
+        cache.get("a", loader);
+        cache.get("b", loader);
+        cache.get("a", loader);
+        cache.get("c", loader);
+        assertEquals(2, cache.size());
+
+        cache.get("a", loader);
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void loadErrorIsRethrown() {
+        AccountAliasCache cache = new AccountAliasCache(60000, 60000, 10);
+        try {
+            cache.get("123", accountId -> {
+                throw new ProviderException("no role");
+            });
+            fail("Expected the load error.");
+        } catch (ProviderException pe) {
+            assertEquals("no role", pe.getMessage());
+        }
+        assertEquals(0, cache.size());
+    }
+}
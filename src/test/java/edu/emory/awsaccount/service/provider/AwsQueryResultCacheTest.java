@@ -0,0 +1,205 @@
+package edu.emory.awsaccount.service.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.openeai.config.EnterpriseFieldException;
+
+import com.amazon.aws.moa.jmsobjects.provisioning.v1_0.AccountAlias;
+
+public class AwsQueryResultCacheTest {
+
+    /**
+     * An alias that can be cloned without the enterprise field definitions
+     * of the application configuration.
+     */
+    private static class TestAlias extends AccountAlias {
+        @Override
+        public Object clone() {
+            TestAlias copy = new TestAlias();
+            try {
+                copy.setName(getName());
+            } catch (EnterpriseFieldException efe) {
+                throw new IllegalStateException(efe);
+            }
+            return copy;
+        }
+    }
+
+    private static AwsQueryResultCache<AccountAlias, ProviderException> cache(long ttl, long negativeTtl,
+                                                                              int maxAccounts) {
+        return new AwsQueryResultCache<>("TestCache", ttl, negativeTtl, maxAccounts, ProviderException::new);
+    }
+
+    static List<AccountAlias> aliases(String name) throws ProviderException {
+        AccountAlias alias = new TestAlias();
+        try {
+            alias.setName(name);
+        } catch (EnterpriseFieldException efe) {
+            throw new ProviderException(efe.getMessage(), efe);
+        }
+        List<AccountAlias> aliases = new ArrayList<>();
+        aliases.add(alias);
+        return aliases;
+    }
+
+    @Test
+    public void secondQueryIsAHit() throws Exception {
+        AwsQueryResultCache<AccountAlias, ProviderException> cache = cache(60000, 60000, 10);
+        AtomicInteger loads = new AtomicInteger();
+        List<AccountAlias> first = cache.get("123", "q", () -> {
+            loads.incrementAndGet();
+            return aliases("emory-123");
+        });
+        List<AccountAlias> second = cache.get("123", "q", () -> {
+            loads.incrementAndGet();
+            return aliases("other");
+        });
+
+        assertEquals(1, loads.get());
+        assertEquals("emory-123", second.get(0).getName());
+        assertFalse(first.get(0) == second.get(0));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void concurrentQueriesLoadOnce() throws Exception {
+        AwsQueryResultCache<AccountAlias, ProviderException> cache = cache(60000, 60000, 10);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<AccountAlias>>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> cache.get("123", "q", () -> {
+                    loads.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return aliases("emory-123");
+                })));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<List<AccountAlias>> future : futures) {
+                assertEquals("emory-123", future.get(5, TimeUnit.SECONDS).get(0).getName());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void errorsAreNotCached() throws Exception {
+        AwsQueryResultCache<AccountAlias, ProviderException> cache = cache(60000, 60000, 10);
+        try {
+            cache.get("123", "q", () -> {
+                throw new ProviderException("throttled");
+            });
+            fail("Expected the load error.");
+        } catch (ProviderException pe) {
+            assertEquals("throttled", pe.getMessage());
+        }
+        assertEquals(0, cache.size());
+
+        assertEquals("emory-123", cache.get("123", "q", () -> aliases("emory-123")).get(0).getName());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void emptyResultsUseTheNegativeTtl() throws Exception {
+        AwsQueryResultCache<AccountAlias, ProviderException> cache = cache(60000, 0, 10);
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            cache.get("123", "q", () -> {
+                loads.incrementAndGet();
+                return Collections.emptyList();
+            });
+        }
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void leastRecentlyUsedAccountIsEvicted() throws Exception {
+        AwsQueryResultCache<AccountAlias, ProviderException> cache = cache(60000, 60000, 2);
+        AtomicInteger loads = new AtomicInteger();
+        AwsQueryResultCache.Loader<AccountAlias, ProviderException> loader = () -> {
+            loads.incrementAndGet();
+            return aliases("alias");
+        };
+        cache.get("a", "q", loader);
+        cache.get("b", "q", loader);
+        cache.get("a", "q", loader);
+        cache.get("c", "q", loader);
+        assertEquals(2, cache.size());
+        assertEquals(3, loads.get());
+
+        // b was evicted and a was kept.
+        cache.get("a", "q", loader);
+        assertEquals(3, loads.get());
+        cache.get("b", "q", loader);
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void invalidateRemovesAllQueriesOfTheAccount() throws Exception {
+        AwsQueryResultCache<AccountAlias, ProviderException> cache = cache(60000, 60000, 10);
+        AtomicInteger loads = new AtomicInteger();
+        AwsQueryResultCache.Loader<AccountAlias, ProviderException> loader = () -> {
+            loads.incrementAndGet();
+            return aliases("alias");
+        };
+        cache.get("123", "q1", loader);
+        cache.get("123", "q2", loader);
+        cache.get("456", "q1", loader);
+
+        cache.invalidate("123");
+        assertEquals(1, cache.size());
+        cache.get("123", "q1", loader);
+        cache.get("456", "q1", loader);
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void invalidatedLoadIsNotCached() throws Exception {
+        AwsQueryResultCache<AccountAlias, ProviderException> cache = cache(60000, 60000, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<AccountAlias>> slow = executor.submit(() -> cache.get("123", "q", () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                return aliases("old");
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            cache.invalidate("123");
+            release.countDown();
+            slow.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("new", cache.get("123", "q", () -> aliases("new")).get(0).getName());
+    }
+}
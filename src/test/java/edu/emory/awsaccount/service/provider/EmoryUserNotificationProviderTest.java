@@ -0,0 +1,115 @@
+package edu.emory.awsaccount.service.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazon.aws.moa.jmsobjects.provisioning.v1_0.AccountNotification;
+import com.amazon.aws.moa.jmsobjects.user.v1_0.UserNotification;
+
+public class EmoryUserNotificationProviderTest {
+
+    /**
+     * A provider that generates and finds UserNotifications in memory instead
+     * of in the AWS Account Service.
+     */
+    private static class FakeProvider extends EmoryUserNotificationProvider {
+        private final Map<String, Integer> m_failures = new HashMap<>();
+        private final Set<String> m_existing = new HashSet<>();
+        private final List<String> m_calls = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public UserNotification generate(String userId, AccountNotification aNotification)
+                throws ProviderException {
+            m_calls.add("generate " + userId);
+            synchronized (m_failures) {
+                Integer failures = m_failures.get(userId);
+                if (failures != null && failures > 0) {
+                    m_failures.put(userId, failures - 1);
+                    throw new ProviderException("An error occurred creating the UserNotification.");
+                }
+            }
+            return new UserNotification();
+        }
+
+        @Override
+        UserNotification userNotificationQuery(String accountNotificationId, String userId) {
+            m_calls.add("query " + userId);
+            return m_existing.contains(userId) ? new UserNotification() : null;
+        }
+
+        private List<String> callsOf(String userId) {
+            List<String> calls = new ArrayList<>();
+            synchronized (m_calls) {
+                for (String call : m_calls) {
+                    if (call.endsWith(" " + userId)) {
+                        calls.add(call);
+                    }
+                }
+            }
+            return calls;
+        }
+    }
+
+    private ExecutorService m_executor;
+    private FakeProvider m_provider;
+
+    @Before
+    public void setUp() {
+        m_executor = Executors.newFixedThreadPool(4);
+        m_provider = new FakeProvider();
+        m_provider.setGenerateExecutor(m_executor);
+    }
+
+    @After
+    public void tearDown() {
+        m_executor.shutdownNow();
+    }
+
+    @Test
+    public void generateAllKeepsGoingAfterAFailure() {
+        m_provider.m_failures.put("u2", 1);
+        UserNotificationBatchGenerator.BatchResult result =
+                m_provider.generateAll(Arrays.asList("u1", "u2", "u3"), new AccountNotification());
+
+        assertEquals(new HashSet<>(Arrays.asList("u1", "u3")), result.getGenerated().keySet());
+        assertEquals(Collections.singleton("u2"), result.getFailures().keySet());
+        assertEquals(Arrays.asList("generate u2"), m_provider.callsOf("u2"));
+    }
+
+    @Test
+    public void retryAllQueriesBeforeCreatingAgain() {
+        // The create of u1 reached the service before failing, u2's did not.
+        m_provider.m_existing.add("u1");
+        UserNotificationBatchGenerator.BatchResult result =
+                m_provider.retryAll(Arrays.asList("u1", "u2"), new AccountNotification());
+
+        assertEquals(new HashSet<>(Arrays.asList("u1", "u2")), result.getGenerated().keySet());
+        assertTrue(result.getFailures().isEmpty());
+        assertEquals(Arrays.asList("query u1"), m_provider.callsOf("u1"));
+        assertEquals(Arrays.asList("query u2", "generate u2"), m_provider.callsOf("u2"));
+    }
+
+    @Test
+    public void generatedUserIsNoLongerAFailure() {
+        UserNotificationBatchGenerator.BatchResult result = new UserNotificationBatchGenerator.BatchResult();
+        result.addFailure("u1", new ProviderException("failed"));
+        result.addGenerated("u1", new UserNotification());
+        assertTrue(result.getFailures().isEmpty());
+        assertEquals(1, result.getGenerated().size());
+    }
+}
@@ -0,0 +1,124 @@
+package edu.emory.awsaccount.service.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.amazon.aws.moa.jmsobjects.provisioning.v1_0.AccountNotification;
+import com.amazon.aws.moa.objects.resources.v1_0.Annotation;
+
+public class NotificationIgnoreRulesTest {
+
+    @Test
+    public void literalsOfSimpleExpressions() {
+        assertEquals("abc", NotificationIgnoreRules.requiredLiteral("abc"));
+        assertEquals("foo", NotificationIgnoreRules.requiredLiteral("foo.*bar"));
+        assertEquals("cd", NotificationIgnoreRules.requiredLiteral("ab*cd"));
+        assertEquals("yz", NotificationIgnoreRules.requiredLiteral("x(ab)?yz"));
+        assertEquals("cdef", NotificationIgnoreRules.requiredLiteral("[]ab]cdef"));
+        assertEquals("uty finding", NotificationIgnoreRules.requiredLiteral("Guard[Dd]uty finding"));
+        assertEquals(" ignored", NotificationIgnoreRules.requiredLiteral("^SRD-\\d+ ignored$"));
+        assertEquals(".com", NotificationIgnoreRules.requiredLiteral("\\.com+x"));
+        assertEquals("cde", NotificationIgnoreRules.requiredLiteral("ab{2}cde"));
+    }
+
+    @Test
+    public void expressionsWithoutAProvableLiteral() {
+        assertNull(NotificationIgnoreRules.requiredLiteral("a|b"));
+        assertNull(NotificationIgnoreRules.requiredLiteral("(?i)guardduty"));
+        assertNull(NotificationIgnoreRules.requiredLiteral("a.b"));
+    }
+
+    @Test
+    public void multiCharacterEscapesHaveNoLiteral() {
+        assertNull(NotificationIgnoreRules.requiredLiteral("\\x41BCD"));
+        assertNull(NotificationIgnoreRules.requiredLiteral("\\x{41}BCD"));
+        assertNull(NotificationIgnoreRules.requiredLiteral("\\u0041xyz"));
+        assertNull(NotificationIgnoreRules.requiredLiteral("\\0101xyz"));
+        assertNull(NotificationIgnoreRules.requiredLiteral("\\cAxyz"));
+        assertNull(NotificationIgnoreRules.requiredLiteral("(?<n>a)\\k<n>xyz"));
+        assertNull(NotificationIgnoreRules.requiredLiteral("(a)\\1xyz"));
+        assertNull(NotificationIgnoreRules.requiredLiteral("\\p{Alpha}xyz"));
+        assertNull(NotificationIgnoreRules.requiredLiteral("\\P{Alpha}xyz"));
+        assertNull(NotificationIgnoreRules.requiredLiteral("\\Qa.b\\Exyz"));
+    }
+
+    @Test
+    public void nestedAndIntersectedClassesHaveNoLiteral() {
+        assertNull(NotificationIgnoreRules.requiredLiteral("[a-z&&[^b]]foo"));
+        assertNull(NotificationIgnoreRules.requiredLiteral("[a[bc]]foo"));
+        assertNull(NotificationIgnoreRules.requiredLiteral("[\\p{L}]foo"));
+    }
+
+    @Test
+    public void everyLiteralIsInEveryMatch() {
+        String[] regexes = {"\\x41BCD", "\\u0041xyz", "[a-z&&[^b]]foo", "ab*cd", "x(ab)?yz",
+                "\\.com+x", "[]ab]cdef"};
+        String[] inputs = {"ABCD", "Axyz", "afoo", "acd", "xyz", ".comx", "]cdef"};
+        for (int i = 0; i < regexes.length; i++) {
+            String literal = NotificationIgnoreRules.requiredLiteral(regexes[i]);
+            if (literal != null && !inputs[i].contains(literal)) {
+                fail(inputs[i] + " matches " + regexes[i] + " but does not contain " + literal);
+            }
+        }
+    }
+
+    @Test
+    public void rulesMatchNotifications() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("ignoreRegex1", "foo.*bar");
+        props.setProperty("ignoreRule.gd.text", "GuardDuty");
+        props.setProperty("ignoreRule.gd.priority", "^Low$");
+        props.setProperty("ignoreRule.hex.text", "\\x41BCD");
+        props.setProperty("ignoreRule.ssh.annotation", "SRDOBJECT.*Port ?22");
+        NotificationIgnoreRules rules = NotificationIgnoreRules.compile(props, null);
+        assertEquals(4, rules.size());
+
+        AccountNotification notification = new AccountNotification();
+        notification.setText("a GuardDuty finding");
+        notification.setPriority("Low");
+        assertEquals("gd", rules.match(notification));
+
+        notification.setPriority("High");
+        assertNull(rules.match(notification));
+
+        notification.setText("foo and bar");
+        assertEquals("ignoreRegex1", rules.match(notification));
+
+        notification.setText("xABCDx");
+        assertEquals("hex", rules.match(notification));
+
+        notification.setText("nothing");
+        Annotation annotation = new Annotation();
+        annotation.setText("SRDOBJECT {Port22}");
+        notification.addAnnotation(annotation);
+        assertEquals("ssh", rules.match(notification));
+        assertEquals(Long.valueOf(1), rules.getHitCounts().get("ssh"));
+    }
+
+    @Test
+    public void hitCountsAreCarriedOver() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("ignoreRule.gd.text", "GuardDuty");
+        NotificationIgnoreRules rules = NotificationIgnoreRules.compile(props, null);
+        AccountNotification notification = new AccountNotification();
+        notification.setText("GuardDuty");
+        rules.match(notification);
+
+        props.setProperty("ignoreRule.other.text", "Other");
+        NotificationIgnoreRules reloaded = NotificationIgnoreRules.compile(props, rules);
+        assertEquals(Long.valueOf(1), reloaded.getHitCounts().get("gd"));
+        assertEquals(Long.valueOf(0), reloaded.getHitCounts().get("other"));
+    }
+
+    @Test(expected = ProviderException.class)
+    public void invalidRuleIsRejected() throws ProviderException {
+        Properties props = new Properties();
+        props.setProperty("ignoreRule.bad.subject", "x");
+        NotificationIgnoreRules.compile(props, null);
+    }
+}
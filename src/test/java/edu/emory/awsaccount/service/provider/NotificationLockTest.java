@@ -0,0 +1,235 @@
+package edu.emory.awsaccount.service.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.openeai.utils.lock.Key;
+import org.openeai.utils.lock.Lock;
+import org.openeai.utils.lock.LockAlreadySetException;
+import org.openeai.utils.lock.LockException;
+
+public class NotificationLockTest {
+
+    /**
+     * A shared lock held in memory.
+     */
+    private static class FakeLock implements Lock {
+        private final Map<String, Key> m_keys = new HashMap<>();
+        private final AtomicInteger m_nextKey = new AtomicInteger();
+        private volatile boolean m_failing = false;
+
+        @Override
+        public Key set() throws LockException, LockAlreadySetException {
+            return set("default");
+        }
+
+        @Override
+        public synchronized Key set(String name) throws LockException, LockAlreadySetException {
+            if (m_failing) {
+                throw new LockException("The database is down.");
+            }
+            if (m_keys.containsKey(name)) {
+                throw new LockAlreadySetException("Lock " + name + " is already set.");
+            }
+            String value = String.valueOf(m_nextKey.incrementAndGet());
+            Key key = () -> value;
+            m_keys.put(name, key);
+            return key;
+        }
+
+        @Override
+        public void release(Key key) throws LockException {
+            release("default", key);
+        }
+
+        @Override
+        public synchronized void release(String name, Key key) throws LockException {
+            m_keys.remove(name, key);
+        }
+
+        @Override
+        public boolean isSet() throws LockException {
+            return isSet("default");
+        }
+
+        @Override
+        public synchronized boolean isSet(String name) throws LockException {
+            return m_keys.containsKey(name);
+        }
+
+        @Override
+        public synchronized int count() throws LockException {
+            return m_keys.size();
+        }
+
+        @Override
+        public int countLike(String name) throws LockException {
+            return count();
+        }
+
+        /**
+         * Expires all locks, as the shared lock does after the time to live.
+         */
+        synchronized void expireAll() {
+            m_keys.clear();
+        }
+    }
+
+    @Test
+    public void stripedLockIsSetOnce() throws Exception {
+        StripedNotificationLock lock = new StripedNotificationLock(4);
+        NotificationLock.Lease lease = lock.set("a");
+        try {
+            lock.set("a");
+            fail("Expected the lock to be set.");
+        } catch (LockAlreadySetException lase) {
+            // Expected.
+        }
+        lock.set("b");
+        lock.release(lease);
+        lock.set("a");
+        assertEquals(3, lock.getSetCount());
+        assertEquals(1, lock.getAlreadySetCount());
+    }
+
+    @Test
+    public void releasingAnOldLeaseKeepsTheNewOne() throws Exception {
+        StripedNotificationLock lock = new StripedNotificationLock(4);
+        NotificationLock.Lease first = lock.set("a");
+        lock.release(first);
+        lock.set("a");
+        lock.release(first);
+        try {
+            lock.set("a");
+            fail("Expected the lock to be set.");
+        } catch (LockAlreadySetException lase) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void concurrentSetsOfANameHaveOneWinner() throws Exception {
+        StripedNotificationLock lock = new StripedNotificationLock(2);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger winners = new AtomicInteger();
+        try {
+            for (int i = 0; i < 8; i++) {
+                executor.submit(() -> {
+                    start.await();
+                    try {
+                        lock.set("a");
+                        winners.incrementAndGet();
+                    } catch (LockAlreadySetException lase) {
+                        // Lost the race.
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, winners.get());
+    }
+
+    @Test
+    public void leasedLockIsSharedAndExpires() throws Exception {
+        FakeLock shared = new FakeLock();
+        LeasedNotificationLock first = new LeasedNotificationLock(shared, 0, 4);
+        LeasedNotificationLock second = new LeasedNotificationLock(shared, 0, 4);
+        NotificationLock.Lease lease = first.set("a");
+        assertTrue(lease.isExpired());
+        try {
+            second.set("a");
+            fail("Expected the shared lock to be set.");
+        } catch (LockAlreadySetException lase) {
+            // Expected.
+        }
+        first.release(lease);
+        assertFalse(shared.isSet());
+        assertEquals(0, shared.count());
+        second.set("a");
+    }
+
+    @Test
+    public void failedSharedLockReleasesTheLocalLock() throws Exception {
+        FakeLock shared = new FakeLock();
+        LeasedNotificationLock lock = new LeasedNotificationLock(shared, Long.MAX_VALUE, 4);
+        shared.m_failing = true;
+        try {
+            lock.set("a");
+            fail("Expected the shared lock to fail.");
+        } catch (LockException le) {
+            // Expected.
+        }
+        shared.m_failing = false;
+        NotificationLock.Lease lease = lock.set("a");
+        assertEquals(Long.MAX_VALUE, lease.getExpirationTime());
+        assertFalse(lease.isExpired());
+        assertEquals(1, lock.getErrorCount());
+    }
+
+    @Test
+    public void unexpiredLeaseIsNotFenced() throws Exception {
+        LeasedNotificationLock lock = new LeasedNotificationLock(new FakeLock(), Long.MAX_VALUE, 4);
+        NotificationLock.Lease lease = lock.set("a");
+        assertTrue(lock.fence(lease) == lease);
+    }
+
+    @Test
+    public void expiredLeaseIsRenewedWhenTheLockIsFree() throws Exception {
+        FakeLock shared = new FakeLock();
+        LeasedNotificationLock first = new LeasedNotificationLock(shared, 0, 4);
+        LeasedNotificationLock second = new LeasedNotificationLock(shared, 60000, 4);
+        NotificationLock.Lease lease = first.set("a");
+        shared.expireAll();
+
+        NotificationLock.Lease renewed = first.fence(lease);
+        assertTrue(renewed.getToken() > lease.getToken());
+        assertEquals(1, first.getRenewedCount());
+        try {
+            second.set("a");
+            fail("Expected the renewed lease to hold the shared lock.");
+        } catch (LockAlreadySetException lase) {
+            // Expected.
+        }
+        first.release(renewed);
+        assertEquals(0, shared.count());
+    }
+
+    @Test
+    public void expiredLeaseIsFencedOffByALaterLease() throws Exception {
+        FakeLock shared = new FakeLock();
+        LeasedNotificationLock first = new LeasedNotificationLock(shared, 0, 4);
+        LeasedNotificationLock second = new LeasedNotificationLock(shared, 60000, 4);
+        NotificationLock.Lease lease = first.set("a");
+        shared.expireAll();
+        second.set("a");
+
+        try {
+            first.fence(lease);
+            fail("Expected the expired lease to be fenced off.");
+        } catch (LockAlreadySetException lase) {
+            // Expected.
+        }
+        assertEquals(1, first.getFencedCount());
+
+        // Releasing the fenced lease keeps the later one.
+        first.release(lease);
+        assertEquals(1, shared.count());
+    }
+}
@@ -0,0 +1,48 @@
+package edu.emory.awsaccount.service.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class NotificationSuppressionIndexTest {
+
+    @Test
+    public void keyDependsOnlyOnTheAnnotationText() {
+        assertEquals(NotificationSuppressionIndex.key("SRDOBJECT {a}"),
+                NotificationSuppressionIndex.key("SRDOBJECT {a}"));
+        assertFalse(NotificationSuppressionIndex.key("SRDOBJECT {a}")
+                .equals(NotificationSuppressionIndex.key("SRDOBJECT {b}")));
+    }
+
+    @Test
+    public void recentNotificationIsSuppressed() {
+        NotificationSuppressionIndex index = new NotificationSuppressionIndex(60000);
+        String key = NotificationSuppressionIndex.key("SRDOBJECT {a}");
+        assertFalse(index.isSuppressed(key));
+
+        index.record(key, System.currentTimeMillis());
+        assertTrue(index.isSuppressed(key));
+        assertFalse(index.isSuppressed(NotificationSuppressionIndex.key("SRDOBJECT {b}")));
+        assertEquals(1, index.getSuppressedCount());
+        assertEquals(2, index.getMissCount());
+    }
+
+    @Test
+    public void notificationOutsideTheWindowIsNotSuppressed() {
+        NotificationSuppressionIndex index = new NotificationSuppressionIndex(60000);
+        String key = NotificationSuppressionIndex.key("SRDOBJECT {a}");
+        index.record(key, System.currentTimeMillis() - 60000);
+        assertFalse(index.isSuppressed(key));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void newIndexIsWarmingUpForOneWindow() throws InterruptedException {
+        assertTrue(new NotificationSuppressionIndex(60000).isWarmingUp());
+        NotificationSuppressionIndex index = new NotificationSuppressionIndex(1);
+        Thread.sleep(5);
+        assertFalse(index.isWarmingUp());
+    }
+}
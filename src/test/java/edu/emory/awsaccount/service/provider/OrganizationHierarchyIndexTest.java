@@ -0,0 +1,183 @@
+package edu.emory.awsaccount.service.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.amazonaws.services.organizations.AbstractAWSOrganizations;
+import com.amazonaws.services.organizations.model.Account;
+import com.amazonaws.services.organizations.model.ListAccountsForParentRequest;
+import com.amazonaws.services.organizations.model.ListAccountsForParentResult;
+import com.amazonaws.services.organizations.model.ListOrganizationalUnitsForParentRequest;
+import com.amazonaws.services.organizations.model.ListOrganizationalUnitsForParentResult;
+import com.amazonaws.services.organizations.model.ListParentsRequest;
+import com.amazonaws.services.organizations.model.ListParentsResult;
+import com.amazonaws.services.organizations.model.ListRootsRequest;
+import com.amazonaws.services.organizations.model.ListRootsResult;
+import com.amazonaws.services.organizations.model.OrganizationalUnit;
+import com.amazonaws.services.organizations.model.Parent;
+import com.amazonaws.services.organizations.model.Root;
+
+public class OrganizationHierarchyIndexTest {
+
+    /**
+     * An organization with one root, whose listing of the roots can be held
+     * up to make a build slow.
+     */
+    private static class FakeOrganizations extends AbstractAWSOrganizations {
+        private final Map<String, String> m_ouParents = new LinkedHashMap<>();
+        private final Map<String, String> m_ouNames = new LinkedHashMap<>();
+        private final Map<String, String> m_accountParents = new LinkedHashMap<>();
+        private final AtomicInteger m_listRootsCount = new AtomicInteger();
+        private final AtomicInteger m_listParentsCount = new AtomicInteger();
+        private volatile CountDownLatch m_listRootsGate = new CountDownLatch(0);
+
+        void addOrganizationalUnit(String id, String name, String parentId) {
+            m_ouParents.put(id, parentId);
+            m_ouNames.put(id, name);
+        }
+
+        void addAccount(String id, String parentId) {
+            m_accountParents.put(id, parentId);
+        }
+
+        @Override
+        public ListRootsResult listRoots(ListRootsRequest request) {
+            m_listRootsCount.incrementAndGet();
+            try {
+                m_listRootsGate.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            return new ListRootsResult().withRoots(new Root().withId("r-1").withName("Root"));
+        }
+
+        @Override
+        public ListAccountsForParentResult listAccountsForParent(ListAccountsForParentRequest request) {
+            List<Account> accounts = new ArrayList<>();
+            for (Map.Entry<String, String> account : m_accountParents.entrySet()) {
+                if (account.getValue().equals(request.getParentId())) {
+                    accounts.add(new Account().withId(account.getKey()));
+                }
+            }
+            return new ListAccountsForParentResult().withAccounts(accounts);
+        }
+
+        @Override
+        public ListOrganizationalUnitsForParentResult listOrganizationalUnitsForParent(
+                ListOrganizationalUnitsForParentRequest request) {
+            List<OrganizationalUnit> ous = new ArrayList<>();
+            for (Map.Entry<String, String> ou : m_ouParents.entrySet()) {
+                if (ou.getValue().equals(request.getParentId())) {
+                    ous.add(new OrganizationalUnit().withId(ou.getKey()).withName(m_ouNames.get(ou.getKey())));
+                }
+            }
+            return new ListOrganizationalUnitsForParentResult().withOrganizationalUnits(ous);
+        }
+
+        @Override
+        public ListParentsResult listParents(ListParentsRequest request) {
+            m_listParentsCount.incrementAndGet();
+            String parentId = m_accountParents.get(request.getChildId());
+            String type = parentId.startsWith("r-") ? OrganizationHierarchyIndex.ROOT
+                    : OrganizationHierarchyIndex.ORGANIZATIONAL_UNIT;
+            return new ListParentsResult().withParents(new Parent().withId(parentId).withType(type));
+        }
+    }
+
+    private static FakeOrganizations organization() {
+        FakeOrganizations organizations = new FakeOrganizations();
+        organizations.addOrganizationalUnit("ou-1", "Admin", "r-1");
+        organizations.addAccount("111", "r-1");
+        organizations.addAccount("222", "ou-1");
+        return organizations;
+    }
+
+    private static void awaitBuildCount(OrganizationHierarchyIndex index, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (index.getBuildCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, index.getBuildCount());
+    }
+
+    @Test
+    public void coldLookupOfAnAccountTakesOneCall() throws InterruptedException {
+        FakeOrganizations organizations = organization();
+        organizations.m_listRootsGate = new CountDownLatch(1);
+        OrganizationHierarchyIndex index = new OrganizationHierarchyIndex();
+
+        // The tree is still being listed, but the account is looked up.
+        Parent parent = index.getParent(organizations, "222");
+        assertEquals("ou-1", parent.getId());
+        assertEquals(OrganizationHierarchyIndex.ORGANIZATIONAL_UNIT, parent.getType());
+        assertEquals(1, organizations.m_listParentsCount.get());
+        assertEquals(0, index.getBuildCount());
+
+        organizations.m_listRootsGate.countDown();
+        awaitBuildCount(index, 1);
+        assertEquals(OrganizationHierarchyIndex.ROOT, index.getParent(organizations, "111").getType());
+        assertEquals(1, organizations.m_listParentsCount.get());
+    }
+
+    @Test
+    public void staleIndexIsServedWhileRebuilding() throws InterruptedException {
+        FakeOrganizations organizations = organization();
+        OrganizationHierarchyIndex index = new OrganizationHierarchyIndex();
+        assertNotNull(index.findOrganizationalUnit(organizations, "Admin"));
+        assertEquals(1, index.getBuildCount());
+
+        // Make the index stale and the next listing slow.
+        index.setMaxAge(0);
+        organizations.m_listRootsGate = new CountDownLatch(1);
+        assertEquals("ou-1", index.getParentId(organizations, "222"));
+        assertEquals("r-1", index.getParentId(organizations, "111"));
+        assertEquals(1, index.getBuildCount());
+        assertEquals(0, organizations.m_listParentsCount.get());
+
+        // Only one rebuild runs at a time.
+        long deadline = System.currentTimeMillis() + 5000;
+        while (organizations.m_listRootsCount.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, organizations.m_listRootsCount.get());
+        index.setMaxAge(60 * 60 * 1000);
+        organizations.m_listRootsGate.countDown();
+        awaitBuildCount(index, 2);
+    }
+
+    @Test
+    public void missingOrganizationalUnitRebuildsOnce() {
+        FakeOrganizations organizations = organization();
+        OrganizationHierarchyIndex index = new OrganizationHierarchyIndex();
+        index.findOrganizationalUnit(organizations, "Admin");
+
+        organizations.addOrganizationalUnit("ou-2", "Quarantine", "r-1");
+        OrganizationHierarchyIndex.Node node = index.findOrganizationalUnit(organizations, "Quarantine");
+        assertEquals("ou-2", node.getId());
+        assertEquals("r-1", node.getParentId());
+        assertEquals(2, index.getBuildCount());
+    }
+
+    @Test
+    public void movedAccountIsUpdated() {
+        FakeOrganizations organizations = organization();
+        OrganizationHierarchyIndex index = new OrganizationHierarchyIndex();
+        index.findOrganizationalUnit(organizations, "Admin");
+
+        index.accountMoved("111", "ou-1");
+        assertEquals("ou-1", index.getParentId(organizations, "111"));
+
+        index.invalidateAccount("111");
+        assertEquals("r-1", index.getParentId(organizations, "111"));
+        assertEquals(1, organizations.m_listParentsCount.get());
+    }
+}
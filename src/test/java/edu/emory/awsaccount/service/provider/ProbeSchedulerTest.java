@@ -0,0 +1,46 @@
+package edu.emory.awsaccount.service.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ProbeSchedulerTest {
+
+    @Test
+    public void largestPoolSizeWins() {
+        ProbeScheduler scheduler = new ProbeScheduler(4);
+        scheduler.ensurePoolSize(8);
+        scheduler.ensurePoolSize(2);
+        assertEquals(8, scheduler.getPoolSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void poolSizeMustBePositive() {
+        new ProbeScheduler(4).ensurePoolSize(0);
+    }
+
+    @Test
+    public void blockedCheckDoesNotDelayOtherWaits() throws Exception {
+        ProbeScheduler scheduler = new ProbeScheduler(2);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> slow = scheduler.poll("slow", () -> {
+            blocked.countDown();
+            release.await();
+            return "slow";
+        }, 0, 10, 60000);
+        try {
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+            CompletableFuture<String> fast = scheduler.poll("fast", () -> "fast", 0, 10, 60000);
+            assertEquals("fast", fast.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+        assertEquals("slow", slow.get(5, TimeUnit.SECONDS));
+    }
+}
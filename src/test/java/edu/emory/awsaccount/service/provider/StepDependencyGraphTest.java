@@ -0,0 +1,167 @@
+package edu.emory.awsaccount.service.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class StepDependencyGraphTest {
+
+    private static Properties step(String stepId, String type, String dependsOn) {
+        Properties p = new Properties();
+        p.setProperty("stepId", stepId);
+        p.setProperty("type", type);
+        if (dependsOn != null) {
+            p.setProperty("dependsOn", dependsOn);
+        }
+        return p;
+    }
+
+    private static Set<String> ids(List<Properties> steps) {
+        Set<String> ids = new HashSet<>();
+        for (Properties p : steps) {
+            ids.add(p.getProperty("stepId"));
+        }
+        return ids;
+    }
+
+    @Test
+    public void stepsWithoutDependsOnRunSequentially() throws ProviderException {
+        List<Properties> steps = new ArrayList<>();
+        steps.add(step("1", "A", null));
+        steps.add(step("2", "B", null));
+        steps.add(step("3", "C", null));
+        StepDependencyGraph graph = new StepDependencyGraph(steps);
+
+        assertTrue(graph.isSequential());
+        assertEquals(new HashSet<>(Arrays.asList("1", "2")), graph.getDependencies("3"));
+        assertEquals(new HashSet<>(Arrays.asList("1")),
+                ids(graph.getReadySteps(new HashSet<>(), new HashSet<>())));
+    }
+
+    @Test
+    public void independentStepsAreReadyTogether() throws ProviderException {
+        List<Properties> steps = new ArrayList<>();
+        steps.add(step("1", "GENERATE_NEW_ACCOUNT", null));
+        steps.add(step("2", "CREATE_LDS_GROUP", "GENERATE_NEW_ACCOUNT"));
+        steps.add(step("3", "CREATE_GROUPER_IDM_GROUP", "GENERATE_NEW_ACCOUNT"));
+        steps.add(step("4", "NOTIFY_ADMINS", null));
+        StepDependencyGraph graph = new StepDependencyGraph(steps);
+
+        assertFalse(graph.isSequential());
+        Set<String> completed = new HashSet<>(Arrays.asList("1"));
+        Set<String> started = new HashSet<>(Arrays.asList("1"));
+        assertEquals(new HashSet<>(Arrays.asList("2", "3")),
+                ids(graph.getReadySteps(completed, started)));
+
+        // The barrier step waits for both parallel steps.
+        completed.add("2");
+        started.addAll(Arrays.asList("2", "3"));
+        assertTrue(graph.getReadySteps(completed, started).isEmpty());
+        completed.add("3");
+        assertEquals(new HashSet<>(Arrays.asList("4")),
+                ids(graph.getReadySteps(completed, started)));
+        assertEquals(4, graph.getPosition("4"));
+    }
+
+    @Test
+    public void rollbackWavesReverseTheDependencies() throws ProviderException {
+        List<Properties> steps = new ArrayList<>();
+        steps.add(step("1", "GENERATE_NEW_ACCOUNT", null));
+        steps.add(step("2", "CREATE_LDS_GROUP", "GENERATE_NEW_ACCOUNT"));
+        steps.add(step("3", "CREATE_GROUPER_IDM_GROUP", "GENERATE_NEW_ACCOUNT"));
+        steps.add(step("4", "NOTIFY_ADMINS", null));
+        StepDependencyGraph graph = new StepDependencyGraph(steps);
+
+        // The independent steps are rolled back together, after the step
+        // that depends on them and before the step they depend on.
+        List<List<String>> waves = graph.getRollbackWaves(
+                new HashSet<>(Arrays.asList("1", "2", "3", "4")));
+        assertEquals(Arrays.asList(Arrays.asList("4"), Arrays.asList("3", "2"),
+                Arrays.asList("1")), waves);
+
+        // Only completed steps are rolled back.
+        waves = graph.getRollbackWaves(new HashSet<>(Arrays.asList("1", "3")));
+        assertEquals(Arrays.asList(Arrays.asList("3"), Arrays.asList("1")), waves);
+    }
+
+    @Test
+    public void sequentialStepsRollBackOneAtATime() throws ProviderException {
+        List<Properties> steps = new ArrayList<>();
+        steps.add(step("1", "A", null));
+        steps.add(step("2", "B", null));
+        steps.add(step("3", "C", null));
+        StepDependencyGraph graph = new StepDependencyGraph(steps);
+
+        assertEquals(Arrays.asList(Arrays.asList("3"), Arrays.asList("2"),
+                Arrays.asList("1")), graph.getRollbackWaves(new HashSet<>(Arrays.asList("1", "2", "3"))));
+    }
+
+    @Test(expected = ProviderException.class)
+    public void dependencyOnLaterStepIsRejected() throws ProviderException {
+        List<Properties> steps = new ArrayList<>();
+        steps.add(step("1", "A", "B"));
+        steps.add(step("2", "B", null));
+        new StepDependencyGraph(steps);
+    }
+
+    @Test
+    public void stepClassesDependOnTheStepsTheyRead() throws ProviderException {
+        String pkg = "edu.emory.awsaccount.service.provider.step.";
+        List<Properties> steps = new ArrayList<>();
+        steps.add(step("1", "GENERATE_NEW_ACCOUNT", null));
+        steps.add(step("2", "CREATE_ACCOUNT_ALIAS", null));
+        steps.add(step("3", "CREATE_LDS_GROUP_FOR_ADMIN_ROLE", null));
+        steps.get(2).setProperty("className", pkg + "CreateLdsGroup");
+        steps.add(step("4", "ENABLE_EBS_ENCRYPTION_BY_DEFAULT", null));
+        steps.get(3).setProperty("className", pkg + "EnableEbsEncryptionByDefault");
+        steps.add(step("5", "CREATE_IDM_ROLE_AND_RESOURCES_FOR_ADMIN_ROLE", null));
+        steps.get(4).setProperty("className", pkg + "CreateIdmRoleAndResourcesForAdminRole");
+        steps.add(step("6", "NOTIFY_ADMINS", null));
+        StepDependencyGraph graph = new StepDependencyGraph(steps);
+
+        assertFalse(graph.isSequential());
+        assertEquals(new HashSet<>(Arrays.asList("1")), graph.getDependencies("3"));
+        assertEquals(new HashSet<>(Arrays.asList("1")), graph.getDependencies("4"));
+        assertEquals(new HashSet<>(Arrays.asList("1", "2", "3")), graph.getDependencies("5"));
+        assertEquals(new HashSet<>(Arrays.asList("1", "2", "3", "4", "5")),
+                graph.getDependencies("6"));
+        Set<String> completed = new HashSet<>(Arrays.asList("1"));
+        assertEquals(new HashSet<>(Arrays.asList("2", "3", "4")),
+                ids(graph.getReadySteps(completed, completed)));
+    }
+
+    @Test
+    public void defaultsAreIgnoredWhenAnInputIsMissing() throws ProviderException {
+        List<Properties> steps = new ArrayList<>();
+        steps.add(step("1", "A", null));
+        steps.add(step("2", "CREATE_LDS_GROUP_FOR_ADMIN_ROLE", null));
+        steps.get(1).setProperty("className",
+                "edu.emory.awsaccount.service.provider.step.CreateLdsGroup");
+        StepDependencyGraph graph = new StepDependencyGraph(steps);
+
+        assertTrue(graph.isSequential());
+        assertEquals(new HashSet<>(Arrays.asList("1")), graph.getDependencies("2"));
+    }
+
+    @Test
+    public void declaredDependsOnOverridesTheDefaults() throws ProviderException {
+        List<Properties> steps = new ArrayList<>();
+        steps.add(step("1", "GENERATE_NEW_ACCOUNT", null));
+        steps.add(step("2", "A", null));
+        steps.add(step("3", "ENABLE_EBS_ENCRYPTION_BY_DEFAULT", "A"));
+        steps.get(2).setProperty("className",
+                "edu.emory.awsaccount.service.provider.step.EnableEbsEncryptionByDefault");
+        StepDependencyGraph graph = new StepDependencyGraph(steps);
+
+        assertEquals(new HashSet<>(Arrays.asList("2")), graph.getDependencies("3"));
+    }
+}
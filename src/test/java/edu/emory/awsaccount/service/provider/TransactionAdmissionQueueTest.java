@@ -0,0 +1,158 @@
+package edu.emory.awsaccount.service.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.openeai.threadpool.Stats;
+import org.openeai.threadpool.ThreadPool;
+import org.openeai.threadpool.ThreadPoolException;
+
+public class TransactionAdmissionQueueTest {
+
+    /**
+     * A thread pool that records the transactions it accepts instead of
+     * running them.
+     */
+    private static class FakeThreadPool implements ThreadPool {
+        private final List<Runnable> m_jobs = new ArrayList<>();
+        private final AtomicInteger m_attempts = new AtomicInteger();
+        private volatile boolean m_busy = false;
+        private volatile int m_failures = 0;
+        private volatile Runnable m_blocker = null;
+        private final CountDownLatch m_blocking = new CountDownLatch(1);
+        private final CountDownLatch m_release = new CountDownLatch(1);
+
+        @Override
+        public void addJob(Runnable job) throws ThreadPoolException {
+            m_attempts.incrementAndGet();
+            if (job == m_blocker) {
+                m_blocking.countDown();
+                try {
+                    m_release.await();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (m_busy) {
+                throw new ThreadPoolException("All threads are busy.");
+            }
+            if (m_failures > 0) {
+                m_failures--;
+                throw new IllegalStateException("The thread pool failed.");
+            }
+            synchronized (m_jobs) {
+                m_jobs.add(job);
+            }
+        }
+
+        @Override
+        public Stats getStats() {
+            return null;
+        }
+
+        @Override
+        public int getJobsInProgress() {
+            return 0;
+        }
+
+        @Override
+        public boolean checkBeforeProcessing() {
+            return false;
+        }
+
+        private List<Runnable> awaitJobs(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (System.currentTimeMillis() < deadline) {
+                synchronized (m_jobs) {
+                    if (m_jobs.size() >= count) {
+                        return new ArrayList<>(m_jobs);
+                    }
+                }
+                Thread.sleep(10);
+            }
+            fail("Expected " + count + " transactions to be dispatched.");
+            return null;
+        }
+    }
+
+    private static Runnable transaction() {
+        return () -> { };
+    }
+
+    @Test
+    public void resumedTransactionsAreDispatchedFirst() throws Exception {
+        FakeThreadPool pool = new FakeThreadPool();
+        TransactionAdmissionQueue queue = new TransactionAdmissionQueue("test", pool, 10, 10);
+
+        // Hold the dispatcher on a first transaction while the others queue.
+        Runnable first = transaction();
+        pool.m_blocker = first;
+        queue.resume("first", first);
+        assertTrue(pool.m_blocking.await(5, TimeUnit.SECONDS));
+
+        Runnable newA = transaction();
+        Runnable newB = transaction();
+        Runnable resumed = transaction();
+        queue.reserve();
+        assertEquals(2, queue.admit("a", newA));
+        queue.reserve();
+        assertEquals(3, queue.admit("b", newB));
+        assertEquals(2, queue.resume("resumed", resumed));
+        assertEquals(3, queue.getPosition("a"));
+        pool.m_release.countDown();
+
+        assertEquals(Arrays.asList(first, resumed, newA, newB), pool.awaitJobs(4));
+        assertEquals(2, queue.getAdmittedCount());
+    }
+
+    @Test
+    public void fullQueueRejectsNewTransactions() throws Exception {
+        FakeThreadPool pool = new FakeThreadPool();
+        pool.m_busy = true;
+        TransactionAdmissionQueue queue = new TransactionAdmissionQueue("test", pool, 2, 10);
+        queue.reserve();
+        queue.admit("a", transaction());
+        queue.reserve();
+        queue.cancelReservation();
+        queue.reserve();
+        queue.admit("b", transaction());
+        try {
+            queue.reserve();
+            fail("Expected the queue to be full.");
+        } catch (ProviderException pe) {
+            assertTrue(pe.getMessage().startsWith("The service is busy."));
+        }
+        assertEquals(1, queue.getRejectedCount());
+
+        // Transactions that are already running are never rejected.
+        queue.resume("resumed", transaction());
+        assertEquals(3, queue.getDepth());
+    }
+
+    @Test
+    public void transactionIsRequeuedAfterAnError() throws Exception {
+        FakeThreadPool pool = new FakeThreadPool();
+        pool.m_failures = 2;
+        TransactionAdmissionQueue queue = new TransactionAdmissionQueue("test", pool, 10, 10);
+        Runnable transaction = transaction();
+        queue.reserve();
+        queue.admit("a", transaction);
+
+        assertEquals(Arrays.asList(transaction), pool.awaitJobs(1));
+        assertEquals(3, pool.m_attempts.get());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (queue.getDepth() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, queue.getDepth());
+    }
+}
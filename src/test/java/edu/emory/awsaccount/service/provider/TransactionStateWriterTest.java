@@ -0,0 +1,81 @@
+package edu.emory.awsaccount.service.provider;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.amazon.aws.moa.jmsobjects.provisioning.v1_0.AccountAlias;
+
+public class TransactionStateWriterTest {
+
+    /**
+     * A state object that can be cloned without the enterprise field
+     * definitions of the application configuration.
+     */
+    private static class TestState extends AccountAlias {
+        @Override
+        public Object clone() {
+            return new TestState();
+        }
+    }
+
+    private static void awaitUpdateCount(TransactionStateWriter<?> writer, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getUpdateCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, writer.getUpdateCount());
+    }
+
+    @Test
+    public void changesAreCoalesced() throws Exception {
+        AtomicInteger updates = new AtomicInteger();
+        Object lock = new Object();
+        TransactionStateWriter<TestState> writer = new TransactionStateWriter<>("test", new TestState(),
+                state -> updates.incrementAndGet(), 60000, lock);
+        writer.changed();
+        writer.changed();
+        writer.flush();
+        writer.flush();
+
+        assertEquals(2, writer.getChangeCount());
+        assertEquals(1, writer.getUpdateCount());
+        assertEquals(1, updates.get());
+    }
+
+    @Test
+    public void failedFlushIsRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        Object lock = new Object();
+        TransactionStateWriter<TestState> writer = new TransactionStateWriter<>("test", new TestState(),
+                state -> {
+                    if (attempts.incrementAndGet() < 3) {
+                        throw new ProviderException("unavailable");
+                    }
+                }, 10, lock);
+
+        // No further changes or final flush are needed to persist the change.
+        writer.changed();
+        awaitUpdateCount(writer, 1);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void finalFlushIsRetriedOnTheCallingThread() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        Object lock = new Object();
+        TransactionStateWriter<TestState> writer = new TransactionStateWriter<>("test", new TestState(),
+                state -> {
+                    if (attempts.incrementAndGet() < 2) {
+                        throw new ProviderException("unavailable");
+                    }
+                }, 100, lock);
+        writer.changed();
+        writer.flushFinal();
+
+        assertEquals(2, attempts.get());
+        assertEquals(1, writer.getUpdateCount());
+    }
+}
@@ -0,0 +1,122 @@
+package edu.emory.awsaccount.service.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.openeai.loggingutils.MailService;
+
+public class UserNotificationEmailOutboxTest {
+
+    /**
+     * A mail service that fails the given number of sends and then sends,
+     * optionally waiting for a gate first.
+     */
+    private static class FakeMailService extends MailService {
+        private final AtomicInteger m_failures;
+        private final AtomicInteger m_sent;
+        private final CountDownLatch m_gate;
+
+        FakeMailService(AtomicInteger failures, AtomicInteger sent, CountDownLatch gate) {
+            m_failures = failures;
+            m_sent = sent;
+            m_gate = gate;
+        }
+
+        @Override
+        public boolean sendMessage() {
+            try {
+                m_gate.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (m_failures.getAndDecrement() > 0) {
+                return false;
+            }
+            m_sent.incrementAndGet();
+            return true;
+        }
+    }
+
+    private static UserNotificationEmailOutbox.Email email(String id) {
+        return new UserNotificationEmailOutbox.Email(id, "aws@emory.edu", "user@emory.edu", "subject",
+                "body", "3");
+    }
+
+    private static void awaitSentCount(UserNotificationEmailOutbox outbox, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (outbox.getSentCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, outbox.getSentCount());
+    }
+
+    @Test
+    public void failedSendIsRetried() throws Exception {
+        AtomicInteger sent = new AtomicInteger();
+        UserNotificationEmailOutbox outbox = new UserNotificationEmailOutbox(
+                () -> new FakeMailService(new AtomicInteger(1), sent, new CountDownLatch(0)), 1, 10, 3, 10);
+        assertTrue(outbox.enqueue(email("n-1")));
+
+        awaitSentCount(outbox, 1);
+        assertEquals(1, outbox.getRetryCount());
+        assertEquals(0, outbox.shutdown(1000));
+    }
+
+    @Test
+    public void fullOutboxDropsTheEmail() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        AtomicInteger sent = new AtomicInteger();
+        UserNotificationEmailOutbox outbox = new UserNotificationEmailOutbox(
+                () -> new FakeMailService(new AtomicInteger(), sent, gate), 1, 1, 1, 10);
+
+        // The worker holds the first e-mail and the queue holds the second.
+        assertTrue(outbox.enqueue(email("n-1")));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (outbox.getQueueDepth() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(outbox.enqueue(email("n-2")));
+        assertFalse(outbox.enqueue(email("n-3")));
+        assertEquals(1, outbox.getDroppedCount());
+
+        gate.countDown();
+        awaitSentCount(outbox, 2);
+    }
+
+    @Test
+    public void shutdownDrainsTheOutbox() throws Exception {
+        AtomicInteger sent = new AtomicInteger();
+        // The first attempt of each e-mail fails and waits a minute to be
+        // retried, unless the outbox is shut down.
+        UserNotificationEmailOutbox outbox = new UserNotificationEmailOutbox(
+                () -> new FakeMailService(new AtomicInteger(2), sent, new CountDownLatch(0)), 1, 10, 3, 60000);
+        assertTrue(outbox.enqueue(email("n-1")));
+        assertTrue(outbox.enqueue(email("n-2")));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (outbox.getRetryCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(0, outbox.shutdown(5000));
+        assertEquals(2, sent.get());
+        assertFalse(outbox.enqueue(email("n-3")));
+    }
+
+    @Test
+    public void shutdownReportsUnsentEmails() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        UserNotificationEmailOutbox outbox = new UserNotificationEmailOutbox(
+                () -> new FakeMailService(new AtomicInteger(), new AtomicInteger(), gate), 1, 10, 1, 10);
+        outbox.enqueue(email("n-1"));
+        outbox.enqueue(email("n-2"));
+
+        assertEquals(2, outbox.shutdown(100));
+        assertEquals(1, outbox.getDroppedCount());
+    }
+}